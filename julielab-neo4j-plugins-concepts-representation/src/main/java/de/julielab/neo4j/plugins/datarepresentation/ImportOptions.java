@@ -40,6 +40,13 @@ public class ImportOptions {
 	 * allows to set the preferred name on already existing nodes. Only non-blank names are accepted.
 	 */
 	public boolean overridePreferredName;
+	/**
+	 * The number of worker threads that create the concept nodes of the import. For values greater than one, the
+	 * concepts are partitioned by their coordinates and the nodes of each partition are created in parallel. The
+	 * relationships are created in a final stage after all nodes have been committed. This requires to keep the
+	 * import data in memory. The default of 0 imports the concepts sequentially in batches.
+	 */
+	public int numInsertionWorkers;
 
 	public ImportOptions() {
 		doNotCreateHollowParents = false;
@@ -51,6 +58,21 @@ public class ImportOptions {
 		this.doNotCreateHollowParents = doNotCreateHollowParents;
 	}
 
+	/**
+	 * Creates a copy of <tt>other</tt>.
+	 *
+	 * @param other The options to copy.
+	 */
+	public ImportOptions(ImportOptions other) {
+		noFacetCmd = other.noFacetCmd;
+		cutParents = other.cutParents;
+		doNotCreateHollowParents = other.doNotCreateHollowParents;
+		createHollowAggregateElements = other.createHollowAggregateElements;
+		merge = other.merge;
+		overridePreferredName = other.overridePreferredName;
+		numInsertionWorkers = other.numInsertionWorkers;
+	}
+
 	@Override
 	public String toString() {
 		return "ImportOptions{" +
@@ -59,6 +81,7 @@ public class ImportOptions {
 				", doNotCreateHollowParents=" + doNotCreateHollowParents +
 				", createHollowAggregateElements=" + createHollowAggregateElements +
 				", merge=" + merge +
+				", numInsertionWorkers=" + numInsertionWorkers +
 				'}';
 	}
 }
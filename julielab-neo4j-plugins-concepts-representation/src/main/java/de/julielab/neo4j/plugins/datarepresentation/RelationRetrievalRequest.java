@@ -8,6 +8,11 @@ public class RelationRetrievalRequest {
     public static final String A_LIST = "a_list";
     public static final String B_LIST = "b_list";
     public static final String INTER_INPUT_RELATION_RETRIEVAL_ENABLED = "enable_inter_input_relation_retrieval";
+    public static final String LIMIT = "limit";
+    public static final String MIN_COUNT = "min_count";
+    public static final String SORT = "sort";
+    public static final String NUM_WORKERS = "num_workers";
+    public static final String TIME_BUDGET = "time_budget";
     @JsonProperty(A_LIST)
     private RelationIdList alist;
     @JsonProperty(B_LIST)
@@ -15,6 +20,16 @@ public class RelationRetrievalRequest {
     @JsonProperty(INTER_INPUT_RELATION_RETRIEVAL_ENABLED)
     private boolean interInputRelationRetrievalEnabled;
     private List<String> relationTypes;
+    @JsonProperty(LIMIT)
+    private int limit;
+    @JsonProperty(MIN_COUNT)
+    private int minCount;
+    @JsonProperty(SORT)
+    private SortOrder sortOrder = SortOrder.NONE;
+    @JsonProperty(NUM_WORKERS)
+    private int numWorkers;
+    @JsonProperty(TIME_BUDGET)
+    private long timeBudget;
 
     public RelationRetrievalRequest() {
     }
@@ -55,6 +70,88 @@ public class RelationRetrievalRequest {
         this.relationTypes = relationTypes;
     }
 
+    /**
+     * @return The maximum number of returned relations. Non-positive values mean no limit.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * <p>
+     * Sets the maximum number of returned relations. Together with a {@link SortOrder} other than
+     * {@link SortOrder#NONE}, the relations with the highest or lowest counts are returned.
+     * </p>
+     * <p>Defaults to 0, i.e. no limit.</p>
+     *
+     * @param limit The maximum number of returned relations.
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * @return The minimum count of returned relations.
+     */
+    public int getMinCount() {
+        return minCount;
+    }
+
+    public void setMinCount(int minCount) {
+        this.minCount = minCount;
+    }
+
+    /**
+     * @return The order of the returned relations by their count.
+     */
+    public SortOrder getSortOrder() {
+        return sortOrder;
+    }
+
+    public void setSortOrder(SortOrder sortOrder) {
+        this.sortOrder = sortOrder;
+    }
+
+    /**
+     * @return The number of parallel workers for two-sided requests.
+     */
+    public int getNumWorkers() {
+        return numWorkers;
+    }
+
+    /**
+     * <p>
+     * Sets the number of parallel workers that search the relations of the smaller list of a two-sided request.
+     * The number is capped by the size of the worker pool of the server.
+     * </p>
+     * <p>Defaults to 0, i.e. the request is served by a single thread.</p>
+     *
+     * @param numWorkers The number of parallel workers.
+     */
+    public void setNumWorkers(int numWorkers) {
+        this.numWorkers = numWorkers;
+    }
+
+    /**
+     * @return The time budget in milliseconds.
+     */
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    /**
+     * <p>
+     * Sets the time in milliseconds after which the search for relations stops. The relations found so far are then
+     * returned as a partial result.
+     * </p>
+     * <p>Defaults to 0, i.e. no time budget.</p>
+     *
+     * @param timeBudget The time budget in milliseconds.
+     */
+    public void setTimeBudget(long timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
     public RelationIdList getAlist() {
         return alist;
     }
@@ -76,6 +173,26 @@ public class RelationRetrievalRequest {
         return "RelationRetrievalRequest{" +
                 "alist=" + alist +
                 ", blist=" + blist +
+                ", limit=" + limit +
+                ", minCount=" + minCount +
+                ", sortOrder=" + sortOrder +
+                ", numWorkers=" + numWorkers +
+                ", timeBudget=" + timeBudget +
                 '}';
     }
+
+    public enum SortOrder {
+        /**
+         * The relations are returned in no particular order.
+         */
+        NONE,
+        /**
+         * The relations with the highest counts first.
+         */
+        COUNT_DESC,
+        /**
+         * The relations with the lowest counts first.
+         */
+        COUNT_ASC
+    }
 }
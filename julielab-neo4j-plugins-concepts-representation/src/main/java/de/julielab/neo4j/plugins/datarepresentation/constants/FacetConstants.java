@@ -79,5 +79,11 @@ public class FacetConstants extends NodeConstants {
 	 * roots).
 	 */
 	public static final String PROP_NUM_ROOT_TERMS = "numRoots";
+
+	/**
+	 * The number of concepts in the hierarchy of a facet. It is maintained during concept imports and returned as
+	 * the facet size.
+	 */
+	public static final String PROP_NUM_CONCEPTS = "numConcepts";
 	
 }
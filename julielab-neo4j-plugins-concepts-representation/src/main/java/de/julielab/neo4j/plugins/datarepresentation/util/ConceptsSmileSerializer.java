@@ -0,0 +1,47 @@
+package de.julielab.neo4j.plugins.datarepresentation.util;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+
+import java.io.IOException;
+
+/**
+ * Serializes the concept data representation into the binary Smile format. Smile encodes the same data model as JSON
+ * but stores numbers in binary and refers back to repeated property names and short strings. This makes large concept
+ * imports considerably more compact and faster to parse than their JSON equivalent.
+ */
+public class ConceptsSmileSerializer {
+    /**
+     * The media type to send Smile encoded data with.
+     */
+    public static final String MEDIA_TYPE_SMILE = "application/x-jackson-smile";
+    /**
+     * Shared string values are enabled because concept data repeats sources, labels and parent IDs a lot.
+     */
+    private static ObjectMapper mapper = new ObjectMapper(new SmileFactory()
+            .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)).registerModule(new Jdk8Module());
+
+    static {
+        mapper.setSerializationInclusion(Include.NON_NULL);
+        mapper.setSerializationInclusion(Include.NON_EMPTY);
+    }
+
+    private ConceptsSmileSerializer() {
+    }
+
+    public static synchronized byte[] toSmile(Object serializable) {
+        try {
+            return mapper.writeValueAsBytes(serializable);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedJsonProcessingException(e);
+        }
+    }
+
+    public static synchronized <T> T fromSmile(byte[] smile, Class<T> cls) throws IOException {
+        return mapper.readValue(smile, cls);
+    }
+}
@@ -5,34 +5,34 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import de.julielab.neo4j.plugins.auxiliaries.LogUtilities;
 import de.julielab.neo4j.plugins.auxiliaries.PropertyUtilities;
 import de.julielab.neo4j.plugins.auxiliaries.semedico.NodeUtilities;
-import de.julielab.neo4j.plugins.auxiliaries.semedico.PredefinedTraversals;
-import de.julielab.neo4j.plugins.concepts.ConceptAggregateManager;
 import de.julielab.neo4j.plugins.concepts.ConceptEdgeTypes;
 import de.julielab.neo4j.plugins.concepts.ConceptLabel;
 import de.julielab.neo4j.plugins.concepts.ConceptManager;
+import de.julielab.neo4j.plugins.concepts.FacetRelationshipTypes;
 import de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants;
 import de.julielab.neo4j.plugins.datarepresentation.constants.FacetConstants;
-import de.julielab.neo4j.plugins.datarepresentation.constants.MorphoConstants;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.neo4j.dbms.api.DatabaseManagementService;
 import org.neo4j.graphdb.*;
-import org.neo4j.graphdb.traversal.TraversalDescription;
-import org.neo4j.graphdb.traversal.Traverser;
 import org.neo4j.logging.Log;
 import org.neo4j.server.rest.repr.RecursiveMappingRepresentation;
 import org.neo4j.server.rest.repr.Representation;
 
 import javax.annotation.Nullable;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -58,7 +58,14 @@ public class Export {
     public static final String PARAM_EXCLUSION_LABEL = "exclusion_label";
     @Deprecated
     public static final String PARAM_FURTHER_PROPERTIES = "further_properties";
-    public static final int OUTPUTSTREAM_INIT_SIZE = 200000000;
+    public static final String PARAM_BASE64 = "base64";
+    /**
+     * The buffer size of the GZIP streams written to the HTTP response.
+     */
+    public static final int STREAM_BUFFER_SIZE = 65536;
+    /**
+     * The maximum number of hypernym closures kept in memory by the hypernyms export.
+     */
     public static final int HYPERNYMS_CACHE_SIZE = 100000;
     private static final Logger log = Logger.getLogger(Export.class.getName());
     private final DatabaseManagementService dbms;
@@ -182,8 +189,6 @@ public class Export {
         if (!StringUtils.isBlank(conceptLabelString))
             conceptLabel = Label.label(conceptLabelString);
 
-        Map<Node, Set<String>> cache = new HashMap<>(Export.HYPERNYMS_CACHE_SIZE);
-
         GraphDatabaseService graphDb = dbms.database(DEFAULT_DATABASE_NAME);
 
         try (Transaction tx = graphDb.beginTx()) {
@@ -194,26 +199,30 @@ public class Export {
             // include the general IS_BROADER_THAN relationship type that
             // doesn't make a difference between facets.
             List<RelationshipType> relationshipTypeList = new ArrayList<>();
+            // The facet IDs for the ancestor index; null for all facets.
+            List<String> facetIds = null;
             // Only create the specific facet IDs set when we have not just
             // all facets
             if (facetNames != null && facetNames.length > 1 || !facetNames[0].equals("all")) {
+                facetIds = new ArrayList<>();
                 for (String facetName : facetNames) {
                     ResourceIterable<Node> facets = () -> tx.findNodes(FacetManager.FacetLabel.FACET, FacetConstants.PROP_NAME, facetName);
                     for (Node facet : facets) {
                         String facetId = (String) facet.getProperty(FacetConstants.PROP_ID);
-                        RelationshipType reltype = RelationshipType
-                                .withName(ConceptEdgeTypes.IS_BROADER_THAN + "_" + facetId);
+                        facetIds.add(facetId);
+                        RelationshipType reltype = FacetRelationshipTypes.broaderThanInFacet(facetId);
                         relationshipTypeList.add(reltype);
                     }
                 }
             } else {
                 relationshipTypeList.add(ConceptEdgeTypes.IS_BROADER_THAN);
             }
+            HypernymClosure hypernymClosure = new HypernymClosure(relationshipTypeList.toArray(new RelationshipType[0]), HYPERNYMS_CACHE_SIZE, tx, facetIds != null ? facetIds.toArray(new String[0]) : null);
 
             for (String facetName : facetNames) {
                 log.info("Now creating hypernyms for facet with name " + facetName);
                 ResourceIterable<Node> facets = () -> tx.findNodes(FacetManager.FacetLabel.FACET, FacetConstants.PROP_NAME, facetName);
-                Set<Node> visitedNodes = new HashSet<>();
+                VisitedNodes visitedNodes = new VisitedNodes();
                 for (Node facet : facets) {
                     Iterable<Relationship> rels = facet.getRelationships(Direction.OUTGOING,
                             ConceptEdgeTypes.HAS_ROOT_CONCEPT);
@@ -221,98 +230,83 @@ public class Export {
                         Node rootTerm = rel.getEndNode();
                         if (null != conceptLabel && !rootTerm.hasLabel(conceptLabel))
                             continue;
-                        writeHypernyms(rootTerm, visitedNodes, cache, output,
-                                relationshipTypeList.toArray(new RelationshipType[0]));
+                        writeHypernyms(tx, rootTerm, visitedNodes, hypernymClosure, output);
                     }
                 }
             }
         }
     }
 
-    public Set<String> load(Node n, Map<Node, Set<String>> cache, RelationshipType[] relationshipTypes) {
-        Set<String> hypernyms = cache.get(n);
-        if (null == hypernyms) {
-            hypernyms = new HashSet<>();
-            cache.put(n, hypernyms);
-        } else {
-            return hypernyms;
-        }
-
-        Set<Node> visitedNodes = new HashSet<>();
-        visitedNodes.add(n);
-        for (Relationship rel : n.getRelationships(Direction.INCOMING, relationshipTypes)) {
-            Node directHypernym = rel.getStartNode();
-            boolean isHollow = false;
-            for (Label l : directHypernym.getLabels())
-                if (l.equals(ConceptLabel.HOLLOW)) {
-                    isHollow = true;
-                    break;
-                }
-            if (isHollow)
+    /**
+     * Writes the hypernyms of <tt>root</tt> and all its non-hollow descendants in depth-first pre-order. The traversal
+     * uses an explicit stack because deep taxonomies would overflow the call stack.
+     */
+    private void writeHypernyms(Transaction tx, Node root, VisitedNodes visitedNodes, HypernymClosure hypernymClosure, OutputStream os) throws IOException {
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node n = stack.pop();
+            if (!visitedNodes.add(n.getId()))
                 continue;
-            if (visitedNodes.contains(directHypernym))
+            if (n.hasLabel(ConceptLabel.HOLLOW))
                 continue;
-            String directHypernymId = ((String) directHypernym.getProperty(ConceptConstants.PROP_ID)).intern();
-            hypernyms.add(directHypernymId);
-            hypernyms.addAll(load(directHypernym, cache, relationshipTypes));
-        }
-        visitedNodes.remove(n);
-        return hypernyms;
-    }
-
-    private void writeHypernyms(Node n, Set<Node> visitedNodes, Map<Node, Set<String>> cache, OutputStream os,
-                                RelationshipType[] relationshipTypes) throws IOException {
-        if (visitedNodes.contains(n))
-            return;
-        load(n, cache, relationshipTypes);
-        visitedNodes.add(n);
-        boolean isHollow = false;
-        for (Label l : n.getLabels())
-            if (l.equals(ConceptLabel.HOLLOW)) {
-                isHollow = true;
-                break;
+            long[] hypernyms = hypernymClosure.getHypernyms(n);
+            if (hypernyms.length > 0) {
+                StringBuilder sb = new StringBuilder();
+                sb.append(n.getProperty(ConceptConstants.PROP_ID)).append("\t");
+                for (int i = 0; i < hypernyms.length; i++) {
+                    if (i > 0)
+                        sb.append("|");
+                    sb.append(tx.getNodeById(hypernyms[i]).getProperty(ConceptConstants.PROP_ID));
+                }
+                sb.append("\n");
+                IOUtils.write(sb.toString(), os, "UTF-8");
             }
-        if (isHollow)
-            return;
-        Set<String> hypernyms = cache.get(n);
-        if (hypernyms.size() > 0)
-            IOUtils.write(n.getProperty(ConceptConstants.PROP_ID) + "\t" + StringUtils.join(hypernyms, "|") + "\n", os,
-                    "UTF-8");
-        for (Relationship rel : n.getRelationships(Direction.OUTGOING, ConceptEdgeTypes.IS_BROADER_THAN)) {
-            writeHypernyms(rel.getEndNode(), visitedNodes, cache, os, relationshipTypes);
+            // Push the children in reverse so that they are visited in relationship order.
+            List<Node> children = new ArrayList<>();
+            for (Relationship rel : n.getRelationships(Direction.OUTGOING, ConceptEdgeTypes.IS_BROADER_THAN))
+                children.add(rel.getEndNode());
+            for (int i = children.size() - 1; i >= 0; --i)
+                stack.push(children.get(i));
+            if (visitedNodes.size() % 100000 == 0)
+                log.info("Finished " + visitedNodes.size() + ".");
         }
-        if (visitedNodes.size() % 100000 == 0)
-            log.info("Finished " + visitedNodes.size() + ".");
     }
 
     /**
      * <p>Produces a dictionary/mapping from concept node names - preferred name, synonyms and, if added to the database, connected acronym node names - to their concept ID ([at]id[0-9]+).</p>
      * <p>The mapping is a text string that consists of one entry per line, name and conceptId are separated by a tab character. While this format can be used for a number of purposes,
      * it specifically fits the format used by the JCoRe Lingpipe Gazetteer component.</p>
+     * <p>The nodes are processed in parallel chunks by a {@link LingpipeDictionaryWriter}; the output order is the same as for a sequential export.</p>
+     * <p>The dictionary is streamed GZIP-compressed into the response. Thus, the server does not need to hold the dictionary in memory. By default, the GZIP bytes are sent Base64-encoded as plain text, as they always were. With <tt>base64=false</tt>, the raw GZIP bytes are sent with the <tt>Content-Encoding: gzip</tt> header.</p>
      * @param labelsString One or multiple labels that identify the sets of nodes to process for dictionary creation. Lists of labels must be in JSON format. The labels are processed in the specified order. This is important if <tt>uniqueKeys</tt> is enabled.
      * @param exclusionLabelString One or multiple labels that serve as a node filter. Nodes having one of those labels will be skipped from dictionary creation.
      * @param idProperties The node properties that should be the keys of the dictionary. Separate multiple properties with commas. There are restrictions regarding the types of the properties. They must either all be non-array values or all are arrays of the same length. For multiple properties, a single mapping-target string is created with "||" as a value separator. In case of array values, the string first lists all first elements, then the second elements, then the third elements etc.
      * @param uniqueKeys Determines if keys may occur multiple times or should be unique. In case of uniqueness, the <tt>labelsString</tt> becomes important: the first occurrence of a key will be included in the output, subsequent occurrences will be discarded.
+     * @param base64 Whether to Base64-encode the GZIP-compressed dictionary, defaults to <tt>true</tt>.
      * @param log
-     * @return The dictionary text string GZIP-compressed and Base64-ASCII-encoded.
+     * @return The streaming response of the GZIP-compressed dictionary text.
      * @throws IOException
      */
     @GET
     @Produces(MediaType.TEXT_PLAIN)
     @javax.ws.rs.Path(LINGPIPE_DICT)
-    public String exportLingpipeDictionary(
+    public Response exportLingpipeDictionary(
             @QueryParam(PARAM_LABELS) String labelsString,
             @QueryParam(PARAM_EXCLUSION_LABEL) String exclusionLabelString,
             @QueryParam(PARAM_SOURCE_ID_PROPERTY) String idProperties,
             @QueryParam(PARAM_ADD_SOURCE_PREFIX) boolean addSourcePrefix,
             @QueryParam(PARAM_UNIQUE_KEYS) boolean uniqueKeys,
+            @QueryParam(PARAM_BASE64) @DefaultValue("true") boolean base64,
             @Context Log log)
             throws IOException {
         final ObjectMapper om = new ObjectMapper();
         Label[] labels;
         // We accept single labels or lists of labels
-        if (!labelsString.contains("["))
-            labels = StringUtils.isBlank(labelsString) ? new Label[]{ConceptLabel.CONCEPT} : new Label[]{Label.label(labelsString)};
+        if (StringUtils.isBlank(labelsString))
+            labels = new Label[]{ConceptLabel.CONCEPT};
+        else if (!labelsString.contains("["))
+            labels = new Label[]{Label.label(labelsString)};
         else
             labels = Arrays.stream(om.readValue(labelsString, String[].class)).map(Label::label).toArray(Label[]::new);
         List<String> propertiesToWrite = new ArrayList<>();
@@ -323,16 +317,6 @@ public class Export {
         } else
             propertiesToWrite = Arrays.stream(om.readValue(idProperties, String[].class)).collect(Collectors.toList());
 
-        Map<String, String> sourcePropertyNamesByIdPropertyName = Map.of(PROP_ID, "",
-                PROP_ORG_ID, PROP_ORG_SRC,
-                PROP_SRC_IDS + 0,   PROP_SOURCES + 0,
-                PROP_SRC_IDS + 1,   PROP_SOURCES + 1,
-                PROP_SRC_IDS + 2,   PROP_SOURCES + 2,
-                PROP_SRC_IDS + 3,   PROP_SOURCES + 3,
-                PROP_SRC_IDS + 4,   PROP_SOURCES + 4,
-                PROP_SRC_IDS + 5,   PROP_SOURCES + 5,
-                PROP_SRC_IDS + 6,   PROP_SOURCES + 6,
-                PROP_SRC_IDS + 7, PROP_SOURCES + 7);
         log.info("Exporting lingpipe dictionary data for nodes with labels \"" + Arrays.stream(labels).map(Label::name).collect(Collectors.joining(", "))
                 + "\", mapping their names to their properties " + propertiesToWrite + ".");
         Label[] exclusionLabels = null;
@@ -349,180 +333,128 @@ public class Export {
                 exclusionLabels = new Label[]{exclusionLabel};
             }
         }
-
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(OUTPUTSTREAM_INIT_SIZE);
-        GraphDatabaseService graphDb = dbms.database(DEFAULT_DATABASE_NAME);
-        Set<String> writtenKeys = uniqueKeys ? new HashSet<>() : null;
-        try (GZIPOutputStream os = new GZIPOutputStream(baos)) {
-            for (Label label : labels) {
-                try (Transaction tx = graphDb.beginTx()) {
-                    ResourceIterator<Node> conceptNodes = tx.findNodes(label);
-                    int count = 0;
-                    while (conceptNodes.hasNext()) {
-                        Node node = conceptNodes.next();
-                        count++;
-                        boolean termHasExclusionLabel = false;
-                        for (int i = 0; null != exclusionLabels && i < exclusionLabels.length; i++) {
-                            Label exclusionLabel = exclusionLabels[i];
-                            if (node.hasLabel(exclusionLabel)) {
-                                termHasExclusionLabel = true;
-                                break;
-                            }
-                        }
-                        if (!termHasExclusionLabel && node.hasProperty(PROP_ID) && node.hasProperty(PROP_PREF_NAME)) {
-
-                            int arraySize;
-                            String idProperty = propertiesToWrite.get(0);
-                            // for array-valued properties we require that all
-                            // arrays are of the same length. Thus, to determine the
-                            // required number of iterations we just use the first
-                            // array since the others should have the same length.
-                            String[] ids = NodeUtilities.getNodePropertyAsStringArrayValue(node, idProperty);
-
-                            if (null == ids && node.hasLabel(ConceptLabel.AGGREGATE))
-                                // perhaps we have an aggregate term, then we can
-                                // try and retrieve the value from its elements
-                                ids = ConceptAggregateManager.getPropertyValueOfElements(node, idProperty);
-                            if (null == ids) {
-                                conceptNodes.close();
-                                throw new IllegalArgumentException("A concept occurred that does not have a value for the property \"" + idProperty + "\": " + NodeUtilities.getNodePropertiesAsString(node));
-                            }
-                            arraySize = ids.length;
-
-                            List<String> categoryStrings = new ArrayList<>();
-                            for (int i = 0; i < arraySize; ++i) {
-                                StringBuilder sb = new StringBuilder();
-                                for (int j = 0; j < propertiesToWrite.size(); ++j) {
-                                    String property = propertiesToWrite.get(j);
-                                    ids = NodeUtilities.getNodePropertyAsStringArrayValue(node, property);
-                                    String[] sources = null;
-                                    if (addSourcePrefix) {
-                                        final String sourceProperty = sourcePropertyNamesByIdPropertyName.get(property);
-                                        if (sourceProperty == null)
-                                            throw new IllegalArgumentException("Dictionary creation with source prefix should be performed but the source property is unknown for ID property '" + property + "'.");
-                                        // for PROP_ID we assigned an empty string
-                                        if (!sourceProperty.isEmpty()) {
-                                            sources = NodeUtilities.getNodePropertyAsStringArrayValue(node, sourceProperty);
-                                        } else {
-                                            sources = new String[ids.length];
-                                            for (int k = 0; k < sources.length; k++) {
-                                                sources[k] = "id";
-                                            }
-                                        }
-
-                                    }
-                                    if (null == ids && node.hasLabel(ConceptLabel.AGGREGATE)) {
-                                        // perhaps we have an aggregate term, then
-                                        // we can try and retrieve the value from
-                                        // its elements
-                                        ids = ConceptAggregateManager.getPropertyValueOfElements(node, idProperty);
-                                        if (addSourcePrefix) {
-                                            final String sourceProperty = sourcePropertyNamesByIdPropertyName.get(property);
-                                            if (sourceProperty == null)
-                                                throw new IllegalArgumentException("Dictionary creation with source prefix should be performed but the source property is unknown for ID property '" + property + "'.");
-                                            // for PROP_ID we assigned an empty string
-                                            if (!sourceProperty.isEmpty()) {
-                                                sources = ConceptAggregateManager.getPropertyValueOfElements(node, sourceProperty);
-                                            } else {
-                                                sources = new String[ids.length];
-                                                for (int k = 0; k < sources.length; k++) {
-                                                    sources[k] = "id";
-                                                }
-                                            }
-                                        }
-                                    }
-
-                                    if (null == ids || ids.length == 0) {
-                                        conceptNodes.close();
-                                        throw new IllegalArgumentException("The property \"" + property
-                                                + "\" does not contain a value for node " + node + " (properties: "
-                                                + PropertyUtilities.getNodePropertiesAsString(node) + ")");
-                                    }
-                                    if (ids.length != arraySize) {
-                                        conceptNodes.close();
-                                        throw new IllegalArgumentException("The properties \"" + propertiesToWrite
-                                                + "\" on term " + PropertyUtilities.getNodePropertiesAsString(node)
-                                                + " do not have all the same number of value elements which is required for dictionary creation by this method.");
-                                    }
-                                    if (addSourcePrefix)
-                                        sb.append(sources[i]).append(":").append(ids[i]);
-                                        else
-                                    sb.append(ids[i]);
-                                    if (j < propertiesToWrite.size() - 1)
-                                        sb.append("||");
-                                }
-                                categoryStrings.add(sb.toString());
-                            }
-
-                            for (String categoryString : categoryStrings) {
-                                String preferredName = (String) node.getProperty(PROP_PREF_NAME);
-                                String[] synonyms = new String[0];
-                                if (node.hasProperty(PROP_SYNONYMS))
-                                    synonyms = (String[]) node.getProperty(PROP_SYNONYMS);
-                                // String[] writingVariants = new String[0];
-                                // if (term.hasProperty(PROP_WRITING_VARIANTS))
-                                // writingVariants = (String[]) term
-                                // .getProperty(PROP_WRITING_VARIANTS);
-
-                                writeNormalizedDictionaryEntry(preferredName, categoryString, writtenKeys, os);
-                                for (String synonString : synonyms)
-                                    writeNormalizedDictionaryEntry(synonString, categoryString, writtenKeys, os);
-                                TraversalDescription acronymsTraversal = PredefinedTraversals.getAcronymsTraversal(tx);
-                                Traverser traverse = acronymsTraversal.traverse(node);
-                                for (Node acronymNode : traverse.nodes()) {
-                                    String acronym = (String) acronymNode.getProperty(MorphoConstants.PROP_NAME);
-                                    writeNormalizedDictionaryEntry(acronym, categoryString, writtenKeys, os);
-                                }
-                                // for (String variant : writingVariants)
-                                // writeNormalizedDictionaryEntry(variant,
-                                // categoryString, os);
-                            }
-                        }
-                        if (count % 100000 == 0)
-                            log.info(count + " terms processed.");
-                    }
+        final List<String> properties = propertiesToWrite;
+        final Label[] excluded = exclusionLabels;
+        StreamingOutput dictionary = output -> {
+            try {
+                GraphDatabaseService graphDb = dbms.database(DEFAULT_DATABASE_NAME);
+                LingpipeDictionaryWriter dictionaryWriter = new LingpipeDictionaryWriter(graphDb, labels, excluded, properties, addSourcePrefix, uniqueKeys, log);
+                try (GZIPOutputStream os = new GZIPOutputStream(base64 ? Base64.getEncoder().wrap(output) : output, STREAM_BUFFER_SIZE)) {
+                    dictionaryWriter.write(os);
                 }
+                log.info("Done exporting Lingpipe term dictionary.");
+            } catch (RuntimeException e) {
+                // Without a rethrow, the client would receive a truncated but seemingly complete response.
+                log.error("Exception occurred during lingpipe dictionary output streaming.", e);
+                throw e;
             }
-        }
-        log.info("Done exporting Lingpipe term dictionary.");
-        byte[] bytes = baos.toByteArray();
-        return Base64.getEncoder().encodeToString(bytes);
+        };
+        return getGzipResponse(dictionary, base64);
     }
 
-    private void writeNormalizedDictionaryEntry(String name, String termId, Set<String> writtenKeys, OutputStream os) throws IOException {
-        String normalizedName = StringUtils.normalizeSpace(name);
-        if (normalizedName.length() > 2 && (writtenKeys == null || writtenKeys.add(normalizedName))) {
-            IOUtils.write(normalizedName + "\t" + termId + "\n", os, "UTF-8");
-        }
+    /**
+     * Convenience access to {@link #exportLingpipeDictionary(String, String, String, boolean, boolean, boolean, Log)}
+     * for in-process callers. Note that the whole dictionary is held in memory by this method.
+     *
+     * @return The dictionary text string GZIP-compressed and Base64-ASCII-encoded.
+     * @throws IOException
+     */
+    public String exportLingpipeDictionary(String labelsString, String exclusionLabelString, String idProperties, boolean addSourcePrefix, boolean uniqueKeys, Log log) throws IOException {
+        Response response = exportLingpipeDictionary(labelsString, exclusionLabelString, idProperties, addSourcePrefix, uniqueKeys, true, log);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(baos);
+        return baos.toString(StandardCharsets.US_ASCII);
     }
 
+    /**
+     * Exports a mapping from concept IDs to the IDs of the facets the concepts belong to. One concept per line, the
+     * concept ID and the '|'-separated facet IDs are separated by a tab character.
+     * <p>The mapping is streamed GZIP-compressed into the response with the <tt>Content-Encoding: gzip</tt> header. For legacy clients, <tt>base64</tt> returns the GZIP bytes as the JSON byte array representation that is built in memory.</p>
+     *
+     * @param labelString The label of the nodes to export, defaults to CONCEPT.
+     * @param base64      Whether to return the legacy JSON representation of the GZIP bytes, defaults to <tt>false</tt>.
+     * @return The streaming response of the GZIP-compressed mapping or the legacy representation.
+     * @throws IOException
+     */
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.TEXT_PLAIN, MediaType.APPLICATION_JSON})
     @javax.ws.rs.Path(CONCEPT_TO_FACET)
-    public Representation exportTermFacetMapping(
-            @QueryParam(PARAM_LABEL) String labelString)
+    public Object exportTermFacetMapping(
+            @QueryParam(PARAM_LABEL) String labelString,
+            @QueryParam(PARAM_BASE64) boolean base64)
             throws IOException {
-        log.info("Exporting lingpipe dictionary data.");
+        log.info("Exporting the mapping from term ID to corresponding facet IDs.");
         Label label = !StringUtils.isBlank(labelString) ? Label.label(labelString) : ConceptLabel.CONCEPT;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(OUTPUTSTREAM_INIT_SIZE);
+        if (base64) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (GZIPOutputStream os = new GZIPOutputStream(baos)) {
+                writeTermFacetMapping(label, os);
+            }
+            return RecursiveMappingRepresentation.getObjectRepresentation(baos.toByteArray());
+        }
+        StreamingOutput mapping = output -> {
+            try (GZIPOutputStream os = new GZIPOutputStream(output, STREAM_BUFFER_SIZE)) {
+                writeTermFacetMapping(label, os);
+            }
+        };
+        return getGzipResponse(mapping, false);
+    }
+
+    private void writeTermFacetMapping(Label label, OutputStream os) throws IOException {
         GraphDatabaseService graphDb = dbms.database(DEFAULT_DATABASE_NAME);
-        try (GZIPOutputStream os = new GZIPOutputStream(baos)) {
-            try (Transaction tx = graphDb.beginTx()) {
-                ResourceIterable<Node> terms = () -> tx.findNodes(label);
-                int count = 0;
-                for (Node term : terms) {
-                    count++;
-                    if (term.hasProperty(PROP_ID) && term.hasProperty(PROP_FACETS)) {
-                        String termId = (String) term.getProperty(PROP_ID);
-                        String[] facetIds = (String[]) term.getProperty(PROP_FACETS);
-                        IOUtils.write(termId + "\t" + StringUtils.join(facetIds, "|") + "\n", os, "UTF-8");
-                    }
-                    if (count % 100000 == 0)
-                        log.info(count + " terms processed.");
+        try (Transaction tx = graphDb.beginTx()) {
+            ResourceIterable<Node> terms = () -> tx.findNodes(label);
+            int count = 0;
+            for (Node term : terms) {
+                count++;
+                if (term.hasProperty(PROP_ID) && term.hasProperty(PROP_FACETS)) {
+                    String termId = (String) term.getProperty(PROP_ID);
+                    String[] facetIds = (String[]) term.getProperty(PROP_FACETS);
+                    IOUtils.write(termId + "\t" + StringUtils.join(facetIds, "|") + "\n", os, "UTF-8");
                 }
-                log.info("Done exporting mapping from term ID to corresponding facet IDs.");
+                if (count % 100000 == 0)
+                    log.info(count + " terms processed.");
             }
+            log.info("Done exporting mapping from term ID to corresponding facet IDs.");
+        }
+    }
+
+    /**
+     * @param gzippedOutput The streaming output writing GZIP-compressed data.
+     * @param base64        Whether the GZIP data is Base64-encoded by <tt>gzippedOutput</tt>.
+     * @return A response that declares the GZIP content encoding unless the data is Base64-encoded.
+     */
+    private Response getGzipResponse(StreamingOutput gzippedOutput, boolean base64) {
+        Response.ResponseBuilder response = Response.ok(gzippedOutput, MediaType.TEXT_PLAIN);
+        if (!base64)
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        return response.build();
+    }
+
+    /**
+     * A set of node IDs. Neo4j assigns node IDs densely, so a bit set takes far less memory than a set of nodes.
+     */
+    private static class VisitedNodes {
+        private final BitSet ids = new BitSet();
+        private final Set<Long> largeIds = new HashSet<>();
+        private int size;
+
+        boolean add(long id) {
+            boolean added;
+            if (id <= Integer.MAX_VALUE) {
+                added = !ids.get((int) id);
+                if (added)
+                    ids.set((int) id);
+            } else {
+                added = largeIds.add(id);
+            }
+            if (added)
+                ++size;
+            return added;
+        }
+
+        int size() {
+            return size;
         }
-        return RecursiveMappingRepresentation.getObjectRepresentation(baos.toByteArray());
     }
 }
@@ -8,6 +8,7 @@ import de.julielab.neo4j.plugins.auxiliaries.semedico.PredefinedTraversals;
 import de.julielab.neo4j.plugins.auxiliaries.semedico.SequenceManager;
 import de.julielab.neo4j.plugins.concepts.ConceptEdgeTypes;
 import de.julielab.neo4j.plugins.concepts.ConceptLabel;
+import de.julielab.neo4j.plugins.concepts.FacetRelationshipTypes;
 import de.julielab.neo4j.plugins.constants.semedico.SequenceConstants;
 import de.julielab.neo4j.plugins.datarepresentation.ImportFacet;
 import de.julielab.neo4j.plugins.datarepresentation.ImportFacetGroup;
@@ -81,6 +82,7 @@ public class FacetManager {
         PropertyUtilities.setNonNullNodeProperty(facet, PROP_CUSTOM_ID, jsonFacet.getCustomId());
         PropertyUtilities.setNonNullNodeProperty(facet, PROP_LABELS, () -> jsonFacet.getLabels().toArray(new String[0]));
         PropertyUtilities.setNonNullNodeProperty(facet, PROP_SOURCE_TYPE, jsonFacet.getSourceType());
+        facet.setProperty(PROP_NUM_CONCEPTS, 0L);
 
 
         // If everything is alright, get an ID for the facet.
@@ -98,24 +100,30 @@ public class FacetManager {
         return facet;
     }
 
-    private static int countFacetChildren(GraphDatabaseService graphDb, String fid) {
+    /**
+     * Counts the concepts in the hierarchy of the given facet by a traversal from the facet node. This is only
+     * required for facets without a stored size and for repair, see {@link #getFacetSize(String)}.
+     *
+     * @param tx  The current transaction.
+     * @param fid The facet ID.
+     * @return The number of concepts reachable from the facet node.
+     */
+    public static long countFacetConcepts(Transaction tx, String fid) {
         // -1, because starting node gets counted, too
-        int childCount = -1;
-        try (Transaction tx = graphDb.beginTx()) {
-            // there is a relationship of the type "IS_BROADER_THAN_fidxxx" for
-            // every facet
-            // they need to be created dynamically because it makes no sense to
-            // store all of them beforehand
-            RelationshipType dynRel = RelationshipType.withName("IS_BROADER_THAN_" + fid);
-            Node node = getFacetNode(tx, fid);
-
-            Traverser traverser = tx.traversalDescription().breadthFirst().uniqueness(Uniqueness.NODE_GLOBAL)
-                    .relationships(ConceptEdgeTypes.HAS_ROOT_CONCEPT, Direction.OUTGOING)
-                    .relationships(dynRel, Direction.OUTGOING).traverse(node);
-            for (@SuppressWarnings("unused")
-                    Node n : traverser.nodes()) {
-                childCount++;
-            }
+        long childCount = -1;
+        // there is a relationship of the type "IS_BROADER_THAN_fidxxx" for
+        // every facet
+        // they need to be created dynamically because it makes no sense to
+        // store all of them beforehand
+        RelationshipType dynRel = FacetRelationshipTypes.broaderThanInFacet(fid);
+        Node node = getFacetNode(tx, fid);
+
+        Traverser traverser = tx.traversalDescription().breadthFirst().uniqueness(Uniqueness.NODE_GLOBAL)
+                .relationships(ConceptEdgeTypes.HAS_ROOT_CONCEPT, Direction.OUTGOING)
+                .relationships(dynRel, Direction.OUTGOING).traverse(node);
+        for (@SuppressWarnings("unused")
+                Node n : traverser.nodes()) {
+            childCount++;
         }
         return childCount;
     }
@@ -256,11 +264,25 @@ public class FacetManager {
         return noFacetNode;
     }
 
+    /**
+     * Returns the number of concepts in the hierarchy of the facet with ID <tt>fid</tt>. The number is maintained
+     * during concept imports and stored on the facet node. For facets that have been created before, it is counted
+     * on each request until {@link de.julielab.neo4j.plugins.concepts.ConceptManager#updateChildrenInformation()} has
+     * stored it.
+     *
+     * @param fid The facet ID.
+     * @return The number of concepts in the facet.
+     */
     @GET
     @Produces(MediaType.TEXT_PLAIN)
     @Path("/{" + GET_FACET_SIZE + "}")
     public int getFacetSize(@PathParam(KEY_ID) String fid) {
-        return countFacetChildren(dbms.database(DEFAULT_DATABASE_NAME), fid);
+        GraphDatabaseService graphDb = dbms.database(DEFAULT_DATABASE_NAME);
+        try (Transaction tx = graphDb.beginTx()) {
+            Node facet = getFacetNode(tx, fid);
+            long size = facet.hasProperty(PROP_NUM_CONCEPTS) ? (long) facet.getProperty(PROP_NUM_CONCEPTS) : countFacetConcepts(tx, fid);
+            return Math.toIntExact(size);
+        }
     }
 
     @POST
@@ -0,0 +1,146 @@
+package de.julielab.neo4j.plugins;
+
+import de.julielab.neo4j.plugins.concepts.AncestorIndex;
+import de.julielab.neo4j.plugins.concepts.ConceptLabel;
+import de.julielab.neo4j.plugins.concepts.NodeIdArrays;
+import org.neo4j.graphdb.*;
+
+import java.util.*;
+
+/**
+ * <p>
+ * Computes the transitive hypernyms of concept nodes for {@link Export#exportHypernyms(String, String, org.neo4j.logging.Log)}.
+ * A hypernym is a non-hollow node connected by an incoming relationship of one of the given types, directly or via
+ * other hypernyms or hollow nodes. Hollow nodes are traversed but are not hypernyms themselves; this gives the same
+ * result as the ancestor index, which also contains the ancestors above hollow nodes.
+ * </p>
+ * <p>
+ * The closures are computed without recursion by a depth-first traversal over the hypernyms that finishes each node
+ * after its hypernyms, i.e. in topological order. A node that is reached again while its own closure is still being
+ * computed closes a cycle; it then contributes itself but not its hypernyms. The closures are stored as sorted arrays
+ * of node IDs and include the node itself. Thus, the hypernyms of a node with a single hypernym are just the stored
+ * closure of that hypernym and are shared between all its children. The closure of a hollow node does not include
+ * the node itself. The closures are kept in an LRU cache with a
+ * maximum number of entries.
+ * </p>
+ * <p>
+ * If the {@link AncestorIndex} is complete, the hypernyms are read from the index instead and only the hollow nodes
+ * have to be filtered out.
+ * </p>
+ */
+class HypernymClosure {
+    private static final long[] EMPTY = new long[0];
+    private final RelationshipType[] relationshipTypes;
+    private final Map<Long, long[]> cache;
+    private final Transaction tx;
+    private final String[] facetIds;
+
+    /**
+     * @param relationshipTypes The hypernym relationship types for the traversal.
+     * @param maxCacheSize      The maximum number of cached closures.
+     * @param tx                The transaction to check indexed ancestors for being hollow or <tt>null</tt> to always traverse.
+     * @param facetIds          The facets whose ancestor index should be used or <tt>null</tt> for all facets.
+     */
+    HypernymClosure(RelationshipType[] relationshipTypes, int maxCacheSize, Transaction tx, String[] facetIds) {
+        this.relationshipTypes = relationshipTypes;
+        this.tx = tx != null && AncestorIndex.isComplete(tx) ? tx : null;
+        this.facetIds = facetIds;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+                return size() > maxCacheSize;
+            }
+        };
+    }
+
+    /**
+     * @param node A concept node.
+     * @return The sorted node IDs of all transitive hypernyms of <tt>node</tt>. The returned array is shared and must
+     * not be modified.
+     */
+    long[] getHypernyms(Node node) {
+        if (tx != null)
+            return getIndexedHypernyms(node);
+        List<Node> hypernyms = getDirectHypernyms(node);
+        if (hypernyms.isEmpty())
+            return EMPTY;
+        if (hypernyms.size() == 1)
+            return getClosure(hypernyms.get(0));
+        List<long[]> closures = new ArrayList<>(hypernyms.size());
+        for (Node hypernym : hypernyms)
+            closures.add(getClosure(hypernym));
+        return NodeIdArrays.union(closures, -1);
+    }
+
+    /**
+     * @return The sorted node IDs of <tt>start</tt> and all its transitive hypernyms.
+     */
+    private long[] getClosure(Node start) {
+        long[] closure = cache.get(start.getId());
+        if (closure != null)
+            return closure;
+        // The closures of this computation. The cache might evict them before they are used.
+        Map<Long, long[]> computed = new HashMap<>();
+        // The nodes on the stack that wait for the closures of their hypernyms.
+        Set<Long> inProgress = new HashSet<>();
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            Node node = stack.peek();
+            long nodeId = node.getId();
+            if (computed.containsKey(nodeId)) {
+                stack.pop();
+                continue;
+            }
+            inProgress.add(nodeId);
+            List<Node> hypernyms = getDirectHypernyms(node);
+            List<long[]> hypernymClosures = new ArrayList<>(hypernyms.size());
+            boolean hypernymsComplete = true;
+            for (Node hypernym : hypernyms) {
+                long hypernymId = hypernym.getId();
+                long[] hypernymClosure = computed.get(hypernymId);
+                if (hypernymClosure == null)
+                    hypernymClosure = cache.get(hypernymId);
+                if (hypernymClosure != null) {
+                    hypernymClosures.add(hypernymClosure);
+                } else if (inProgress.contains(hypernymId)) {
+                    // cycle: the hypernym is also a hyponym of this node
+                    if (!hypernym.hasLabel(ConceptLabel.HOLLOW))
+                        hypernymClosures.add(new long[]{hypernymId});
+                } else {
+                    stack.push(hypernym);
+                    hypernymsComplete = false;
+                }
+            }
+            if (hypernymsComplete) {
+                stack.pop();
+                inProgress.remove(nodeId);
+                long[] nodeClosure = NodeIdArrays.union(hypernymClosures, node.hasLabel(ConceptLabel.HOLLOW) ? -1 : nodeId);
+                computed.put(nodeId, nodeClosure);
+                cache.put(nodeId, nodeClosure);
+            }
+        }
+        return computed.get(start.getId());
+    }
+
+    private long[] getIndexedHypernyms(Node node) {
+        long[] ancestorIds = AncestorIndex.getAncestorIds(node, facetIds);
+        long[] hypernyms = new long[ancestorIds.length];
+        int numHypernyms = 0;
+        for (long ancestorId : ancestorIds) {
+            if (!tx.getNodeById(ancestorId).hasLabel(ConceptLabel.HOLLOW))
+                hypernyms[numHypernyms++] = ancestorId;
+        }
+        return numHypernyms == hypernyms.length ? ancestorIds : Arrays.copyOf(hypernyms, numHypernyms);
+    }
+
+    private List<Node> getDirectHypernyms(Node node) {
+        List<Node> hypernyms = new ArrayList<>();
+        for (Relationship rel : node.getRelationships(Direction.INCOMING, relationshipTypes)) {
+            Node hypernym = rel.getStartNode();
+            if (!hypernym.equals(node))
+                hypernyms.add(hypernym);
+        }
+        return hypernyms;
+    }
+}
@@ -0,0 +1,221 @@
+package de.julielab.neo4j.plugins;
+
+import de.julielab.neo4j.plugins.auxiliaries.PropertyUtilities;
+import de.julielab.neo4j.plugins.auxiliaries.semedico.NodeUtilities;
+import de.julielab.neo4j.plugins.auxiliaries.semedico.PredefinedTraversals;
+import de.julielab.neo4j.plugins.concepts.ConceptAggregateManager;
+import de.julielab.neo4j.plugins.concepts.ConceptLabel;
+import de.julielab.neo4j.plugins.concepts.WorkerPool;
+import de.julielab.neo4j.plugins.datarepresentation.constants.MorphoConstants;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.traversal.TraversalDescription;
+import org.neo4j.logging.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import static de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants.*;
+
+/**
+ * <p>
+ * Writes the Lingpipe dictionary of {@link Export#exportLingpipeDictionary(String, String, String, boolean, boolean, boolean, Log)}.
+ * The nodes of each label are read in chunks of {@link #CHUNK_SIZE} node IDs. Each chunk is turned into dictionary
+ * entries by a worker thread in its own read transaction. The entries are written in the original chunk order so
+ * that the output and the 'first occurrence wins' rule of unique keys are the same as for a sequential export.
+ * </p>
+ * <p>
+ * The keys that have been written are kept in a concurrent set. It is only added to by the writing thread in chunk
+ * order. Thus, the workers may drop entries whose key is already contained because it has been written by an earlier
+ * chunk.
+ * </p>
+ */
+class LingpipeDictionaryWriter {
+    public static final String SYSPROP_NUM_WORKERS = "de.julielab.neo4j.plugins.export.lingpipe.numworkers";
+    static final int CHUNK_SIZE = 10000;
+    private static final Map<String, String> SOURCE_PROPERTY_NAMES_BY_ID_PROPERTY_NAME = Map.of(PROP_ID, "",
+            PROP_ORG_ID, PROP_ORG_SRC,
+            PROP_SRC_IDS + 0, PROP_SOURCES + 0,
+            PROP_SRC_IDS + 1, PROP_SOURCES + 1,
+            PROP_SRC_IDS + 2, PROP_SOURCES + 2,
+            PROP_SRC_IDS + 3, PROP_SOURCES + 3,
+            PROP_SRC_IDS + 4, PROP_SOURCES + 4,
+            PROP_SRC_IDS + 5, PROP_SOURCES + 5,
+            PROP_SRC_IDS + 6, PROP_SOURCES + 6,
+            PROP_SRC_IDS + 7, PROP_SOURCES + 7);
+    private final GraphDatabaseService graphDb;
+    private final Label[] labels;
+    private final Label[] exclusionLabels;
+    private final List<String> propertiesToWrite;
+    private final boolean addSourcePrefix;
+    private final Set<String> writtenKeys;
+    private final int numWorkers;
+    private final Log log;
+
+    LingpipeDictionaryWriter(GraphDatabaseService graphDb, Label[] labels, Label[] exclusionLabels, List<String> propertiesToWrite, boolean addSourcePrefix, boolean uniqueKeys, Log log) {
+        this.graphDb = graphDb;
+        this.labels = labels;
+        this.exclusionLabels = exclusionLabels != null ? exclusionLabels : new Label[0];
+        this.propertiesToWrite = propertiesToWrite;
+        this.addSourcePrefix = addSourcePrefix;
+        this.writtenKeys = uniqueKeys ? ConcurrentHashMap.newKeySet() : null;
+        this.numWorkers = Math.max(1, Integer.getInteger(SYSPROP_NUM_WORKERS, Runtime.getRuntime().availableProcessors()));
+        this.log = log;
+    }
+
+    void write(OutputStream os) throws IOException {
+        long time = System.currentTimeMillis();
+        long count = 0;
+        try (WorkerPool<List<String>> workers = new WorkerPool<>("lingpipe-dictionary-export-", numWorkers)) {
+            for (Label label : labels) {
+                try (Transaction tx = graphDb.beginTx(); ResourceIterator<Node> nodes = tx.findNodes(label)) {
+                    while (nodes.hasNext()) {
+                        long[] chunk = new long[CHUNK_SIZE];
+                        int chunkSize = 0;
+                        while (nodes.hasNext() && chunkSize < CHUNK_SIZE)
+                            chunk[chunkSize++] = nodes.next().getId();
+                        long[] nodeIds = Arrays.copyOf(chunk, chunkSize);
+                        List<String> entries = workers.submit(() -> createEntries(nodeIds));
+                        if (entries != null)
+                            writeEntries(entries, os);
+                        count += chunkSize;
+                        if (count % 100000 < CHUNK_SIZE)
+                            log.info("%s nodes processed.", count);
+                    }
+                }
+                while (workers.hasPending())
+                    writeEntries(workers.awaitOldest(), os);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Dictionary export was interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+        time = System.currentTimeMillis() - time;
+        log.info("Exported the dictionary entries of %s nodes with %s workers in %s ms (%s nodes/s).", count, numWorkers, time, time > 0 ? count * 1000 / time : count);
+    }
+
+    private void writeEntries(List<String> entries, OutputStream os) throws IOException {
+        // The entries list alternates between the normalized names and their category strings.
+        for (int i = 0; i < entries.size(); i += 2) {
+            String name = entries.get(i);
+            if (writtenKeys == null || writtenKeys.add(name))
+                IOUtils.write(name + "\t" + entries.get(i + 1) + "\n", os, "UTF-8");
+        }
+    }
+
+    private List<String> createEntries(long[] nodeIds) {
+        List<String> entries = new ArrayList<>();
+        try (Transaction tx = graphDb.beginTx()) {
+            TraversalDescription acronymsTraversal = PredefinedTraversals.getAcronymsTraversal(tx);
+            for (long nodeId : nodeIds) {
+                Node node;
+                try {
+                    node = tx.getNodeById(nodeId);
+                } catch (NotFoundException e) {
+                    // The node has been deleted since its ID was read.
+                    continue;
+                }
+                if (hasExclusionLabel(node) || !node.hasProperty(PROP_ID) || !node.hasProperty(PROP_PREF_NAME))
+                    continue;
+                List<String> categoryStrings = getCategoryStrings(node);
+                String preferredName = (String) node.getProperty(PROP_PREF_NAME);
+                String[] synonyms = (String[]) node.getProperty(PROP_SYNONYMS, new String[0]);
+                List<String> acronyms = new ArrayList<>();
+                for (Node acronymNode : acronymsTraversal.traverse(node).nodes())
+                    acronyms.add((String) acronymNode.getProperty(MorphoConstants.PROP_NAME));
+                for (String categoryString : categoryStrings) {
+                    addEntry(preferredName, categoryString, entries);
+                    for (String synonym : synonyms)
+                        addEntry(synonym, categoryString, entries);
+                    for (String acronym : acronyms)
+                        addEntry(acronym, categoryString, entries);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private void addEntry(String name, String categoryString, List<String> entries) {
+        String normalizedName = StringUtils.normalizeSpace(name);
+        if (normalizedName.length() > 2 && (writtenKeys == null || !writtenKeys.contains(normalizedName))) {
+            entries.add(normalizedName);
+            entries.add(categoryString);
+        }
+    }
+
+    private boolean hasExclusionLabel(Node node) {
+        for (Label exclusionLabel : exclusionLabels) {
+            if (node.hasLabel(exclusionLabel))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the values of all properties to write - and their sources, if required - once and creates one category
+     * string for each array index.
+     */
+    private List<String> getCategoryStrings(Node node) {
+        int numProperties = propertiesToWrite.size();
+        String[][] ids = new String[numProperties][];
+        String[][] sources = new String[numProperties][];
+        // for array-valued properties we require that all
+        // arrays are of the same length
+        int arraySize = -1;
+        for (int j = 0; j < numProperties; ++j) {
+            String property = propertiesToWrite.get(j);
+            ids[j] = NodeUtilities.getNodePropertyAsStringArrayValue(node, property);
+            // perhaps we have an aggregate term, then we can try and
+            // retrieve the value from its elements
+            boolean fromElements = null == ids[j] && node.hasLabel(ConceptLabel.AGGREGATE);
+            if (fromElements)
+                ids[j] = ConceptAggregateManager.getPropertyValueOfElements(node, property);
+            if (null == ids[j] || ids[j].length == 0)
+                throw new IllegalArgumentException("The property \"" + property
+                        + "\" does not contain a value for node " + node + " (properties: "
+                        + PropertyUtilities.getNodePropertiesAsString(node) + ")");
+            if (arraySize < 0)
+                arraySize = ids[j].length;
+            else if (ids[j].length != arraySize)
+                throw new IllegalArgumentException("The properties \"" + propertiesToWrite
+                        + "\" on term " + PropertyUtilities.getNodePropertiesAsString(node)
+                        + " do not have all the same number of value elements which is required for dictionary creation by this method.");
+            if (addSourcePrefix)
+                sources[j] = getSources(node, property, ids[j].length, fromElements);
+        }
+        List<String> categoryStrings = new ArrayList<>(arraySize);
+        for (int i = 0; i < arraySize; ++i) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < numProperties; ++j) {
+                if (addSourcePrefix)
+                    sb.append(sources[j][i]).append(":");
+                sb.append(ids[j][i]);
+                if (j < numProperties - 1)
+                    sb.append("||");
+            }
+            categoryStrings.add(sb.toString());
+        }
+        return categoryStrings;
+    }
+
+    private String[] getSources(Node node, String property, int numIds, boolean fromElements) {
+        final String sourceProperty = SOURCE_PROPERTY_NAMES_BY_ID_PROPERTY_NAME.get(property);
+        if (sourceProperty == null)
+            throw new IllegalArgumentException("Dictionary creation with source prefix should be performed but the source property is unknown for ID property '" + property + "'.");
+        // for PROP_ID we assigned an empty string
+        if (sourceProperty.isEmpty()) {
+            String[] sources = new String[numIds];
+            Arrays.fill(sources, "id");
+            return sources;
+        }
+        return fromElements ? ConceptAggregateManager.getPropertyValueOfElements(node, sourceProperty) : NodeUtilities.getNodePropertyAsStringArrayValue(node, sourceProperty);
+    }
+}
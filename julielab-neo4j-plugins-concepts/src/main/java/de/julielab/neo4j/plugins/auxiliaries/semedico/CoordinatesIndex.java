@@ -0,0 +1,132 @@
+package de.julielab.neo4j.plugins.auxiliaries.semedico;
+
+import de.julielab.neo4j.plugins.datarepresentation.ConceptCoordinates;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * <p>
+ * Finds stored {@link ConceptCoordinates} that are compatible with given coordinates, i.e. have the same original ID
+ * and original source or the same source ID and source. Coordinates with a unique source ID are only found under their
+ * own source, too.
+ * </p>
+ * <p>
+ * The coordinates are kept in two hash tables, one for the original IDs and one for the source IDs. Each table maps
+ * the source to a map from the ID to the entry. Thus, a lookup consists of at most four hash lookups on existing
+ * strings and does not create any key objects.
+ * </p>
+ * <p>
+ * This is the common base of {@link CoordinatesSet} and {@link CoordinatesMap}. It is used directly where coordinates
+ * are mapped to something else than database nodes, e.g. by the
+ * {@link de.julielab.neo4j.plugins.concepts.OfflineConceptImporter}.
+ * </p>
+ *
+ * @param <V> The type of the values stored with the coordinates.
+ */
+public class CoordinatesIndex<V> {
+	private final Map<String, Map<String, Entry<V>>> entriesByOriginalId = new HashMap<>();
+	private final Map<String, Map<String, Entry<V>>> entriesBySourceId = new HashMap<>();
+	private int size;
+
+	private static <V> Entry<V> get(Map<String, Map<String, Entry<V>>> entriesBySource, String source, String id) {
+		Map<String, Entry<V>> entriesById = entriesBySource.get(source);
+		return entriesById != null ? entriesById.get(id) : null;
+	}
+
+	/**
+	 * @param coordinates Some coordinates.
+	 * @return The entry of the stored coordinates compatible to <tt>coordinates</tt> or <tt>null</tt> if there is none.
+	 */
+	public Entry<V> get(ConceptCoordinates coordinates) {
+		if (coordinates == null)
+			throw new IllegalArgumentException("The passed concept coordinates were null.");
+		if (coordinates.originalId != null) {
+			Entry<V> entry = get(entriesByOriginalId, coordinates.originalSource, coordinates.originalId);
+			if (entry != null)
+				return entry;
+		}
+		// still here, so the original ID wasn't a match
+		if (coordinates.sourceId != null)
+			return get(entriesBySourceId, coordinates.source, coordinates.sourceId);
+		return null;
+	}
+
+	/**
+	 * Adds a copy of <tt>coordinates</tt> with <tt>value</tt> if there are no compatible coordinates yet. Otherwise,
+	 * the compatible coordinates are completed by the IDs of <tt>coordinates</tt> they do not have yet and keep their
+	 * value.
+	 *
+	 * @param coordinates The coordinates to add.
+	 * @param value       The value for new coordinates.
+	 * @return Whether compatible coordinates already existed.
+	 */
+	public boolean add(ConceptCoordinates coordinates, V value) {
+		if (coordinates.originalId != null && coordinates.originalSource == null)
+			throw new IllegalArgumentException("ConceptCoordinates \"" + coordinates + "\" specify an originalId but no originalSource.");
+		Entry<V> existing = get(coordinates);
+		if (existing != null) {
+			// we already know the coordinates, or at least compatible ones; add
+			// new information if we got some
+			ConceptCoordinates c2 = existing.coordinates;
+			if (c2.originalId == null && coordinates.originalId != null) {
+				c2.originalId = coordinates.originalId;
+				c2.originalSource = coordinates.originalSource;
+			}
+			if (c2.sourceId == null && coordinates.sourceId != null) {
+				c2.sourceId = coordinates.sourceId;
+				c2.source = coordinates.source;
+			}
+			return true;
+		}
+		// We didn't have compatible coordinates before. Add them.
+		Entry<V> entry = new Entry<>(coordinates.clone(), value);
+		if (coordinates.originalId != null)
+			entriesByOriginalId.computeIfAbsent(coordinates.originalSource, k -> new HashMap<>()).put(coordinates.originalId, entry);
+		if (coordinates.sourceId != null)
+			entriesBySourceId.computeIfAbsent(coordinates.source, k -> new HashMap<>()).put(coordinates.sourceId, entry);
+		++size;
+		return false;
+	}
+
+	/**
+	 * Calls <tt>action</tt> for each stored entry. Entries with an original and a source ID are passed twice.
+	 */
+	public void forEach(BiConsumer<ConceptCoordinates, V> action) {
+		for (Map<String, Map<String, Entry<V>>> entriesBySource : List.of(entriesByOriginalId, entriesBySourceId)) {
+			for (Map<String, Entry<V>> entriesById : entriesBySource.values()) {
+				for (Entry<V> entry : entriesById.values())
+					action.accept(entry.coordinates, entry.value);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of added coordinates that had no compatible coordinates before.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return entriesByOriginalId.isEmpty() && entriesBySourceId.isEmpty();
+	}
+
+	public void clear() {
+		entriesByOriginalId.clear();
+		entriesBySourceId.clear();
+		size = 0;
+	}
+
+	public static class Entry<V> {
+		public final ConceptCoordinates coordinates;
+		public final V value;
+
+		Entry(ConceptCoordinates coordinates, V value) {
+			this.coordinates = coordinates;
+			this.value = value;
+		}
+	}
+}
@@ -5,6 +5,8 @@ import de.julielab.neo4j.plugins.auxiliaries.PropertyUtilities;
 import de.julielab.neo4j.plugins.concepts.ConceptEdgeTypes;
 import de.julielab.neo4j.plugins.concepts.ConceptLabel;
 import de.julielab.neo4j.plugins.concepts.ConceptManager;
+import de.julielab.neo4j.plugins.concepts.ConceptNodeIdCache;
+import de.julielab.neo4j.plugins.concepts.SourceIdIndex;
 import de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants;
 import org.apache.commons.lang3.StringUtils;
 import org.neo4j.graphdb.*;
@@ -66,7 +68,7 @@ public class NodeUtilities extends de.julielab.neo4j.plugins.auxiliaries.NodeUti
         return new String[0];
     }
 
-    public static int getSourceIdIndex(Node concept, String sourceId) {
+    public static int getSourceIdIndex(Entity concept, String sourceId) {
         int i = 0;
         String sourceIdProperty = PROP_SRC_IDS + i;
         while (concept.hasProperty(sourceIdProperty)) {
@@ -242,6 +244,28 @@ public class NodeUtilities extends de.julielab.neo4j.plugins.auxiliaries.NodeUti
     public static void mergeSourceId(Transaction tx, Node concept, String srcId, String source, boolean uniqueSourceId) {
         if (srcId == null)
             return;
+        int sourcePropNum = mergeSourceIdProperties(concept, srcId, source, uniqueSourceId);
+        if (sourcePropNum >= 0) {
+            // New source ID for this concept
+            int currentSourceIdPropNum = SequenceManager.getCurrentSequenceValue(tx, NAME_SOURCE_IDS_SEQUENCE);
+            if (currentSourceIdPropNum < sourcePropNum + 1)
+                SequenceManager.getNextSequenceValue(tx, NAME_SOURCE_IDS_SEQUENCE);
+            SourceIdIndex.add(tx, srcId, concept);
+        }
+        if (ConceptNodeIdCache.isEnabled())
+            ConceptNodeIdCache.getInstance().putSourceId(srcId, source, concept.getId());
+    }
+
+    /**
+     * <p>Sets the source ID properties of <tt>concept</tt> for the given source ID. If the concept already has the
+     * source ID, <tt>source</tt> is added to its sources. Otherwise, the source ID is stored in a new
+     * {@link ConceptConstants#PROP_SRC_IDS} property.</p>
+     * <p>This only touches the properties of <tt>concept</tt>. Use {@link #mergeSourceId(Transaction, Node, String, String, boolean)}
+     * for database nodes to also maintain the source ID sequence and the {@link SourceIdIndex}.</p>
+     *
+     * @return The number of the new source ID property or -1 if the source ID was already present.
+     */
+    public static int mergeSourceIdProperties(Entity concept, String srcId, String source, boolean uniqueSourceId) {
         int sourceIdIndex = NodeUtilities.getSourceIdIndex(concept, srcId);
         if (sourceIdIndex >= 0) {
             String sourceProp = PROP_SOURCES + sourceIdIndex;
@@ -263,22 +287,16 @@ public class NodeUtilities extends de.julielab.neo4j.plugins.auxiliaries.NodeUti
                 System.arraycopy(presentUniqueSources, insertionPoint, newUniqueSources, insertionPoint + 1, presentUniqueSources.length - insertionPoint);
                 concept.setProperty(uniqueSourceProp, newUniqueSources);
             }
-        } else {
-            // New source ID for this concept
-            int sourcePropNum = getNumberSourceIds(tx, concept);
-            int currentSourceIdPropNum = SequenceManager.getCurrentSequenceValue(tx, NAME_SOURCE_IDS_SEQUENCE);
-            if (currentSourceIdPropNum < sourcePropNum + 1)
-                SequenceManager.getNextSequenceValue(tx, NAME_SOURCE_IDS_SEQUENCE);
-            String sourceIdProperty = PROP_SRC_IDS + sourcePropNum;
-            String sourceProperty = PROP_SOURCES + sourcePropNum;
-            String uniqueSourceProperty = PROP_UNIQUE_SRC_ID + sourcePropNum;
-            concept.setProperty(sourceIdProperty, srcId);
-            concept.setProperty(sourceProperty, new String[]{source});
-            concept.setProperty(uniqueSourceProperty, new boolean[]{uniqueSourceId});
+            return -1;
         }
+        int sourcePropNum = getNumberSourceIds(concept);
+        concept.setProperty(PROP_SRC_IDS + sourcePropNum, srcId);
+        concept.setProperty(PROP_SOURCES + sourcePropNum, new String[]{source});
+        concept.setProperty(PROP_UNIQUE_SRC_ID + sourcePropNum, new boolean[]{uniqueSourceId});
+        return sourcePropNum;
     }
 
-    private static int getNumberSourceIds(Transaction tx, Node concept) {
+    private static int getNumberSourceIds(Entity concept) {
         int i = 0;
         String sourceIdProperty = PROP_SRC_IDS + i;
         while (concept.hasProperty(sourceIdProperty)) {
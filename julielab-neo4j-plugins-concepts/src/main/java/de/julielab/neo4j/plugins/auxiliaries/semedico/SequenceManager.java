@@ -11,6 +11,7 @@ import static de.julielab.neo4j.plugins.datarepresentation.constants.NodeConstan
 
 public class SequenceManager {
 
+    public final static String NAME_SEQUENCE_ROOT = "SequenceRoot";
     private final static String SEQUENCE_INDEX = "sequenceIndex";
 
     public static int getNextSequenceValue(Transaction tx, String sequenceName) {
@@ -21,6 +22,24 @@ public class SequenceManager {
         sequence.setProperty(PROP_VALUE, currentSequenceValue + 1);
         return currentSequenceValue;
     }
+
+    /**
+     * Reserves <tt>numValues</tt> consecutive values of the given sequence and returns the first of them. This allows
+     * concurrent writers to draw from a block of values without holding the sequence lock for their whole transaction.
+     *
+     * @param tx           The transaction to reserve the values in. Should be committed right away.
+     * @param sequenceName The name of the sequence.
+     * @param numValues    The number of values to reserve.
+     * @return The first reserved sequence value.
+     */
+    public static int getNextSequenceValues(Transaction tx, String sequenceName, int numValues) {
+        Node sequence = getSequence(tx, sequenceName);
+        tx.acquireWriteLock(sequence);
+        int currentSequenceValue = (Integer) sequence.getProperty(PROP_VALUE);
+        sequence.setProperty(PROP_VALUE, currentSequenceValue + numValues);
+        return currentSequenceValue;
+    }
+
     public static int getCurrentSequenceValue(Transaction tx, String sequenceName) {
         Node sequence = getSequence(tx, sequenceName);
         int currentSequenceValue = (Integer) sequence.getProperty(PROP_VALUE);
@@ -33,14 +52,14 @@ public class SequenceManager {
         try {
             if (sequenceRootOpt.isEmpty()) {
                 root = tx.createNode(SequenceLabel.SEQUENCE_ROOT);
-                root.setProperty(PROP_NAME, "SequenceRoot");
+                root.setProperty(PROP_NAME, NAME_SEQUENCE_ROOT);
             } else {
                 root = sequenceRootOpt.get();
             }
         } catch (ConstraintViolationException e) {
             // In case the root had already been created concurrently.
             root.delete();
-            root = tx.findNode(SequenceLabel.SEQUENCE_ROOT, PROP_NAME, "SequenceRoot");
+            root = tx.findNode(SequenceLabel.SEQUENCE_ROOT, PROP_NAME, NAME_SEQUENCE_ROOT);
         }
         return root;
     }
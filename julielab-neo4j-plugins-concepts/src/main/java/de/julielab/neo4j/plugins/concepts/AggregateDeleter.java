@@ -0,0 +1,229 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import de.julielab.neo4j.plugins.FacetManager;
+import de.julielab.neo4j.plugins.auxiliaries.semedico.NodeUtilities;
+import org.neo4j.graphdb.*;
+import org.neo4j.logging.Log;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static de.julielab.neo4j.plugins.concepts.ConceptLabel.AGGREGATE;
+
+/**
+ * <p>
+ * Deletes the aggregates with given labels for {@link ConceptAggregateManager#DELETE_AGGREGATES}. Nodes with one of
+ * the labels that are not an {@link ConceptLabel#AGGREGATE} only lose the labels.
+ * </p>
+ * <p>
+ * The IDs of the affected nodes are collected in a single scan over each label. The sorted IDs are then split into
+ * chunks of a fixed size that a pool of workers deletes, each chunk in a transaction of its own. Two aggregates in
+ * different chunks may share neighbours, e.g. common elements, and deleting their relationships locks the neighbours.
+ * To exclude deadlocks between the workers, a worker first acquires the write locks of all nodes the chunk will
+ * write to - the aggregates, their neighbours, their {@link SourceIdIndex} nodes and the facet nodes of their facet
+ * hierarchies - in ascending ID order. Only the ancestor updates of {@link AncestorIndex} reach further into the
+ * hierarchy; for these, a detected deadlock still causes the chunk to be retried.
+ * </p>
+ */
+public class AggregateDeleter {
+    public static final String SYSPROP_NUM_WORKERS = "de.julielab.neo4j.plugins.concepts.deleteaggregates.numworkers";
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+    private final GraphDatabaseService graphDb;
+    private final List<Label> aggregateLabels;
+    private final int chunkSize;
+    private final int numWorkers;
+    private final Log log;
+    private final AtomicLong numNodes = new AtomicLong();
+    private final AtomicLong numRelationships = new AtomicLong();
+    private final AtomicLong numLabels = new AtomicLong();
+    private long startTime;
+
+    /**
+     * @param graphDb         The database.
+     * @param aggregateLabels The labels of the aggregates to delete.
+     * @param chunkSize       The number of nodes deleted or unlabeled in one transaction. Non-positive values select
+     *                        {@link #DEFAULT_CHUNK_SIZE}.
+     * @param log             The log.
+     */
+    public AggregateDeleter(GraphDatabaseService graphDb, List<Label> aggregateLabels, int chunkSize, Log log) {
+        this.graphDb = graphDb;
+        this.aggregateLabels = aggregateLabels;
+        this.chunkSize = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+        this.numWorkers = Math.max(1, Integer.getInteger(SYSPROP_NUM_WORKERS, Runtime.getRuntime().availableProcessors()));
+        this.log = log;
+    }
+
+    private static long[] add(long[] array, int size, long value) {
+        if (size == array.length)
+            array = Arrays.copyOf(array, size * 2);
+        array[size] = value;
+        return array;
+    }
+
+    /**
+     * Deletes the aggregates and removes the labels from the non-aggregate nodes.
+     *
+     * @return The number of deleted nodes under the key <tt>numNodes</tt> and of deleted relationships under the key
+     * <tt>numRelationships</tt>.
+     */
+    public Map<String, Long> delete() {
+        startTime = System.currentTimeMillis();
+        log.info("Removing all nodes with label %s", aggregateLabels);
+        long[] aggregateIds = new long[1024];
+        long[] labeledIds = new long[1024];
+        int numAggregates = 0;
+        int numLabeled = 0;
+        LongHashSet seen = new LongHashSet();
+        try (Transaction tx = graphDb.beginTx()) {
+            for (Label aggregateLabel : aggregateLabels) {
+                try (ResourceIterator<Node> nodes = tx.findNodes(aggregateLabel)) {
+                    while (nodes.hasNext()) {
+                        Node node = nodes.next();
+                        if (!seen.add(node.getId()))
+                            continue;
+                        if (node.hasLabel(AGGREGATE))
+                            aggregateIds = add(aggregateIds, numAggregates++, node.getId());
+                        else
+                            labeledIds = add(labeledIds, numLabeled++, node.getId());
+                    }
+                }
+            }
+        }
+        aggregateIds = Arrays.copyOf(aggregateIds, numAggregates);
+        labeledIds = Arrays.copyOf(labeledIds, numLabeled);
+        // Consecutive IDs tend to be connected, e.g. aggregates created one after another, so that sorted chunks share
+        // fewer neighbours than arbitrary ones.
+        Arrays.sort(aggregateIds);
+        Arrays.sort(labeledIds);
+        log.info("Deleting %s aggregates and removing the labels %s from %s non-aggregate nodes in chunks of %s with %s workers.", numAggregates, aggregateLabels, numLabeled, chunkSize, numWorkers);
+
+        try (WorkerPool<Void> workers = new WorkerPool<>("delete-aggregates-", numWorkers)) {
+            for (int from = 0; from < labeledIds.length; from += chunkSize) {
+                long[] chunk = Arrays.copyOfRange(labeledIds, from, Math.min(labeledIds.length, from + chunkSize));
+                workers.submit(() -> removeLabels(chunk));
+            }
+            for (int from = 0; from < aggregateIds.length; from += chunkSize) {
+                long[] chunk = Arrays.copyOfRange(aggregateIds, from, Math.min(aggregateIds.length, from + chunkSize));
+                workers.submit(() -> deleteChunk(chunk));
+            }
+            workers.awaitAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The deletion of aggregates was interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException("The deletion of aggregates failed.", e.getCause());
+        } finally {
+            if (numNodes.get() > 0)
+                OrthologyAggregateCache.getInstance().invalidate();
+        }
+        long time = System.currentTimeMillis() - startTime;
+        log.info("Finished deleting %s edges and %s nodes with label %s and removed %s %s labels from non-aggregate nodes in %s ms (%s nodes/s).",
+                numRelationships.get(), numNodes.get(), aggregateLabels, numLabels.get(), aggregateLabels, time, nodesPerSecond(numNodes.get(), time));
+        return Map.of("numNodes", numNodes.get(), "numRelationships", numRelationships.get());
+    }
+
+    private Void removeLabels(long[] nodeIds) throws InterruptedException {
+        long numChunkLabels = DeadlockRetry.inTransaction(graphDb, log, "removing aggregate labels", tx -> {
+            long numRemoved = 0;
+            for (long nodeId : nodeIds) {
+                try {
+                    Node node = tx.getNodeById(nodeId);
+                    for (Label aggregateLabel : aggregateLabels) {
+                        if (node.hasLabel(aggregateLabel)) {
+                            // For concepts that are not really aggregates, we just remove the label - we want to
+                            // keep the concept itself.
+                            node.removeLabel(aggregateLabel);
+                            ++numRemoved;
+                        }
+                    }
+                } catch (NotFoundException e) {
+                    // The node has been deleted since it was read.
+                }
+            }
+            return numRemoved;
+        });
+        numLabels.addAndGet(numChunkLabels);
+        return null;
+    }
+
+    private Void deleteChunk(long[] aggregateIds) throws InterruptedException {
+        // The number of deleted nodes and relationships.
+        long[] counts = DeadlockRetry.inTransaction(graphDb, log, "deleting aggregates", tx -> {
+            long[] numDeleted = new long[2];
+            lockInOrder(tx, aggregateIds);
+            for (long aggregateId : aggregateIds) {
+                try {
+                    numDeleted[1] += ConceptAggregateManager.deleteAggregate(tx, tx.getNodeById(aggregateId));
+                    ++numDeleted[0];
+                } catch (NotFoundException e) {
+                    // The aggregate has been deleted since it was read.
+                }
+            }
+            return numDeleted;
+        });
+        numRelationships.addAndGet(counts[1]);
+        reportProgress((int) counts[0]);
+        return null;
+    }
+
+    /**
+     * Acquires the write locks of the aggregates and all nodes their deletion writes to in ascending ID order. Since
+     * every worker locks in the same order, no worker can wait for a lock held by a worker that waits for it.
+     */
+    private void lockInOrder(Transaction tx, long[] aggregateIds) {
+        LongHashSet seen = new LongHashSet();
+        long[] lockIds = new long[aggregateIds.length * 4];
+        int numLocks = 0;
+        Set<String> facetIds = new HashSet<>();
+        for (long aggregateId : aggregateIds) {
+            Node aggregate;
+            try {
+                aggregate = tx.getNodeById(aggregateId);
+            } catch (NotFoundException e) {
+                continue;
+            }
+            if (seen.add(aggregateId))
+                lockIds = add(lockIds, numLocks++, aggregateId);
+            for (Relationship rel : aggregate.getRelationships()) {
+                long neighbourId = rel.getOtherNodeId(aggregateId);
+                if (seen.add(neighbourId))
+                    lockIds = add(lockIds, numLocks++, neighbourId);
+                String facetId = FacetRelationshipTypes.getFacetId(rel.getType());
+                if (facetId != null)
+                    facetIds.add(facetId);
+            }
+            for (String srcId : NodeUtilities.getSourceIds(aggregate)) {
+                Node sourceIdNode = tx.findNode(SourceIdIndex.SourceIdLabel.SOURCE_ID, SourceIdIndex.PROP_SOURCE_ID, srcId);
+                if (sourceIdNode != null && seen.add(sourceIdNode.getId()))
+                    lockIds = add(lockIds, numLocks++, sourceIdNode.getId());
+            }
+        }
+        for (String facetId : facetIds) {
+            Node facet = FacetManager.getFacetNode(tx, facetId);
+            if (facet != null && seen.add(facet.getId()))
+                lockIds = add(lockIds, numLocks++, facet.getId());
+        }
+        Arrays.sort(lockIds, 0, numLocks);
+        for (int i = 0; i < numLocks; i++) {
+            try {
+                tx.acquireWriteLock(tx.getNodeById(lockIds[i]));
+            } catch (NotFoundException e) {
+                // The node has been deleted by another worker in the meantime.
+            }
+        }
+    }
+
+    private void reportProgress(int chunkNodes) {
+        long processed = numNodes.addAndGet(chunkNodes);
+        if (processed / 10000 > (processed - chunkNodes) / 10000) {
+            log.info("Deleted %s aggregates (%s nodes/s).", processed, nodesPerSecond(processed, System.currentTimeMillis() - startTime));
+        }
+    }
+
+    private static long nodesPerSecond(long nodes, long time) {
+        return time > 0 ? nodes * 1000L / time : nodes;
+    }
+}
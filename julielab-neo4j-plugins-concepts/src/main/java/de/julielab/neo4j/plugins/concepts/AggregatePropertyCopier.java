@@ -0,0 +1,578 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import de.julielab.neo4j.plugins.auxiliaries.JulieNeo4jUtilities;
+import de.julielab.neo4j.plugins.concepts.ConceptAggregateManager.CopyAggregatePropertiesStatistics;
+import de.julielab.neo4j.plugins.datarepresentation.constants.AggregateConstants;
+import org.neo4j.graphdb.*;
+import org.neo4j.logging.Log;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static de.julielab.neo4j.plugins.concepts.ConceptLabel.AGGREGATE;
+import static de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants.*;
+
+/**
+ * <p>
+ * Copies the properties of aggregate elements into the aggregates for
+ * {@link ConceptAggregateManager#COPY_AGGREGATE_PROPERTIES}.
+ * </p>
+ * <p>
+ * The aggregates with the given labels and their element aggregates are read first and grouped into levels: an
+ * aggregate belongs to the level after the highest level of its element aggregates. Each aggregate is read once, even
+ * if it is an element of several aggregates. The levels are processed one after the other, so element aggregates are
+ * complete before the aggregates containing them. The aggregates of a level are distributed in batches to a pool of
+ * workers that commit each batch in a transaction of its own.
+ * </p>
+ * <p>
+ * {@link #copyAggregateProperties(Node, boolean, String[], CopyAggregatePropertiesStatistics)} reads the properties of
+ * each element once. Array values are merged into buffers for their element type that are converted into the
+ * aggregate property value once all elements have been read. Arrays of different numeric types are merged into the
+ * widest of their types, arrays of otherwise different types into strings. The values of non-array properties are
+ * counted on the way for the majority vote on divergent values.
+ * </p>
+ */
+public class AggregatePropertyCopier {
+    public static final String SYSPROP_NUM_WORKERS = "de.julielab.neo4j.plugins.concepts.copyaggregateproperties.numworkers";
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    private final GraphDatabaseService graphDb;
+    private final List<Label> aggregateLabels;
+    private final boolean skipExistingProperties;
+    private final int batchSize;
+    private final int numWorkers;
+    private final Log log;
+    private final CopyAggregatePropertiesStatistics copyStats = new CopyAggregatePropertiesStatistics();
+    private final AtomicInteger numAggregates = new AtomicInteger();
+    private long startTime;
+
+    /**
+     * @param graphDb                The database.
+     * @param aggregateLabels        The labels of the aggregates to copy the properties for.
+     * @param skipExistingProperties Whether to keep properties the aggregates already have.
+     * @param batchSize              The number of aggregates committed together. Non-positive values select
+     *                               {@link #DEFAULT_BATCH_SIZE}.
+     * @param log                    The log.
+     */
+    public AggregatePropertyCopier(GraphDatabaseService graphDb, List<Label> aggregateLabels, boolean skipExistingProperties, int batchSize, Log log) {
+        this.graphDb = graphDb;
+        this.aggregateLabels = aggregateLabels;
+        this.skipExistingProperties = skipExistingProperties;
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        this.numWorkers = Math.max(1, Integer.getInteger(SYSPROP_NUM_WORKERS, Runtime.getRuntime().availableProcessors()));
+        this.log = log;
+    }
+
+    /**
+     * Fills <tt>aggregate</tt> with property values from its elements. Array values are merged. For non-array values,
+     * the majority value is set; the minority values are stored in a property with the suffix
+     * {@link AggregateConstants#SUFFIX_DIVERGENT_ELEMENT_ROPERTY}. Minority preferred names are added to the synonyms
+     * which are then made unique, ignoring case.
+     *
+     * @param aggregate              The aggregate node to assemble element properties to.
+     * @param skipExistingProperties Whether to keep properties the aggregate already has.
+     * @param copyProperties         The properties that should be copied into the aggregate.
+     * @param copyStats              An object to collect statistics over the copy process, may be <tt>null</tt>.
+     */
+    static void copyAggregateProperties(Node aggregate, boolean skipExistingProperties, String[] copyProperties,
+                                        CopyAggregatePropertiesStatistics copyStats) {
+        String[] unskippedProperties = copyProperties;
+        if (skipExistingProperties)
+            unskippedProperties = Arrays.stream(copyProperties).filter(Predicate.not(aggregate::hasProperty)).toArray(String[]::new);
+        // first, clear the properties to be copied in case we make a refresh
+        for (String copyProperty : unskippedProperties)
+            aggregate.removeProperty(copyProperty);
+        if (unskippedProperties.length == 0)
+            return;
+        Map<String, ArrayMerger> arrayValues = new HashMap<>();
+        Map<String, ValueVote> values = new HashMap<>();
+        for (Relationship elementRel : aggregate.getRelationships(Direction.OUTGOING, ConceptEdgeTypes.HAS_ELEMENT)) {
+            Node element = elementRel.getEndNode();
+            if (null != copyStats)
+                copyStats.numElements++;
+            for (Map.Entry<String, Object> property : element.getProperties(unskippedProperties).entrySet()) {
+                if (null != copyStats)
+                    copyStats.numProperties++;
+                String key = property.getKey();
+                Object value = property.getValue();
+                if (value.getClass().isArray()) {
+                    ArrayMerger merger = arrayValues.get(key);
+                    if (merger == null) {
+                        merger = ArrayMerger.of(value);
+                        arrayValues.put(key, merger);
+                    } else if (!merger.accepts(value)) {
+                        merger = merger.toStringArrayMerger();
+                        arrayValues.put(key, merger);
+                    }
+                    merger.add(value);
+                } else {
+                    ValueVote vote = values.get(key);
+                    if (vote == null)
+                        values.put(key, new ValueVote(value));
+                    else
+                        vote.add(value);
+                }
+            }
+        }
+
+        Map<String, Object> newAggregateProperties = new HashMap<>();
+        for (Map.Entry<String, ValueVote> entry : values.entrySet()) {
+            ValueVote vote = entry.getValue();
+            newAggregateProperties.put(entry.getKey(), vote.getMajorityValue());
+            Object[] minorityValues = vote.getMinorityValues();
+            if (minorityValues != null)
+                newAggregateProperties.put(entry.getKey() + AggregateConstants.SUFFIX_DIVERGENT_ELEMENT_ROPERTY,
+                        toCommonTypeArray(minorityValues));
+        }
+        for (Map.Entry<String, ArrayMerger> entry : arrayValues.entrySet()) {
+            Object mergedValue = entry.getValue().toArray();
+            if (mergedValue != null)
+                newAggregateProperties.put(entry.getKey(), mergedValue);
+        }
+
+        // The aggregate could have a conflict on the preferred name. This is already resolved by the majority vote
+        // above. We now additionally merge the minority names to the synonyms and remove duplicate synonyms, case
+        // ignored.
+        String[] synonyms = (String[]) newAggregateProperties.get(PROP_SYNONYMS);
+        String[] divergentPrefNames = (String[]) newAggregateProperties.get(PROP_PREF_NAME + AggregateConstants.SUFFIX_DIVERGENT_ELEMENT_ROPERTY);
+        if (synonyms != null || divergentPrefNames != null) {
+            Set<String> lowerCaseSynonyms = new HashSet<>();
+            List<String> acceptedSynonyms = new ArrayList<>();
+            for (String[] names : Arrays.asList(synonyms, divergentPrefNames)) {
+                for (int i = 0; names != null && i < names.length; i++) {
+                    if (lowerCaseSynonyms.add(names[i].toLowerCase()))
+                        acceptedSynonyms.add(names[i]);
+                }
+            }
+            Collections.sort(acceptedSynonyms);
+            newAggregateProperties.put(PROP_SYNONYMS, acceptedSynonyms.toArray(new String[0]));
+        }
+
+        for (Map.Entry<String, Object> property : newAggregateProperties.entrySet())
+            aggregate.setProperty(property.getKey(), property.getValue());
+    }
+
+    /**
+     * @return The number of aggregates whose properties have been copied.
+     */
+    public int copy() {
+        startTime = System.currentTimeMillis();
+        List<long[]> levels = getAggregateLevels();
+        log.info("Copying the properties of %s aggregates with labels %s in %s levels with %s workers.", levels.stream().mapToInt(level -> level.length).sum(), aggregateLabels, levels.size(), numWorkers);
+        try (WorkerPool<Void> workers = new WorkerPool<>("copy-aggregate-properties-", numWorkers)) {
+            for (long[] level : levels) {
+                for (int from = 0; from < level.length; from += batchSize) {
+                    long[] batch = Arrays.copyOfRange(level, from, Math.min(level.length, from + batchSize));
+                    workers.submit(() -> copyBatch(batch));
+                }
+                // The next level contains the aggregates of the aggregates of this level.
+                workers.awaitAll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The copying of aggregate properties was interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException("The copying of aggregate properties failed.", e.getCause());
+        }
+        log.info("Finished the copying of properties for %s aggregate nodes in %s ms: %s", numAggregates.get(), System.currentTimeMillis() - startTime, copyStats);
+        return numAggregates.get();
+    }
+
+    public CopyAggregatePropertiesStatistics getStatistics() {
+        return copyStats;
+    }
+
+    /**
+     * @return The IDs of the aggregates with one of the labels and of their element aggregates by level. The first
+     * level holds the aggregates without element aggregates, each further level the aggregates whose element
+     * aggregates are in the previous levels. Each aggregate occurs once.
+     */
+    private List<long[]> getAggregateLevels() {
+        List<AggregateLevel> levels = new ArrayList<>();
+        try (Transaction tx = graphDb.beginTx()) {
+            for (Label aggregateLabel : aggregateLabels) {
+                try (ResourceIterator<Node> aggregates = tx.findNodes(aggregateLabel)) {
+                    while (aggregates.hasNext())
+                        addToLevel(aggregates.next(), levels, new HashSet<>());
+                }
+            }
+        }
+        return levels.stream().map(AggregateLevel::toArray).collect(Collectors.toList());
+    }
+
+    /**
+     * Adds <tt>aggregate</tt> and its element aggregates to their levels unless they already are in one.
+     *
+     * @param path The IDs of the aggregates containing <tt>aggregate</tt>, to guard against cycles.
+     * @return The level of <tt>aggregate</tt>.
+     */
+    private int addToLevel(Node aggregate, List<AggregateLevel> levels, Set<Long> path) {
+        for (int level = 0; level < levels.size(); level++) {
+            if (levels.get(level).contains(aggregate.getId()))
+                return level;
+        }
+        int level = 0;
+        path.add(aggregate.getId());
+        for (Relationship elementRel : aggregate.getRelationships(Direction.OUTGOING, ConceptEdgeTypes.HAS_ELEMENT)) {
+            Node element = elementRel.getEndNode();
+            if (element.hasLabel(AGGREGATE) && !path.contains(element.getId()))
+                level = Math.max(level, addToLevel(element, levels, path) + 1);
+        }
+        path.remove(aggregate.getId());
+        while (levels.size() <= level)
+            levels.add(new AggregateLevel());
+        levels.get(level).add(aggregate.getId());
+        return level;
+    }
+
+    private Void copyBatch(long[] aggregateIds) throws InterruptedException {
+        CopyAggregatePropertiesStatistics batchStats = DeadlockRetry.inTransaction(graphDb, log, "copying aggregate properties", tx -> {
+            CopyAggregatePropertiesStatistics stats = new CopyAggregatePropertiesStatistics();
+            for (long aggregateId : aggregateIds) {
+                try {
+                    Node aggregate = tx.getNodeById(aggregateId);
+                    if (aggregate.hasProperty(PROP_COPY_PROPERTIES))
+                        copyAggregateProperties(aggregate, skipExistingProperties, (String[]) aggregate.getProperty(PROP_COPY_PROPERTIES), stats);
+                } catch (NotFoundException e) {
+                    // The aggregate has been deleted since it was read.
+                }
+            }
+            return stats;
+        });
+        reportProgress(aggregateIds.length, batchStats);
+        return null;
+    }
+
+    private void reportProgress(int batchAggregates, CopyAggregatePropertiesStatistics batchStats) {
+        int processed;
+        synchronized (copyStats) {
+            copyStats.numElements += batchStats.numElements;
+            copyStats.numProperties += batchStats.numProperties;
+            processed = numAggregates.addAndGet(batchAggregates);
+        }
+        if (processed / 10000 > (processed - batchAggregates) / 10000) {
+            long time = System.currentTimeMillis() - startTime;
+            log.info("Copied the properties of %s aggregates (%s aggregates/s).", processed, time > 0 ? processed * 1000L / time : processed);
+        }
+    }
+
+    /**
+     * Counts the values of a non-array property. The counts are only kept once a second, different value occurs.
+     */
+    private static class ValueVote {
+        private final Object firstValue;
+        private int firstValueCount = 1;
+        /**
+         * The counts of all values in the order of their first occurrence.
+         */
+        private Map<Object, int[]> counts;
+
+        private ValueVote(Object firstValue) {
+            this.firstValue = firstValue;
+        }
+
+        private void add(Object value) {
+            if (counts == null) {
+                if (value.equals(firstValue)) {
+                    ++firstValueCount;
+                    return;
+                }
+                counts = new LinkedHashMap<>();
+                counts.put(firstValue, new int[]{firstValueCount});
+            }
+            counts.computeIfAbsent(value, v -> new int[1])[0]++;
+        }
+
+        /**
+         * @return The most frequent value. Ties are won by the value that occurred first.
+         */
+        private Object getMajorityValue() {
+            if (counts == null)
+                return firstValue;
+            Object majorityValue = null;
+            int maxCount = 0;
+            for (Map.Entry<Object, int[]> entry : counts.entrySet()) {
+                if (entry.getValue()[0] > maxCount) {
+                    majorityValue = entry.getKey();
+                    maxCount = entry.getValue()[0];
+                }
+            }
+            return majorityValue;
+        }
+
+        /**
+         * @return The values other than the majority value or <tt>null</tt> if all values are equal.
+         */
+        private Object[] getMinorityValues() {
+            if (counts == null)
+                return null;
+            Object majorityValue = getMajorityValue();
+            return counts.keySet().stream().filter(value -> !value.equals(majorityValue)).toArray();
+        }
+    }
+
+    /**
+     * Converts values of possibly different classes into a property array. Numbers are converted into the widest of
+     * their types, other mixed values into strings.
+     */
+    private static Object[] toCommonTypeArray(Object[] values) {
+        Class<?> commonClass = values[0].getClass();
+        boolean allNumbers = true;
+        boolean floatingPoint = false;
+        for (Object value : values) {
+            if (value.getClass() != commonClass)
+                commonClass = null;
+            allNumbers &= value instanceof Number;
+            floatingPoint |= value instanceof Double || value instanceof Float;
+        }
+        if (commonClass != null)
+            return JulieNeo4jUtilities.convertElementsIntoArray(commonClass, values);
+        if (allNumbers && floatingPoint)
+            return Arrays.stream(values).map(value -> ((Number) value).doubleValue()).toArray(Double[]::new);
+        if (allNumbers)
+            return Arrays.stream(values).map(value -> ((Number) value).longValue()).toArray(Long[]::new);
+        return Arrays.stream(values).map(String::valueOf).toArray(String[]::new);
+    }
+
+    /**
+     * The IDs of the aggregates of one level in the order they were added.
+     */
+    private static class AggregateLevel {
+        private final LongHashSet ids = new LongHashSet();
+        private long[] order = new long[1024];
+        private int size;
+
+        private void add(long id) {
+            if (!ids.add(id))
+                return;
+            if (size == order.length)
+                order = Arrays.copyOf(order, size * 2);
+            order[size++] = id;
+        }
+
+        private boolean contains(long id) {
+            return ids.contains(id);
+        }
+
+        private long[] toArray() {
+            return Arrays.copyOf(order, size);
+        }
+    }
+
+    /**
+     * Collects the distinct values of array properties in the order of their first occurrence.
+     */
+    private abstract static class ArrayMerger {
+        static ArrayMerger of(Object array) {
+            if (array instanceof String[])
+                return new StringArrayMerger();
+            if (PrimitiveArrayMerger.isNumericArray(array))
+                return new PrimitiveArrayMerger(array.getClass());
+            return new ObjectArrayMerger(array.getClass());
+        }
+
+        /**
+         * @return Whether the values of <tt>array</tt> can be merged without converting them into strings.
+         */
+        abstract boolean accepts(Object array);
+
+        abstract void add(Object array);
+
+        /**
+         * @return The merged array or <tt>null</tt> if it could not be determined from empty arrays.
+         */
+        abstract Object toArray();
+
+        /**
+         * @return A merger that holds the values merged so far as strings and accepts arrays of all types.
+         */
+        StringArrayMerger toStringArrayMerger() {
+            StringArrayMerger merger = new StringArrayMerger();
+            Object array = toArray();
+            if (array != null)
+                merger.add(array);
+            return merger;
+        }
+    }
+
+    private static class StringArrayMerger extends ArrayMerger {
+        private final Set<String> values = new LinkedHashSet<>();
+
+        @Override
+        boolean accepts(Object array) {
+            return true;
+        }
+
+        @Override
+        void add(Object array) {
+            if (array instanceof String[]) {
+                Collections.addAll(values, (String[]) array);
+            } else {
+                for (Object value : JulieNeo4jUtilities.convertArray(array))
+                    values.add(String.valueOf(value));
+            }
+        }
+
+        @Override
+        Object toArray() {
+            return values.toArray(new String[0]);
+        }
+
+        @Override
+        StringArrayMerger toStringArrayMerger() {
+            return this;
+        }
+    }
+
+    /**
+     * Merges arrays of the numeric primitive types. Integral values are stored as their long value and floating point
+     * values as the bits of their double value, so that no boxing is necessary. Arrays of different types are merged
+     * into the widest of them; when integral and floating point arrays meet, the values are converted into doubles.
+     */
+    private static class PrimitiveArrayMerger extends ArrayMerger {
+        private static final List<Class<?>> WIDENING_ORDER = List.of(byte[].class, short[].class, int[].class, long[].class, float[].class, double[].class);
+        private Class<?> arrayClass;
+        private LongHashSet seen = new LongHashSet();
+        private long[] values = new long[16];
+        private int size;
+
+        private PrimitiveArrayMerger(Class<?> arrayClass) {
+            this.arrayClass = arrayClass;
+        }
+
+        static boolean isNumericArray(Object array) {
+            return WIDENING_ORDER.contains(array.getClass());
+        }
+
+        private static boolean isFloatingPoint(Class<?> arrayClass) {
+            return arrayClass == double[].class || arrayClass == float[].class;
+        }
+
+        @Override
+        boolean accepts(Object array) {
+            return isNumericArray(array);
+        }
+
+        @Override
+        void add(Object array) {
+            widenTo(array.getClass());
+            boolean floatingPoint = isFloatingPoint(arrayClass);
+            if (array instanceof long[]) {
+                for (long value : (long[]) array)
+                    add(floatingPoint ? Double.doubleToLongBits(value) : value);
+            } else if (array instanceof int[]) {
+                for (int value : (int[]) array)
+                    add(floatingPoint ? Double.doubleToLongBits(value) : value);
+            } else if (array instanceof short[]) {
+                for (short value : (short[]) array)
+                    add(floatingPoint ? Double.doubleToLongBits(value) : value);
+            } else if (array instanceof byte[]) {
+                for (byte value : (byte[]) array)
+                    add(floatingPoint ? Double.doubleToLongBits(value) : value);
+            } else if (array instanceof double[]) {
+                for (double value : (double[]) array)
+                    add(Double.doubleToLongBits(value));
+            } else {
+                for (float value : (float[]) array)
+                    add(Double.doubleToLongBits(value));
+            }
+        }
+
+        /**
+         * Widens the merged values to the common type of their current type and <tt>otherClass</tt>.
+         */
+        private void widenTo(Class<?> otherClass) {
+            if (otherClass == arrayClass)
+                return;
+            // Integral values lose precision in a float, so a float only remains for other floats.
+            Class<?> commonClass = isFloatingPoint(arrayClass) != isFloatingPoint(otherClass) ? double[].class
+                    : WIDENING_ORDER.get(Math.max(WIDENING_ORDER.indexOf(arrayClass), WIDENING_ORDER.indexOf(otherClass)));
+            boolean toFloatingPoint = !isFloatingPoint(arrayClass) && isFloatingPoint(commonClass);
+            arrayClass = commonClass;
+            if (!toFloatingPoint)
+                return;
+            // The integral values are converted into doubles. Different long values may become equal doubles.
+            long[] integralValues = Arrays.copyOf(values, size);
+            seen = new LongHashSet();
+            size = 0;
+            for (long value : integralValues)
+                add(Double.doubleToLongBits(value));
+        }
+
+        private void add(long value) {
+            if (!seen.add(value))
+                return;
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        @Override
+        Object toArray() {
+            if (arrayClass == long[].class)
+                return Arrays.copyOf(values, size);
+            if (arrayClass == int[].class) {
+                int[] array = new int[size];
+                for (int i = 0; i < size; i++)
+                    array[i] = (int) values[i];
+                return array;
+            }
+            if (arrayClass == short[].class) {
+                short[] array = new short[size];
+                for (int i = 0; i < size; i++)
+                    array[i] = (short) values[i];
+                return array;
+            }
+            if (arrayClass == byte[].class) {
+                byte[] array = new byte[size];
+                for (int i = 0; i < size; i++)
+                    array[i] = (byte) values[i];
+                return array;
+            }
+            if (arrayClass == double[].class) {
+                double[] array = new double[size];
+                for (int i = 0; i < size; i++)
+                    array[i] = Double.longBitsToDouble(values[i]);
+                return array;
+            }
+            float[] array = new float[size];
+            for (int i = 0; i < size; i++)
+                array[i] = (float) Double.longBitsToDouble(values[i]);
+            return array;
+        }
+    }
+
+    /**
+     * Merges the remaining array types, e.g. <tt>boolean[]</tt> and <tt>char[]</tt>, through their boxed values.
+     */
+    private static class ObjectArrayMerger extends ArrayMerger {
+        private final Class<?> arrayClass;
+        private final Set<Object> values = new LinkedHashSet<>();
+
+        private ObjectArrayMerger(Class<?> arrayClass) {
+            this.arrayClass = arrayClass;
+        }
+
+        @Override
+        boolean accepts(Object array) {
+            return array.getClass() == arrayClass;
+        }
+
+        @Override
+        void add(Object array) {
+            Collections.addAll(values, JulieNeo4jUtilities.convertArray(array));
+        }
+
+        @Override
+        Object toArray() {
+            if (values.isEmpty())
+                return null;
+            Object[] array = values.toArray();
+            return JulieNeo4jUtilities.convertElementsIntoArray(array[0].getClass(), array);
+        }
+    }
+}
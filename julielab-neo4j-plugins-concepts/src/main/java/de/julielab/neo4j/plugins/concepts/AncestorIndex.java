@@ -0,0 +1,336 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import de.julielab.neo4j.plugins.FacetManager;
+import de.julielab.neo4j.plugins.datarepresentation.constants.FacetConstants;
+import org.neo4j.graphdb.*;
+import org.neo4j.logging.Log;
+
+import java.util.*;
+
+/**
+ * <p>
+ * A materialized ancestor index of the facet hierarchies. Each concept node in the hierarchy of a facet stores the
+ * sorted node IDs of all its ancestors with respect to the <tt>IS_BROADER_THAN_&lt;facetId&gt;</tt> relationships in
+ * the property {@link #PROP_ANCESTORS_PREFIX}<tt>&lt;facetId&gt;</tt>. Ancestor queries and 'is A under B' checks
+ * are then property reads instead of traversals.
+ * </p>
+ * <p>
+ * The index is updated by {@link ConceptInsertion#createRelationships} whenever a facet hierarchy relationship is
+ * added and by the deletion of aggregates that are part of a hierarchy. An import only updates the children of new
+ * relationships in its own transaction; the changes are propagated to their descendants by
+ * {@link #updateDescendants(GraphDatabaseService, Map, Log)} in separate transactions after the import transaction
+ * has been committed, so that the size of the import transaction does not depend on the size of the subtrees. Until
+ * the propagation has finished, the index is not complete. Databases that contain concepts from before the index
+ * existed must be migrated with {@link #build(GraphDatabaseService, Log)}. Until then,
+ * {@link #isComplete(Transaction)} returns <tt>false</tt> and readers should fall back to traversals.
+ * </p>
+ */
+public class AncestorIndex {
+    public static final String PROP_ANCESTORS_PREFIX = "ancestors_";
+    public static final String PROP_COMPLETE = IndexMarker.PROP_COMPLETE;
+    private static final long[] EMPTY = new long[0];
+    private static final int BATCH_SIZE = 10000;
+
+    private AncestorIndex() {
+    }
+
+    /**
+     * Determines whether the index covers all facet hierarchies in the database. This is the case if the index has
+     * been built or if the database did not contain any concepts when it was first written to, see
+     * {@link #markCompleteIfEmpty(Transaction)}, and no propagation to descendants is pending. Only reads the
+     * database.
+     *
+     * @param tx The current transaction.
+     * @return Whether ancestor queries may rely on the index.
+     */
+    public static boolean isComplete(Transaction tx) {
+        return IndexMarker.isComplete(tx, AncestorIndexLabel.ANCESTOR_INDEX);
+    }
+
+    /**
+     * Marks the index as complete if the database does not contain any concepts yet. Must be called in a writing
+     * transaction before the first concepts are created so that a new database does not need to be migrated.
+     *
+     * @param tx The current transaction.
+     */
+    public static void markCompleteIfEmpty(Transaction tx) {
+        IndexMarker.markCompleteIfEmpty(tx, AncestorIndexLabel.ANCESTOR_INDEX);
+    }
+
+    /**
+     * @param node    A concept node.
+     * @param facetId The facet whose hierarchy should be used.
+     * @return The sorted node IDs of the ancestors of <tt>node</tt> in the given facet. The array must not be modified.
+     */
+    public static long[] getAncestorIds(Node node, String facetId) {
+        return (long[]) node.getProperty(PROP_ANCESTORS_PREFIX + facetId, EMPTY);
+    }
+
+    /**
+     * @param node     A concept node.
+     * @param facetIds The facets whose hierarchies should be used or <tt>null</tt> for all facets.
+     * @return The sorted node IDs of the ancestors of <tt>node</tt> in the given facets.
+     */
+    public static long[] getAncestorIds(Node node, String[] facetIds) {
+        List<long[]> ancestorIds = new ArrayList<>();
+        if (facetIds == null) {
+            for (String property : node.getPropertyKeys()) {
+                if (property.startsWith(PROP_ANCESTORS_PREFIX))
+                    ancestorIds.add((long[]) node.getProperty(property));
+            }
+        } else {
+            for (String facetId : facetIds)
+                ancestorIds.add(getAncestorIds(node, facetId));
+        }
+        if (ancestorIds.size() == 1)
+            return ancestorIds.get(0);
+        return NodeIdArrays.union(ancestorIds, -1);
+    }
+
+    /**
+     * @param tx      The current transaction.
+     * @param node    A concept node.
+     * @param facetId The facet whose hierarchy should be used.
+     * @return The ancestor concept nodes of <tt>node</tt> in the given facet.
+     */
+    public static List<Node> getAncestors(Transaction tx, Node node, String facetId) {
+        long[] ancestorIds = getAncestorIds(node, facetId);
+        List<Node> ancestors = new ArrayList<>(ancestorIds.length);
+        for (long ancestorId : ancestorIds)
+            ancestors.add(tx.getNodeById(ancestorId));
+        return ancestors;
+    }
+
+    /**
+     * @param ancestor A concept node.
+     * @param node     Another concept node.
+     * @param facetId  The facet whose hierarchy should be used.
+     * @return Whether <tt>node</tt> is a descendant of <tt>ancestor</tt> in the given facet.
+     */
+    public static boolean isAncestor(Node ancestor, Node node, String facetId) {
+        return Arrays.binarySearch(getAncestorIds(node, facetId), ancestor.getId()) >= 0;
+    }
+
+    /**
+     * Updates the ancestors of <tt>child</tt> after a <tt>IS_BROADER_THAN_&lt;facetId&gt;</tt> relationship from
+     * <tt>parent</tt> to <tt>child</tt> has been created. The descendants of <tt>child</tt> are not updated; if they
+     * need to be, the caller must register the update with {@link #beginDescendantUpdates(Transaction)} in the same
+     * transaction and pass <tt>child</tt> to {@link #updateDescendants(GraphDatabaseService, Map, Log)} after the
+     * commit.
+     *
+     * @param parent  The parent node.
+     * @param child   The child node.
+     * @param facetId The facet of the relationship.
+     * @return Whether the descendants of <tt>child</tt> must be updated.
+     */
+    public static boolean addParent(Node parent, Node child, String facetId) {
+        long[] ancestorIds = getAncestorIds(child, facetId);
+        if (Arrays.binarySearch(ancestorIds, parent.getId()) >= 0 && NodeIdArrays.containsAll(ancestorIds, getAncestorIds(parent, facetId)))
+            return false;
+        return updateNode(child, facetId) && child.hasRelationship(Direction.OUTGOING, FacetRelationshipTypes.broaderThanInFacet(facetId));
+    }
+
+    /**
+     * Registers an upcoming {@link #updateDescendants(GraphDatabaseService, Map, Log)}. The index is not complete
+     * until the update has finished.
+     *
+     * @param tx The transaction that made the update necessary.
+     */
+    public static void beginDescendantUpdates(Transaction tx) {
+        IndexMarker.beginPendingUpdate(tx, AncestorIndexLabel.ANCESTOR_INDEX);
+    }
+
+    /**
+     * Propagates the changed ancestors of the given nodes to their descendants, breadth-first in transactions of at
+     * most {@value #BATCH_SIZE} updated nodes. Must be preceded by {@link #beginDescendantUpdates(Transaction)}. A
+     * batch in which a deadlock is detected is repeated since updating a node a second time does not change it.
+     *
+     * @param graphDb      The graph database.
+     * @param changedNodes The IDs of the nodes whose ancestors have changed, by facet ID.
+     * @param log          The log.
+     * @throws InterruptedException If the thread is interrupted while waiting for the retry after a deadlock.
+     */
+    public static void updateDescendants(GraphDatabaseService graphDb, Map<String, Set<Long>> changedNodes, Log log) throws InterruptedException {
+        long numUpdated = 0;
+        for (String facetId : changedNodes.keySet()) {
+            RelationshipType relType = FacetRelationshipTypes.broaderThanInFacet(facetId);
+            Deque<Long> queue = new ArrayDeque<>();
+            // The changed nodes themselves are up to date; start with their children.
+            try (Transaction tx = graphDb.beginTx()) {
+                for (long nodeId : changedNodes.get(facetId)) {
+                    for (Relationship rel : tx.getNodeById(nodeId).getRelationships(Direction.OUTGOING, relType))
+                        queue.add(rel.getEndNodeId());
+                }
+            }
+            while (!queue.isEmpty()) {
+                List<Long> batch = new ArrayList<>();
+                while (!queue.isEmpty() && batch.size() < BATCH_SIZE)
+                    batch.add(queue.poll());
+                List<Long> children = DeadlockRetry.inTransaction(graphDb, log, "updating the ancestor index", tx -> {
+                    List<Long> batchChildren = new ArrayList<>();
+                    for (long nodeId : batch) {
+                        Node node;
+                        try {
+                            node = tx.getNodeById(nodeId);
+                        } catch (NotFoundException e) {
+                            // The node has been deleted since its parent was updated.
+                            continue;
+                        }
+                        if (updateNode(node, facetId)) {
+                            for (Relationship rel : node.getRelationships(Direction.OUTGOING, relType))
+                                batchChildren.add(rel.getEndNodeId());
+                        }
+                    }
+                    return batchChildren;
+                });
+                queue.addAll(children);
+                numUpdated += batch.size();
+            }
+        }
+        try (Transaction tx = graphDb.beginTx()) {
+            IndexMarker.endPendingUpdate(tx, AncestorIndexLabel.ANCESTOR_INDEX);
+            tx.commit();
+        }
+        log.debug("Propagated ancestor changes to %s descendants.", numUpdated);
+    }
+
+    /**
+     * Deletes the facet hierarchy relationships to the children of <tt>node</tt> and updates the ancestors of the
+     * children and their descendants accordingly. Must be called before a node that might be part of a facet
+     * hierarchy is deleted.
+     *
+     * @param node A node that is about to be deleted.
+     * @return The number of deleted relationships.
+     */
+    public static int removeFromHierarchy(Node node) {
+        Map<String, List<Node>> childrenByFacet = new HashMap<>();
+        int numDeleted = 0;
+        for (Relationship rel : node.getRelationships(Direction.OUTGOING)) {
+            String facetId = FacetRelationshipTypes.getFacetId(rel.getType());
+            if (facetId != null) {
+                childrenByFacet.computeIfAbsent(facetId, k -> new ArrayList<>()).add(rel.getEndNode());
+                rel.delete();
+                ++numDeleted;
+            }
+        }
+        for (String facetId : childrenByFacet.keySet()) {
+            for (Node child : childrenByFacet.get(facetId))
+                update(child, facetId);
+        }
+        return numDeleted;
+    }
+
+    /**
+     * Recomputes the ancestors of <tt>start</tt> from its parents and propagates changes to its descendants.
+     */
+    private static void update(Node start, String facetId) {
+        RelationshipType relType = FacetRelationshipTypes.broaderThanInFacet(facetId);
+        Deque<Node> queue = new ArrayDeque<>();
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            // In a cycle, the node is its own ancestor; the ancestor sets then only grow until they are equal.
+            if (updateNode(node, facetId)) {
+                for (Relationship rel : node.getRelationships(Direction.OUTGOING, relType))
+                    queue.add(rel.getEndNode());
+            }
+        }
+    }
+
+    /**
+     * Recomputes the ancestors of <tt>node</tt> from its parents.
+     *
+     * @return Whether the ancestors have changed.
+     */
+    private static boolean updateNode(Node node, String facetId) {
+        RelationshipType relType = FacetRelationshipTypes.broaderThanInFacet(facetId);
+        List<long[]> parentAncestors = new ArrayList<>();
+        List<Long> parentIds = new ArrayList<>();
+        for (Relationship rel : node.getRelationships(Direction.INCOMING, relType)) {
+            Node parent = rel.getStartNode();
+            parentIds.add(parent.getId());
+            parentAncestors.add(getAncestorIds(parent, facetId));
+        }
+        long[] parentIdArray = new long[parentIds.size()];
+        for (int i = 0; i < parentIdArray.length; i++)
+            parentIdArray[i] = parentIds.get(i);
+        Arrays.sort(parentIdArray);
+        parentAncestors.add(parentIdArray);
+        long[] ancestorIds = NodeIdArrays.union(parentAncestors, -1);
+        if (Arrays.equals(ancestorIds, getAncestorIds(node, facetId)))
+            return false;
+        String property = PROP_ANCESTORS_PREFIX + facetId;
+        if (ancestorIds.length > 0)
+            node.setProperty(property, ancestorIds);
+        else
+            node.removeProperty(property);
+        return true;
+    }
+
+    /**
+     * Builds the index for all facets from scratch. The nodes of each facet hierarchy are collected breadth-first
+     * from the facet roots and updated in batches of committed transactions.
+     *
+     * @param graphDb The graph database.
+     * @param log     The log.
+     * @return The number of facets and concept nodes that have been indexed.
+     */
+    public static Map<String, Object> build(GraphDatabaseService graphDb, Log log) {
+        List<String> facetIds = new ArrayList<>();
+        try (Transaction tx = graphDb.beginTx()) {
+            try (ResourceIterator<Node> facets = tx.findNodes(FacetManager.FacetLabel.FACET)) {
+                while (facets.hasNext())
+                    facetIds.add((String) facets.next().getProperty(FacetConstants.PROP_ID));
+            }
+        }
+        long numNodes = 0;
+        for (String facetId : facetIds) {
+            List<Long> nodeIds = new ArrayList<>();
+            try (Transaction tx = graphDb.beginTx()) {
+                RelationshipType relType = FacetRelationshipTypes.broaderThanInFacet(facetId);
+                Set<Long> visited = new HashSet<>();
+                Deque<Node> queue = new ArrayDeque<>();
+                for (Relationship rel : FacetManager.getFacetNode(tx, facetId).getRelationships(Direction.OUTGOING, ConceptEdgeTypes.HAS_ROOT_CONCEPT))
+                    queue.add(rel.getEndNode());
+                while (!queue.isEmpty()) {
+                    Node node = queue.poll();
+                    if (!visited.add(node.getId()))
+                        continue;
+                    nodeIds.add(node.getId());
+                    for (Relationship rel : node.getRelationships(Direction.OUTGOING, relType))
+                        queue.add(rel.getEndNode());
+                }
+            }
+            log.info("Building the ancestor index for the %s nodes of facet %s.", nodeIds.size(), facetId);
+            // Remove the old values first so that stale ancestors do not survive.
+            for (int batchStart = 0; batchStart < nodeIds.size(); batchStart += BATCH_SIZE) {
+                try (Transaction tx = graphDb.beginTx()) {
+                    for (long nodeId : nodeIds.subList(batchStart, Math.min(batchStart + BATCH_SIZE, nodeIds.size())))
+                        tx.getNodeById(nodeId).removeProperty(PROP_ANCESTORS_PREFIX + facetId);
+                    tx.commit();
+                }
+            }
+            // In breadth-first order, the parents are mostly done before their children and changes rarely propagate.
+            for (int batchStart = 0; batchStart < nodeIds.size(); batchStart += BATCH_SIZE) {
+                try (Transaction tx = graphDb.beginTx()) {
+                    for (long nodeId : nodeIds.subList(batchStart, Math.min(batchStart + BATCH_SIZE, nodeIds.size())))
+                        update(tx.getNodeById(nodeId), facetId);
+                    tx.commit();
+                }
+            }
+            numNodes += nodeIds.size();
+        }
+        try (Transaction tx = graphDb.beginTx()) {
+            IndexMarker.markComplete(tx, AncestorIndexLabel.ANCESTOR_INDEX);
+            tx.commit();
+        }
+        return Map.of("numFacets", facetIds.size(), "numNodes", numNodes);
+    }
+
+    public enum AncestorIndexLabel implements Label {
+        /**
+         * The label of the single node storing the state of the index.
+         */
+        ANCESTOR_INDEX
+    }
+}
@@ -0,0 +1,354 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import de.julielab.neo4j.plugins.FacetManager;
+import de.julielab.neo4j.plugins.datarepresentation.constants.FacetConstants;
+import org.neo4j.graphdb.*;
+import org.neo4j.logging.Log;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants.PROP_CHILDREN_IN_FACETS;
+
+/**
+ * <p>
+ * Recomputes the {@link de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants#PROP_CHILDREN_IN_FACETS}
+ * property of all concepts and the {@link FacetConstants#PROP_NUM_CONCEPTS} of all facets for
+ * {@link ConceptManager#updateChildrenInformation(int, int, boolean)}.
+ * </p>
+ * <p>
+ * The concept node IDs are read from the label scan, sorted and split into batches. Each batch is a range of node
+ * IDs that is updated and committed by a worker thread in its own transaction. The workers may commit the batches in
+ * any order. Thus, the checkpoint node stores the low-water mark of the committed batches: the last node ID of the
+ * longest run of batches from the start that have all been committed. A job that did not finish, e.g. because the
+ * server was shut down, is resumed after the checkpoint by the next run. Batches after the checkpoint that had
+ * already been committed are just updated again.
+ * </p>
+ * <p>
+ * At most one job runs at a time. Its progress and throughput are available from {@link #getStatus()}.
+ * </p>
+ */
+public class ChildrenInformationJob {
+    public static final String SYSPROP_NUM_WORKERS = "de.julielab.neo4j.plugins.concepts.childreninformation.numworkers";
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    public static final String KEY_STATE = "state";
+    public static final String KEY_NUM_NODES = "numNodes";
+    public static final String KEY_NUM_UPDATED_NODES = "numUpdatedNodes";
+    public static final String KEY_LAST_NODE_ID = "lastNodeId";
+    public static final String KEY_RESUMED_AFTER_NODE_ID = "resumedAfterNodeId";
+    public static final String KEY_NUM_WORKERS = "numWorkers";
+    public static final String KEY_BATCH_SIZE = "batchSize";
+    public static final String KEY_TIME = "time";
+    public static final String KEY_NODES_PER_SECOND = "nodesPerSecond";
+    public static final String KEY_ERROR = "error";
+    public static final String PROP_LAST_NODE_ID = "lastNodeId";
+    public static final String PROP_FINISHED = "finished";
+    private static final AtomicBoolean running = new AtomicBoolean();
+    private static volatile ChildrenInformationJob lastJob;
+    private final GraphDatabaseService graphDb;
+    private final int batchSize;
+    private final int numWorkers;
+    private final Log log;
+    private final AtomicLong numNodes = new AtomicLong();
+    private final AtomicLong numUpdatedNodes = new AtomicLong();
+    /**
+     * The indexes of the committed batches, set by the workers.
+     */
+    private final BitSet committedBatches = new BitSet();
+    /**
+     * The number of batches from the start that are covered by the checkpoint.
+     */
+    private int numCheckpointedBatches;
+    private volatile State state = State.PENDING;
+    private volatile long lastNodeId = -1;
+    private volatile long resumedAfterNodeId = -1;
+    private volatile long startTime;
+    private volatile long endTime;
+    private volatile String error;
+
+    private ChildrenInformationJob(GraphDatabaseService graphDb, int batchSize, int numWorkers, Log log) {
+        this.graphDb = graphDb;
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        this.numWorkers = numWorkers > 0 ? numWorkers : Math.max(1, Integer.getInteger(SYSPROP_NUM_WORKERS, Runtime.getRuntime().availableProcessors()));
+        this.log = log;
+    }
+
+    /**
+     * Creates a new job unless another job is running. The job must be started with {@link #run()}.
+     *
+     * @param graphDb    The database.
+     * @param batchSize  The number of nodes committed together. Non-positive values select {@link #DEFAULT_BATCH_SIZE}.
+     * @param numWorkers The number of worker threads. Non-positive values select the value of
+     *                   {@link #SYSPROP_NUM_WORKERS} or the number of available processors.
+     * @param log        The log.
+     * @return The new job or <tt>null</tt> if another job is running.
+     */
+    public static ChildrenInformationJob create(GraphDatabaseService graphDb, int batchSize, int numWorkers, Log log) {
+        if (!running.compareAndSet(false, true))
+            return null;
+        ChildrenInformationJob job = new ChildrenInformationJob(graphDb, batchSize, numWorkers, log);
+        lastJob = job;
+        return job;
+    }
+
+    /**
+     * @return The status of the running or last job, or of the checkpoint if there was no job since startup.
+     */
+    public static Map<String, Object> getStatus(GraphDatabaseService graphDb) {
+        ChildrenInformationJob job = lastJob;
+        if (job != null)
+            return job.getStatus();
+        Map<String, Object> status = new LinkedHashMap<>();
+        try (Transaction tx = graphDb.beginTx()) {
+            Node checkpoint = getCheckpoint(tx);
+            if (checkpoint == null) {
+                status.put(KEY_STATE, State.NONE.name());
+            } else {
+                status.put(KEY_STATE, (boolean) checkpoint.getProperty(PROP_FINISHED, false) ? State.FINISHED.name() : State.INTERRUPTED.name());
+                status.put(KEY_LAST_NODE_ID, checkpoint.getProperty(PROP_LAST_NODE_ID, -1L));
+            }
+        }
+        return status;
+    }
+
+    private static Node getCheckpoint(Transaction tx) {
+        try (ResourceIterator<Node> checkpoints = tx.findNodes(ChildrenInformationLabel.CHILDREN_INFORMATION_CHECKPOINT)) {
+            return checkpoints.hasNext() ? checkpoints.next() : null;
+        }
+    }
+
+    /**
+     * Runs the job in the calling thread.
+     *
+     * @return The final status of the job.
+     */
+    public Map<String, Object> run() {
+        startTime = System.currentTimeMillis();
+        state = State.RUNNING;
+        try (WorkerPool<long[]> workers = new WorkerPool<>("children-information-update-", numWorkers)) {
+            resumedAfterNodeId = startCheckpoint();
+            if (resumedAfterNodeId >= 0)
+                log.info("Resuming the update of the children information after node ID %s.", resumedAfterNodeId);
+            long[] conceptIds = readConceptIds(resumedAfterNodeId);
+            for (int from = 0; from < conceptIds.length; from += batchSize) {
+                int batch = from / batchSize;
+                long[] nodeIds = Arrays.copyOfRange(conceptIds, from, Math.min(conceptIds.length, from + batchSize));
+                long[] result = workers.submit(() -> updateBatch(batch, nodeIds));
+                if (result != null)
+                    completeBatch(result, conceptIds);
+            }
+            while (workers.hasPending())
+                completeBatch(workers.awaitOldest(), conceptIds);
+            updateFacetSizes();
+            finishCheckpoint();
+            state = State.FINISHED;
+        } catch (Throwable t) {
+            error = t.getMessage() != null ? t.getMessage() : t.getClass().getName();
+            state = State.FAILED;
+            log.error("Updating the children information failed after node ID " + lastNodeId + ". The next run resumes from there.", t);
+            if (t instanceof RuntimeException)
+                throw (RuntimeException) t;
+            throw new IllegalStateException(t);
+        } finally {
+            endTime = System.currentTimeMillis();
+            running.set(false);
+        }
+        long time = endTime - startTime;
+        log.info("Updated the children information of %s concepts (%s changed) with %s workers in %s ms (%s nodes/s).", numNodes.get(), numUpdatedNodes.get(), numWorkers, time, getNodesPerSecond());
+        return getStatus();
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put(KEY_STATE, state.name());
+        status.put(KEY_NUM_NODES, numNodes.get());
+        status.put(KEY_NUM_UPDATED_NODES, numUpdatedNodes.get());
+        status.put(KEY_LAST_NODE_ID, lastNodeId);
+        status.put(KEY_RESUMED_AFTER_NODE_ID, resumedAfterNodeId);
+        status.put(KEY_NUM_WORKERS, numWorkers);
+        status.put(KEY_BATCH_SIZE, batchSize);
+        status.put(KEY_TIME, getTime());
+        status.put(KEY_NODES_PER_SECOND, getNodesPerSecond());
+        if (error != null)
+            status.put(KEY_ERROR, error);
+        return status;
+    }
+
+    private long getTime() {
+        if (startTime == 0)
+            return 0;
+        return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    private long getNodesPerSecond() {
+        long time = getTime();
+        return time > 0 ? numNodes.get() * 1000 / time : numNodes.get();
+    }
+
+    /**
+     * @return The node ID after which to resume or -1 if the job starts from the beginning.
+     */
+    private long startCheckpoint() {
+        try (Transaction tx = graphDb.beginTx()) {
+            Node checkpoint = getCheckpoint(tx);
+            long resumeAfter = -1;
+            if (checkpoint == null)
+                checkpoint = tx.createNode(ChildrenInformationLabel.CHILDREN_INFORMATION_CHECKPOINT);
+            else if (!(boolean) checkpoint.getProperty(PROP_FINISHED, false))
+                resumeAfter = (long) checkpoint.getProperty(PROP_LAST_NODE_ID, -1L);
+            checkpoint.setProperty(PROP_FINISHED, false);
+            checkpoint.setProperty(PROP_LAST_NODE_ID, resumeAfter);
+            tx.commit();
+            return resumeAfter;
+        }
+    }
+
+    /**
+     * @return The sorted IDs of the concept nodes greater than <tt>resumeAfter</tt>. The label scan does not guarantee
+     * any order, so the IDs are sorted for the checkpoint to mark a position in a well-defined sequence.
+     */
+    private long[] readConceptIds(long resumeAfter) {
+        long[] conceptIds = new long[1024];
+        int numConcepts = 0;
+        try (Transaction tx = graphDb.beginTx(); ResourceIterator<Node> concepts = tx.findNodes(ConceptLabel.CONCEPT)) {
+            while (concepts.hasNext()) {
+                long nodeId = concepts.next().getId();
+                if (nodeId <= resumeAfter)
+                    continue;
+                if (numConcepts == conceptIds.length)
+                    conceptIds = Arrays.copyOf(conceptIds, numConcepts * 2);
+                conceptIds[numConcepts++] = nodeId;
+            }
+        }
+        conceptIds = Arrays.copyOf(conceptIds, numConcepts);
+        Arrays.sort(conceptIds);
+        return conceptIds;
+    }
+
+    /**
+     * Counts the result of a batch and advances the checkpoint over the batches from the start that have all been
+     * committed by now.
+     *
+     * @param result     The result of {@link #updateBatch(int, long[])}.
+     * @param conceptIds The sorted concept node IDs of the job.
+     */
+    private void completeBatch(long[] result, long[] conceptIds) {
+        long count = numNodes.addAndGet(result[0]);
+        numUpdatedNodes.addAndGet(result[1]);
+        int numCommittedBatches;
+        synchronized (committedBatches) {
+            numCommittedBatches = committedBatches.nextClearBit(0);
+        }
+        if (numCommittedBatches > numCheckpointedBatches) {
+            long checkpointNodeId = conceptIds[Math.min(conceptIds.length, numCommittedBatches * batchSize) - 1];
+            try (Transaction tx = graphDb.beginTx()) {
+                getCheckpoint(tx).setProperty(PROP_LAST_NODE_ID, checkpointNodeId);
+                tx.commit();
+            }
+            numCheckpointedBatches = numCommittedBatches;
+            lastNodeId = checkpointNodeId;
+        }
+        if (count % 100000 < batchSize)
+            log.info("%s concepts processed (%s nodes/s).", count, getNodesPerSecond());
+    }
+
+    /**
+     * @param batch   The index of the batch in the sorted concept node IDs.
+     * @param nodeIds The node IDs of the batch.
+     * @return The number of processed nodes and the number of changed nodes.
+     */
+    private long[] updateBatch(int batch, long[] nodeIds) {
+        long numProcessed = 0;
+        long numChanged = 0;
+        try (Transaction tx = graphDb.beginTx()) {
+            for (long nodeId : nodeIds) {
+                Node concept;
+                try {
+                    concept = tx.getNodeById(nodeId);
+                } catch (NotFoundException e) {
+                    // The node has been deleted since its ID was read.
+                    continue;
+                }
+                ++numProcessed;
+                if (updateChildrenInFacets(concept))
+                    ++numChanged;
+            }
+            tx.commit();
+        }
+        synchronized (committedBatches) {
+            committedBatches.set(batch);
+        }
+        return new long[]{numProcessed, numChanged};
+    }
+
+    /**
+     * @return Whether the property of <tt>concept</tt> has been changed.
+     */
+    private boolean updateChildrenInFacets(Node concept) {
+        Set<String> facetsContainingChildren = new TreeSet<>();
+        // Checking the types instead of iterating the relationships keeps this cheap for concepts with many children.
+        for (RelationshipType type : concept.getRelationshipTypes()) {
+            String facetId = FacetRelationshipTypes.getFacetId(type);
+            if (facetId != null && concept.hasRelationship(Direction.OUTGOING, type))
+                facetsContainingChildren.add(facetId);
+        }
+        String[] existingFacetIds = (String[]) concept.getProperty(PROP_CHILDREN_IN_FACETS, new String[0]);
+        if (new HashSet<>(Arrays.asList(existingFacetIds)).equals(facetsContainingChildren))
+            return false;
+        if (facetsContainingChildren.isEmpty())
+            concept.removeProperty(PROP_CHILDREN_IN_FACETS);
+        else
+            concept.setProperty(PROP_CHILDREN_IN_FACETS, facetsContainingChildren.toArray(new String[0]));
+        return true;
+    }
+
+    private void updateFacetSizes() {
+        List<String> facetIds = new ArrayList<>();
+        try (Transaction tx = graphDb.beginTx(); ResourceIterator<Node> facets = tx.findNodes(FacetManager.FacetLabel.FACET)) {
+            while (facets.hasNext())
+                facetIds.add((String) facets.next().getProperty(FacetConstants.PROP_ID));
+        }
+        for (String facetId : facetIds) {
+            try (Transaction tx = graphDb.beginTx()) {
+                Node facet = FacetManager.getFacetNode(tx, facetId);
+                if (facet != null) {
+                    facet.setProperty(FacetConstants.PROP_NUM_CONCEPTS, FacetManager.countFacetConcepts(tx, facetId));
+                    tx.commit();
+                }
+            }
+        }
+    }
+
+    private void finishCheckpoint() {
+        try (Transaction tx = graphDb.beginTx()) {
+            getCheckpoint(tx).setProperty(PROP_FINISHED, true);
+            tx.commit();
+        }
+    }
+
+    public enum State {
+        /**
+         * No job has run since startup and there is no checkpoint.
+         */
+        NONE,
+        /**
+         * The job has been created but not started.
+         */
+        PENDING,
+        RUNNING,
+        FINISHED,
+        FAILED,
+        /**
+         * A job before startup did not finish and will be resumed by the next run.
+         */
+        INTERRUPTED
+    }
+
+    public enum ChildrenInformationLabel implements Label {
+        /**
+         * The label of the node storing the last node ID whose children information has been committed.
+         */
+        CHILDREN_INFORMATION_CHECKPOINT
+    }
+}
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.google.common.collect.Sets;
 import de.julielab.neo4j.plugins.FacetManager;
@@ -17,17 +18,18 @@ import de.julielab.neo4j.plugins.datarepresentation.*;
 import de.julielab.neo4j.plugins.datarepresentation.constants.ConceptRelationConstants;
 import de.julielab.neo4j.plugins.datarepresentation.constants.FacetConstants;
 import de.julielab.neo4j.plugins.datarepresentation.constants.NodeIDPrefixConstants;
-import de.julielab.neo4j.plugins.datarepresentation.util.ConceptsJsonSerializer;
+import de.julielab.neo4j.plugins.datarepresentation.util.ConceptsSmileSerializer;
 import de.julielab.neo4j.plugins.util.AggregateConceptInsertionException;
 import de.julielab.neo4j.plugins.util.ConceptInsertionException;
 import org.apache.commons.lang3.StringUtils;
 import org.neo4j.graphdb.*;
 import org.neo4j.logging.Log;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.function.IntSupplier;
 import java.util.stream.StreamSupport;
 
 import static de.julielab.neo4j.plugins.auxiliaries.PropertyUtilities.*;
@@ -37,7 +39,6 @@ import static de.julielab.neo4j.plugins.concepts.ConceptLabel.*;
 import static de.julielab.neo4j.plugins.concepts.ConceptLookup.lookupConcept;
 import static de.julielab.neo4j.plugins.concepts.ConceptManager.*;
 import static de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants.*;
-import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.joining;
 
 public class ConceptInsertion {
@@ -54,7 +55,7 @@ public class ConceptInsertion {
         Node facet = FacetManager.getFacetNode(tx, facetId);
         RelationshipType relBroaderThanInFacet = null;
         if (null != facet)
-            relBroaderThanInFacet = RelationshipType.withName(ConceptEdgeTypes.IS_BROADER_THAN + "_" + facetId);
+            relBroaderThanInFacet = FacetRelationshipTypes.broaderThanInFacet(facetId);
         AddToNonFacetGroupCommand noFacetCmd = importOptions.noFacetCmd;
         Node noFacet = null;
         for (ImportConcept jsonConcept : jsonConcepts) {
@@ -86,7 +87,7 @@ public class ConceptInsertion {
                         if (importOptions.cutParents.contains(parentSrcId)) {
                             log.debug("Concept node " + coordinates
                                     + " has a parent that is marked to be cut away. Concept will be a facet root.");
-                            createRelationshipIfNotExists(facet, concept, HAS_ROOT_CONCEPT, insertionReport);
+                            FacetStatistics.relationshipCreated(createRelationshipIfNotExists(tx, facet, concept, HAS_ROOT_CONCEPT, insertionReport), facetId, insertionReport);
                             continue;
                         }
 
@@ -100,14 +101,19 @@ public class ConceptInsertion {
                                     + parentCoordinates);
 
                         if (insertionReport.importedCoordinates.contains(parentCoordinates)
-                                || insertionReport.existingConcepts.contains(parent)) {
-                            createRelationshipIfNotExists(parent, concept, ConceptEdgeTypes.IS_BROADER_THAN, insertionReport);
+                                || insertionReport.isExistingConcept(parent)) {
+                            createRelationshipIfNotExists(tx, parent, concept, ConceptEdgeTypes.IS_BROADER_THAN, insertionReport);
                             // Since a concept may appear in multiple facets, we
                             // connect concepts with a general taxonomic
                             // relation as well as a special relation only
                             // relevant to the
                             // particular structure‚ of the current facet.
-                            createRelationshipIfNotExists(parent, concept, relBroaderThanInFacet, insertionReport);
+                            Relationship facetRel = createRelationshipIfNotExists(tx, parent, concept, relBroaderThanInFacet, insertionReport);
+                            if (null != facet) {
+                                if (AncestorIndex.addParent(parent, concept, facetId))
+                                    insertionReport.addAncestorUpdate(facetId, concept.getId());
+                                FacetStatistics.relationshipCreated(facetRel, facetId, insertionReport);
+                            }
                         } else {
                             // If the parent is not found in nodesBySrcId it
                             // does not exist in the currently imported data nor
@@ -148,11 +154,17 @@ public class ConceptInsertion {
                                 // nodesByCoordinates.put(parentCoordinates,
                                 // hollowParent);
                                 // insertionReport.numConcepts++;
-                                createRelationshipIfNotExists(parent, concept, ConceptEdgeTypes.IS_BROADER_THAN,
+                                createRelationshipIfNotExists(tx, parent, concept, ConceptEdgeTypes.IS_BROADER_THAN,
                                         insertionReport);
-                                createRelationshipIfNotExists(parent, concept, relBroaderThanInFacet, insertionReport);
-                                createRelationshipIfNotExists(facet, parent, HAS_ROOT_CONCEPT,
+                                Relationship facetRel = createRelationshipIfNotExists(tx, parent, concept, relBroaderThanInFacet, insertionReport);
+                                Relationship rootRel = createRelationshipIfNotExists(tx, facet, parent, HAS_ROOT_CONCEPT,
                                         insertionReport);
+                                if (null != facet) {
+                                    if (AncestorIndex.addParent(parent, concept, facetId))
+                                        insertionReport.addAncestorUpdate(facetId, concept.getId());
+                                    FacetStatistics.relationshipCreated(facetRel, facetId, insertionReport);
+                                    FacetStatistics.relationshipCreated(rootRel, facetId, insertionReport);
+                                }
                             } else {
                                 assert facet != null;
                                 log.warn(
@@ -161,8 +173,8 @@ public class ConceptInsertion {
                                 // Connect the concept as a root, it's the best we
                                 // can
                                 // do.
-                                createRelationshipIfNotExists(facet, concept, HAS_ROOT_CONCEPT,
-                                        insertionReport);
+                                FacetStatistics.relationshipCreated(createRelationshipIfNotExists(tx, facet, concept, HAS_ROOT_CONCEPT,
+                                        insertionReport), facetId, insertionReport);
                             }
                         }
                         if (parent.hasLabel(AGGREGATE) && !parent.hasLabel(CONCEPT))
@@ -185,12 +197,12 @@ public class ConceptInsertion {
                             noFacet = FacetManager.getNoFacet(tx, (String) facet.getProperty(PROP_ID));
                         }
 
-                        createRelationshipIfNotExists(noFacet, concept, HAS_ROOT_CONCEPT, insertionReport);
+                        createRelationshipIfNotExists(tx, noFacet, concept, HAS_ROOT_CONCEPT, insertionReport);
                     } else if (null != facet) {
                         // This concept does not have a concept parent. It is a facet
                         // root,
                         // thus connect it to the facet node.
-                        createRelationshipIfNotExists(facet, concept, HAS_ROOT_CONCEPT, insertionReport);
+                        FacetStatistics.relationshipCreated(createRelationshipIfNotExists(tx, facet, concept, HAS_ROOT_CONCEPT, insertionReport), facetId, insertionReport);
                     }
                     // else: nothing, because the concept already existed, we are
                     // merely merging here.
@@ -224,12 +236,15 @@ public class ConceptInsertion {
                                 ++k;
                             }
                         }
-                        createRelationShipIfNotExists(concept, target, type, insertionReport, Direction.OUTGOING,
+                        createRelationShipIfNotExists(tx, concept, target, type, insertionReport, Direction.OUTGOING,
                                 properties);
                     }
                 }
             }
         }
+        // The descendants are updated after the commit; until then, the ancestor index must not be relied upon.
+        if (!insertionReport.ancestorUpdates.isEmpty())
+            AncestorIndex.beginDescendantUpdates(tx);
         log.debug("Finished 100% of concepts for relationship creation.");
         time = System.currentTimeMillis() - time;
         log.info(insertionReport.numRelationships
@@ -256,6 +271,8 @@ public class ConceptInsertion {
         if (!StringUtils.isBlank(coordinates.originalId)) {
             node.setProperty(PROP_ORG_ID, coordinates.originalId);
             node.setProperty(PROP_ORG_SRC, coordinates.originalSource);
+            if (ConceptNodeIdCache.isEnabled())
+                ConceptNodeIdCache.getInstance().putOriginalId(coordinates.originalId, coordinates.originalSource, node.getId());
         }
         NodeUtilities.mergeSourceId(tx, node, coordinates.sourceId, coordinates.source, coordinates.uniqueSourceId);
 //        node.setProperty(PROP_SRC_IDS, coordinates.sourceId);
@@ -268,6 +285,19 @@ public class ConceptInsertion {
     static void insertConcept(Transaction tx, Log log, String facetId,
                               ImportConcept jsonConcept, CoordinatesMap nodesByCoordinates, InsertionReport insertionReport,
                               ImportOptions importOptions) {
+        insertConcept(tx, log, facetId, jsonConcept, nodesByCoordinates, insertionReport, importOptions,
+                () -> SequenceManager.getNextSequenceValue(tx, SequenceConstants.SEQ_TERM));
+    }
+
+    /**
+     * Inserts or merges the given concept into its node which must have been looked up or created before and
+     * must be contained in <tt>nodesByCoordinates</tt>.
+     *
+     * @param termIds The source of the sequence values for the IDs of the concepts that turn from HOLLOW into full concepts.
+     */
+    static void insertConcept(Transaction tx, Log log, String facetId,
+                              ImportConcept jsonConcept, CoordinatesMap nodesByCoordinates, InsertionReport insertionReport,
+                              ImportOptions importOptions, IntSupplier termIds) {
         // Name is mandatory, thus we don't use the
         // null-convenience method here.
         String prefName = jsonConcept.prefName;
@@ -334,11 +364,12 @@ public class ConceptInsertion {
             Iterable<Relationship> relationships = concept.getRelationships(HAS_ROOT_CONCEPT);
             for (Relationship rel : relationships) {
                 Node startNode = rel.getStartNode();
-                if (startNode.hasLabel(FacetManager.FacetLabel.FACET))
+                if (startNode.hasLabel(FacetManager.FacetLabel.FACET)) {
+                    FacetStatistics.rootRelationshipDeleting(rel, insertionReport);
                     rel.delete();
+                }
             }
-            String conceptId = NodeIDPrefixConstants.TERM
-                    + SequenceManager.getNextSequenceValue(tx, SequenceConstants.SEQ_TERM);
+            String conceptId = NodeIDPrefixConstants.TERM + termIds.getAsInt();
             concept.setProperty(PROP_ID, conceptId);
         }
 
@@ -353,11 +384,17 @@ public class ConceptInsertion {
         if (!StringUtils.isBlank(coordinates.originalId) && !concept.hasProperty(PROP_ORG_ID)) {
             concept.setProperty(PROP_ORG_ID, coordinates.originalId);
             concept.setProperty(PROP_ORG_SRC, coordinates.originalSource);
+            if (ConceptNodeIdCache.isEnabled())
+                ConceptNodeIdCache.getInstance().putOriginalId(coordinates.originalId, coordinates.originalSource, concept.getId());
         }
+        Object previousPrefName = concept.getProperty(PROP_PREF_NAME, null);
         if (!importOptions.overridePreferredName)
             setNonNullNodeProperty(concept, PROP_PREF_NAME, jsonConcept.prefName);
         else if (!jsonConcept.prefName.isBlank())
             concept.setProperty(PROP_PREF_NAME, jsonConcept.prefName);
+        // Record new concepts and changed names for the incremental aggregate maintenance.
+        if (!Objects.equals(previousPrefName, concept.getProperty(PROP_PREF_NAME, null)))
+            concept.addLabel(PREF_NAME_CHANGED);
         mergeArrayProperty(concept, PROP_DESCRIPTIONS, () -> jsonConcept.descriptions.toArray(new String[0]));
         mergeArrayProperty(concept, PROP_WRITING_VARIANTS, () -> jsonConcept.writingVariants.toArray(new String[0]));
         mergeArrayProperty(concept, PROP_COPY_PROPERTIES, () -> jsonConcept.copyProperties.toArray(new String[0]));
@@ -420,6 +457,7 @@ public class ConceptInsertion {
      * the properties instead of creating a new relationship.
      * </p>
      *
+     * @param tx              The current transaction.
      * @param source          The node to create a new relationship from (note that the relationship direction has yet to be considered).
      * @param target          The node to create the new relationship to (note that the relationship direction has yet to be considered).
      * @param type            The relationship type of new new relationship.
@@ -430,7 +468,7 @@ public class ConceptInsertion {
      *                        properties - already exists.
      * @return The newly created relationship. Null if the relationship did already exist.
      */
-    private static Relationship createRelationShipIfNotExists(Node source, Node target, RelationshipType type,
+    private static Relationship createRelationShipIfNotExists(Transaction tx, Node source, Node target, RelationshipType type,
                                                               InsertionReport insertionReport, Direction direction, Object... properties) {
         if (null != properties && properties.length % 2 != 0)
             throw new IllegalArgumentException("Property list must contain of key/value pairs but its length was odd.");
@@ -449,8 +487,8 @@ public class ConceptInsertion {
         if (insertionReport.relationshipAlreadyWasCreated(source, target, type)) {
             relationShipExists = true;
 //            System.out.println("Found relation in the relationship cache.");
-        } else if (insertionReport.existingConcepts.contains(source)
-                && insertionReport.existingConcepts.contains(target)) {
+        } else if (insertionReport.isExistingConcept(source)
+                && insertionReport.isExistingConcept(target)) {
             // Both concepts existing before the current processing call to
             // insert_concepts. Thus, we have to check whether
             // the relation already exists and cannot just use
@@ -464,28 +502,29 @@ public class ConceptInsertion {
             else if (direction == Direction.OUTGOING)
                 reverseDirection = Direction.INCOMING;
             final int targetDegree = target.getDegree(type, reverseDirection);
-            if (sourceDegree <= targetDegree) {
-                Iterable<Relationship> relationships = source.getRelationships(direction, type);
-                for (Relationship relationship : relationships) {
-                    if (relationship.getOtherNode(source).equals(target)) {
-                        relationShipExists = mergeProperties(relationship, properties);
-                        if (relationShipExists) {
-                            break;
-                        }
-                    }
+            // We search from the node with the lower degree.
+            boolean fromSource = sourceDegree <= targetDegree;
+            Node searchNode = fromSource ? source : target;
+            Node otherNode = fromSource ? target : source;
+            Direction searchDirection = fromSource ? direction : reverseDirection;
+            if (Math.min(sourceDegree, targetDegree) >= InsertionReport.HUB_DEGREE) {
+                // Both nodes are hubs. Instead of scanning the relationships of the search node for each new
+                // relationship, their IDs are loaded once into a hash table.
+                for (long relationshipId : insertionReport.getHubRelationshipIds(searchNode, otherNode, type, searchDirection)) {
+                    relationShipExists = mergeProperties(tx.getRelationshipById(relationshipId), properties);
+                    if (relationShipExists)
+                        break;
                 }
-//                System.out.println("Tried direction source -> target; did find the relation: " + relationShipExists);
             } else {
-                Iterable<Relationship> relationships = target.getRelationships(reverseDirection, type);
+                Iterable<Relationship> relationships = searchNode.getRelationships(searchDirection, type);
                 for (Relationship relationship : relationships) {
-                    if (relationship.getOtherNode(target).equals(source)) {
+                    if (relationship.getOtherNodeId(searchNode.getId()) == otherNode.getId()) {
                         relationShipExists = mergeProperties(relationship, properties);
                         if (relationShipExists) {
                             break;
                         }
                     }
                 }
-//                System.out.println("Tried direction target <- source; did find the relation: " + relationShipExists);
             }
         }
         if (!relationShipExists) {
@@ -498,7 +537,7 @@ public class ConceptInsertion {
                 Object value = properties[i + 1];
                 createdRelationship.setProperty(key, value);
             }
-            insertionReport.addCreatedRelationship(source, target, type);
+            insertionReport.addCreatedRelationship(createdRelationship);
             insertionReport.numRelationships++;
         }
         return createdRelationship;
@@ -508,145 +547,263 @@ public class ConceptInsertion {
      * Creates a relationship of type <tt>type</tt> from <tt>source</tt> to
      * <tt>target</tt>, if this relationship does not already exist.
      *
+     * @param tx              The current transaction.
      * @param source          The node to create a new relationship from (note that the relationship direction has yet to be considered).
      * @param target          The node to create the new relationship to (note that the relationship direction has yet to be considered).
      * @param type            The relationship type of new new relationship.
      * @param insertionReport The insertion report keeping track of the number of inserted elements.
+     * @return The created relationship or <tt>null</tt> if it already existed.
      */
-    private static void createRelationshipIfNotExists(Node source, Node target, RelationshipType type,
-                                                      InsertionReport insertionReport) {
-        createRelationShipIfNotExists(source, target, type, insertionReport, Direction.OUTGOING);
+    private static Relationship createRelationshipIfNotExists(Transaction tx, Node source, Node target, RelationshipType type,
+                                                              InsertionReport insertionReport) {
+        return createRelationShipIfNotExists(tx, source, target, type, insertionReport, Direction.OUTGOING);
     }
 
-    public static void insertConcepts(GraphDatabaseService graphDb, Log log, ImportConcepts importConcepts, Map<String, Object> response) throws ConceptInsertionException {
-        insertConcepts(log, graphDb, new ByteArrayInputStream(ConceptsJsonSerializer.toJson(importConcepts).getBytes(UTF_8)), response);
+    /**
+     * <p>
+     * Imports <tt>importConcepts</tt> without serializing them first; the concepts are handed to the insertion batches
+     * directly from {@link ImportConcepts#getConcepts()}. This is the path for callers within the same JVM. The
+     * concept stream is consumed by this method. The import options are copied so that changes during the import,
+     * e.g. setting the merge option when no facet is given, do not reach the caller.
+     * </p>
+     */
+    public static InsertionReport insertConcepts(GraphDatabaseService graphDb, Log log, ImportConcepts importConcepts, Map<String, Object> response) throws ConceptInsertionException {
+        ImportOptions importOptions = importConcepts.getImportOptions() != null ? new ImportOptions(importConcepts.getImportOptions()) : new ImportOptions();
+        Iterator<ImportConcept> concepts = importConcepts.getConcepts() != null ? importConcepts.getConcepts().iterator() : null;
+        return insertConcepts(log, graphDb, importConcepts.getFacet(), importOptions, concepts, importConcepts.getNumConcepts(), System.currentTimeMillis(), response);
     }
 
+    /**
+     * Imports the concepts given in JSON format by <tt>importConceptsStream</tt>.
+     *
+     * @see #insertConcepts(Log, GraphDatabaseService, InputStream, boolean, Map)
+     */
     public static InsertionReport insertConcepts(Log log, GraphDatabaseService graphDb, InputStream importConceptsStream, Map<String, Object> response) throws ConceptInsertionException {
+        return insertConcepts(log, graphDb, importConceptsStream, false, response);
+    }
+
+    /**
+     * <p>
+     * Imports the concepts given in JSON or, if <tt>smile</tt> is set, in binary Smile format by
+     * <tt>importConceptsStream</tt>, see {@link ConceptsSmileSerializer}. The concepts are read one by one while the
+     * import proceeds, so the whole data is never held in memory.
+     * </p>
+     */
+    public static InsertionReport insertConcepts(Log log, GraphDatabaseService graphDb, InputStream importConceptsStream, boolean smile, Map<String, Object> response) throws ConceptInsertionException {
         long time = System.currentTimeMillis();
-        ObjectMapper mapper = new ObjectMapper().registerModule(new Jdk8Module());
+        ObjectMapper mapper = new ObjectMapper(smile ? new SmileFactory() : new JsonFactory()).registerModule(new Jdk8Module());
         mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
         mapper.setSerializationInclusion(JsonInclude.Include.NON_EMPTY);
         JsonParser parser;
-        InsertionReport insertionReport = new InsertionReport();
         long numConcepts = -1;
-        log.debug("Parsing JSON stream. This is right before the synchronization block of the concept insertion process.");
-        synchronized (ConceptManager.class) {
-            try {
-                parser = new JsonFactory(mapper).createParser(importConceptsStream);
-
-                ImportFacet importFacet = null;
-                ImportOptions importOptions = new ImportOptions();
-                Iterator<ImportConcept> importConcepts = null;
-                String lastName = null;
-                // We need to stop as soon as we we found the concepts which must be the last property of ImportConcepts
-                // object. Then, we use the iterator to continue.
-                while (parser.nextToken() != null && importConcepts == null) {
-                    JsonToken currentToken = parser.currentToken();
-                    if (currentToken == JsonToken.FIELD_NAME) {
-                        lastName = parser.getCurrentName();
-                    } else if (currentToken == JsonToken.START_OBJECT) {
-                        if (lastName != null && lastName.equals(ImportConcepts.NAME_FACET))
-                            importFacet = parser.readValueAs(ImportFacet.class);
-                        else if (lastName != null && lastName.equals(ImportConcepts.NAME_IMPORT_OPTIONS))
-                            importOptions = parser.readValueAs(ImportOptions.class);
-                        else if (lastName != null && lastName.equals(ImportConcepts.NAME_NUM_CONCEPTS))
-                            numConcepts = parser.readValueAs(Long.class);
-                    } else if (lastName != null && lastName.equals(ImportConcepts.NAME_CONCEPTS) && currentToken == JsonToken.START_ARRAY) {
-                        importConcepts = parser.readValuesAs(ImportConcept.class);
-                    }
-                }
+        log.debug("Parsing %s stream.", smile ? "Smile" : "JSON");
+        try {
+            parser = mapper.getFactory().createParser(importConceptsStream);
 
+            ImportFacet importFacet = null;
+            ImportOptions importOptions = new ImportOptions();
+            Iterator<ImportConcept> importConcepts = null;
+            String lastName = null;
+            // We need to stop as soon as we we found the concepts which must be the last property of ImportConcepts
+            // object. Then, we use the iterator to continue.
+            while (parser.nextToken() != null && importConcepts == null) {
+                JsonToken currentToken = parser.currentToken();
+                if (currentToken == JsonToken.FIELD_NAME) {
+                    lastName = parser.getCurrentName();
+                } else if (currentToken == JsonToken.START_OBJECT) {
+                    if (lastName != null && lastName.equals(ImportConcepts.NAME_FACET))
+                        importFacet = parser.readValueAs(ImportFacet.class);
+                    else if (lastName != null && lastName.equals(ImportConcepts.NAME_IMPORT_OPTIONS))
+                        importOptions = parser.readValueAs(ImportOptions.class);
+                    else if (lastName != null && lastName.equals(ImportConcepts.NAME_NUM_CONCEPTS))
+                        numConcepts = parser.readValueAs(Long.class);
+                } else if (lastName != null && lastName.equals(ImportConcepts.NAME_CONCEPTS) && currentToken == JsonToken.START_ARRAY) {
+                    importConcepts = parser.readValuesAs(ImportConcept.class);
+                }
+            }
+            return insertConcepts(log, graphDb, importFacet, importOptions, importConcepts, numConcepts, time, response);
+        } catch (IOException e) {
+            throw new ConceptInsertionException(e);
+        }
+    }
 
-                log.info("Got %s concepts to import into facet %s with options %s.", numConcepts, importFacet, importOptions);
-                String facetId = null;
-                try (Transaction tx = graphDb.beginTx()) {
-                    Node facet = null;
-                    // The facet Id will be added to the facets-property of the concept
-                    // nodes.
-                    log.debug("Handling import of facet.");
-                    if (null != importFacet && importFacet.getId() != null) {
-                        facetId = importFacet.getId();
-                        log.info("Facet ID {} has been given to add the concepts to.", facetId);
-                        boolean isNoFacet = importFacet.isNoFacet();
-                        if (isNoFacet)
-                            facet = FacetManager.getNoFacet(tx, facetId);
-                        else
-                            facet = FacetManager.getFacetNode(tx, facetId);
-                        if (null == facet)
-                            throw new IllegalArgumentException("The facet with ID \"" + facetId
-                                    + "\" was not found. You must pass the ID of an existing facet or deliver all information required to create the facet from scratch. Then, the facetId must not be included in the request, it will be created dynamically.");
-                    } else if (null != importFacet && importFacet.getName() != null) {
-                        ResourceIterator<Node> facetIterator = tx.findNodes(FacetManager.FacetLabel.FACET);
-                        while (facetIterator.hasNext()) {
-                            facet = facetIterator.next();
-                            if (facet.getProperty(FacetConstants.PROP_NAME)
-                                    .equals(importFacet.getName()))
-                                break;
-                            facet = null;
-                        }
-
-                    }
-                    if (null != importFacet && null == facet) {
-                        // No existing ID is given, create a new facet.
-                        facet = FacetManager.createFacet(tx, importFacet);
-                    }
-                    if (null != facet) {
-                        facetId = (String) facet.getProperty(PROP_ID);
-                        log.debug("Facet {} was successfully created or determined by ID.", facetId);
-                    } else {
-                        log.debug(
-                                "No facet was specified for this import. This is currently equivalent to specifying the merge import option, i.e. concept properties will be merged but no new nodes or relationships will be created.");
-                        importOptions.merge = true;
+    /**
+     * <p>
+     * Imports the concepts delivered by <tt>importConcepts</tt>. Imports into the same facet are
+     * serialized, imports into different facets may run concurrently. The creation of concept nodes is guarded by the
+     * coordinate partition locks of {@link ImportLocks}.
+     * </p>
+     * <p>
+     * If {@link ImportOptions#numInsertionWorkers} is greater than one, the {@link ConceptInsertionPipeline} is used.
+     * Otherwise, the concepts are imported sequentially in batches. In both cases, the response contains the
+     * throughput of the node and relationship creation stages under the {@link ConceptManager#RET_KEY_THROUGHPUT} key.
+     * </p>
+     *
+     * @param time The start time of the import, used for the {@link ConceptManager#KEY_TIME} response value.
+     */
+    private static InsertionReport insertConcepts(Log log, GraphDatabaseService graphDb, ImportFacet importFacet, ImportOptions importOptions, Iterator<ImportConcept> importConcepts, long numConcepts, long time, Map<String, Object> response) throws ConceptInsertionException {
+        InsertionReport insertionReport = new InsertionReport();
+        log.info("Got %s concepts to import into facet %s with options %s.", numConcepts, importFacet, importOptions);
+        Lock facetLock = null;
+        try {
+            String facetId = null;
+            // A facet that is not given by ID is looked up by name or created. This is serialized so that concurrent
+            // imports do not create the same facet twice.
+            Lock facetCreationLock = null != importFacet && importFacet.getId() == null ? ImportLocks.getFacetCreationLock() : null;
+            if (null != facetCreationLock)
+                facetCreationLock.lock();
+            try (Transaction tx = graphDb.beginTx()) {
+                Node facet = null;
+                // The facet Id will be added to the facets-property of the concept
+                // nodes.
+                log.debug("Handling import of facet.");
+                if (null != importFacet && importFacet.getId() != null) {
+                    facetId = importFacet.getId();
+                    log.info("Facet ID {} has been given to add the concepts to.", facetId);
+                    boolean isNoFacet = importFacet.isNoFacet();
+                    if (isNoFacet)
+                        facet = FacetManager.getNoFacet(tx, facetId);
+                    else
+                        facet = FacetManager.getFacetNode(tx, facetId);
+                    if (null == facet)
+                        throw new IllegalArgumentException("The facet with ID \"" + facetId
+                                + "\" was not found. You must pass the ID of an existing facet or deliver all information required to create the facet from scratch. Then, the facetId must not be included in the request, it will be created dynamically.");
+                } else if (null != importFacet && importFacet.getName() != null) {
+                    ResourceIterator<Node> facetIterator = tx.findNodes(FacetManager.FacetLabel.FACET);
+                    while (facetIterator.hasNext()) {
+                        facet = facetIterator.next();
+                        if (facet.getProperty(FacetConstants.PROP_NAME)
+                                .equals(importFacet.getName()))
+                            break;
+                        facet = null;
                     }
-                    tx.commit();
+
+                }
+                if (null != importFacet && null == facet) {
+                    // No existing ID is given, create a new facet.
+                    facet = FacetManager.createFacet(tx, importFacet);
+                }
+                if (null != facet) {
+                    facetId = (String) facet.getProperty(PROP_ID);
+                    log.debug("Facet {} was successfully created or determined by ID.", facetId);
+                } else {
+                    log.debug(
+                            "No facet was specified for this import. This is currently equivalent to specifying the merge import option, i.e. concept properties will be merged but no new nodes or relationships will be created.");
+                    importOptions.merge = true;
                 }
+                // The indexes cover a database that is still empty; this must be recorded before the first
+                // concepts are created.
+                SourceIdIndex.markCompleteIfEmpty(tx);
+                AncestorIndex.markCompleteIfEmpty(tx);
+                tx.commit();
+            } finally {
+                if (null != facetCreationLock)
+                    facetCreationLock.unlock();
+            }
+            if (null != facetId) {
+                log.debug("Acquiring the import lock for facet %s.", facetId);
+                facetLock = ImportLocks.getFacetLock(facetId);
+                facetLock.lock();
+            }
 
-                if (null != importConcepts) {
-                    int batchsize = 1000;
+            if (null != importConcepts) {
+                int batchsize = 1000;
+                long numInputConcepts = 0;
+                long nodeStageTime = 0;
+                long relationshipStageTime = 0;
+                if (importOptions.numInsertionWorkers > 1) {
+                    log.debug("Beginning to create concept nodes and relationships with %s workers.", importOptions.numInsertionWorkers);
+                    ConceptInsertionPipeline pipeline = new ConceptInsertionPipeline(log, graphDb, facetId, importOptions, batchsize);
+                    insertionReport = pipeline.insertConcepts(importConcepts);
+                    numInputConcepts = pipeline.getNumInputConcepts();
+                    nodeStageTime = pipeline.getNodeStageTime();
+                    relationshipStageTime = pipeline.getRelationshipStageTime();
+                } else {
                     log.debug("Beginning to create concept nodes and relationships.");
                     List<ImportConcept> buffer = new ArrayList<>(batchsize);
+                    // Reused for all batches to avoid reallocating its tracking structures.
+                    InsertionReport bufferInsertionReport = new InsertionReport();
+                    String batchFacetId = facetId;
                     long imported = 0;
                     while (importConcepts.hasNext()) {
                         while (importConcepts.hasNext() && buffer.size() < batchsize)
                             buffer.add(importConcepts.next());
                         log.debug("Importing a batch of %s concepts", batchsize);
-                        try (Transaction tx = graphDb.beginTx()) {
-                            CoordinatesMap nodesByCoordinates = new CoordinatesMap();
-                            InsertionReport bufferInsertionReport = ConceptInsertion.insertConcepts(tx, buffer, facetId, nodesByCoordinates, importOptions, log);
-                            // If the nodesBySrcId map is empty we either have no concepts or
-                            // at least no concepts with a source ID. Then,
-                            // relationship creation is currently not supported.
-                            if (!nodesByCoordinates.isEmpty() && !importOptions.merge) {
-                                log.debug("Beginning to create relationships between the imported concepts.");
-                                createRelationships(log, tx, buffer, facetId, nodesByCoordinates, importOptions,
-                                        bufferInsertionReport);
-                            } else
-                                log.debug("This is a property merging import, no relationships are created.");
-                            insertionReport.merge(bufferInsertionReport);
-                            buffer.clear();
-                            imported += bufferInsertionReport.numConcepts;
-                            tx.commit();
+                        numInputConcepts += buffer.size();
+                        List<Lock> partitionLocks = ImportLocks.lockPartitions(buffer);
+                        try {
+                            // The node stage time and the start of the relationship stage of the committed attempt.
+                            // The hub relationships created by a batch that is rolled back because of a deadlock are
+                            // gone.
+                            long[] stageTimes = new long[2];
+                            DeadlockRetry.inTransaction(graphDb, log, "importing a batch of concepts", tx -> {
+                                long stageTime = System.currentTimeMillis();
+                                CoordinatesMap nodesByCoordinates = new CoordinatesMap();
+                                ConceptInsertion.insertConcepts(tx, buffer, batchFacetId, nodesByCoordinates, importOptions, bufferInsertionReport, log);
+                                stageTimes[0] = System.currentTimeMillis() - stageTime;
+                                stageTimes[1] = System.currentTimeMillis();
+                                // If the nodesBySrcId map is empty we either have no concepts or
+                                // at least no concepts with a source ID. Then,
+                                // relationship creation is currently not supported.
+                                if (!nodesByCoordinates.isEmpty() && !importOptions.merge) {
+                                    log.debug("Beginning to create relationships between the imported concepts.");
+                                    createRelationships(log, tx, buffer, batchFacetId, nodesByCoordinates, importOptions,
+                                            bufferInsertionReport);
+                                } else
+                                    log.debug("This is a property merging import, no relationships are created.");
+                                FacetStatistics.applyFacetSizeChanges(tx, bufferInsertionReport);
+                                return null;
+                            }, bufferInsertionReport::clearHubRelationships);
+                            nodeStageTime += stageTimes[0];
+                            relationshipStageTime += System.currentTimeMillis() - stageTimes[1];
+                            if (!bufferInsertionReport.ancestorUpdates.isEmpty())
+                                AncestorIndex.updateDescendants(graphDb, bufferInsertionReport.ancestorUpdates, log);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new ConceptInsertionException("The concept import was interrupted.", e);
+                        } finally {
+                            ImportLocks.unlock(partitionLocks);
                         }
+                        // Only committed batches count; a batch that is retried starts with a cleared report.
+                        insertionReport.merge(bufferInsertionReport);
+                        imported += bufferInsertionReport.numConcepts;
+                        buffer.clear();
                         log.debug("Imported %s concepts", imported);
                     }
-                    response.put(RET_KEY_NUM_CREATED_CONCEPTS, insertionReport.numConcepts);
-                    response.put(RET_KEY_NUM_CREATED_RELS, insertionReport.numRelationships);
-                    log.info("Done creating %s concepts and %s relationships.", insertionReport.numConcepts, insertionReport.numRelationships);
-                } else {
-                    log.info("No concepts were included in the request.");
                 }
-
-                time = System.currentTimeMillis() - time;
-                response.put(KEY_TIME, time);
-                response.put(KEY_FACET_ID, facetId);
-                return insertionReport;
-            } catch (IOException e) {
-                throw new ConceptInsertionException(e);
+                if (insertionReport.aggregatesChanged)
+                    OrthologyAggregateCache.getInstance().invalidate();
+                response.put(RET_KEY_NUM_CREATED_CONCEPTS, insertionReport.numConcepts);
+                response.put(RET_KEY_NUM_CREATED_RELS, insertionReport.numRelationships);
+                response.put(RET_KEY_THROUGHPUT, getThroughputReport(numInputConcepts, nodeStageTime, insertionReport.numRelationships, relationshipStageTime));
+                log.info("Done creating %s concepts and %s relationships.", insertionReport.numConcepts, insertionReport.numRelationships);
+            } else {
+                log.info("No concepts were included in the request.");
             }
+
+            time = System.currentTimeMillis() - time;
+            response.put(KEY_TIME, time);
+            response.put(KEY_FACET_ID, facetId);
+            return insertionReport;
+        } finally {
+            if (null != facetLock)
+                facetLock.unlock();
         }
     }
 
+    private static Map<String, Object> getThroughputReport(long numConcepts, long nodeStageTime, long numRelationships, long relationshipStageTime) {
+        Map<String, Object> nodeStage = new HashMap<>();
+        nodeStage.put(KEY_TIME, nodeStageTime);
+        nodeStage.put(RET_KEY_CONCEPTS_PER_SECOND, nodeStageTime > 0 ? numConcepts * 1000d / nodeStageTime : numConcepts);
+        Map<String, Object> relationshipStage = new HashMap<>();
+        relationshipStage.put(KEY_TIME, relationshipStageTime);
+        relationshipStage.put(RET_KEY_RELATIONSHIPS_PER_SECOND, relationshipStageTime > 0 ? numRelationships * 1000d / relationshipStageTime : numRelationships);
+        Map<String, Object> throughput = new HashMap<>();
+        throughput.put(RET_KEY_NODE_STAGE, nodeStage);
+        throughput.put(RET_KEY_RELATIONSHIP_STAGE, relationshipStage);
+        return throughput;
+    }
+
     /**
      * A few things to realize:
      * <ul>
@@ -655,7 +812,7 @@ public class ConceptInsertion {
      * same import data as the referencing concept. Then, the referee will be
      * realized as a HOLLOW node.</li>
      * <li>For non-aggregate concepts, we use the
-     * {@link #createRelationShipIfNotExists(Node, Node, RelationshipType, InsertionReport, Direction, Object...)}
+     * {@link #createRelationShipIfNotExists(Transaction, Node, Node, RelationshipType, InsertionReport, Direction, Object...)}
      * method that is sped up by knowing if the two input nodes for the relationship
      * did exist before the current import. Because if not, then they cannot have
      * had a relationship before. The method will make errors if this information is
@@ -677,14 +834,15 @@ public class ConceptInsertion {
      * @param facetId            The ID of the facet the imported concepts belong to.
      * @param nodesByCoordinates The insertion process specific in-memory map keeping track of inserted nodes.
      * @param importOptions      The concept import options.
+     * @param insertionReport    The report to fill. It is cleared first so that a single report can be reused for all batches.
      * @return The report of the insertions, counting created nodes, relationships and the passed time.
      * @throws AggregateConceptInsertionException If the insertion of an aggregate concept failed.
      * @throws ConceptInsertionException          If concept insertion failed.
      */
     private static InsertionReport insertConcepts(Transaction tx, List<ImportConcept> concepts, String facetId,
-                                                  CoordinatesMap nodesByCoordinates, ImportOptions importOptions, Log log) throws ConceptInsertionException {
+                                                  CoordinatesMap nodesByCoordinates, ImportOptions importOptions, InsertionReport insertionReport, Log log) throws ConceptInsertionException {
         long time = System.currentTimeMillis();
-        InsertionReport insertionReport = new InsertionReport();
+        insertionReport.clear();
         // Idea: First create all nodes and just store which Node has which
         // parent. Then, after all nodes have been created, do the actual
         // connection.
@@ -898,11 +1056,76 @@ public class ConceptInsertion {
             }
             insertionReport.addExistingConcept(n1);
             insertionReport.addExistingConcept(n2);
-            createRelationShipIfNotExists(n1, n2, ConceptEdgeTypes.IS_MAPPED_TO, insertionReport, Direction.BOTH,
+            createRelationShipIfNotExists(tx, n1, n2, ConceptEdgeTypes.IS_MAPPED_TO, insertionReport, Direction.BOTH,
                     ConceptRelationConstants.PROP_MAPPING_TYPE, new String[]{mappingType});
+            // Record the change for the incremental aggregate maintenance. The mapping type might have been merged into
+            // an existing mapping, so the nodes are recorded even if no relationship was created.
+            n1.addLabel(MAPPING_CHANGED);
+            n2.addLabel(MAPPING_CHANGED);
         }
         tx.commit();
         log.info("{} of {} new mappings successfully added.", insertionReport.numRelationships, count);
         return insertionReport.numRelationships;
     }
+
+    /**
+     * Removes the given mapping types from the mapping relationships between the given concepts. Mapping relationships
+     * that are left without a mapping type are deleted. The concepts of removed mappings are recorded in the change
+     * log for the incremental aggregate maintenance, see {@link MappingAggregateBuilder#update(Transaction, boolean)}.
+     *
+     * @param tx       The transaction to work in. It is committed by this method.
+     * @param log      The log.
+     * @param mappings The mappings to remove.
+     * @return The number of removed mappings.
+     */
+    public static int deleteMappings(Transaction tx, Log log, Iterator<ImportMapping> mappings) {
+        int count = 0;
+        int numRemoved = 0;
+        for (ImportMapping mapping : (Iterable<ImportMapping>) () -> mappings) {
+            ++count;
+            if (StringUtils.isBlank(mapping.id1) || StringUtils.isBlank(mapping.id2) || StringUtils.isBlank(mapping.mappingType))
+                throw new IllegalArgumentException("The mapping \"" + mapping + "\" does not specify both IDs and the mapping type.");
+            Node n1 = ConceptLookup.lookupSingleConceptBySourceId(tx, mapping.id1);
+            Node n2 = ConceptLookup.lookupSingleConceptBySourceId(tx, mapping.id2);
+            if (null == n1 || null == n2) {
+                log.debug("Mapping \"" + mapping + "\" does not exist because one of its concepts does not exist.");
+                continue;
+            }
+            Relationship relationship;
+            while ((relationship = findMapping(n1, n2, mapping.mappingType)) != null) {
+                String[] mappingTypes = Arrays.stream((String[]) relationship.getProperty(ConceptRelationConstants.PROP_MAPPING_TYPE))
+                        .filter(type -> !type.equals(mapping.mappingType)).toArray(String[]::new);
+                if (mappingTypes.length == 0)
+                    relationship.delete();
+                else
+                    relationship.setProperty(ConceptRelationConstants.PROP_MAPPING_TYPE, mappingTypes);
+                n1.addLabel(MAPPING_CHANGED);
+                n2.addLabel(MAPPING_CHANGED);
+                ++numRemoved;
+            }
+        }
+        tx.commit();
+        log.info("%s of %s mappings removed.", numRemoved, count);
+        return numRemoved;
+    }
+
+    /**
+     * @return A mapping relationship between <tt>n1</tt> and <tt>n2</tt> in any direction that has
+     * <tt>mappingType</tt> or <tt>null</tt> if there is none.
+     */
+    private static Relationship findMapping(Node n1, Node n2, String mappingType) {
+        // Search from the node with the lower degree.
+        Node searchNode = n1.getDegree(ConceptEdgeTypes.IS_MAPPED_TO) <= n2.getDegree(ConceptEdgeTypes.IS_MAPPED_TO) ? n1 : n2;
+        Node otherNode = searchNode == n1 ? n2 : n1;
+        for (Relationship relationship : searchNode.getRelationships(ConceptEdgeTypes.IS_MAPPED_TO)) {
+            if (relationship.getOtherNodeId(searchNode.getId()) == otherNode.getId()) {
+                String[] mappingTypes = (String[]) relationship.getProperty(ConceptRelationConstants.PROP_MAPPING_TYPE, new String[0]);
+                for (String type : mappingTypes) {
+                    if (type.equals(mappingType))
+                        return relationship;
+                }
+            }
+        }
+        return null;
+    }
 }
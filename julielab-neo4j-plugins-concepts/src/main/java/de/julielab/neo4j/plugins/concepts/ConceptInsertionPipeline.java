@@ -0,0 +1,292 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import de.julielab.neo4j.plugins.FacetManager;
+import de.julielab.neo4j.plugins.auxiliaries.semedico.CoordinatesMap;
+import de.julielab.neo4j.plugins.auxiliaries.semedico.SequenceManager;
+import de.julielab.neo4j.plugins.constants.semedico.SequenceConstants;
+import de.julielab.neo4j.plugins.datarepresentation.ConceptCoordinates;
+import de.julielab.neo4j.plugins.datarepresentation.ImportConcept;
+import de.julielab.neo4j.plugins.datarepresentation.ImportConceptRelationship;
+import de.julielab.neo4j.plugins.datarepresentation.ImportOptions;
+import de.julielab.neo4j.plugins.util.ConceptInsertionException;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.function.IntSupplier;
+
+import static de.julielab.neo4j.plugins.concepts.ConceptLookup.NAME_SOURCE_IDS_SEQUENCE;
+import static de.julielab.neo4j.plugins.concepts.ConceptLookup.lookupConcept;
+
+/**
+ * <p>
+ * The pipelined concept import that is used when {@link ImportOptions#numInsertionWorkers} is greater than one.
+ * </p>
+ * <p>
+ * The calling thread parses the import concepts and routes them by {@link ImportLocks#getPartition(ConceptCoordinates)}
+ * to per-partition buffers. Full buffers are handed to a pool of workers that create or merge the concept nodes of
+ * their partition in a transaction of their own while holding the partition lock. Thus, nodes for equal coordinates
+ * are never created concurrently. Parents, relationship targets and aggregates may belong to any partition. They are
+ * resolved in the final relationship stage which runs after all concept nodes have been committed.
+ * </p>
+ */
+class ConceptInsertionPipeline {
+    private final Log log;
+    private final GraphDatabaseService graphDb;
+    private final String facetId;
+    private final ImportOptions importOptions;
+    private final int batchSize;
+    private final int numWorkers;
+    private final Queue<InsertionReport> workerReports = new ConcurrentLinkedQueue<>();
+    private long nodeStageTime;
+    private long relationshipStageTime;
+    private int numNodeStageConcepts;
+    private long numInputConcepts;
+
+    ConceptInsertionPipeline(Log log, GraphDatabaseService graphDb, String facetId, ImportOptions importOptions, int batchSize) {
+        this.log = log;
+        this.graphDb = graphDb;
+        this.facetId = facetId;
+        this.importOptions = importOptions;
+        this.batchSize = batchSize;
+        this.numWorkers = importOptions.numInsertionWorkers;
+    }
+
+    InsertionReport insertConcepts(Iterator<ImportConcept> importConcepts) throws ConceptInsertionException {
+        // Create the sequences up front so that the workers do not race for their creation.
+        try (Transaction tx = graphDb.beginTx()) {
+            SequenceManager.getCurrentSequenceValue(tx, SequenceConstants.SEQ_TERM);
+            SequenceManager.getCurrentSequenceValue(tx, NAME_SOURCE_IDS_SEQUENCE);
+            tx.commit();
+        }
+        List<List<ImportConcept>> batches = createNodes(importConcepts);
+        InsertionReport insertionReport = createRelationships(batches);
+        for (InsertionReport workerReport : workerReports)
+            insertionReport.merge(workerReport);
+        return insertionReport;
+    }
+
+    /**
+     * @return The number of concept nodes created or merged per second by the worker pool.
+     */
+    double getNodeStageThroughput() {
+        return perSecond(numNodeStageConcepts, nodeStageTime);
+    }
+
+    long getNumInputConcepts() {
+        return numInputConcepts;
+    }
+
+    long getNodeStageTime() {
+        return nodeStageTime;
+    }
+
+    long getRelationshipStageTime() {
+        return relationshipStageTime;
+    }
+
+    private double perSecond(long count, long time) {
+        return time > 0 ? count * 1000d / time : count;
+    }
+
+    private List<List<ImportConcept>> createNodes(Iterator<ImportConcept> importConcepts) throws ConceptInsertionException {
+        long time = System.currentTimeMillis();
+        List<List<ImportConcept>> partitionBuffers = new ArrayList<>(ImportLocks.NUM_PARTITIONS);
+        for (int i = 0; i < ImportLocks.NUM_PARTITIONS; i++)
+            partitionBuffers.add(new ArrayList<>());
+        List<List<ImportConcept>> batches = new ArrayList<>();
+        List<ImportConcept> batch = new ArrayList<>(batchSize);
+        try (WorkerPool<Void> workers = new WorkerPool<>("concept-import-", numWorkers)) {
+            while (importConcepts.hasNext()) {
+                ImportConcept concept = importConcepts.next();
+                ++numInputConcepts;
+                batch.add(concept);
+                if (batch.size() == batchSize) {
+                    batches.add(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+                if (concept.coordinates == null && !concept.aggregate)
+                    throw new IllegalArgumentException("Concept " + concept + " does not define concept coordinates.");
+                // Aggregates reference their elements which may reside in any partition. They are inserted in the
+                // relationship stage.
+                if (concept.aggregate)
+                    continue;
+                ++numNodeStageConcepts;
+                int partition = ImportLocks.getPartition(concept.coordinates);
+                List<ImportConcept> partitionBuffer = partitionBuffers.get(partition);
+                partitionBuffer.add(concept);
+                if (partitionBuffer.size() == batchSize) {
+                    workers.submit(() -> createNodes(partition, partitionBuffer));
+                    partitionBuffers.set(partition, new ArrayList<>());
+                }
+            }
+            if (!batch.isEmpty())
+                batches.add(batch);
+            for (int i = 0; i < ImportLocks.NUM_PARTITIONS; i++) {
+                int partition = i;
+                List<ImportConcept> partitionBuffer = partitionBuffers.get(i);
+                if (!partitionBuffer.isEmpty())
+                    workers.submit(() -> createNodes(partition, partitionBuffer));
+            }
+            workers.awaitAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConceptInsertionException("The concept import was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new ConceptInsertionException("The creation of concept nodes failed.", e.getCause());
+        }
+        nodeStageTime = System.currentTimeMillis() - time;
+        log.info("Created or merged %s concept nodes with %s workers in %s ms (%s concepts/s).", numNodeStageConcepts, numWorkers, nodeStageTime, Math.round(getNodeStageThroughput()));
+        return batches;
+    }
+
+    /**
+     * Creates or merges the nodes of <tt>concepts</tt> which all belong to <tt>partition</tt>.
+     */
+    private Void createNodes(int partition, List<ImportConcept> concepts) throws InterruptedException {
+        // The concept IDs reserved by an attempt that was rolled back because of a deadlock are reused by the next one.
+        int[] reservedTermIds = {0, 0};
+        Lock lock = ImportLocks.getPartitionLock(partition);
+        lock.lock();
+        try {
+            InsertionReport insertionReport = DeadlockRetry.inTransaction(graphDb, log, "creating the nodes of partition " + partition, tx -> {
+                InsertionReport report = new InsertionReport();
+                CoordinatesMap nodesByCoordinates = new CoordinatesMap();
+                Set<Long> hollowNodeIds = new HashSet<>();
+                for (ImportConcept concept : concepts) {
+                    ConceptCoordinates coordinates = concept.coordinates;
+                    report.addImportedCoordinates(coordinates);
+                    if (nodesByCoordinates.containsKey(coordinates))
+                        continue;
+                    Node conceptNode = lookupConcept(tx, coordinates);
+                    if (conceptNode == null && !importOptions.merge) {
+                        conceptNode = ConceptInsertion.registerNewHollowConceptNode(tx, log, coordinates);
+                        ++report.numConcepts;
+                    }
+                    if (conceptNode != null) {
+                        nodesByCoordinates.put(coordinates, conceptNode);
+                        if (conceptNode.hasLabel(ConceptLabel.HOLLOW))
+                            hollowNodeIds.add(conceptNode.getId());
+                    }
+                }
+                // Only the nodes that are still HOLLOW get a concept ID by insertConcept().
+                if (hollowNodeIds.size() > reservedTermIds[1]) {
+                    reservedTermIds[0] = reserveTermIds(hollowNodeIds.size());
+                    reservedTermIds[1] = hollowNodeIds.size();
+                }
+                int[] nextTermId = {reservedTermIds[0]};
+                IntSupplier termIds = () -> nextTermId[0]++;
+                for (ImportConcept concept : concepts)
+                    ConceptInsertion.insertConcept(tx, log, facetId, concept, nodesByCoordinates, report, importOptions, termIds);
+                FacetStatistics.applyFacetSizeChanges(tx, report);
+                return report;
+            });
+            workerReports.add(insertionReport);
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserves <tt>numTermIds</tt> concept IDs in a transaction of its own. Otherwise, the workers would serialize on
+     * the lock of the term sequence node for the whole duration of their transactions.
+     *
+     * @return The first reserved concept ID.
+     */
+    private int reserveTermIds(int numTermIds) {
+        try (Transaction tx = graphDb.beginTx()) {
+            int firstTermId = SequenceManager.getNextSequenceValues(tx, SequenceConstants.SEQ_TERM, numTermIds);
+            tx.commit();
+            return firstTermId;
+        }
+    }
+
+    /**
+     * Inserts the aggregates and creates the relationships of all concepts, batch by batch in input order.
+     */
+    private InsertionReport createRelationships(List<List<ImportConcept>> batches) throws ConceptInsertionException {
+        long time = System.currentTimeMillis();
+        // A single report for all batches: the relationships of nodes created by this import are only known
+        // through its cache.
+        InsertionReport insertionReport = new InsertionReport();
+        for (InsertionReport workerReport : workerReports) {
+            for (ConceptCoordinates coordinates : workerReport.importedCoordinates)
+                insertionReport.addImportedCoordinates(coordinates);
+        }
+        // The facets are the parents of the facet roots. Since the report is kept for all batches, they are
+        // registered once.
+        try (Transaction tx = graphDb.beginTx()) {
+            tx.findNodes(FacetManager.FacetLabel.FACET).forEachRemaining(insertionReport::addExistingConcept);
+        }
+        for (List<ImportConcept> batch : batches) {
+            List<Lock> locks = ImportLocks.lockPartitions(batch);
+            try (Transaction tx = graphDb.beginTx()) {
+                CoordinatesMap nodesByCoordinates = new CoordinatesMap();
+                // Aggregates first because they may be the parents of the other concepts.
+                for (ImportConcept concept : batch) {
+                    if (concept.aggregate) {
+                        ConceptAggregateManager.insertAggregateConcept(tx, concept, nodesByCoordinates, insertionReport, importOptions, log);
+                        if (concept.coordinates != null && !nodesByCoordinates.containsKey(concept.coordinates))
+                            resolve(tx, concept.coordinates, nodesByCoordinates, insertionReport, false);
+                    }
+                }
+                if (!importOptions.merge) {
+                    for (ImportConcept concept : batch) {
+                        if (concept.aggregate)
+                            continue;
+                        resolve(tx, concept.coordinates, nodesByCoordinates, insertionReport, false);
+                        if (concept.parentCoordinates != null) {
+                            for (ConceptCoordinates parentCoordinates : concept.parentCoordinates)
+                                resolve(tx, parentCoordinates, nodesByCoordinates, insertionReport, true);
+                        }
+                        if (concept.relationships != null) {
+                            for (ImportConceptRelationship relationship : concept.relationships)
+                                resolve(tx, relationship.targetCoordinates, nodesByCoordinates, insertionReport, false);
+                        }
+                    }
+                    if (!nodesByCoordinates.isEmpty())
+                        ConceptInsertion.createRelationships(log, tx, batch, facetId, nodesByCoordinates, importOptions, insertionReport);
+                }
+                FacetStatistics.applyFacetSizeChanges(tx, insertionReport);
+                tx.commit();
+                if (!insertionReport.ancestorUpdates.isEmpty()) {
+                    AncestorIndex.updateDescendants(graphDb, insertionReport.ancestorUpdates, log);
+                    insertionReport.ancestorUpdates.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConceptInsertionException("The concept import was interrupted.", e);
+            } finally {
+                ImportLocks.unlock(locks);
+            }
+        }
+        relationshipStageTime = System.currentTimeMillis() - time;
+        log.info("Created %s relationships in %s ms (%s relationships/s).", insertionReport.numRelationships, relationshipStageTime, Math.round(perSecond(insertionReport.numRelationships, relationshipStageTime)));
+        return insertionReport;
+    }
+
+    /**
+     * Looks up the node of <tt>coordinates</tt> for the relationship stage. Only the relationships of nodes created
+     * in the current transaction are known to be tracked by the insertion report. All other nodes, including those
+     * created by the partition stage or an earlier batch of this import, have been visible to concurrent imports into
+     * other facets. Those may have connected them in the meantime, so their relationships must be checked.
+     */
+    private void resolve(Transaction tx, ConceptCoordinates coordinates, CoordinatesMap nodesByCoordinates, InsertionReport insertionReport, boolean createHollow) {
+        if (nodesByCoordinates.containsKey(coordinates))
+            return;
+        Node node = lookupConcept(tx, coordinates);
+        if (node == null && createHollow) {
+            node = ConceptInsertion.registerNewHollowConceptNode(tx, log, coordinates);
+            ++insertionReport.numConcepts;
+        } else if (node != null) {
+            insertionReport.addExistingConcept(node);
+        }
+        if (node != null)
+            nodesByCoordinates.put(coordinates, node);
+    }
+}
@@ -25,5 +25,15 @@ public enum ConceptLabel implements Label {
      * Label for nodes that were hollow but are now filled. Signal for those nodes that the HOLLOW label may be removed.
      */
     FILLED,
-    CONCEPT
+    CONCEPT,
+    /**
+     * Change log label for concepts whose mappings have been added or removed since the last aggregate maintenance,
+     * see {@link MappingAggregateBuilder#update(org.neo4j.graphdb.Transaction, boolean)}.
+     */
+    MAPPING_CHANGED,
+    /**
+     * Change log label for concepts that are new or whose preferred name has changed since the last aggregate
+     * maintenance.
+     */
+    PREF_NAME_CHANGED
 }
\ No newline at end of file
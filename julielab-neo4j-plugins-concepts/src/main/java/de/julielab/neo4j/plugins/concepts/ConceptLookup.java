@@ -50,6 +50,14 @@ public class ConceptLookup {
             return null;
         }
         Node concept = null;
+        ConceptNodeIdCache nodeIdCache = ConceptNodeIdCache.isEnabled() ? ConceptNodeIdCache.getInstance() : null;
+        if (nodeIdCache != null && orgId != null && orgSource != null) {
+            concept = nodeIdCache.getByOriginalId(tx, orgId, orgSource);
+            if (concept != null) {
+                log.trace("Found concept by original ID {} in the node ID cache", orgId);
+                return concept;
+            }
+        }
         // Do we know the original ID?
         ResourceIterator<Node> concepts = null;
         if (orgId != null) {
@@ -96,6 +104,8 @@ public class ConceptLookup {
             log.trace(
                     "    Did not find an existing concept with original ID and source ({}, {}) or source ID and source ({}, {}).",
                     orgId, orgSource, srcId, source);
+        else if (nodeIdCache != null)
+            nodeIdCache.put(concept);
         return concept;
     }
 
@@ -115,70 +125,107 @@ public class ConceptLookup {
         if (srcId == null)
             throw new IllegalArgumentException("An aggregate element source ID is null.");
         log.trace("Trying to look up existing concept by source ID and source ({}, {})", srcId, source);
-        List<Node> foundNodes = new ArrayList<>();
-        int maxNumSourceIds = SequenceManager.getCurrentSequenceValue(tx, NAME_SOURCE_IDS_SEQUENCE);
+        ConceptNodeIdCache nodeIdCache = ConceptNodeIdCache.isEnabled() && source != null ? ConceptNodeIdCache.getInstance() : null;
+        if (nodeIdCache != null) {
+            // The cache only returns the single node with the source ID. Thus, the hit must only pass the checks of
+            // its own properties that the index candidates pass, e.g. the uniqueness requirement.
+            Node cachedConcept = nodeIdCache.getBySourceId(tx, srcId, source);
+            if (cachedConcept != null) {
+                log.trace("    Found concept for source ID {} and source {} in the node ID cache", srcId, source);
+                return selectConcept(List.of(cachedConcept), srcId, source, uniqueSourceId);
+            }
+        }
         Node soughtConcept = null;
-        for (int i = 0; i < maxNumSourceIds && soughtConcept == null; i++) {
-            ResourceIterator<Node> indexHits = tx.findNodes(CONCEPT, PROP_SRC_IDS + i, srcId);
-            try {
-                if (!indexHits.hasNext()) {
-                    log.trace("    Did not find any concept with source ID {}", srcId);
-                    return null;
-                }
-            } catch (QueryExecutionException e) {
-                log.error("Could not find index hits for sourceId {} due to error", srcId, e);
-                throw e;
+        if (SourceIdIndex.isComplete(tx)) {
+            long stamp = nodeIdCache != null ? nodeIdCache.getSourceIdStamp() : 0;
+            List<Node> foundNodes = SourceIdIndex.getConcepts(tx, srcId);
+            if (foundNodes.isEmpty()) {
+                log.trace("    Did not find any concept with source ID {}", srcId);
+                return null;
             }
-            while (indexHits.hasNext()) {
-                Node conceptNode = (Node) indexHits.next();
-                foundNodes.add(conceptNode);
+            soughtConcept = selectConcept(foundNodes, srcId, source, uniqueSourceId);
+            if (soughtConcept != null && nodeIdCache != null && foundNodes.size() == 1)
+                nodeIdCache.putSourceIdHolder(srcId, soughtConcept.getId(), stamp);
+        } else {
+            List<Node> foundNodes = new ArrayList<>();
+            int maxNumSourceIds = SequenceManager.getCurrentSequenceValue(tx, NAME_SOURCE_IDS_SEQUENCE);
+            for (int i = 0; i < maxNumSourceIds && soughtConcept == null; i++) {
+                ResourceIterator<Node> indexHits = tx.findNodes(CONCEPT, PROP_SRC_IDS + i, srcId);
+                try {
+                    if (!indexHits.hasNext()) {
+                        log.trace("    Did not find any concept with source ID {}", srcId);
+                        return null;
+                    }
+                } catch (QueryExecutionException e) {
+                    log.error("Could not find index hits for sourceId {} due to error", srcId, e);
+                    throw e;
+                }
+                while (indexHits.hasNext()) {
+                    Node conceptNode = (Node) indexHits.next();
+                    foundNodes.add(conceptNode);
+                }
+                soughtConcept = selectConcept(foundNodes, srcId, source, uniqueSourceId);
             }
+        }
+        if (soughtConcept != null && nodeIdCache != null)
+            nodeIdCache.put(soughtConcept);
+        return soughtConcept;
+    }
 
-            boolean uniqueSourceIdNodeFound = false;
-            for (Node conceptNode : foundNodes) {
-                if (null != conceptNode) {
+    /**
+     * Selects the concept with source ID <tt>srcId</tt> from <tt>source</tt> among the given candidate nodes which all
+     * have <tt>srcId</tt> as a source ID.
+     *
+     * @return The matching concept or <tt>null</tt> if none of the candidates matches.
+     */
+    private static Node selectConcept(List<Node> foundNodes, String srcId, String source, boolean uniqueSourceId) {
+        Node soughtConcept = null;
+        boolean uniqueSourceIdNodeFound = false;
+        for (Node conceptNode : foundNodes) {
+            if (null != conceptNode) {
 
-                    // The rule goes as follows: Two concepts that share a source ID
-                    // which is marked as being unique on both concepts are equal. If
-                    // on at least one concept the source ID is not marked as
-                    // unique, the concepts are different.
-                    if (uniqueSourceId) {
-                        boolean uniqueOnConceptNode = NodeUtilities.isSourceUnique(conceptNode, srcId, source);
-                        if (uniqueOnConceptNode) {
-                            if (soughtConcept == null)
-                                soughtConcept = conceptNode;
-                            else if (uniqueSourceIdNodeFound)
-                                throw new IllegalStateException("There are multiple concept nodes with unique source ID "
-                                        + srcId
-                                        + ". This means that some sources define the ID as unique and others not. This can lead to an inconsistent database as happened in this case.");
-                            log.trace(
-                                    "    Found existing concept with unique source ID {} which matches given unique source ID",
-                                    srcId);
-                            uniqueSourceIdNodeFound = true;
-                        }
+                // The rule goes as follows: Two concepts that share a source ID
+                // which is marked as being unique on both concepts are equal. If
+                // on at least one concept the source ID is not marked as
+                // unique, the concepts are different.
+                if (uniqueSourceId) {
+                    boolean uniqueOnConceptNode = NodeUtilities.isSourceUnique(conceptNode, srcId, source);
+                    if (uniqueOnConceptNode) {
+                        if (soughtConcept == null)
+                            soughtConcept = conceptNode;
+                        else if (uniqueSourceIdNodeFound)
+                            throw new IllegalStateException("There are multiple concept nodes with unique source ID "
+                                    + srcId
+                                    + ". This means that some sources define the ID as unique and others not. This can lead to an inconsistent database as happened in this case.");
+                        log.trace(
+                                "    Found existing concept with unique source ID {} which matches given unique source ID",
+                                srcId);
+                        uniqueSourceIdNodeFound = true;
                     }
+                }
 
-                    String[] sources = NodeUtilities.getSourcesForSourceId(conceptNode, srcId);
-                    if (Arrays.binarySearch(sources, source) < 0) {
-                        log.debug("    Did not find a match for source ID " + srcId + " and source " + source);
-                        conceptNode = null;
-                    } else {
-                        log.debug("    Found existing concept for source ID " + srcId + " and source " + source);
-                    }
-                    if (soughtConcept == null)
-                        soughtConcept = conceptNode;
-                        // if soughtConcept is not null, we already found a matching
-                        // concept in the last iteration
-                    else if (!uniqueSourceIdNodeFound)
-                        throw new IllegalStateException(
-                                "There are multiple concept nodes with source ID " + srcId + " and source " + source);
+                String[] sources = NodeUtilities.getSourcesForSourceId(conceptNode, srcId);
+                if (Arrays.binarySearch(sources, source) < 0) {
+                    log.debug("    Did not find a match for source ID " + srcId + " and source " + source);
+                    conceptNode = null;
+                } else {
+                    log.debug("    Found existing concept for source ID " + srcId + " and source " + source);
                 }
+                if (soughtConcept == null)
+                    soughtConcept = conceptNode;
+                    // if soughtConcept is not null, we already found a matching
+                    // concept in the last iteration
+                else if (!uniqueSourceIdNodeFound)
+                    throw new IllegalStateException(
+                            "There are multiple concept nodes with source ID " + srcId + " and source " + source);
             }
         }
         return soughtConcept;
     }
 
     public static Stream<Node> lookupConceptsBySourceId(Transaction tx, String srcId) {
+        if (SourceIdIndex.isComplete(tx))
+            return SourceIdIndex.getConcepts(tx, srcId).stream();
         int maxNumSourceIds = SequenceManager.getCurrentSequenceValue(tx, NAME_SOURCE_IDS_SEQUENCE);
         Stream<Node> s = Stream.empty();
         for (int i = 0; i < maxNumSourceIds; i++) {
@@ -1,5 +1,6 @@
 package de.julielab.neo4j.plugins.concepts;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import de.julielab.neo4j.plugins.Indexes;
 import de.julielab.neo4j.plugins.datarepresentation.ImportConcepts;
@@ -8,8 +9,8 @@ import de.julielab.neo4j.plugins.datarepresentation.RelationRetrievalRequest;
 import de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants;
 import de.julielab.neo4j.plugins.datarepresentation.constants.ImportIERelations;
 import de.julielab.neo4j.plugins.datarepresentation.constants.NodeConstants;
-import de.julielab.neo4j.plugins.datarepresentation.constants.NodeIDPrefixConstants;
 import de.julielab.neo4j.plugins.datarepresentation.util.ConceptsJsonSerializer;
+import de.julielab.neo4j.plugins.datarepresentation.util.ConceptsSmileSerializer;
 import org.neo4j.dbms.api.DatabaseManagementService;
 import org.neo4j.graphdb.*;
 import org.neo4j.logging.Log;
@@ -21,7 +22,6 @@ import java.io.*;
 import java.util.*;
 
 import static de.julielab.neo4j.plugins.concepts.ConceptManager.CM_REST_ENDPOINT;
-import static de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants.PROP_CHILDREN_IN_FACETS;
 import static de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants.PROP_SRC_IDS;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.neo4j.configuration.GraphDatabaseSettings.DEFAULT_DATABASE_NAME;
@@ -32,6 +32,7 @@ public class ConceptManager {
     public static final String CM_REST_ENDPOINT = "concept_manager";
 
     public static final String INSERT_MAPPINGS = "insert_mappings";
+    public static final String DELETE_MAPPINGS = "delete_mappings";
 
 
     public static final String GET_CHILDREN_OF_CONCEPTS = "get_children_of_concepts";
@@ -50,6 +51,12 @@ public class ConceptManager {
     public static final String KEY_SORT_RESULT = "sortResult";
     public static final String KEY_CONCEPT_IDS = "conceptIds";
     public static final String KEY_MAX_ROOTS = "maxRoots";
+    public static final String KEY_MAX_PATHS = "maxPaths";
+    public static final String KEY_MAX_DEPTH = "maxDepth";
+    public static final String KEY_COMPACT = "compact";
+    public static final String KEY_BATCH_SIZE = "batchSize";
+    public static final String KEY_NUM_WORKERS = "numWorkers";
+    public static final String KEY_ASYNC = "async";
     public static final String KEY_CONCEPT_TERMS = "conceptTerms";
     public static final String KEY_CONCEPT_ACRONYMS = "conceptAcronyms";
     /**
@@ -64,7 +71,17 @@ public class ConceptManager {
     public static final String RET_KEY_NUM_CREATED_RELS = "numCreatedRelationships";
     public static final String RET_KEY_NUM_CREATED_CONCEPTS = "numCreatedConcepts";
     public static final String RET_KEY_PATHS = "paths";
+    public static final String RET_KEY_TRUNCATED = "truncated";
+    public static final String RET_KEY_NODES = "nodes";
+    public static final String RET_KEY_PARENTS = "parents";
+    public static final String RET_KEY_ROOTS = "roots";
+    public static final String RET_KEY_START_NODES = "startNodes";
     public static final String RET_KEY_RELTYPES = "reltypes";
+    public static final String RET_KEY_THROUGHPUT = "throughput";
+    public static final String RET_KEY_NODE_STAGE = "nodeStage";
+    public static final String RET_KEY_RELATIONSHIP_STAGE = "relationshipStage";
+    public static final String RET_KEY_CONCEPTS_PER_SECOND = "conceptsPerSecond";
+    public static final String RET_KEY_RELATIONSHIPS_PER_SECOND = "relationshipsPerSecond";
 
     public static final String FULLTEXT_INDEX_CONCEPTS = "concepts";
 
@@ -78,6 +95,12 @@ public class ConceptManager {
     public static final int MAX_SRC_IDS = 10;
 
     public static final String UPDATE_CHILD_INFORMATION = "update_children_information";
+    public static final String GET_CHILDREN_INFORMATION_STATUS = "get_children_information_status";
+    public static final String GET_NODE_ID_CACHE_STATUS = "get_node_id_cache_status";
+    public static final String GET_ORTHOLOGY_CACHE_STATUS = "get_orthology_cache_status";
+    public static final String WARM_UP_ORTHOLOGY_CACHE = "warm_up_orthology_cache";
+    public static final String BUILD_SOURCE_ID_INDEX = "build_source_id_index";
+    public static final String BUILD_ANCESTOR_INDEX = "build_ancestor_index";
     public static final String UNKNOWN_CONCEPT_SOURCE = "<unknown>";
     private final DatabaseManagementService dbms;
     private Log log;
@@ -97,6 +120,7 @@ public class ConceptManager {
         // We need to create multiple indexes for multiple source IDs that single concepts may have. Also see the comment for the MAX_SRC_IDS constant.
         for (int i = 0; i < MAX_SRC_IDS; ++i)
             Indexes.createSinglePropertyIndexIfAbsent(tx, "ConceptSrcId" + i, ConceptLabel.CONCEPT, false, Indexes.PROVIDER_NATIVE_1_0, PROP_SRC_IDS + i);
+        SourceIdIndex.createIndexes(tx);
     }
 
     public static Response getErrorResponse(Throwable throwable) {
@@ -139,28 +163,53 @@ public class ConceptManager {
     }
 
 
+    /**
+     * Calls {@link #getPathsFromFacetRoots(String, String, String, boolean, String, int, int, boolean)} without limits.
+     *
+     * @param conceptIdsCsv The concept Ids, separated with commas.
+     * @param sort          Whether or not to sort the result paths by length.
+     * @param facetId       Optional. A facet ID to restrict all paths to.
+     * @return Paths from facet root concept nodes to the given concept nodes.
+     */
+    public Object getPathsFromFacetRoots(String conceptIdsCsv, String idProperty, String returnIdProperty, boolean sort, String facetId) {
+        return getPathsFromFacetRoots(conceptIdsCsv, idProperty, returnIdProperty, sort, facetId, 0, 0, false);
+    }
+
     /**
      * Parameters:
      * <ul>
      *     <li>{@link #KEY_CONCEPT_IDS}: Array of root concept IDs to retrieve the paths from.</li>
      *     <li>{@link #KEY_SORT_RESULT}: Boolean indicator if the result paths should be sorted by length.</li>
      *     <li>{@link #KEY_FACET_ID}: Optional. The facet ID to restrict the root nodes to.</li>
+     *     <li>{@link #KEY_MAX_PATHS}: Optional. The maximum number of paths to return.</li>
+     *     <li>{@link #KEY_MAX_DEPTH}: Optional. The maximum number of relationships of a path.</li>
+     *     <li>{@link #KEY_COMPACT}: Optional. Whether to return the paths as a DAG that contains each node once.</li>
      * </ul>
+     * <p>
+     * The default response contains the paths under {@link #RET_KEY_PATHS} and whether paths have been omitted due to
+     * {@link #KEY_MAX_PATHS} under {@link #RET_KEY_TRUNCATED}. The compact response contains the returned IDs of the
+     * DAG nodes under {@link #RET_KEY_NODES}, the indexes of the parents of each node under {@link #RET_KEY_PARENTS},
+     * the indexes of the root nodes under {@link #RET_KEY_ROOTS} and the index of each requested concept under
+     * {@link #RET_KEY_START_NODES}. A concept without a path to a root has the index -1.
+     * </p>
      *
      * @param conceptIdsCsv The concept Ids, separated with commas.
      * @param sort          Whether or not to sort the result paths by length.
      * @param facetId       Optional. A facet ID to restrict all paths to.
+     * @param maxPaths      Optional. The maximum number of paths; non-positive values mean no limit.
+     * @param maxDepth      Optional. The maximum path length in relationships; non-positive values mean no limit.
+     * @param compact       Optional. Whether to return the DAG of the paths instead of the paths.
      * @return Paths from facet root concept nodes to the given concept nodes.
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path(GET_PATHS_FROM_FACET_ROOTS)
-    public Object getPathsFromFacetRoots(@QueryParam(KEY_CONCEPT_IDS) String conceptIdsCsv, @QueryParam(KEY_ID_PROPERTY) String idProperty, @QueryParam(KEY_RETURN_ID_PROPERTY) String returnIdProperty, @QueryParam(KEY_SORT_RESULT) boolean sort, @QueryParam(KEY_FACET_ID) String facetId) {
+    public Object getPathsFromFacetRoots(@QueryParam(KEY_CONCEPT_IDS) String conceptIdsCsv, @QueryParam(KEY_ID_PROPERTY) String idProperty, @QueryParam(KEY_RETURN_ID_PROPERTY) String returnIdProperty, @QueryParam(KEY_SORT_RESULT) boolean sort, @QueryParam(KEY_FACET_ID) String facetId, @QueryParam(KEY_MAX_PATHS) int maxPaths, @QueryParam(KEY_MAX_DEPTH) int maxDepth, @QueryParam(KEY_COMPACT) boolean compact) {
         try {
             final List<String> conceptIds = Arrays.asList(conceptIdsCsv.split(","));
             GraphDatabaseService graphDb = dbms.database(DEFAULT_DATABASE_NAME);
             try (Transaction tx = graphDb.beginTx()) {
-                Map<String, Object> pathsWrappedInMap = ConceptRetrieval.getPathsFromFacetRoots(tx, conceptIds, idProperty, returnIdProperty, sort, facetId);
+                Map<String, Object> pathsWrappedInMap = ConceptRetrieval.getPathsFromFacetRoots(tx, conceptIds, idProperty, returnIdProperty, sort, facetId, maxPaths, maxDepth, compact);
                 return Response.ok(pathsWrappedInMap).build();
             }
         } catch (Throwable t) {
@@ -178,11 +227,32 @@ public class ConceptManager {
         return insertConcepts(is, log);
     }
 
+    /**
+     * Calls {@link #insertConcepts(InputStream, String, Log)} for JSON input.
+     *
+     * @param is  The concepts input in JSON format.
+     * @param log The log to use.
+     * @return The JavaX RS response.
+     */
+    public Object insertConcepts(InputStream is, Log log) {
+        return insertConcepts(is, MediaType.APPLICATION_JSON, log);
+    }
+
+    /**
+     * Imports the concepts in <tt>is</tt>. The input format is determined by the content type: The binary
+     * {@link ConceptsSmileSerializer#MEDIA_TYPE_SMILE} format is read for the corresponding content type, JSON
+     * otherwise.
+     *
+     * @param is          The concepts input.
+     * @param contentType The content type of the request.
+     * @param log         The log to use.
+     * @return The JavaX RS response.
+     */
     @POST
-    @Consumes(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, ConceptsSmileSerializer.MEDIA_TYPE_SMILE})
     @Produces(MediaType.APPLICATION_JSON)
     @Path(INSERT_CONCEPTS)
-    public Object insertConcepts(InputStream is, @Context Log log) {
+    public Object insertConcepts(InputStream is, @HeaderParam(HttpHeaders.CONTENT_TYPE) String contentType, @Context Log log) {
         try {
             log.info("%s was called", INSERT_CONCEPTS);
 
@@ -190,7 +260,8 @@ public class ConceptManager {
             log.debug("Beginning processing of concept insertion.");
             GraphDatabaseService graphDb = dbms.database(DEFAULT_DATABASE_NAME);
             Map<String, Object> response = new HashMap<>();
-            insertionReport = ConceptInsertion.insertConcepts(log, graphDb, is, response);
+            boolean smile = contentType != null && contentType.startsWith(ConceptsSmileSerializer.MEDIA_TYPE_SMILE);
+            insertionReport = ConceptInsertion.insertConcepts(log, graphDb, is, smile, response);
             log.info("Concept insertion complete.");
             log.info("%s is finished processing after %s ms. %s concepts and %s relationships have been created.", INSERT_CONCEPTS, response.get(KEY_TIME), insertionReport.numConcepts, insertionReport.numRelationships, response.get(KEY_TIME));
             return Response.ok(response).build();
@@ -204,39 +275,163 @@ public class ConceptManager {
 
 
     /**
+     * Calls {@link #updateChildrenInformation(int, int, boolean)} synchronously with the default batch size and
+     * number of workers.
+     */
+    public void updateChildrenInformation() {
+        GraphDatabaseService graphDb = dbms.database(DEFAULT_DATABASE_NAME);
+        ChildrenInformationJob job = ChildrenInformationJob.create(graphDb, 0, 0, log);
+        if (job == null)
+            throw new IllegalStateException("The children information is already being updated.");
+        job.run();
+    }
+
+    /**
+     * <p>
      * Updates - or creates - the information which concept has children in which facets.
      * This information is used in Semedico to either render an 'opening' arrow next to
      * a concept to display its children, or no 'drill-down' option depending on whether
      * the concept in question has children in the facet it is shown in or not.
+     * The facet sizes are recounted as well. Both are maintained during imports by {@link FacetStatistics},
+     * thus this is only required for repair and for databases created before.
+     * </p>
+     * <p>
+     * The update is run as a {@link ChildrenInformationJob} that commits in batches and resumes after the last
+     * committed batch if a previous run did not finish. Its progress can be queried via {@link #GET_CHILDREN_INFORMATION_STATUS}.
+     * </p>
+     *
+     * @param batchSize  The number of concepts committed together. Defaults to {@link ChildrenInformationJob#DEFAULT_BATCH_SIZE}.
+     * @param numWorkers The number of worker threads. Defaults to the number of available processors.
+     * @param async      Whether to return immediately instead of after the job has finished.
+     * @return The status of the job or a conflict response if another update is running.
      */
     @POST
+    @Produces(MediaType.APPLICATION_JSON)
     @Path(UPDATE_CHILD_INFORMATION)
-    public void updateChildrenInformation() {
-        GraphDatabaseService graphDb = dbms.database(DEFAULT_DATABASE_NAME);
-        try (Transaction tx = graphDb.beginTx()) {
-            ResourceIterator<Node> conceptIt = tx.findNodes(ConceptLabel.CONCEPT);
-            while (conceptIt.hasNext()) {
-                Node concept = conceptIt.next();
-                Iterator<Relationship> relIt = concept.getRelationships(Direction.OUTGOING).iterator();
-                Set<String> facetsContainingChildren = new HashSet<>();
-                while (relIt.hasNext()) {
-                    Relationship rel = relIt.next();
-                    String type = rel.getType().name();
-                    if (type.startsWith(ConceptEdgeTypes.IS_BROADER_THAN.toString())) {
-                        String[] typeNameParts = type.split("_");
-                        String lastPart = typeNameParts[typeNameParts.length - 1];
-                        if (lastPart.startsWith(NodeIDPrefixConstants.FACET)) {
-                            facetsContainingChildren.add(lastPart);
-                        }
-                    }
-                }
-                if (facetsContainingChildren.size() == 0 && concept.hasProperty(PROP_CHILDREN_IN_FACETS))
-                    concept.removeProperty(PROP_CHILDREN_IN_FACETS);
-                else if (facetsContainingChildren.size() > 0)
-                    concept.setProperty(PROP_CHILDREN_IN_FACETS,
-                            facetsContainingChildren.toArray(new String[0]));
-            }
-            tx.commit();
+    public Object updateChildrenInformation(@QueryParam(KEY_BATCH_SIZE) int batchSize, @QueryParam(KEY_NUM_WORKERS) int numWorkers, @QueryParam(KEY_ASYNC) boolean async) {
+        try {
+            GraphDatabaseService graphDb = dbms.database(DEFAULT_DATABASE_NAME);
+            ChildrenInformationJob job = ChildrenInformationJob.create(graphDb, batchSize, numWorkers, log);
+            if (job == null)
+                return Response.status(Response.Status.CONFLICT).entity(ChildrenInformationJob.getStatus(graphDb)).build();
+            if (!async)
+                return Response.ok(job.run()).build();
+            Thread thread = new Thread(job::run, "children-information-update");
+            thread.setDaemon(true);
+            thread.start();
+            return Response.ok(job.getStatus()).build();
+        } catch (Throwable t) {
+            return getErrorResponse(t);
+        }
+    }
+
+    /**
+     * Returns the progress and throughput of the running or last {@link ChildrenInformationJob}.
+     *
+     * @return A JSON object with the keys defined in {@link ChildrenInformationJob}.
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path(GET_CHILDREN_INFORMATION_STATUS)
+    public Object getChildrenInformationStatus() {
+        try {
+            return Response.ok(ChildrenInformationJob.getStatus(dbms.database(DEFAULT_DATABASE_NAME))).build();
+        } catch (Throwable t) {
+            return getErrorResponse(t);
+        }
+    }
+
+    /**
+     * Returns the state of the {@link ConceptNodeIdCache} used for concept lookups, including its size, the off-heap
+     * memory it occupies and its hit and miss counts since startup.
+     *
+     * @return A JSON object with the keys defined in {@link ConceptNodeIdCache}.
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path(GET_NODE_ID_CACHE_STATUS)
+    public Object getNodeIdCacheStatus() {
+        try {
+            return Response.ok(ConceptNodeIdCache.getInstance().getStatus()).build();
+        } catch (Throwable t) {
+            return getErrorResponse(t);
+        }
+    }
+
+    /**
+     * Returns the state of the {@link OrthologyAggregateCache} used by {@link #RETRIEVE_IE_RELATIONS}.
+     *
+     * @return A JSON object with the keys defined in {@link OrthologyAggregateCache}.
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path(GET_ORTHOLOGY_CACHE_STATUS)
+    public Object getOrthologyCacheStatus() {
+        try {
+            return Response.ok(OrthologyAggregateCache.getInstance().getStatus()).build();
+        } catch (Throwable t) {
+            return getErrorResponse(t);
+        }
+    }
+
+    /**
+     * Fills the {@link OrthologyAggregateCache} with all orthology aggregates and their elements. This is meant to
+     * be called after server startup so that the first relation retrievals do not have to traverse the aggregates.
+     *
+     * @return A JSON object with the keys defined in {@link OrthologyAggregateCache}.
+     */
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path(WARM_UP_ORTHOLOGY_CACHE)
+    public Object warmUpOrthologyCache(@Context Log log) {
+        try {
+            log.info("%s was called", WARM_UP_ORTHOLOGY_CACHE);
+            GraphDatabaseService graphDb = dbms.database(DEFAULT_DATABASE_NAME);
+            return Response.ok(OrthologyAggregateCache.getInstance().warmUp(graphDb, log)).build();
+        } catch (Throwable t) {
+            log.error("Warming up the orthology aggregate cache failed", t);
+            return getErrorResponse(t);
+        }
+    }
+
+    /**
+     * Adds the source IDs of all existing concepts and aggregates to the {@link SourceIdIndex}. This is required once
+     * for databases that contain concepts imported before the index existed. Until then, source ID lookups use the
+     * <tt>sourceIdsX</tt> property indexes.
+     *
+     * @return A JSON object with the number of indexed nodes and source IDs.
+     */
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path(BUILD_SOURCE_ID_INDEX)
+    public Object buildSourceIdIndex(@Context Log log) {
+        try {
+            log.info("%s was called", BUILD_SOURCE_ID_INDEX);
+            GraphDatabaseService graphDb = dbms.database(DEFAULT_DATABASE_NAME);
+            return Response.ok(SourceIdIndex.build(graphDb, log)).build();
+        } catch (Throwable t) {
+            log.error("Building the source ID index failed", t);
+            return getErrorResponse(t);
+        }
+    }
+
+    /**
+     * (Re-)builds the {@link AncestorIndex} of all facet hierarchies. This is required once for databases that
+     * contain concepts imported before the index existed. Until then, ancestor queries traverse the hierarchy.
+     *
+     * @return A JSON object with the number of indexed facets and nodes.
+     */
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path(BUILD_ANCESTOR_INDEX)
+    public Object buildAncestorIndex(@Context Log log) {
+        try {
+            log.info("%s was called", BUILD_ANCESTOR_INDEX);
+            GraphDatabaseService graphDb = dbms.database(DEFAULT_DATABASE_NAME);
+            return Response.ok(AncestorIndex.build(graphDb, log)).build();
+        } catch (Throwable t) {
+            log.error("Building the ancestor index failed", t);
+            return getErrorResponse(t);
         }
     }
 
@@ -272,6 +467,31 @@ public class ConceptManager {
         }
     }
 
+    /**
+     * <p>
+     * Removes concept mappings from the database. A mapping is removed by removing its type from the mapping
+     * relationship between the two concepts; relationships without any remaining mapping type are deleted.
+     * </p>
+     * <p>
+     * Parameter: An array of mappings in JSON format, as for {@link #insertMappings(InputStream)}.
+     * </p>
+     *
+     * @param is The mappings in JSON format, wrapped in an InputStream.
+     * @return The number of removed mappings.
+     * @throws IOException If the input JSON cannot be read.
+     */
+    @DELETE
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Path(DELETE_MAPPINGS)
+    public int deleteMappings(InputStream is) throws IOException {
+        Iterator<ImportMapping> importMappingIterator = new ObjectMapper().readerFor(ImportMapping.class).readValues(is);
+        log.info("Starting to remove mappings.");
+        GraphDatabaseService graphDb = dbms.database(DEFAULT_DATABASE_NAME);
+        try (Transaction tx = graphDb.beginTx()) {
+            return ConceptInsertion.deleteMappings(tx, log, importMappingIterator);
+        }
+    }
+
     /**
      * Convenience access to {@link #getFacetRoots(UriInfo, Log)}.
      *
@@ -430,16 +650,53 @@ public class ConceptManager {
         }
     }
 
+    /**
+     * Retrieves the IE relations of the concepts in a {@link RelationRetrievalRequest}. The relations are returned as
+     * a JSON array or, if the <tt>Accept</tt> header contains {@link IERelationRetrieval#MEDIA_TYPE_JSON_LINES}, are
+     * streamed as one JSON object per line. The header {@link IERelationRetrieval#HEADER_PARTIAL_RESULT} tells whether
+     * the time budget of the request has been exhausted.
+     *
+     * @param is     The request in JSON format.
+     * @param accept The <tt>Accept</tt> header of the request.
+     * @param log    The log.
+     * @return The retrieved relations.
+     */
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Path(RETRIEVE_IE_RELATIONS)
-    public Response retrieveIERelations(InputStream is, @Context Log log) {
+    public Response retrieveIERelations(InputStream is, @HeaderParam(HttpHeaders.ACCEPT) String accept, @Context Log log) {
         GraphDatabaseService graphDb = dbms.database(DEFAULT_DATABASE_NAME);
         ObjectMapper om = new ObjectMapper();
         try {
             RelationRetrievalRequest relationRetrievalRequest = om.readValue(is, RelationRetrievalRequest.class);
-            List<Map<String, Object>> retrievedRelations = IERelationRetrieval.retrieve(relationRetrievalRequest, graphDb, log);
-            return Response.ok(retrievedRelations, MediaType.APPLICATION_JSON).build();
+            IERelationRetrieval.Result result = IERelationRetrieval.count(relationRetrievalRequest, graphDb, log);
+            if (accept == null || !accept.contains(IERelationRetrieval.MEDIA_TYPE_JSON_LINES)) {
+                List<Map<String, Object>> retrievedRelations;
+                try (Transaction tx = graphDb.beginTx()) {
+                    retrievedRelations = result.toList(tx);
+                }
+                return Response.ok(retrievedRelations, MediaType.APPLICATION_JSON).header(IERelationRetrieval.HEADER_PARTIAL_RESULT, result.isPartial()).build();
+            }
+            StreamingOutput relations = output -> {
+                try (Transaction tx = graphDb.beginTx(); JsonGenerator g = om.getFactory().createGenerator(output)) {
+                    g.setRootValueSeparator(null);
+                    result.write(tx, (arg1Name, arg1Id, arg2Name, arg2Id, count) -> {
+                        g.writeStartObject();
+                        g.writeStringField(IERelationRetrieval.KEY_ARG1_NAME, arg1Name);
+                        g.writeStringField(IERelationRetrieval.KEY_ARG1_ID, arg1Id);
+                        g.writeStringField(IERelationRetrieval.KEY_ARG2_NAME, arg2Name);
+                        g.writeStringField(IERelationRetrieval.KEY_ARG2_ID, arg2Id);
+                        g.writeNumberField(IERelationRetrieval.KEY_COUNT, count);
+                        g.writeEndObject();
+                        g.writeRaw('\n');
+                    });
+                } catch (RuntimeException e) {
+                    // Without a rethrow, the client would receive a truncated but seemingly complete response.
+                    log.error("Exception occurred during IE relation output streaming.", e);
+                    throw e;
+                }
+            };
+            return Response.ok(relations, IERelationRetrieval.MEDIA_TYPE_JSON_LINES).header(IERelationRetrieval.HEADER_PARTIAL_RESULT, result.isPartial()).build();
         } catch (Throwable t) {
             t.printStackTrace();
             log.error("Error in IE relation retrieval.", t);
@@ -461,11 +718,21 @@ public class ConceptManager {
     }
 
     /**
-     * Convenience access to {@link #insertConcepts(InputStream)} and, as a consequence, {@link #insertConcepts(InputStream, Log)}.
+     * Convenience access for callers within the same JVM. The concepts are passed to
+     * {@link ConceptInsertion#insertConcepts(GraphDatabaseService, Log, ImportConcepts, Map)} without being
+     * serialized.
      *
-     * @param importConcepts
+     * @param importConcepts The concepts to import.
      */
     public void insertConcepts(ImportConcepts importConcepts) {
-        insertConcepts(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(importConcepts).getBytes(UTF_8)));
+        try {
+            log.info("%s was called", INSERT_CONCEPTS);
+            GraphDatabaseService graphDb = dbms.database(DEFAULT_DATABASE_NAME);
+            Map<String, Object> response = new HashMap<>();
+            InsertionReport insertionReport = ConceptInsertion.insertConcepts(graphDb, log, importConcepts, response);
+            log.info("%s is finished processing after %s ms. %s concepts and %s relationships have been created.", INSERT_CONCEPTS, response.get(KEY_TIME), insertionReport.numConcepts, insertionReport.numRelationships);
+        } catch (Throwable throwable) {
+            log.error("Concept insertion failed", throwable);
+        }
     }
 }
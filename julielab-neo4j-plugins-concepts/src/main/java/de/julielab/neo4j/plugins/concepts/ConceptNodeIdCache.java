@@ -0,0 +1,416 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import de.julielab.neo4j.plugins.auxiliaries.semedico.NodeUtilities;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static de.julielab.neo4j.plugins.concepts.ConceptLabel.CONCEPT;
+import static de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <p>
+ * A cache from concept coordinates to node IDs used by {@link ConceptLookup}. The keys are 64 bit hashes of
+ * (originalId, originalSource) and (sourceId, source) pairs, the values are node IDs. Both are stored as primitive
+ * longs in an open addressing hash table that lives in off-heap memory. Thus, millions of entries do not burden the
+ * garbage collector.
+ * </p>
+ * <p>
+ * Each cache hit is verified against the properties of the node it points to. Entries of deleted nodes, of nodes
+ * from rolled back transactions, of reused node IDs and hash collisions are thereby detected, dropped and answered
+ * by the schema index. Entries are added for nodes found in the index, on node creation and when source IDs are
+ * merged into nodes. They are removed when concept nodes are deleted.
+ * </p>
+ * <p>
+ * A source ID may be shared by several nodes, e.g. from different sources, and the lookup must then check all of
+ * them. Therefore, a third kind of entry records the single node having a source ID. It is added when a lookup has
+ * found exactly one node in the {@link SourceIdIndex} and it is kept current by the index: adding a source ID to a
+ * second node marks the source ID as shared, removing it resets the entry. A source ID hit is only accepted for the
+ * single node of its source ID so that it does not need to read the index.
+ * </p>
+ * <p>
+ * The cache is enabled unless the system property {@link ConceptLookup#SYSPROP_ID_CACHE_ENABLED} is set to
+ * <tt>false</tt>. Its maximum size is given in slots by {@link #SYSPROP_ID_CACHE_MAX_SLOTS}. When it is full, it is
+ * cleared.
+ * </p>
+ */
+public class ConceptNodeIdCache {
+    public static final String SYSPROP_ID_CACHE_MAX_SLOTS = "de.julielab.neo4j.plugins.conceptlookup.nodeidcache.maxslots";
+    public static final String KEY_ENABLED = "enabled";
+    public static final String KEY_SIZE = "size";
+    public static final String KEY_CAPACITY = "capacity";
+    public static final String KEY_OFF_HEAP_BYTES = "offHeapBytes";
+    public static final String KEY_HITS = "hits";
+    public static final String KEY_MISSES = "misses";
+    public static final String KEY_HIT_RATIO = "hitRatio";
+    public static final String KEY_INVALIDATIONS = "invalidations";
+    private static final int INITIAL_SLOTS = 1 << 16;
+    private static final int DEFAULT_MAX_SLOTS = 1 << 24;
+    /**
+     * The byte size of the table must fit into an int.
+     */
+    private static final int MAX_SLOTS_LIMIT = 1 << 26;
+    /**
+     * Each slot holds the key hash and the node ID as two longs.
+     */
+    private static final int SLOT_BYTES = 16;
+    private static final long EMPTY_KEY = 0;
+    private static final long REMOVED_VALUE = -1;
+    /**
+     * The value of a source ID holder entry whose source ID is shared by multiple nodes.
+     */
+    private static final long SHARED_VALUE = -2;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    private static final ConceptNodeIdCache INSTANCE = new ConceptNodeIdCache(Integer.getInteger(SYSPROP_ID_CACHE_MAX_SLOTS, DEFAULT_MAX_SLOTS));
+    private final int maxSlots;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private ByteBuffer table;
+    private int numSlots;
+    /**
+     * The number of slots with a key, including removed entries whose keys are kept for the probe sequences.
+     */
+    private int numUsedSlots;
+    private int numEntries;
+    /**
+     * Counts the changes of the source ID holder entries, see {@link #getSourceIdStamp()}.
+     */
+    private long sourceIdStamp;
+
+    ConceptNodeIdCache(int maxSlots) {
+        // The slot count must be a power of two for the index mask.
+        this.maxSlots = Math.min(Integer.highestOneBit(Math.max(maxSlots, INITIAL_SLOTS)), MAX_SLOTS_LIMIT);
+        allocate(Math.min(INITIAL_SLOTS, this.maxSlots));
+    }
+
+    public static ConceptNodeIdCache getInstance() {
+        return INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty(ConceptLookup.SYSPROP_ID_CACHE_ENABLED, "true"));
+    }
+
+    private static long originalIdKey(String orgId, String orgSource) {
+        return key('o', orgId, orgSource);
+    }
+
+    private static long sourceIdKey(String srcId, String source) {
+        return key('s', srcId, source);
+    }
+
+    private static long sourceIdHolderKey(String srcId) {
+        return key('h', srcId, "");
+    }
+
+    private static long key(char type, String id, String source) {
+        long key = HASH_FUNCTION.newHasher()
+                .putChar(type)
+                .putString(String.valueOf(id), UTF_8)
+                .putChar('\0')
+                .putString(String.valueOf(source), UTF_8)
+                .hash().asLong();
+        return key == EMPTY_KEY ? 1 : key;
+    }
+
+    /**
+     * Returns the concept node with the given original ID and original source if it is known to the cache.
+     *
+     * @return The cached node or <tt>null</tt>.
+     */
+    public Node getByOriginalId(Transaction tx, String orgId, String orgSource) {
+        long key = originalIdKey(orgId, orgSource);
+        Node node = getNode(tx, key);
+        if (node != null && (!orgId.equals(node.getProperty(PROP_ORG_ID, null)) || !orgSource.equals(node.getProperty(PROP_ORG_SRC, null))))
+            node = invalidate(key);
+        return countAccess(node);
+    }
+
+    /**
+     * Returns the concept node with the given source ID from the given source if it is known to the cache and if it
+     * is the only node with this source ID.
+     *
+     * @return The cached node or <tt>null</tt>.
+     */
+    public Node getBySourceId(Transaction tx, String srcId, String source) {
+        long key = sourceIdKey(srcId, source);
+        long nodeId = get(key);
+        if (nodeId < 0 || get(sourceIdHolderKey(srcId)) != nodeId)
+            return countAccess(null);
+        Node node = getNode(tx, key, nodeId);
+        if (node != null && Arrays.binarySearch(NodeUtilities.getSourcesForSourceId(node, srcId), source) < 0)
+            node = invalidate(key);
+        return countAccess(node);
+    }
+
+    /**
+     * Adds the original ID and all source IDs of <tt>concept</tt> to the cache.
+     *
+     * @param concept A concept node.
+     */
+    public void put(Node concept) {
+        long nodeId = concept.getId();
+        Object orgId = concept.getProperty(PROP_ORG_ID, null);
+        Object orgSource = concept.getProperty(PROP_ORG_SRC, null);
+        if (orgId != null && orgSource != null)
+            put(originalIdKey((String) orgId, (String) orgSource), nodeId);
+        List<String> sourceIds = NodeUtilities.getSourceIds(concept);
+        for (int i = 0; i < sourceIds.size(); i++) {
+            for (String source : (String[]) concept.getProperty(PROP_SOURCES + i))
+                put(sourceIdKey(sourceIds.get(i), source), nodeId);
+        }
+    }
+
+    public void putOriginalId(String orgId, String orgSource, long nodeId) {
+        put(originalIdKey(orgId, orgSource), nodeId);
+    }
+
+    public void putSourceId(String srcId, String source, long nodeId) {
+        put(sourceIdKey(srcId, source), nodeId);
+    }
+
+    /**
+     * Returns the current stamp of the source ID holder entries. It must be obtained before the
+     * {@link SourceIdIndex} is read for {@link #putSourceIdHolder(String, long, long)}.
+     */
+    public long getSourceIdStamp() {
+        lock.readLock().lock();
+        try {
+            return sourceIdStamp;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records <tt>nodeId</tt> as the only node with <tt>srcId</tt> as read from the {@link SourceIdIndex}. Nothing is
+     * recorded if the holder of <tt>srcId</tt> is already known or if any source ID has been added to or removed
+     * from the index since <tt>stamp</tt> was obtained because the read could then be outdated.
+     *
+     * @param srcId  The source ID.
+     * @param nodeId The ID of the only node with the source ID.
+     * @param stamp  The value of {@link #getSourceIdStamp()} before the index was read.
+     */
+    public void putSourceIdHolder(String srcId, long nodeId, long stamp) {
+        long key = sourceIdHolderKey(srcId);
+        lock.writeLock().lock();
+        try {
+            if (stamp == sourceIdStamp && get(key) == REMOVED_VALUE)
+                put(key, nodeId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Called by the {@link SourceIdIndex} when <tt>srcId</tt> is added to a node. Must be called while the index
+     * entry of the source ID is locked.
+     *
+     * @param srcId  The source ID.
+     * @param shared Whether other nodes already have the source ID.
+     */
+    public void sourceIdAdded(String srcId, boolean shared) {
+        long key = sourceIdHolderKey(srcId);
+        lock.writeLock().lock();
+        try {
+            ++sourceIdStamp;
+            // The first holder is only recorded by a lookup since the index might not cover all nodes yet.
+            if (shared)
+                put(key, SHARED_VALUE);
+            else
+                remove(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Called by the {@link SourceIdIndex} when <tt>srcId</tt> is removed from a node. Must be called while the index
+     * entry of the source ID is locked.
+     *
+     * @param srcId The source ID.
+     */
+    public void sourceIdRemoved(String srcId) {
+        lock.writeLock().lock();
+        try {
+            ++sourceIdStamp;
+            remove(sourceIdHolderKey(srcId));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the original ID and all source IDs of <tt>concept</tt> from the cache. Must be called before the node
+     * is deleted because its properties are read.
+     *
+     * @param concept A concept node that is about to be deleted.
+     */
+    public void remove(Node concept) {
+        Object orgId = concept.getProperty(PROP_ORG_ID, null);
+        Object orgSource = concept.getProperty(PROP_ORG_SRC, null);
+        if (orgId != null && orgSource != null)
+            remove(originalIdKey((String) orgId, (String) orgSource));
+        List<String> sourceIds = NodeUtilities.getSourceIds(concept);
+        for (int i = 0; i < sourceIds.size(); i++) {
+            for (String source : (String[]) concept.getProperty(PROP_SOURCES + i))
+                remove(sourceIdKey(sourceIds.get(i), source));
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            allocate(Math.min(INITIAL_SLOTS, maxSlots));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        long numHits = hits.sum();
+        long numMisses = misses.sum();
+        lock.readLock().lock();
+        try {
+            status.put(KEY_SIZE, numEntries);
+            status.put(KEY_CAPACITY, numSlots);
+            status.put(KEY_OFF_HEAP_BYTES, (long) numSlots * SLOT_BYTES);
+        } finally {
+            lock.readLock().unlock();
+        }
+        status.put(KEY_ENABLED, isEnabled());
+        status.put(KEY_HITS, numHits);
+        status.put(KEY_MISSES, numMisses);
+        status.put(KEY_HIT_RATIO, numHits + numMisses > 0 ? numHits / (double) (numHits + numMisses) : 0d);
+        status.put(KEY_INVALIDATIONS, invalidations.sum());
+        return status;
+    }
+
+    private Node getNode(Transaction tx, long key) {
+        return getNode(tx, key, get(key));
+    }
+
+    private Node getNode(Transaction tx, long key, long nodeId) {
+        if (nodeId < 0)
+            return null;
+        try {
+            Node node = tx.getNodeById(nodeId);
+            return node.hasLabel(CONCEPT) ? node : invalidate(key);
+        } catch (NotFoundException e) {
+            return invalidate(key);
+        }
+    }
+
+    private Node invalidate(long key) {
+        invalidations.increment();
+        remove(key);
+        return null;
+    }
+
+    private Node countAccess(Node node) {
+        if (node != null)
+            hits.increment();
+        else
+            misses.increment();
+        return node;
+    }
+
+    private long get(long key) {
+        lock.readLock().lock();
+        try {
+            int slot = findSlot(table, numSlots, key);
+            return table.getLong(slot * SLOT_BYTES) == key ? table.getLong(slot * SLOT_BYTES + 8) : REMOVED_VALUE;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void put(long key, long nodeId) {
+        lock.writeLock().lock();
+        try {
+            if (2 * (numUsedSlots + 1) > numSlots) {
+                if (numSlots < maxSlots)
+                    resize(2 * numSlots);
+                else
+                    allocate(numSlots);
+            }
+            int slot = findSlot(table, numSlots, key);
+            if (table.getLong(slot * SLOT_BYTES) == EMPTY_KEY) {
+                table.putLong(slot * SLOT_BYTES, key);
+                ++numUsedSlots;
+                ++numEntries;
+            } else if (table.getLong(slot * SLOT_BYTES + 8) == REMOVED_VALUE) {
+                ++numEntries;
+            }
+            table.putLong(slot * SLOT_BYTES + 8, nodeId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void remove(long key) {
+        lock.writeLock().lock();
+        try {
+            // The key stays in place so that the probe sequences of other keys are not interrupted.
+            int slot = findSlot(table, numSlots, key);
+            if (table.getLong(slot * SLOT_BYTES) == key && table.getLong(slot * SLOT_BYTES + 8) != REMOVED_VALUE) {
+                table.putLong(slot * SLOT_BYTES + 8, REMOVED_VALUE);
+                --numEntries;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Linear probing; returns the slot holding <tt>key</tt> or the empty slot where it would be inserted.
+     */
+    private int findSlot(ByteBuffer table, int numSlots, long key) {
+        int mask = numSlots - 1;
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        long slotKey;
+        while ((slotKey = table.getLong(slot * SLOT_BYTES)) != EMPTY_KEY && slotKey != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void resize(int newNumSlots) {
+        ByteBuffer oldTable = table;
+        int oldNumSlots = numSlots;
+        allocate(newNumSlots);
+        for (int i = 0; i < oldNumSlots; i++) {
+            long key = oldTable.getLong(i * SLOT_BYTES);
+            long value = oldTable.getLong(i * SLOT_BYTES + 8);
+            if (key != EMPTY_KEY && value != REMOVED_VALUE) {
+                int slot = findSlot(table, numSlots, key);
+                table.putLong(slot * SLOT_BYTES, key);
+                table.putLong(slot * SLOT_BYTES + 8, value);
+                ++numUsedSlots;
+                ++numEntries;
+            }
+        }
+    }
+
+    private void allocate(int numSlots) {
+        // Direct buffers are zeroed on allocation, i.e. all slots are empty.
+        table = ByteBuffer.allocateDirect(numSlots * SLOT_BYTES);
+        this.numSlots = numSlots;
+        numUsedSlots = 0;
+        numEntries = 0;
+    }
+}
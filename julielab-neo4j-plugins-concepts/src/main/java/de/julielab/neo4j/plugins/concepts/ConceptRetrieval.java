@@ -1,85 +1,70 @@
 package de.julielab.neo4j.plugins.concepts;
 
-import de.julielab.neo4j.plugins.auxiliaries.semedico.NodeUtilities;
-import org.apache.commons.lang3.StringUtils;
 import org.neo4j.graphdb.*;
-import org.neo4j.graphdb.traversal.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
 
 import static de.julielab.neo4j.plugins.concepts.ConceptManager.*;
-import static de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants.PROP_FACETS;
 import static de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants.PROP_SRC_IDS;
 import static de.julielab.neo4j.plugins.datarepresentation.constants.NodeConstants.PROP_ID;
 
 public class ConceptRetrieval {
     private final static Logger log = LoggerFactory.getLogger(ConceptRetrieval.class);
-    public static Map<String, Object> getPathsFromFacetRoots(Transaction tx, List<String> conceptIds,  String idProperty, String returnIdProperty,boolean sort, String facetId) {
-        Evaluator rootConceptEvaluator = path -> {
-            Node endNode = path.endNode();
-
-            Iterator<Relationship> iterator = endNode.getRelationships(ConceptEdgeTypes.HAS_ROOT_CONCEPT).iterator();
-            if (iterator.hasNext()) {
-                if (StringUtils.isBlank(facetId)) {
-                    return Evaluation.INCLUDE_AND_CONTINUE;
-                } else {
-                    String[] facetIds = (String[]) endNode.getProperty(PROP_FACETS);
-                    for (String facetIdOfRootNode : facetIds) {
-                        if (facetIdOfRootNode.equals(facetId))
-                            return Evaluation.INCLUDE_AND_CONTINUE;
-                    }
-                }
-            }
-            return Evaluation.EXCLUDE_AND_CONTINUE;
-        };
-        RelationshipType relType = StringUtils.isBlank(facetId) ? ConceptEdgeTypes.IS_BROADER_THAN
-                : RelationshipType.withName(ConceptEdgeTypes.IS_BROADER_THAN.name() + "_" + facetId);
-        TraversalDescription td = tx.traversalDescription().uniqueness(Uniqueness.NODE_PATH).depthFirst()
-                .relationships(relType, Direction.INCOMING).evaluator(rootConceptEvaluator);
+    public static Map<String, Object> getPathsFromFacetRoots(Transaction tx, List<String> conceptIds, String idProperty, String returnIdProperty, boolean sort, String facetId) {
+        return getPathsFromFacetRoots(tx, conceptIds, idProperty, returnIdProperty, sort, facetId, 0, 0, false);
+    }
 
-        Node[] startNodes = new Node[conceptIds.size()];
-        for (int i = 0; i < conceptIds.size(); i++) {
-            String conceptId = conceptIds.get(i);
+    /**
+     * Returns the paths from the facet roots to the given concepts. The ancestors shared by the concepts are only
+     * visited once, see {@link RootPathFinder}.
+     *
+     * @param tx               The current transaction.
+     * @param conceptIds       The IDs of the concepts to get the root paths for.
+     * @param idProperty       The property that holds the concept IDs.
+     * @param returnIdProperty The property whose values should be returned as the path elements. Defaults to the concept ID.
+     * @param sort             Whether to sort the paths by length.
+     * @param facetId          Optional. The facet whose hierarchy and roots should be used.
+     * @param maxPaths         The maximum number of returned paths; non-positive values mean no limit.
+     * @param maxDepth         The maximum number of relationships of a path; non-positive values mean no limit.
+     * @param compact          Whether to return the union of the paths as a DAG instead of the list of paths.
+     * @return The paths under {@link ConceptManager#RET_KEY_PATHS} or the DAG and whether paths have been omitted due to <tt>maxPaths</tt>.
+     */
+    public static Map<String, Object> getPathsFromFacetRoots(Transaction tx, List<String> conceptIds, String idProperty, String returnIdProperty, boolean sort, String facetId, int maxPaths, int maxDepth, boolean compact) {
+        long time = System.currentTimeMillis();
+        if (maxPaths <= 0)
+            maxPaths = Integer.MAX_VALUE;
+        if (maxDepth <= 0)
+            maxDepth = Integer.MAX_VALUE;
+        RootPathFinder rootPathFinder = new RootPathFinder(facetId, idProperty, returnIdProperty);
+        List<RootPathFinder.PathNode> startNodes = new ArrayList<>(conceptIds.size());
+        for (String conceptId : conceptIds) {
             Node node = idProperty.equals(PROP_SRC_IDS) ? ConceptLookup.lookupSingleConceptBySourceId(tx, conceptId) : tx.findNode(ConceptLabel.CONCEPT, idProperty, conceptId);
             if (node == null)
                 throw new IllegalArgumentException("Could not find a node with ID " + conceptId + " for property " + idProperty);
-            startNodes[i] = node;
+            startNodes.add(rootPathFinder.explore(node));
         }
 
-        Traverser traverse = td.traverse(startNodes);
-        List<String[]> pathsConceptIds = new ArrayList<>();
-        int c = 0;
-        for (Path p : traverse) {
-            log.info("Path nr. " + c++ + ":" + p.toString());
-            // The length of paths is measured in the number of edges, not
-            // nodes, in Neo4j.
-            String[] pathConceptIds = new String[p.length() + 1];
-            Iterator<Node> nodesIt = p.nodes().iterator();
-            boolean error = false;
-            for (int i = p.length(); i >= 0; i--) {
-                Node n;
-                if (nodesIt.hasNext())
-                    n = nodesIt.next();
-                else
-                    throw new IllegalStateException("Length of path wrong, more nodes expected.");
-                // The latter for sourceIds
-                if (!n.hasProperty(idProperty) && !n.hasProperty(idProperty+0)) {
-                    log.warn("Came across the concept " + n + " (" + NodeUtilities.getNodePropertiesAsString(n)
-                            + ") when computing root paths. But this concept does not have an ID.");
-                    error = true;
+        Map<String, Object> pathsWrappedInMap;
+        if (compact) {
+            pathsWrappedInMap = rootPathFinder.getDag(startNodes, maxDepth);
+            pathsWrappedInMap.put(RET_KEY_TRUNCATED, false);
+        } else {
+            List<String[]> pathsConceptIds = new ArrayList<>();
+            boolean truncated = false;
+            for (RootPathFinder.PathNode startNode : startNodes) {
+                truncated = rootPathFinder.addPaths(startNode, maxPaths, maxDepth, pathsConceptIds);
+                if (truncated)
                     break;
-                }
-                pathConceptIds[i] = (String) n.getProperty(returnIdProperty != null ? returnIdProperty : PROP_ID);
             }
-            if (!error)
-                pathsConceptIds.add(pathConceptIds);
+            if (sort)
+                pathsConceptIds.sort(Comparator.comparingInt(o -> o.length));
+            pathsWrappedInMap = new HashMap<>();
+            pathsWrappedInMap.put(RET_KEY_PATHS, pathsConceptIds);
+            pathsWrappedInMap.put(RET_KEY_TRUNCATED, truncated);
         }
-        if (sort)
-            pathsConceptIds.sort(Comparator.comparingInt(o -> o.length));
-        Map<String, Object> pathsWrappedInMap = new HashMap<>();
-        pathsWrappedInMap.put(RET_KEY_PATHS, pathsConceptIds);
+        log.debug("Computed the root paths of {} concepts from {} explored nodes in {} ms.", conceptIds.size(), rootPathFinder.getNumExploredNodes(), System.currentTimeMillis() - time);
         return pathsWrappedInMap;
     }
 
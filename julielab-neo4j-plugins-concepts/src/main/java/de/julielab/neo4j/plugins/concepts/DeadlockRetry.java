@@ -0,0 +1,60 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.DeadlockDetectedException;
+import org.neo4j.logging.Log;
+
+/**
+ * Runs units of work in transactions of their own and repeats them when the database detects a deadlock. The work
+ * of a failed attempt has been rolled back, so each attempt must start from scratch; state that lives outside of the
+ * transaction can be reset by the <tt>onDeadlock</tt> callback.
+ */
+final class DeadlockRetry {
+    static final int MAX_DEADLOCK_RETRIES = 5;
+    static final long DEADLOCK_WAIT_MILLIS = 3000;
+
+    private DeadlockRetry() {
+    }
+
+    /**
+     * Runs <tt>work</tt> in a new transaction and commits it, see {@link #inTransaction(GraphDatabaseService, Log, String, TransactionWork, Runnable)}.
+     */
+    static <T, E extends Exception> T inTransaction(GraphDatabaseService graphDb, Log log, String activity, TransactionWork<T, E> work) throws E, InterruptedException {
+        return inTransaction(graphDb, log, activity, work, null);
+    }
+
+    /**
+     * Runs <tt>work</tt> in a new transaction and commits it. When a deadlock is detected, waits
+     * {@link #DEADLOCK_WAIT_MILLIS} ms and tries again, at most {@link #MAX_DEADLOCK_RETRIES} times.
+     *
+     * @param graphDb    The database.
+     * @param log        The log.
+     * @param activity   What the work does, for the log, e.g. <tt>deleting aggregates</tt>.
+     * @param work       The work to do in the transaction.
+     * @param onDeadlock Called after an attempt has been rolled back because of a deadlock, may be <tt>null</tt>.
+     * @return The result of the successful attempt.
+     */
+    static <T, E extends Exception> T inTransaction(GraphDatabaseService graphDb, Log log, String activity, TransactionWork<T, E> work, Runnable onDeadlock) throws E, InterruptedException {
+        int retries = 0;
+        while (true) {
+            try (Transaction tx = graphDb.beginTx()) {
+                T result = work.run(tx);
+                tx.commit();
+                return result;
+            } catch (DeadlockDetectedException e) {
+                if (retries++ >= MAX_DEADLOCK_RETRIES)
+                    throw e;
+                if (onDeadlock != null)
+                    onDeadlock.run();
+                log.debug("Deadlock was detected while %s. Waiting %sms and trying again.", activity, DEADLOCK_WAIT_MILLIS);
+                Thread.sleep(DEADLOCK_WAIT_MILLIS);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface TransactionWork<T, E extends Exception> {
+        T run(Transaction tx) throws E;
+    }
+}
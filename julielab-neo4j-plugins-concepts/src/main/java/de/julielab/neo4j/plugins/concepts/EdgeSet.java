@@ -0,0 +1,147 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import org.neo4j.graphdb.RelationshipType;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * A set of edges given by the IDs of their two nodes and a type ID. The edges are kept in parallel primitive arrays
+ * and are found by an open addressing hash table of array positions, so neither adding nor checking an edge creates
+ * objects. Type IDs are assigned to relationship types by {@link #getTypeId(RelationshipType)}; they are only valid
+ * within the same set. Each edge may carry a value, e.g. the ID of the relationship it stands for.
+ * </p>
+ * <p>
+ * Used by the {@link InsertionReport} to keep track of relationships during a single import.
+ * </p>
+ */
+public class EdgeSet {
+    private static final int INITIAL_CAPACITY = 64;
+    private final Map<String, Integer> typeIds = new HashMap<>();
+    private long[] starts = new long[INITIAL_CAPACITY];
+    private long[] ends = new long[INITIAL_CAPACITY];
+    private int[] types = new int[INITIAL_CAPACITY];
+    private long[] values = new long[INITIAL_CAPACITY];
+    /**
+     * The position of each edge plus one; 0 marks an empty slot. The length is a power of two.
+     */
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+    private int size;
+
+    private static int hash(long start, long end, int typeId) {
+        long h = (start * 0x9E3779B97F4A7C15L + end) * 31 + typeId;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * @param type A relationship type.
+     * @return The ID of <tt>type</tt> within this set.
+     */
+    public int getTypeId(RelationshipType type) {
+        Integer typeId = typeIds.get(type.name());
+        if (typeId == null) {
+            typeId = typeIds.size();
+            typeIds.put(type.name(), typeId);
+        }
+        return typeId;
+    }
+
+    /**
+     * Adds the edge, if not already contained.
+     *
+     * @param start  The ID of the first node.
+     * @param end    The ID of the second node.
+     * @param typeId The type ID, see {@link #getTypeId(RelationshipType)}.
+     * @return Whether the edge has been added.
+     */
+    public boolean add(long start, long end, int typeId) {
+        return add(start, end, typeId, -1);
+    }
+
+    /**
+     * Adds the edge with <tt>value</tt>, if not already contained. The value of a contained edge is not changed.
+     *
+     * @param start  The ID of the first node.
+     * @param end    The ID of the second node.
+     * @param typeId The type ID, see {@link #getTypeId(RelationshipType)}.
+     * @param value  The value of the edge.
+     * @return Whether the edge has been added.
+     */
+    public boolean add(long start, long end, int typeId, long value) {
+        int slot = findSlot(start, end, typeId);
+        if (table[slot] != 0)
+            return false;
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+            types = Arrays.copyOf(types, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        types[size] = typeId;
+        values[size] = value;
+        table[slot] = ++size;
+        // Keep the load factor at most 0.5.
+        if (size * 2 > table.length)
+            rehash();
+        return true;
+    }
+
+    public boolean contains(long start, long end, int typeId) {
+        return table[findSlot(start, end, typeId)] != 0;
+    }
+
+    /**
+     * @return The value of the edge or -1 if the edge is not contained.
+     */
+    public long get(long start, long end, int typeId) {
+        int pos = table[findSlot(start, end, typeId)];
+        return pos != 0 ? values[pos - 1] : -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all edges but keeps the capacity and the type IDs.
+     */
+    public void clear() {
+        if (size == 0)
+            return;
+        Arrays.fill(table, 0);
+        size = 0;
+    }
+
+    /**
+     * @return The slot of the edge or the empty slot where it would be added.
+     */
+    private int findSlot(long start, long end, int typeId) {
+        int mask = table.length - 1;
+        int slot = hash(start, end, typeId) & mask;
+        while (table[slot] != 0) {
+            int pos = table[slot] - 1;
+            if (starts[pos] == start && ends[pos] == end && types[pos] == typeId)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int pos = 0; pos < size; pos++) {
+            int slot = hash(starts[pos], ends[pos], types[pos]) & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = pos + 1;
+        }
+    }
+}
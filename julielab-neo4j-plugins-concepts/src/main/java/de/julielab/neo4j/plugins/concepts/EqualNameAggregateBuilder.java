@@ -0,0 +1,206 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import de.julielab.neo4j.plugins.auxiliaries.semedico.SequenceManager;
+import de.julielab.neo4j.plugins.constants.semedico.SequenceConstants;
+import de.julielab.neo4j.plugins.datarepresentation.constants.NodeIDPrefixConstants;
+import org.neo4j.graphdb.*;
+import org.neo4j.logging.Log;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static de.julielab.neo4j.plugins.concepts.ConceptLabel.AGGREGATE;
+import static de.julielab.neo4j.plugins.concepts.ConceptLabel.AGGREGATE_EQUAL_NAMES;
+
+/**
+ * <p>
+ * Creates the equal-name aggregates for
+ * {@link ConceptAggregateManager#buildAggregatesForEqualNames(GraphDatabaseService, List, String, List, String[], Log)}.
+ * </p>
+ * <p>
+ * The names and IDs of the non-aggregate nodes with the given labels are read in a single read transaction and passed
+ * to a {@link NodeNameSorter} which spills sorted chunks to disk. Thus, neither the nodes nor their names are held in
+ * the heap as a whole. The sorted records are grouped by name; each group of at least two distinct nodes becomes an
+ * aggregate. The groups are collected into batches that are created and committed by a pool of workers in
+ * transactions of their own. The groups are disjoint, so the workers never connect the same nodes. The aggregate IDs
+ * of each batch are reserved before the batch is submitted so that they follow the name order.
+ * </p>
+ */
+public class EqualNameAggregateBuilder {
+    public static final String SYSPROP_NUM_WORKERS = "de.julielab.neo4j.plugins.concepts.equalnameaggregates.numworkers";
+    /**
+     * The maximum number of (name, node ID) records that are sorted in memory before they are spilled to disk.
+     */
+    public static final String SYSPROP_SORT_BUFFER_SIZE = "de.julielab.neo4j.plugins.concepts.equalnameaggregates.sortbuffersize";
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final String[] MAPPING_TYPES = new String[]{AGGREGATE_EQUAL_NAMES.toString()};
+    private final GraphDatabaseService graphDb;
+    private final List<Label> nodeLabels;
+    private final String nameProperty;
+    private final List<Label> aggregatedLabels;
+    private final Label[] aggregatedLabelsArray;
+    private final String[] copyProperties;
+    private final int batchSize;
+    private final int numWorkers;
+    private final int sortBufferSize;
+    private final Log log;
+    private int numAggregates;
+
+    /**
+     * @param graphDb          The database.
+     * @param nodeLabels       The labels of the nodes to aggregate.
+     * @param nameProperty     The property whose equal values cause aggregation.
+     * @param aggregatedLabels The labels of the created aggregates.
+     * @param copyProperties   The properties to copy from the elements, see
+     *                         {@link ConceptAggregateManager#copyAggregateProperties(Node, boolean, String[], ConceptAggregateManager.CopyAggregatePropertiesStatistics)}.
+     * @param batchSize        The number of aggregates committed together. Non-positive values select {@link #DEFAULT_BATCH_SIZE}.
+     * @param log              The log.
+     */
+    public EqualNameAggregateBuilder(GraphDatabaseService graphDb, List<Label> nodeLabels, String nameProperty, List<Label> aggregatedLabels, String[] copyProperties, int batchSize, Log log) {
+        this.graphDb = graphDb;
+        this.nodeLabels = nodeLabels;
+        this.nameProperty = nameProperty;
+        this.aggregatedLabels = aggregatedLabels;
+        this.aggregatedLabelsArray = aggregatedLabels.toArray(Label[]::new);
+        this.copyProperties = copyProperties;
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        this.numWorkers = Math.max(1, Integer.getInteger(SYSPROP_NUM_WORKERS, Runtime.getRuntime().availableProcessors()));
+        this.sortBufferSize = Math.max(1, Integer.getInteger(SYSPROP_SORT_BUFFER_SIZE, NodeNameSorter.DEFAULT_MAX_RECORDS_IN_MEMORY));
+        this.log = log;
+    }
+
+    /**
+     * @return The number of created aggregates.
+     */
+    public int build() {
+        long time = System.currentTimeMillis();
+        // Create the sequence up front so that the workers do not race for its creation.
+        try (Transaction tx = graphDb.beginTx()) {
+            SequenceManager.getCurrentSequenceValue(tx, SequenceConstants.SEQ_AGGREGATE_TERM);
+            tx.commit();
+        }
+        try (NodeNameSorter sorter = new NodeNameSorter(sortBufferSize)) {
+            log.info("Reading the names of all non-aggregate nodes with labels %s", nodeLabels);
+            readNames(sorter);
+            log.info("Sorting %s nodes with labels %s by name", sorter.getNumRecords(), nodeLabels);
+            try (NodeNameSorter.Cursor cursor = sorter.sort()) {
+                log.info("Sorting of nodes by name is done, %s spill files were used. Creating equal-name aggregates for labels %s with labels %s with %s workers.", sorter.getNumSpillFiles(), nodeLabels, aggregatedLabels, numWorkers);
+                createAggregates(cursor);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        OrthologyAggregateCache.getInstance().invalidate();
+        log.info("%s equal-name aggregates were created in %s ms.", numAggregates, System.currentTimeMillis() - time);
+        return numAggregates;
+    }
+
+    private void readNames(NodeNameSorter sorter) throws IOException {
+        try (Transaction tx = graphDb.beginTx()) {
+            for (Label nodeLabel : nodeLabels) {
+                try (ResourceIterator<Node> nodes = tx.findNodes(nodeLabel)) {
+                    while (nodes.hasNext()) {
+                        Node node = nodes.next();
+                        if (!node.hasLabel(AGGREGATE))
+                            sorter.add((String) node.getProperty(nameProperty), node.getId());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Groups the sorted records by name and submits the groups with more than one node in batches.
+     */
+    private void createAggregates(NodeNameSorter.Cursor cursor) throws IOException {
+        try (WorkerPool<Integer> workers = new WorkerPool<>("equal-name-aggregates-", numWorkers)) {
+            List<long[]> batch = new ArrayList<>(batchSize);
+            byte[] groupName = null;
+            long[] group = new long[16];
+            int groupSize = 0;
+            while (true) {
+                boolean hasNext = cursor.next();
+                if (hasNext && groupName != null && Arrays.equals(groupName, cursor.name())) {
+                    // Nodes with more than one of the labels have been read more than once.
+                    if (group[groupSize - 1] != cursor.nodeId()) {
+                        if (groupSize == group.length)
+                            group = Arrays.copyOf(group, groupSize * 2);
+                        group[groupSize++] = cursor.nodeId();
+                    }
+                    continue;
+                }
+                if (groupSize > 1)
+                    batch.add(Arrays.copyOf(group, groupSize));
+                if (batch.size() == batchSize || (!hasNext && !batch.isEmpty())) {
+                    Integer created = submit(workers, batch);
+                    if (created != null)
+                        completeBatch(created);
+                    batch = new ArrayList<>(batchSize);
+                }
+                if (!hasNext)
+                    break;
+                groupName = cursor.name();
+                group[0] = cursor.nodeId();
+                groupSize = 1;
+            }
+            while (workers.hasPending())
+                completeBatch(workers.awaitOldest());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The creation of equal-name aggregates was interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException("The creation of equal-name aggregates failed.", e.getCause());
+        }
+    }
+
+    /**
+     * @return The number of aggregates created by a batch that had to be awaited or <tt>null</tt>, see {@link WorkerPool#submit(Callable)}.
+     */
+    private Integer submit(WorkerPool<Integer> workers, List<long[]> groups) throws InterruptedException, ExecutionException {
+        // Reserve the aggregate IDs beforehand; otherwise, the workers would serialize on the lock of the sequence
+        // node for the whole duration of their transactions.
+        int firstAggregateId;
+        try (Transaction tx = graphDb.beginTx()) {
+            firstAggregateId = SequenceManager.getNextSequenceValues(tx, SequenceConstants.SEQ_AGGREGATE_TERM, groups.size());
+            tx.commit();
+        }
+        return workers.submit(() -> createBatch(groups, firstAggregateId));
+    }
+
+    private void completeBatch(int created) {
+        int previous = numAggregates;
+        numAggregates += created;
+        if (numAggregates / 10000 > previous / 10000)
+            log.info("Created %s equal-name aggregates for labels %s with labels %s.", numAggregates, nodeLabels, aggregatedLabels);
+    }
+
+    /**
+     * @return The number of created aggregates.
+     */
+    private int createBatch(List<long[]> groups, int firstAggregateId) throws InterruptedException {
+        return DeadlockRetry.inTransaction(graphDb, log, "creating equal-name aggregates", tx -> {
+            int created = 0;
+            int aggregateId = firstAggregateId;
+            for (long[] group : groups) {
+                String id = NodeIDPrefixConstants.AGGREGATE_TERM + aggregateId++;
+                Set<Node> elements = new HashSet<>(group.length);
+                for (long nodeId : group) {
+                    try {
+                        elements.add(tx.getNodeById(nodeId));
+                    } catch (NotFoundException e) {
+                        // The node has been deleted since its name was read.
+                    }
+                }
+                if (elements.size() < 2)
+                    continue;
+                ConceptAggregateManager.createAggregate(tx, copyProperties, elements, MAPPING_TYPES, id, aggregatedLabelsArray);
+                ++created;
+            }
+            return created;
+        });
+    }
+}
@@ -0,0 +1,32 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * The relationship types of the facet hierarchies. The hierarchy of each facet has its own type
+ * <tt>IS_BROADER_THAN_&lt;facetId&gt;</tt> whose name encodes the facet ID.
+ */
+public final class FacetRelationshipTypes {
+    public static final String BROADER_THAN_IN_FACET_PREFIX = ConceptEdgeTypes.IS_BROADER_THAN.name() + "_";
+
+    private FacetRelationshipTypes() {
+    }
+
+    /**
+     * @param facetId The facet ID.
+     * @return The relationship type of the hierarchy of the given facet.
+     */
+    public static RelationshipType broaderThanInFacet(String facetId) {
+        return RelationshipType.withName(BROADER_THAN_IN_FACET_PREFIX + facetId);
+    }
+
+    /**
+     * @param type A relationship type.
+     * @return The facet ID encoded in the name of <tt>type</tt> or <tt>null</tt> if <tt>type</tt> is not the type of
+     * a facet hierarchy.
+     */
+    public static String getFacetId(RelationshipType type) {
+        String name = type.name();
+        return name.startsWith(BROADER_THAN_IN_FACET_PREFIX) ? name.substring(BROADER_THAN_IN_FACET_PREFIX.length()) : null;
+    }
+}
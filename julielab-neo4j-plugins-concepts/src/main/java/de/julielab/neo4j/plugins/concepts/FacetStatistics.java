@@ -0,0 +1,199 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import de.julielab.neo4j.plugins.FacetManager;
+import de.julielab.neo4j.plugins.datarepresentation.constants.FacetConstants;
+import org.neo4j.graphdb.*;
+
+import java.util.*;
+
+import static de.julielab.neo4j.plugins.concepts.ConceptEdgeTypes.HAS_ROOT_CONCEPT;
+import static de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants.PROP_CHILDREN_IN_FACETS;
+
+/**
+ * <p>
+ * Keeps the precomputed facet information up to date while concepts are imported or deleted: the number of concepts
+ * in the hierarchy of each facet in the {@link FacetConstants#PROP_NUM_CONCEPTS} property of the facet node and, for
+ * each concept, the facets in which it has children in the {@link de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants#PROP_CHILDREN_IN_FACETS}
+ * property.
+ * </p>
+ * <p>
+ * A concept belongs to the hierarchy of a facet if it is reachable from the facet node, as counted by
+ * {@link FacetManager#countFacetConcepts(Transaction, String)}. During imports, this is the case if it is a root of
+ * the facet or has an incoming <tt>IS_BROADER_THAN_&lt;facetId&gt;</tt> relationship. A deleted concept also takes
+ * the descendants with it that are not reachable in another way. The changes of the facet sizes of an import are
+ * collected in the {@link InsertionReport} and written to the facet nodes in the transaction of each batch by
+ * {@link #applyFacetSizeChanges(Transaction, InsertionReport)}. Facets created before the size was stored do not
+ * have the property; {@link FacetManager#getFacetSize(String)} counts them until the information is recomputed.
+ * {@link ConceptManager#updateChildrenInformation()} recomputes all of this information for repair.
+ * </p>
+ */
+public class FacetStatistics {
+
+    private FacetStatistics() {
+    }
+
+    /**
+     * Updates the statistics after a facet root or facet hierarchy relationship has been requested to be created.
+     *
+     * @param rel             The created relationship or <tt>null</tt> if it already existed.
+     * @param facetId         The facet of the relationship.
+     * @param insertionReport The report to collect the facet size changes in.
+     */
+    static void relationshipCreated(Relationship rel, String facetId, InsertionReport insertionReport) {
+        if (rel == null)
+            return;
+        if (!rel.isType(HAS_ROOT_CONCEPT))
+            addChildrenInFacet(rel.getStartNode(), facetId);
+        // This relationship is the first that connects the concept to the facet.
+        if (countFacetParents(rel.getEndNode(), facetId) == 1)
+            insertionReport.addFacetSizeChange(facetId, 1);
+    }
+
+    /**
+     * Updates the statistics before the facet root relationship <tt>rel</tt> is deleted.
+     *
+     * @param rel             A HAS_ROOT_CONCEPT relationship that is about to be deleted.
+     * @param insertionReport The report to collect the facet size changes in.
+     */
+    static void rootRelationshipDeleting(Relationship rel, InsertionReport insertionReport) {
+        String facetId = (String) rel.getStartNode().getProperty(FacetConstants.PROP_ID);
+        if (countFacetParents(rel.getEndNode(), facetId) == 1)
+            insertionReport.addFacetSizeChange(facetId, -1);
+    }
+
+    /**
+     * Updates the statistics before <tt>node</tt> and its relationships are deleted. The size of each facet whose
+     * hierarchy contains <tt>node</tt> decreases by the node itself and by its descendants that are not reachable
+     * from the facet without <tt>node</tt>.
+     *
+     * @param tx   The current transaction.
+     * @param node A node that is about to be deleted.
+     */
+    public static void remove(Transaction tx, Node node) {
+        Map<String, Long> facetSizeChanges = new HashMap<>();
+        Set<String> facetIds = new HashSet<>();
+        for (Relationship rel : node.getRelationships(Direction.INCOMING)) {
+            String facetId = FacetRelationshipTypes.getFacetId(rel.getType());
+            if (facetId != null) {
+                facetIds.add(facetId);
+                Node parent = rel.getStartNode();
+                if (parent.getDegree(rel.getType(), Direction.OUTGOING) == 1)
+                    removeChildrenInFacet(parent, facetId);
+            } else if (rel.isType(HAS_ROOT_CONCEPT) && rel.getStartNode().hasLabel(FacetManager.FacetLabel.FACET)) {
+                facetIds.add((String) rel.getStartNode().getProperty(FacetConstants.PROP_ID));
+            }
+        }
+        for (String facetId : facetIds)
+            facetSizeChanges.put(facetId, -1 - countDescendantsOnlyReachableVia(node, facetId));
+        applyFacetSizeChanges(tx, facetSizeChanges);
+    }
+
+    /**
+     * Writes the facet size changes collected in <tt>insertionReport</tt> to the facet nodes and clears them. Must be
+     * called in the transaction that caused the changes.
+     *
+     * @param tx              The current transaction.
+     * @param insertionReport The report of the changes of the current transaction.
+     */
+    static void applyFacetSizeChanges(Transaction tx, InsertionReport insertionReport) {
+        applyFacetSizeChanges(tx, insertionReport.facetSizeChanges);
+        insertionReport.facetSizeChanges.clear();
+    }
+
+    /**
+     * Adds the given changes to the facet sizes stored on the facet nodes. Facets without a stored size are skipped.
+     *
+     * @param tx               The current transaction.
+     * @param facetSizeChanges The changes of the number of concepts by facet ID.
+     */
+    public static void applyFacetSizeChanges(Transaction tx, Map<String, Long> facetSizeChanges) {
+        for (String facetId : facetSizeChanges.keySet()) {
+            long change = facetSizeChanges.get(facetId);
+            Node facet = FacetManager.getFacetNode(tx, facetId);
+            if (change != 0 && facet != null && facet.hasProperty(FacetConstants.PROP_NUM_CONCEPTS))
+                facet.setProperty(FacetConstants.PROP_NUM_CONCEPTS, (long) facet.getProperty(FacetConstants.PROP_NUM_CONCEPTS) + change);
+        }
+    }
+
+    /**
+     * @return The number of descendants of <tt>node</tt> in the hierarchy of the given facet that are not reachable
+     * from the facet without passing <tt>node</tt>.
+     */
+    private static long countDescendantsOnlyReachableVia(Node node, String facetId) {
+        RelationshipType relType = FacetRelationshipTypes.broaderThanInFacet(facetId);
+        LongHashSet descendantIds = new LongHashSet();
+        List<Node> descendants = new ArrayList<>();
+        Deque<Node> queue = new ArrayDeque<>();
+        queue.add(node);
+        while (!queue.isEmpty()) {
+            for (Relationship rel : queue.poll().getRelationships(Direction.OUTGOING, relType)) {
+                Node child = rel.getEndNode();
+                if (!child.equals(node) && descendantIds.add(child.getId())) {
+                    descendants.add(child);
+                    queue.add(child);
+                }
+            }
+        }
+        // Descendants with a parent outside of the subtree keep the facet connection, and so do their descendants.
+        LongHashSet reachableIds = new LongHashSet();
+        for (Node descendant : descendants) {
+            if (hasParentOutside(descendant, node, descendantIds, facetId, relType) && reachableIds.add(descendant.getId()))
+                queue.add(descendant);
+        }
+        while (!queue.isEmpty()) {
+            for (Relationship rel : queue.poll().getRelationships(Direction.OUTGOING, relType)) {
+                Node child = rel.getEndNode();
+                if (descendantIds.contains(child.getId()) && reachableIds.add(child.getId()))
+                    queue.add(child);
+            }
+        }
+        return descendants.size() - reachableIds.size();
+    }
+
+    private static boolean hasParentOutside(Node descendant, Node node, LongHashSet descendantIds, String facetId, RelationshipType relType) {
+        for (Relationship rel : descendant.getRelationships(Direction.INCOMING, relType)) {
+            long parentId = rel.getStartNodeId();
+            if (parentId != node.getId() && !descendantIds.contains(parentId))
+                return true;
+        }
+        // The descendant is also a root of the facet.
+        return countFacetParents(descendant, facetId) > descendant.getDegree(relType, Direction.INCOMING);
+    }
+
+    /**
+     * @return The number of relationships connecting <tt>node</tt> to the hierarchy of the given facet.
+     */
+    private static int countFacetParents(Node node, String facetId) {
+        int numFacetParents = node.getDegree(FacetRelationshipTypes.broaderThanInFacet(facetId), Direction.INCOMING);
+        for (Relationship rel : node.getRelationships(Direction.INCOMING, HAS_ROOT_CONCEPT)) {
+            Node facet = rel.getStartNode();
+            if (facet.hasLabel(FacetManager.FacetLabel.FACET) && facetId.equals(facet.getProperty(FacetConstants.PROP_ID)))
+                ++numFacetParents;
+        }
+        return numFacetParents;
+    }
+
+    private static void addChildrenInFacet(Node parent, String facetId) {
+        String[] facetIds = (String[]) parent.getProperty(PROP_CHILDREN_IN_FACETS, new String[0]);
+        for (String existingFacetId : facetIds) {
+            if (existingFacetId.equals(facetId))
+                return;
+        }
+        String[] newFacetIds = Arrays.copyOf(facetIds, facetIds.length + 1);
+        newFacetIds[facetIds.length] = facetId;
+        parent.setProperty(PROP_CHILDREN_IN_FACETS, newFacetIds);
+    }
+
+    private static void removeChildrenInFacet(Node parent, String facetId) {
+        String[] facetIds = (String[]) parent.getProperty(PROP_CHILDREN_IN_FACETS, new String[0]);
+        List<String> newFacetIds = new ArrayList<>(facetIds.length);
+        for (String existingFacetId : facetIds) {
+            if (!existingFacetId.equals(facetId))
+                newFacetIds.add(existingFacetId);
+        }
+        if (newFacetIds.isEmpty())
+            parent.removeProperty(PROP_CHILDREN_IN_FACETS);
+        else if (newFacetIds.size() < facetIds.length)
+            parent.setProperty(PROP_CHILDREN_IN_FACETS, newFacetIds.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,215 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import org.neo4j.graphdb.Relationship;
+
+import java.util.*;
+
+import static de.julielab.neo4j.plugins.constants.semedico.SemanticRelationConstants.*;
+
+/**
+ * <p>
+ * Encodes the per-document counts of IE relationships in a compact format as an alternative to the parallel
+ * {@link de.julielab.neo4j.plugins.constants.semedico.SemanticRelationConstants#PROP_DOC_IDS} and
+ * {@link de.julielab.neo4j.plugins.constants.semedico.SemanticRelationConstants#PROP_COUNTS} arrays. The compact
+ * format is used for new relationships when the system property {@link #SYSPROP_COMPACT_DOC_COUNTS} is set to
+ * <tt>true</tt> and all document IDs are numeric, e.g. PubMed IDs.
+ * </p>
+ * <p>
+ * Like the containers of a roaring bitmap, the document IDs are split by their high bits into containers of
+ * 2^{@link #CONTAINER_BITS} IDs. Each container is stored as a <tt>byte[]</tt> in the property
+ * {@link de.julielab.neo4j.plugins.constants.semedico.SemanticRelationConstants#PROP_DOC_COUNTS_PREFIX} followed by
+ * the container number. A container begins with the number of its entries as a varint, followed by the varint
+ * difference of each document ID to its predecessor - or to the first ID of the container - and the varint count.
+ * Thus, a document typically takes three to four bytes and adding documents only rewrites the containers they fall
+ * into. When a document with a non-numeric ID is added to a compact relationship, the relationship is converted
+ * back to the array format.
+ * </p>
+ */
+public class IERelationDocumentCounts {
+    public static final String SYSPROP_COMPACT_DOC_COUNTS = "de.julielab.neo4j.plugins.concepts.ierelations.compactdoccounts";
+    public static final int CONTAINER_BITS = 20;
+    /**
+     * The maximum number of decimal digits of a numeric document ID; 18 digits always fit into a long.
+     */
+    private static final int MAX_NUMERIC_ID_LENGTH = 18;
+
+    private IERelationDocumentCounts() {
+    }
+
+    /**
+     * @return Whether the document counts of <tt>rel</tt> are stored in the compact format.
+     */
+    public static boolean isCompact(Relationship rel) {
+        for (String key : rel.getPropertyKeys()) {
+            if (key.startsWith(PROP_DOC_COUNTS_PREFIX))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param docId A document ID.
+     * @return Whether <tt>docId</tt> is a decimal number without leading zeros that can be stored in the compact format.
+     */
+    public static boolean isNumeric(String docId) {
+        int length = docId.length();
+        if (length == 0 || length > MAX_NUMERIC_ID_LENGTH || (length > 1 && docId.charAt(0) == '0'))
+            return false;
+        for (int i = 0; i < length; i++) {
+            char c = docId.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the counts of <tt>rel</tt> by document ID, regardless of the storage format.
+     *
+     * @param rel An IE relationship.
+     * @return The counts, sorted by document ID in the order of the storage format.
+     */
+    public static LinkedHashMap<String, Integer> getDocumentCounts(Relationship rel) {
+        LinkedHashMap<String, Integer> documentCounts = new LinkedHashMap<>();
+        if (rel.hasProperty(PROP_DOC_IDS)) {
+            String[] docIds = (String[]) rel.getProperty(PROP_DOC_IDS);
+            int[] counts = (int[]) rel.getProperty(PROP_COUNTS);
+            for (int i = 0; i < docIds.length; i++)
+                documentCounts.put(docIds[i], counts[i]);
+        } else {
+            for (long container : getContainers(rel)) {
+                Entries entries = decode((byte[]) rel.getProperty(PROP_DOC_COUNTS_PREFIX + container), container);
+                for (int i = 0; i < entries.size; i++)
+                    documentCounts.put(String.valueOf(entries.docIds[i]), entries.counts[i]);
+            }
+        }
+        return documentCounts;
+    }
+
+    /**
+     * Stores the given counts in the compact format, replacing the counts of documents that are already stored.
+     *
+     * @param rel       A relationship that stores its counts in the compact format or no counts at all.
+     * @param docCounts The counts by numeric document ID.
+     * @return The change of the total count of <tt>rel</tt>.
+     */
+    public static int store(Relationship rel, SortedMap<String, Integer> docCounts) {
+        SortedMap<Long, SortedMap<Long, Integer>> countsByContainer = new TreeMap<>();
+        for (String docId : docCounts.keySet()) {
+            long numericDocId = Long.parseLong(docId);
+            countsByContainer.computeIfAbsent(numericDocId >>> CONTAINER_BITS, k -> new TreeMap<>()).put(numericDocId, docCounts.get(docId));
+        }
+        int totalCountChange = 0;
+        for (long container : countsByContainer.keySet()) {
+            String property = PROP_DOC_COUNTS_PREFIX + container;
+            Entries entries = rel.hasProperty(property) ? decode((byte[]) rel.getProperty(property), container) : new Entries(0);
+            SortedMap<Long, Integer> newCounts = countsByContainer.get(container);
+            Entries merged = new Entries(entries.size + newCounts.size());
+            int i = 0;
+            for (long docId : newCounts.keySet()) {
+                while (i < entries.size && entries.docIds[i] < docId) {
+                    merged.add(entries.docIds[i], entries.counts[i]);
+                    ++i;
+                }
+                int count = newCounts.get(docId);
+                if (i < entries.size && entries.docIds[i] == docId)
+                    totalCountChange -= entries.counts[i++];
+                merged.add(docId, count);
+                totalCountChange += count;
+            }
+            for (; i < entries.size; i++)
+                merged.add(entries.docIds[i], entries.counts[i]);
+            rel.setProperty(property, encode(merged, container));
+        }
+        return totalCountChange;
+    }
+
+    /**
+     * Converts the compact counts of <tt>rel</tt> into the {@link de.julielab.neo4j.plugins.constants.semedico.SemanticRelationConstants#PROP_DOC_IDS}
+     * and {@link de.julielab.neo4j.plugins.constants.semedico.SemanticRelationConstants#PROP_COUNTS} arrays.
+     *
+     * @param rel A relationship that stores its counts in the compact format.
+     */
+    public static void convertToArrays(Relationship rel) {
+        // The array format is sorted lexicographically.
+        SortedMap<String, Integer> documentCounts = new TreeMap<>(getDocumentCounts(rel));
+        for (long container : getContainers(rel))
+            rel.removeProperty(PROP_DOC_COUNTS_PREFIX + container);
+        rel.setProperty(PROP_DOC_IDS, documentCounts.keySet().toArray(new String[0]));
+        rel.setProperty(PROP_COUNTS, documentCounts.values().stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private static long[] getContainers(Relationship rel) {
+        List<Long> containers = new ArrayList<>();
+        for (String key : rel.getPropertyKeys()) {
+            if (key.startsWith(PROP_DOC_COUNTS_PREFIX))
+                containers.add(Long.parseLong(key.substring(PROP_DOC_COUNTS_PREFIX.length())));
+        }
+        return containers.stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+
+    static byte[] encode(Entries entries, long container) {
+        // At most 5 bytes for the size, 3 bytes for a delta within a container and 5 bytes for a count.
+        byte[] bytes = new byte[5 + entries.size * (3 + 5)];
+        int pos = writeVarint(entries.size, bytes, 0);
+        long previous = container << CONTAINER_BITS;
+        for (int i = 0; i < entries.size; i++) {
+            pos = writeVarint(entries.docIds[i] - previous, bytes, pos);
+            pos = writeVarint(Integer.toUnsignedLong(entries.counts[i]), bytes, pos);
+            previous = entries.docIds[i];
+        }
+        return Arrays.copyOf(bytes, pos);
+    }
+
+    static Entries decode(byte[] bytes, long container) {
+        int[] pos = new int[1];
+        int size = (int) readVarint(bytes, pos);
+        Entries entries = new Entries(size);
+        long docId = container << CONTAINER_BITS;
+        for (int i = 0; i < size; i++) {
+            docId += readVarint(bytes, pos);
+            entries.add(docId, (int) readVarint(bytes, pos));
+        }
+        return entries;
+    }
+
+    private static int writeVarint(long value, byte[] bytes, int pos) {
+        while ((value & ~0x7FL) != 0) {
+            bytes[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static long readVarint(byte[] bytes, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * The sorted document IDs and counts of a container.
+     */
+    static class Entries {
+        final long[] docIds;
+        final int[] counts;
+        int size;
+
+        Entries(int capacity) {
+            docIds = new long[capacity];
+            counts = new int[capacity];
+        }
+
+        void add(long docId, int count) {
+            docIds[size] = docId;
+            counts[size++] = count;
+        }
+    }
+}
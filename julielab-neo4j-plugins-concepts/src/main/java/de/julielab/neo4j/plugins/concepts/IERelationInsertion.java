@@ -7,8 +7,6 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import de.julielab.neo4j.plugins.datarepresentation.*;
 import de.julielab.neo4j.plugins.datarepresentation.constants.ImportIERelations;
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.Pair;
 import org.neo4j.graphdb.*;
 import org.neo4j.kernel.DeadlockDetectedException;
 import org.neo4j.logging.Log;
@@ -16,7 +14,6 @@ import org.neo4j.logging.Log;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
-import java.util.stream.StreamSupport;
 
 import static de.julielab.neo4j.plugins.concepts.ConceptLabel.CONCEPT;
 import static de.julielab.neo4j.plugins.constants.semedico.SemanticRelationConstants.*;
@@ -94,6 +91,12 @@ public class IERelationInsertion {
 
     /**
      * <p>Inserts all the relations in <tt>documents</tt>.</p>
+     * <p>
+     * The insertion works in three steps. First, all distinct arguments of the documents are resolved to their
+     * concept node IDs once. Then, the counts, or the database names and methods, are aggregated by relationship,
+     * i.e. by relation type and argument pair, and by document. Finally, the properties of each relationship are
+     * read and written once for the whole batch.
+     * </p>
      *
      * @param tx         The current transaction.
      * @param idProperty The concept ID property.
@@ -102,133 +105,218 @@ public class IERelationInsertion {
      * @param log        A logger.
      */
     private static void insertRelations(Transaction tx, String idProperty, String idSource, Iterator<ImportIERelationDocument> documents, Log log) {
-        Set<IERelationKey> seenDocLevelKeys = new HashSet<>();
-        while (documents.hasNext()) {
-            ImportIERelationDocument document = documents.next();
-            seenDocLevelKeys.clear();
+        List<ImportIERelationDocument> documentList = new ArrayList<>();
+        documents.forEachRemaining(documentList::add);
+        Map<IEArgumentKey, Long> conceptNodeIds = resolveArguments(tx, idProperty, idSource, documentList, log);
+        Map<IERelationKey, IERelationAggregate> aggregates = aggregateRelations(documentList, conceptNodeIds);
+        storeRelations(tx, aggregates);
+    }
+
+    /**
+     * @return The node IDs of the concepts of all distinct arguments that could be found.
+     */
+    private static Map<IEArgumentKey, Long> resolveArguments(Transaction tx, String idProperty, String idSource, List<ImportIERelationDocument> documents, Log log) {
+        Map<IEArgumentKey, Long> conceptNodeIds = new HashMap<>();
+        Set<IEArgumentKey> resolvedKeys = new HashSet<>();
+        for (ImportIERelationDocument document : documents) {
             ImportIETypedRelations typedRelations = document.getRelations();
             if (typedRelations == null)
                 throw new IllegalArgumentException("Passed a document that does not have any relations.");
-            for (String relationType : typedRelations.keySet()) {
-                for (ImportIERelation relation : typedRelations.get(relationType))
-                    insertIERelation(tx, idProperty, idSource, document.getName(), relationType, relation, seenDocLevelKeys, document.isDb(), log);
+            for (List<ImportIERelation> relations : typedRelations.values()) {
+                for (ImportIERelation relation : relations) {
+                    for (ImportIERelationArgument argument : relation.getArgs()) {
+                        IEArgumentKey argumentKey = new IEArgumentKey(argument);
+                        if (resolvedKeys.add(argumentKey)) {
+                            Node concept = findConceptNode(tx, idProperty, idSource, argument, log);
+                            if (concept != null)
+                                conceptNodeIds.put(argumentKey, concept.getId());
+                        }
+                    }
+                }
             }
         }
+        return conceptNodeIds;
     }
 
     /**
-     * <p>Creates the relationships of type <tt>relationType</tt> between all arguments of <tt>relation</tt>.</p>
+     * <p>Aggregates the relations between all argument pairs of the relations in <tt>documents</tt>.</p>
+     * <p>
+     * Within a document, the counts of the same relationship are added up. The sum replaces the count of an earlier
+     * import of the same document. For database entries, the first method given for a database is kept.
+     * </p>
      *
-     * @param tx               The current transaction.
-     * @param idProperty       The ID node property.
-     * @param idSource         The optional concept ID source.
-     * @param documentName     The document ID or database name to insert relations for.
-     * @param relationType     The name of the relation type to create.
-     * @param relation         The relation to insert.
-     * @param seenDocLevelKeys Information about relations already seen during the current relation insertion process.
-     * @param dbEntry          Whether or not this is a database entry.
-     * @param log              A Logger.
+     * @return The aggregated relations by relationship.
      */
-    private static void insertIERelation(Transaction tx, String idProperty, String idSource, String documentName, String relationType, ImportIERelation relation, Set<IERelationKey> seenDocLevelKeys, boolean dbEntry, Log log) {
-        for (int i = 0; i < relation.getArgs().size(); i++) {
-            for (int j = i + 1; j < relation.getArgs().size(); j++) {
-                ImportIERelationArgument argument1 = relation.getArgs().get(i);
-                ImportIERelationArgument argument2 = relation.getArgs().get(j);
-                Node arg1 = findConceptNode(tx, idProperty, idSource, argument1, log);
-                Node arg2 = findConceptNode(tx, idProperty, idSource, argument2, log);
-                IERelationKey relationKey = new IERelationKey(relationType, new IEArgumentKey(argument1), new IEArgumentKey(argument2));
-                if (arg1 != null && arg2 != null)
-                    if (!dbEntry)
-                        storeRelationTypeCount(tx, arg1, arg2, documentName, relationType, relation.getCount(), seenDocLevelKeys.contains(relationKey));
-                    else
-                        storeDBRelation(tx, arg1, arg2, documentName, relationType, relation.getMethod());
-                seenDocLevelKeys.add(relationKey);
+    private static Map<IERelationKey, IERelationAggregate> aggregateRelations(List<ImportIERelationDocument> documents, Map<IEArgumentKey, Long> conceptNodeIds) {
+        Map<IERelationKey, IERelationAggregate> aggregates = new HashMap<>();
+        Map<IERelationAggregate, Integer> documentCounts = new HashMap<>();
+        for (ImportIERelationDocument document : documents) {
+            documentCounts.clear();
+            ImportIETypedRelations typedRelations = document.getRelations();
+            for (String relationType : typedRelations.keySet()) {
+                for (ImportIERelation relation : typedRelations.get(relationType)) {
+                    List<ImportIERelationArgument> args = relation.getArgs();
+                    for (int i = 0; i < args.size(); i++) {
+                        Long arg1 = conceptNodeIds.get(new IEArgumentKey(args.get(i)));
+                        if (arg1 == null)
+                            continue;
+                        for (int j = i + 1; j < args.size(); j++) {
+                            Long arg2 = conceptNodeIds.get(new IEArgumentKey(args.get(j)));
+                            if (arg2 == null)
+                                continue;
+                            IERelationAggregate aggregate = aggregates.computeIfAbsent(new IERelationKey(relationType, arg1, arg2), k -> new IERelationAggregate(k, arg1, arg2));
+                            if (document.isDb())
+                                aggregate.dbMethods.putIfAbsent(document.getName(), relation.getMethod() != null && !relation.getMethod().isBlank() ? relation.getMethod() : "<unknown>");
+                            else
+                                documentCounts.merge(aggregate, relation.getCount(), Integer::sum);
+                        }
+                    }
+                }
+            }
+            for (IERelationAggregate aggregate : documentCounts.keySet())
+                aggregate.docCounts.put(document.getName(), documentCounts.get(aggregate));
+        }
+        return aggregates;
+    }
+
+    /**
+     * Writes the aggregated relations to their relationships, creating the relationships if necessary. The
+     * relationships are processed in the order of their argument node IDs so that concurrent insertions acquire
+     * their locks in the same order.
+     */
+    private static void storeRelations(Transaction tx, Map<IERelationKey, IERelationAggregate> aggregates) {
+        List<IERelationAggregate> sortedAggregates = new ArrayList<>(aggregates.values());
+        sortedAggregates.sort(Comparator.comparing((IERelationAggregate a) -> a.key.node1).thenComparing(a -> a.key.node2).thenComparing(a -> a.key.relType));
+        Map<IERelationKey, Relationship> existingRelationships = findRelationships(tx, aggregates.keySet());
+        for (IERelationAggregate aggregate : sortedAggregates) {
+            Relationship rel = existingRelationships.get(aggregate.key);
+            boolean existed = rel != null;
+            if (rel == null)
+                rel = createRelationship(tx, aggregate);
+            Lock relLock = tx.acquireWriteLock(rel);
+            if (!aggregate.docCounts.isEmpty()) {
+                if (useCompactDocCounts(rel, aggregate.docCounts)) {
+                    int totalCount = existed ? (int) rel.getProperty(PROP_TOTAL_COUNT, 0) : 0;
+                    rel.setProperty(PROP_TOTAL_COUNT, totalCount + IERelationDocumentCounts.store(rel, aggregate.docCounts));
+                } else {
+                    if (existed && IERelationDocumentCounts.isCompact(rel))
+                        IERelationDocumentCounts.convertToArrays(rel);
+                    storeRelationTypeCounts(rel, aggregate.docCounts, existed);
+                }
             }
+            if (!aggregate.dbMethods.isEmpty())
+                storeDBRelations(rel, aggregate.dbMethods);
+            relLock.release();
         }
     }
 
-    private static void storeDBRelation(Transaction tx, Node arg1, Node arg2, String databaseName, String relationType, String method) {
-        Pair<Relationship, Boolean> relExistedPair = getRelationship(tx, arg1, arg2, relationType);
-        Relationship rel = relExistedPair.getLeft();
-        if (rel.hasProperty(PROP_DB_NAMES)) {
-            String[] dbNames = (String[]) rel.getProperty(PROP_DB_NAMES);
-            int index = Arrays.binarySearch(dbNames, databaseName);
-            if (index < 0) {
-                int insertionPoint = -1 * (index + 1);
-                String[] newDbNames = new String[dbNames.length + 1];
-                newDbNames[insertionPoint] = databaseName;
-                System.arraycopy(dbNames, 0, newDbNames, 0, insertionPoint);
-                System.arraycopy(dbNames, insertionPoint, newDbNames, insertionPoint + 1, dbNames.length - insertionPoint);
-                rel.setProperty(PROP_DB_NAMES, newDbNames);
+    /**
+     * @return Whether the counts of <tt>rel</tt> are to be stored in the format of {@link IERelationDocumentCounts}.
+     */
+    private static boolean useCompactDocCounts(Relationship rel, SortedMap<String, Integer> docCounts) {
+        if (rel.hasProperty(PROP_DOC_IDS))
+            return false;
+        if (!IERelationDocumentCounts.isCompact(rel) && !Boolean.getBoolean(IERelationDocumentCounts.SYSPROP_COMPACT_DOC_COUNTS))
+            return false;
+        return docCounts.keySet().stream().allMatch(IERelationDocumentCounts::isNumeric);
+    }
 
-                String[] methods = (String[]) rel.getProperty(PROP_METHODS);
-                String[] newMethods = new String[methods.length + 1];
-                newMethods[insertionPoint] = method != null && !method.isBlank() ? method : "<unknown>";
-                System.arraycopy(methods, 0, newMethods, 0, insertionPoint);
-                System.arraycopy(methods, insertionPoint, newMethods, insertionPoint + 1, methods.length - insertionPoint);
-                rel.setProperty(PROP_METHODS, newMethods);
+    /**
+     * Finds the existing relationships for <tt>keys</tt>. The relationships of each type are read once from the
+     * argument node with the lower degree for all keys sharing this node.
+     */
+    private static Map<IERelationKey, Relationship> findRelationships(Transaction tx, Collection<IERelationKey> keys) {
+        Map<Long, Map<String, Set<Long>>> partnersByScanNode = new HashMap<>();
+        for (IERelationKey key : keys) {
+            RelationshipType relType = RelationshipType.withName(key.relType);
+            Node node1 = tx.getNodeById(key.node1);
+            Node node2 = tx.getNodeById(key.node2);
+            boolean scanNode1 = node1.getDegree(relType) <= node2.getDegree(relType);
+            partnersByScanNode.computeIfAbsent(scanNode1 ? key.node1 : key.node2, k -> new HashMap<>())
+                    .computeIfAbsent(key.relType, k -> new HashSet<>())
+                    .add(scanNode1 ? key.node2 : key.node1);
+        }
+        Map<IERelationKey, Relationship> relationships = new HashMap<>();
+        for (Long scanNodeId : partnersByScanNode.keySet()) {
+            Node scanNode = tx.getNodeById(scanNodeId);
+            Map<String, Set<Long>> partnersByType = partnersByScanNode.get(scanNodeId);
+            for (String relType : partnersByType.keySet()) {
+                Set<Long> partners = partnersByType.get(relType);
+                for (Relationship rel : scanNode.getRelationships(RelationshipType.withName(relType))) {
+                    long partner = rel.getOtherNodeId(scanNodeId);
+                    if (partners.contains(partner))
+                        relationships.putIfAbsent(new IERelationKey(relType, scanNodeId, partner), rel);
+                }
             }
-        } else {
-            rel.setProperty(PROP_DB_NAMES, new String[]{databaseName});
-            rel.setProperty(PROP_METHODS, new String[]{method});
         }
+        return relationships;
     }
 
-    private static Pair<Relationship, Boolean> getRelationship(Transaction tx, Node arg1, Node arg2, String relationType) {
-        RelationshipType relType = RelationshipType.withName(relationType);
-        Optional<Relationship> relOpt = StreamSupport.stream(arg1.getRelationships(Direction.BOTH, relType).spliterator(), false).filter(r -> r.getOtherNode(arg1).equals(arg2)).findAny();
-        Relationship rel;
-        if (!relOpt.isPresent()) {
-            Lock arg1Lock = tx.acquireWriteLock(arg1);
-            Lock arg2Lock = tx.acquireWriteLock(arg2);
-            relOpt = StreamSupport.stream(arg1.getRelationships(Direction.BOTH, relType).spliterator(), false).filter(r -> r.getOtherNode(arg1).equals(arg2)).findAny();
-            rel = relOpt.orElseGet(() -> arg1.createRelationshipTo(arg2, relType));
-            arg1Lock.release();
-            arg2Lock.release();
-        } else {
-            rel = relOpt.get();
+    private static Relationship createRelationship(Transaction tx, IERelationAggregate aggregate) {
+        RelationshipType relType = RelationshipType.withName(aggregate.key.relType);
+        Node node1 = tx.getNodeById(aggregate.key.node1);
+        Node node2 = tx.getNodeById(aggregate.key.node2);
+        Lock node1Lock = tx.acquireWriteLock(node1);
+        Lock node2Lock = tx.acquireWriteLock(node2);
+        // Another transaction might have created the relationship in the meantime.
+        Relationship rel = null;
+        for (Relationship existingRel : node1.getRelationships(relType)) {
+            if (existingRel.getOtherNodeId(node1.getId()) == node2.getId()) {
+                rel = existingRel;
+                break;
+            }
         }
-        return new ImmutablePair<>(rel, relOpt.isPresent());
+        if (rel == null)
+            rel = tx.getNodeById(aggregate.startNodeId).createRelationshipTo(tx.getNodeById(aggregate.endNodeId), relType);
+        node1Lock.release();
+        node2Lock.release();
+        return rel;
     }
 
-    private static void storeRelationTypeCount(Transaction tx, Node arg1, Node arg2, String docId, String relationType, int count, boolean relationAlreadySeen) {
-        Pair<Relationship, Boolean> relExistedPair = getRelationship(tx, arg1, arg2, relationType);
-        Relationship rel = relExistedPair.getLeft();
-        Lock relLock = tx.acquireWriteLock(rel);
-        String[] docIds = rel.hasProperty(PROP_DOC_IDS) ? (String[]) rel.getProperty(PROP_DOC_IDS) : new String[0];
-        int index = Arrays.binarySearch(docIds, docId);
-        int oldCount = 0;
-        if (index >= 0) {
-            int[] counts = (int[]) rel.getProperty(PROP_COUNTS);
-            oldCount = counts[index];
-            // We count up if this relation (i.e. same type, same arguments) has already been seen during this import
-            // for the current document. Otherwise this is an old number and we overwrite the old value.
-            counts[index] = relationAlreadySeen ? oldCount + count : count;
-            rel.setProperty(PROP_COUNTS, counts);
-        } else {
-            int insertionPoint = -1 * (index + 1);
-            // insert docId
-            String[] newDocIds = new String[docIds.length + 1];
-            newDocIds[insertionPoint] = docId;
-            System.arraycopy(docIds, 0, newDocIds, 0, insertionPoint);
-            System.arraycopy(docIds, insertionPoint, newDocIds, insertionPoint + 1, docIds.length - insertionPoint);
-            rel.setProperty(PROP_DOC_IDS, newDocIds);
+    private static void storeDBRelations(Relationship rel, SortedMap<String, String> dbMethods) {
+        String[] dbNames = (String[]) rel.getProperty(PROP_DB_NAMES, new String[0]);
+        String[] methods = (String[]) rel.getProperty(PROP_METHODS, new String[0]);
+        SortedMap<String, String> mergedMethods = new TreeMap<>(dbMethods);
+        // The methods of already stored databases are kept.
+        for (int i = 0; i < dbNames.length; i++)
+            mergedMethods.put(dbNames[i], methods[i]);
+        if (mergedMethods.size() == dbNames.length)
+            return;
+        rel.setProperty(PROP_DB_NAMES, mergedMethods.keySet().toArray(new String[0]));
+        rel.setProperty(PROP_METHODS, mergedMethods.values().toArray(new String[0]));
+    }
 
-            // insert count
-            int[] counts = rel.hasProperty(PROP_COUNTS) ? (int[]) rel.getProperty(PROP_COUNTS) : new int[0];
-            int[] newCounts = new int[counts.length + 1];
-            newCounts[insertionPoint] = count;
-            System.arraycopy(counts, 0, newCounts, 0, insertionPoint);
-            System.arraycopy(counts, insertionPoint, newCounts, insertionPoint + 1, docIds.length - insertionPoint);
-            rel.setProperty(PROP_COUNTS, newCounts);
+    /**
+     * Merges the counts by document into the sorted document ID and count arrays of <tt>rel</tt>. The counts of
+     * documents that are already stored are replaced.
+     */
+    private static void storeRelationTypeCounts(Relationship rel, SortedMap<String, Integer> docCounts, boolean existed) {
+        String[] docIds = (String[]) rel.getProperty(PROP_DOC_IDS, new String[0]);
+        int[] counts = (int[]) rel.getProperty(PROP_COUNTS, new int[0]);
+        int totalCount = existed ? (int) rel.getProperty(PROP_TOTAL_COUNT, 0) : 0;
+        String[] newDocIds = new String[docIds.length + docCounts.size()];
+        int[] newCounts = new int[newDocIds.length];
+        int size = 0;
+        int i = 0;
+        for (String docId : docCounts.keySet()) {
+            while (i < docIds.length && docIds[i].compareTo(docId) < 0) {
+                newDocIds[size] = docIds[i];
+                newCounts[size++] = counts[i++];
+            }
+            int count = docCounts.get(docId);
+            if (i < docIds.length && docIds[i].equals(docId))
+                totalCount -= counts[i++];
+            newDocIds[size] = docId;
+            newCounts[size++] = count;
+            totalCount += count;
         }
-        // Update total relation count
-        int totalCount = relExistedPair.getRight() ? (int) rel.getProperty(PROP_TOTAL_COUNT) : 0;
-        // Again: When we already had this relation then we count forward and do not overwrite the old value
-        totalCount = relationAlreadySeen ? totalCount + count : totalCount - oldCount + count;
+        while (i < docIds.length) {
+            newDocIds[size] = docIds[i];
+            newCounts[size++] = counts[i++];
+        }
+        rel.setProperty(PROP_DOC_IDS, size == newDocIds.length ? newDocIds : Arrays.copyOf(newDocIds, size));
+        rel.setProperty(PROP_COUNTS, size == newCounts.length ? newCounts : Arrays.copyOf(newCounts, size));
         rel.setProperty(PROP_TOTAL_COUNT, totalCount);
-        relLock.release();
-
     }
 
     private static Node findConceptNode(Transaction tx, String defaultIdProperty, String defaultIdSource, ImportIERelationArgument argument, Log log) {
@@ -255,13 +343,18 @@ public class IERelationInsertion {
         return concept;
     }
 
+    /**
+     * Identifies a relationship by its type and its argument nodes, independently of their order.
+     */
     private static class IERelationKey {
-        private final Set<IEArgumentKey> argKeys;
         private final String relType;
+        private final long node1;
+        private final long node2;
 
-        public IERelationKey(String relationType, IEArgumentKey argkey1, IEArgumentKey argkey2) {
+        public IERelationKey(String relationType, long arg1, long arg2) {
             this.relType = relationType;
-            this.argKeys = Set.of(argkey1, argkey2);
+            this.node1 = Math.min(arg1, arg2);
+            this.node2 = Math.max(arg1, arg2);
         }
 
         @Override
@@ -269,13 +362,32 @@ public class IERelationInsertion {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             IERelationKey that = (IERelationKey) o;
-            return argKeys.equals(that.argKeys) &&
+            return node1 == that.node1 &&
+                    node2 == that.node2 &&
                     relType.equals(that.relType);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(argKeys, relType);
+            return Objects.hash(relType, node1, node2);
+        }
+    }
+
+    /**
+     * The relations of a batch for one relationship. A new relationship is directed from the first argument it
+     * was seen with.
+     */
+    private static class IERelationAggregate {
+        private final IERelationKey key;
+        private final long startNodeId;
+        private final long endNodeId;
+        private final SortedMap<String, Integer> docCounts = new TreeMap<>();
+        private final SortedMap<String, String> dbMethods = new TreeMap<>();
+
+        private IERelationAggregate(IERelationKey key, long startNodeId, long endNodeId) {
+            this.key = key;
+            this.startNodeId = startNodeId;
+            this.endNodeId = endNodeId;
         }
     }
 
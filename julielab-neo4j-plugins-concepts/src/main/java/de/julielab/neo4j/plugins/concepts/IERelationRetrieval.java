@@ -4,146 +4,211 @@ import de.julielab.neo4j.plugins.constants.semedico.SemanticRelationConstants;
 import de.julielab.neo4j.plugins.datarepresentation.RelationIdList;
 import de.julielab.neo4j.plugins.datarepresentation.RelationRetrievalRequest;
 import de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants;
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.Pair;
 import org.neo4j.graphdb.*;
 import org.neo4j.logging.Log;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+/**
+ * <p>
+ * Retrieves the IE relations between the highest orthology aggregates of the requested concepts. The counts are
+ * summed by the node IDs of the two aggregates in {@link RelationCounts}. The names and IDs of the aggregates are only
+ * read for the relations that are eventually returned, i.e. after the minimum count, the limit and the sort order of
+ * the {@link RelationRetrievalRequest} have been applied.
+ * </p>
+ * <p>
+ * {@link #count(RelationRetrievalRequest, GraphDatabaseService, Log)} and {@link Result#write(Transaction, ResultLineWriter)}
+ * are separate steps so that the result lines can be streamed, e.g. as JSON lines, from a later transaction.
+ * </p>
+ * <p>
+ * Two-sided requests with more than one worker distribute the nodes of the smaller list over a thread pool of at most
+ * {@link #SYSPROP_NUM_WORKERS} threads. If the request has a time budget, the counting stops when it is exhausted and
+ * the result is marked as partial.
+ * </p>
+ */
 public class IERelationRetrieval {
-
-    private final static Label LABEL_GENEGROUP = Label.label("AGGREGATE_GENEGROUP");
-    private final static Label LABEL_TOP_ORTHOLOGY = Label.label("AGGREGATE_TOP_ORTHOLOGY");
+    /**
+     * The media type of a response with one JSON object per line.
+     */
+    public static final String MEDIA_TYPE_JSON_LINES = "application/x-ndjson";
+    public static final String KEY_ARG1_NAME = "arg1Name";
+    public static final String KEY_ARG2_NAME = "arg2Name";
+    public static final String KEY_ARG1_ID = "arg1Id";
+    public static final String KEY_ARG2_ID = "arg2Id";
+    public static final String KEY_COUNT = "count";
+    /**
+     * The response header that is set to <tt>true</tt> if the time budget of the request has been exhausted and
+     * the result is incomplete.
+     */
+    public static final String HEADER_PARTIAL_RESULT = "X-Partial-Result";
+    /**
+     * The maximum number of threads that serve two-sided requests in parallel, shared by all requests. Defaults to
+     * the number of available processors.
+     */
+    public static final String SYSPROP_NUM_WORKERS = "de.julielab.neo4j.plugins.concepts.ierelations.retrieval.numworkers";
 
     public static List<Map<String, Object>> retrieve(RelationRetrievalRequest retrievalRequest, GraphDatabaseService dbms, Log log) {
+        Result result = count(retrievalRequest, dbms, log);
+        try (Transaction tx = dbms.beginTx()) {
+            return result.toList(tx);
+        }
+    }
+
+    /**
+     * Sums the counts of the requested relations and selects the relations to return.
+     *
+     * @param retrievalRequest The request.
+     * @param dbms             The database.
+     * @param log              The log.
+     * @return The selected relations that are resolved to names and IDs by {@link Result#write(Transaction, ResultLineWriter)}.
+     */
+    public static Result count(RelationRetrievalRequest retrievalRequest, GraphDatabaseService dbms, Log log) {
         try (Transaction tx = dbms.beginTx()) {
             RelationshipType[] relationTypes = retrievalRequest.getRelationTypes().stream().map(RelationshipType::withName).toArray(RelationshipType[]::new);
-            if (retrievalRequest.getBlist() == null || retrievalRequest.getBlist().getIds().isEmpty())
-                return serveOneSidedRequest(tx, retrievalRequest.getAlist(), relationTypes, retrievalRequest.isInterInputRelationRetrievalEnabled());
-            else
-                return serveTwoSidedRequest(tx, retrievalRequest.getAlist(), retrievalRequest.getBlist(), relationTypes);
+            RelationIdList aList = retrievalRequest.getAlist();
+            RelationIdList bList = retrievalRequest.getBlist();
+            TimeBudget timeBudget = new TimeBudget(retrievalRequest.getTimeBudget());
+            RelationCounts counts;
+            String bIdProperty;
+            if (bList == null || bList.getIds().isEmpty()) {
+                counts = serveOneSidedRequest(tx, aList, relationTypes, retrievalRequest.isInterInputRelationRetrievalEnabled(), timeBudget);
+                bIdProperty = getIdEffectiveIdProperty(aList);
+            } else {
+                counts = serveTwoSidedRequest(tx, dbms, aList, bList, relationTypes, retrievalRequest.getNumWorkers(), timeBudget);
+                bIdProperty = getIdEffectiveIdProperty(bList);
+            }
+            int[] selected = counts.select(retrievalRequest.getMinCount(), retrievalRequest.getLimit(), retrievalRequest.getSortOrder());
+            if (timeBudget.isExhausted())
+                log.info("The time budget of %s ms for IE relation retrieval has been exhausted, returning partial results.", retrievalRequest.getTimeBudget());
+            log.debug("Retrieved %s distinct IE relations of which %s are returned.", counts.size(), selected.length);
+            return new Result(counts, selected, getIdEffectiveIdProperty(aList), bIdProperty, timeBudget.isExhausted());
         }
     }
 
-    private static List<Map<String, Object>> serveTwoSidedRequest(Transaction tx, RelationIdList aList, RelationIdList bList, RelationshipType[] relationTypes) {
+    private static RelationCounts serveTwoSidedRequest(Transaction tx, GraphDatabaseService dbms, RelationIdList aList, RelationIdList bList, RelationshipType[] relationTypes, int numWorkers, TimeBudget timeBudget) {
         boolean aIsLarger = aList.getIds().size() > bList.getIds().size();
         // We iterate over the smaller set of IDs and search their relationships for connections to nodes from the larger set.
         List<Node> smallerList = getNodes(tx, aIsLarger ? bList : aList);
-        String smallerListIdProperty = getIdEffectiveIdProperty(aIsLarger ? bList : aList);
-        String largerListIdProperty = getIdEffectiveIdProperty(aIsLarger ? aList : bList);
-        Set<Node> largerAggs = getNodes(tx, aIsLarger ? aList : bList).stream().map(IERelationRetrieval::findHighestOrthologyAggregate).collect(Collectors.toSet());
-        List<Map<String, Object>> results = new ArrayList<>();
-        Map<Pair<String, String>, Map<String, Object>> accumulator = new HashMap<>();
-        for (Node a : smallerList) {
-            Node orthologyAggregate = findHighestOrthologyAggregate(a);
-            List<Node> elementNodes = ConceptAggregateManager.getNonAggregateElements(orthologyAggregate);
-            for (Node element : elementNodes) {
-                Iterable<Relationship> relationships = element.getRelationships(relationTypes);
-                for (Relationship r : relationships) {
-                    Node otherNode = r.getOtherNode(element);
-
-                    Node otherOrthologyAggregate = findHighestOrthologyAggregate(otherNode);
-                    // If the aggregate of the otherNode is not in the map, it is also not in the target list.
-                    if (!largerAggs.contains(otherOrthologyAggregate))
-                        continue;
-                    String smallListNodeName = (String) orthologyAggregate.getProperty(ConceptConstants.PROP_PREF_NAME);
-                    String smallListNodeId = (String) orthologyAggregate.getProperty(smallerListIdProperty);
-
-                    String largeListNodeName = (String) otherOrthologyAggregate.getProperty(ConceptConstants.PROP_PREF_NAME);
-                    String largeListNodeId = (String) otherOrthologyAggregate.getProperty(largerListIdProperty);
+        OrthologyAggregateCache orthologyCache = OrthologyAggregateCache.getInstance();
+        Set<Long> largerAggIds = getNodes(tx, aIsLarger ? aList : bList).stream().map(n -> orthologyCache.getTopAggregate(tx, n).getId()).collect(Collectors.toSet());
+        int numTasks = Math.min(Math.min(numWorkers, RetrievalWorkers.SIZE), smallerList.size());
+        if (numTasks <= 1) {
+            RelationCounts counts = new RelationCounts();
+            for (Node a : smallerList) {
+                if (timeBudget.isExhausted())
+                    break;
+                countTwoSidedRelations(tx, a, largerAggIds, aIsLarger, relationTypes, counts, timeBudget);
+            }
+            return counts;
+        }
+        // The nodes of the smaller list are fetched by the workers one at a time. Each worker has its own transaction
+        // and counts; the counts are merged when all workers are done.
+        long[] smallerListIds = smallerList.stream().mapToLong(Node::getId).toArray();
+        AtomicInteger nextIndex = new AtomicInteger();
+        List<Future<RelationCounts>> futures = new ArrayList<>(numTasks);
+        for (int i = 0; i < numTasks; i++) {
+            futures.add(RetrievalWorkers.EXECUTOR.submit(() -> {
+                RelationCounts workerCounts = new RelationCounts();
+                try (Transaction workerTx = dbms.beginTx()) {
+                    int index;
+                    while ((index = nextIndex.getAndIncrement()) < smallerListIds.length && !timeBudget.isExhausted()) {
+                        try {
+                            Node a = workerTx.getNodeById(smallerListIds[index]);
+                            countTwoSidedRelations(workerTx, a, largerAggIds, aIsLarger, relationTypes, workerCounts, timeBudget);
+                        } catch (NotFoundException e) {
+                            // The node has been deleted after it has been looked up.
+                        }
+                    }
+                }
+                return workerCounts;
+            }));
+        }
+        RelationCounts counts = new RelationCounts();
+        try {
+            for (Future<RelationCounts> future : futures)
+                counts.addAll(future.get());
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the IE relation retrieval workers.", e);
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw new IllegalStateException("An IE relation retrieval worker failed.", e.getCause());
+        }
+        return counts;
+    }
 
-                    String arg1Name = aIsLarger ? largeListNodeName : smallListNodeName;
-                    String arg1Id = aIsLarger ? largeListNodeId : smallListNodeId;
-                    String arg2Name = aIsLarger ? smallListNodeName : largeListNodeName;
-                    String arg2Id = aIsLarger ? smallListNodeId : largeListNodeId;
+    private static void countTwoSidedRelations(Transaction tx, Node a, Set<Long> largerAggIds, boolean aIsLarger, RelationshipType[] relationTypes, RelationCounts counts, TimeBudget timeBudget) {
+        OrthologyAggregateCache orthologyCache = OrthologyAggregateCache.getInstance();
+        Node orthologyAggregate = orthologyCache.getTopAggregate(tx, a);
+        List<Node> elementNodes = orthologyCache.getElements(tx, orthologyAggregate);
+        int numRelationships = 0;
+        for (Node element : elementNodes) {
+            Iterable<Relationship> relationships = element.getRelationships(relationTypes);
+            for (Relationship r : relationships) {
+                if (++numRelationships % TimeBudget.CHECK_INTERVAL == 0 && timeBudget.isExhausted())
+                    return;
+                Node otherNode = r.getOtherNode(element);
 
-                    int count = (int) r.getProperty(SemanticRelationConstants.PROP_TOTAL_COUNT);
+                long otherOrthologyAggregateId = orthologyCache.getTopAggregate(tx, otherNode).getId();
+                // If the aggregate of the otherNode is not in the set, it is also not in the target list.
+                if (!largerAggIds.contains(otherOrthologyAggregateId))
+                    continue;
 
-                    accumulator.merge(new ImmutablePair<>(arg1Id, arg2Id), makeResultLine(arg1Name, arg1Id, arg2Name, arg2Id, count), (m1, m2) -> {
-                        m1.put("count", (int) m1.get("count") + (int) m2.get("count"));
-                        return m1;
-                    });
-                }
+                long arg1 = aIsLarger ? otherOrthologyAggregateId : orthologyAggregate.getId();
+                long arg2 = aIsLarger ? orthologyAggregate.getId() : otherOrthologyAggregateId;
+                counts.add(arg1, arg2, (int) r.getProperty(SemanticRelationConstants.PROP_TOTAL_COUNT));
             }
         }
-        return accumulator.values().stream().collect(Collectors.toList());
     }
 
-    private static List<Map<String, Object>> serveOneSidedRequest(Transaction tx, RelationIdList aList, RelationshipType[] relationTypes, boolean interInputRelationRetrievalEnabled) {
-        // If the inter input relation retrieval is not enabled, we need the IDs as a set to quickly sort out
-        // undesired relations.
+    private static RelationCounts serveOneSidedRequest(Transaction tx, RelationIdList aList, RelationshipType[] relationTypes, boolean interInputRelationRetrievalEnabled, TimeBudget timeBudget) {
         List<Node> aNodes = getNodes(tx, aList);
-        Map<Node, Node> el2agg = aNodes.stream().collect(Collectors.toMap(Function.identity(), IERelationRetrieval::findHighestOrthologyAggregate));
-        // We must map the input IDs to their highest aggregate because this is the level we eventually work on
-        Set<String> requestedAggregateIds = !interInputRelationRetrievalEnabled ? el2agg.values().stream().map(n -> n.getProperty(getIdEffectiveIdProperty(aList))).map(String.class::cast).collect(Collectors.toSet()) : null;
-        Map<Pair<String, String>, Map<String, Object>> accumulator = new HashMap<>();
-        String effectiveIdProperty = getIdEffectiveIdProperty(aList);
+        OrthologyAggregateCache orthologyCache = OrthologyAggregateCache.getInstance();
+        Map<Node, Node> el2agg = aNodes.stream().collect(Collectors.toMap(Function.identity(), n -> orthologyCache.getTopAggregate(tx, n)));
+        // If the inter input relation retrieval is not enabled, we need the aggregates of the input as a set to
+        // quickly sort out undesired relations. We must map the input IDs to their highest aggregate because this is
+        // the level we eventually work on.
+        Set<Long> requestedAggregateIds = !interInputRelationRetrievalEnabled ? el2agg.values().stream().map(Node::getId).collect(Collectors.toSet()) : null;
+        RelationCounts counts = new RelationCounts();
+        int numRelationships = 0;
         for (Node a : aNodes) {
             Node orthologyAggregate = el2agg.get(a);
-            List<Node> elementNodes = ConceptAggregateManager.getNonAggregateElements(orthologyAggregate);
+            List<Node> elementNodes = orthologyCache.getElements(tx, orthologyAggregate);
             for (Node element : elementNodes) {
                 Iterable<Relationship> relationships = element.getRelationships(relationTypes);
                 for (Relationship r : relationships) {
+                    if (++numRelationships % TimeBudget.CHECK_INTERVAL == 0 && timeBudget.isExhausted())
+                        return counts;
                     Node otherNode = r.getOtherNode(element);
-                    String arg1Name = (String) orthologyAggregate.getProperty(ConceptConstants.PROP_PREF_NAME);
-                    String arg1Id = (String) orthologyAggregate.getProperty(effectiveIdProperty);
-
-                    Node otherOrthologyAggregate = findHighestOrthologyAggregate(otherNode);
-                    String arg2Name = (String) otherOrthologyAggregate.getProperty(ConceptConstants.PROP_PREF_NAME);
-                    String arg2Id = (String) otherOrthologyAggregate.getProperty(effectiveIdProperty);
+                    long otherOrthologyAggregateId = orthologyCache.getTopAggregate(tx, otherNode).getId();
                     // skip this relation if the end node is also an input node
-                    if (!interInputRelationRetrievalEnabled && requestedAggregateIds.contains(arg2Id))
+                    if (!interInputRelationRetrievalEnabled && requestedAggregateIds.contains(otherOrthologyAggregateId))
                         continue;
 
-                    int count = (int) r.getProperty(SemanticRelationConstants.PROP_TOTAL_COUNT);
-
-                    accumulator.merge(new ImmutablePair<>(arg1Id, arg2Id), makeResultLine(arg1Name, arg1Id, arg2Name, arg2Id, count), (m1, m2) -> {
-                        m1.put("count", (int) m1.get("count") + (int) m2.get("count"));
-                        return m1;
-                    });
+                    counts.add(orthologyAggregate.getId(), otherOrthologyAggregateId, (int) r.getProperty(SemanticRelationConstants.PROP_TOTAL_COUNT));
                 }
             }
         }
-        return accumulator.values().stream().collect(Collectors.toList());
+        return counts;
     }
 
     private static Map<String, Object> makeResultLine(String arg1Name, String arg1Id, String arg2Name, String arg2Id, int count) {
         Map<String, Object> map = new HashMap<>();
-        map.put("arg1Name", arg1Name);
-        map.put("arg2Name", arg2Name);
-        map.put("arg1Id", arg1Id);
-        map.put("arg2Id", arg2Id);
-        map.put("count", count);
+        map.put(KEY_ARG1_NAME, arg1Name);
+        map.put(KEY_ARG2_NAME, arg2Name);
+        map.put(KEY_ARG1_ID, arg1Id);
+        map.put(KEY_ARG2_ID, arg2Id);
+        map.put(KEY_COUNT, count);
         return map;
     }
 
-
-    /**
-     * Follows the HAS_ELEMENT relationships to aggregate nodes that have one of the labels {@link #LABEL_GENEGROUP} or
-     * {@link #LABEL_TOP_ORTHOLOGY}. If such an aggregate is found, the algorithm is recursively called for that
-     * node. The algorithm stops when there is no governing node with either of those labels and returns the highest
-     * node found.
-     *
-     * @param n The start node for which we want the highest aggregation node.
-     * @return The highest aggregation node for <tt>n</tt>.
-     */
-    private static Node findHighestOrthologyAggregate(Node n) {
-        Node currentNode = n;
-        Iterable<Relationship> hasElementRelationships = currentNode.getRelationships(Direction.INCOMING, ConceptEdgeTypes.HAS_ELEMENT);
-        for (Relationship hasElement : hasElementRelationships) {
-            Node aggregateNode = hasElement.getStartNode();
-            if (aggregateNode.hasLabel(LABEL_GENEGROUP) || aggregateNode.hasLabel(LABEL_TOP_ORTHOLOGY))
-                return findHighestOrthologyAggregate(aggregateNode);
-        }
-        // If we got here we didn't find a governing aggregate. Thus, this node is already the highest orthology
-        // aggregation node. Note that this might well be a concrete gene node without any orthology aggregations
-        // since not all genes take part of in the gene_orthology file.
-        return n;
-    }
-
     private static List<Node> getNodes(Transaction tx, RelationIdList idListRequest) {
         List<Node> nodeListRequest = new ArrayList<>();
         for (String id : idListRequest.getIds()) {
@@ -163,4 +228,131 @@ public class IERelationRetrieval {
     private static String getIdEffectiveIdProperty(RelationIdList idListRequest) {
         return idListRequest.getIdProperty().equals(ConceptConstants.PROP_SRC_IDS) ? ConceptConstants.PROP_SRC_IDS+"0" : idListRequest.getIdProperty();
     }
+
+    /**
+     * Receives the relations of a {@link Result}.
+     */
+    @FunctionalInterface
+    public interface ResultLineWriter {
+        void write(String arg1Name, String arg1Id, String arg2Name, String arg2Id, int count) throws IOException;
+    }
+
+    /**
+     * The selected relations of a request, given by the node IDs of their arguments.
+     */
+    public static class Result {
+        private final RelationCounts counts;
+        private final int[] selected;
+        private final String arg1IdProperty;
+        private final String arg2IdProperty;
+        private final boolean partial;
+
+        private Result(RelationCounts counts, int[] selected, String arg1IdProperty, String arg2IdProperty, boolean partial) {
+            this.counts = counts;
+            this.selected = selected;
+            this.arg1IdProperty = arg1IdProperty;
+            this.arg2IdProperty = arg2IdProperty;
+            this.partial = partial;
+        }
+
+        /**
+         * @return Whether the time budget of the request has been exhausted so that not all relations have been counted.
+         */
+        public boolean isPartial() {
+            return partial;
+        }
+
+        /**
+         * @param tx A transaction.
+         * @return The selected relations as maps with the keys {@link #KEY_ARG1_NAME}, {@link #KEY_ARG1_ID},
+         * {@link #KEY_ARG2_NAME}, {@link #KEY_ARG2_ID} and {@link #KEY_COUNT}.
+         */
+        public List<Map<String, Object>> toList(Transaction tx) {
+            List<Map<String, Object>> results = new ArrayList<>(size());
+            try {
+                write(tx, (arg1Name, arg1Id, arg2Name, arg2Id, count) -> results.add(makeResultLine(arg1Name, arg1Id, arg2Name, arg2Id, count)));
+            } catch (IOException e) {
+                // Cannot happen because the lines are only added to the list.
+                throw new UncheckedIOException(e);
+            }
+            return results;
+        }
+
+        /**
+         * @return The number of selected relations.
+         */
+        public int size() {
+            return selected.length;
+        }
+
+        /**
+         * Reads the names and IDs of the arguments and passes the selected relations to <tt>writer</tt> in their
+         * selected order. Relations with an argument that has been deleted in the meantime are skipped.
+         *
+         * @param tx     A transaction.
+         * @param writer The receiver of the relations.
+         * @throws IOException If <tt>writer</tt> throws it.
+         */
+        public void write(Transaction tx, ResultLineWriter writer) throws IOException {
+            // Arguments typically occur in many relations. The sides are cached separately because their ID
+            // properties may differ.
+            Map<Long, String[]> arg1NamesAndIds = new HashMap<>();
+            Map<Long, String[]> arg2NamesAndIds = new HashMap<>();
+            for (int pos : selected) {
+                String[] arg1 = getNameAndId(tx, counts.getArg1(pos), arg1IdProperty, arg1NamesAndIds);
+                String[] arg2 = getNameAndId(tx, counts.getArg2(pos), arg2IdProperty, arg2NamesAndIds);
+                if (arg1 != null && arg2 != null)
+                    writer.write(arg1[0], arg1[1], arg2[0], arg2[1], counts.getCount(pos));
+            }
+        }
+
+        private String[] getNameAndId(Transaction tx, long nodeId, String idProperty, Map<Long, String[]> namesAndIds) {
+            String[] nameAndId = namesAndIds.get(nodeId);
+            if (nameAndId != null)
+                return nameAndId;
+            Node node;
+            try {
+                node = tx.getNodeById(nodeId);
+            } catch (NotFoundException e) {
+                return null;
+            }
+            nameAndId = new String[]{(String) node.getProperty(ConceptConstants.PROP_PREF_NAME), (String) node.getProperty(idProperty)};
+            namesAndIds.put(nodeId, nameAndId);
+            return nameAndId;
+        }
+    }
+
+    /**
+     * The time a request may spend on counting relations. Once exhausted, it stays exhausted for all workers.
+     */
+    private static class TimeBudget {
+        /**
+         * The number of relationships between two checks of the clock.
+         */
+        private static final int CHECK_INTERVAL = 1024;
+        private final boolean limited;
+        private final long deadline;
+        private volatile boolean exhausted;
+
+        private TimeBudget(long millis) {
+            limited = millis > 0;
+            deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+        boolean isExhausted() {
+            if (!exhausted && limited && System.nanoTime() - deadline > 0)
+                exhausted = true;
+            return exhausted;
+        }
+    }
+
+    private static class RetrievalWorkers {
+        private static final int SIZE = Math.max(1, Integer.getInteger(SYSPROP_NUM_WORKERS, Runtime.getRuntime().availableProcessors()));
+        private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+        private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(SIZE, r -> {
+            Thread t = new Thread(r, "ie-relation-retrieval-" + THREAD_NUMBER.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
 }
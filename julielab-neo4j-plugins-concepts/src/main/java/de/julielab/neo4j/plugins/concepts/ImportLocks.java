@@ -0,0 +1,114 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import de.julielab.neo4j.plugins.datarepresentation.ConceptCoordinates;
+import de.julielab.neo4j.plugins.datarepresentation.ImportConcept;
+import de.julielab.neo4j.plugins.datarepresentation.ImportConceptRelationship;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * The JVM-wide locks of the concept import. Imports into the same facet are serialized by a lock per facet ID.
+ * Facets that are given by name are resolved or created under the facet creation lock first. The creation of concept
+ * nodes is guarded by a fixed number of coordinate partition locks so that two transactions
+ * never create a node for the same coordinates concurrently.
+ * </p>
+ * <p>
+ * To avoid deadlocks, the facet creation lock is released before the facet lock is acquired, the facet lock is always
+ * acquired before the partition locks, partition locks are always acquired in ascending
+ * order and all locks are acquired before the transaction that needs them is opened.
+ * </p>
+ */
+class ImportLocks {
+    static final int NUM_PARTITIONS = 64;
+    private static final Lock[] PARTITION_LOCKS = new Lock[NUM_PARTITIONS];
+    private static final ConcurrentHashMap<String, Lock> FACET_LOCKS = new ConcurrentHashMap<>();
+    private static final Lock FACET_CREATION_LOCK = new ReentrantLock();
+
+    static {
+        for (int i = 0; i < NUM_PARTITIONS; i++)
+            PARTITION_LOCKS[i] = new ReentrantLock();
+    }
+
+    private ImportLocks() {
+    }
+
+    /**
+     * @param facetId The ID of the facet.
+     * @return The lock guarding imports into the given facet.
+     */
+    static Lock getFacetLock(String facetId) {
+        return FACET_LOCKS.computeIfAbsent(facetId, k -> new ReentrantLock());
+    }
+
+    /**
+     * @return The lock guarding the lookup of import facets by name and the creation of new facets.
+     */
+    static Lock getFacetCreationLock() {
+        return FACET_CREATION_LOCK;
+    }
+
+    /**
+     * Returns the partition of the given coordinates. The source ID is used if given since it is mandatory for
+     * concept imports. Otherwise, the original ID is used.
+     *
+     * @param coordinates The concept coordinates.
+     * @return The partition number between 0 and {@link #NUM_PARTITIONS} (exclusive).
+     */
+    static int getPartition(ConceptCoordinates coordinates) {
+        String key = !StringUtils.isBlank(coordinates.sourceId) ? coordinates.sourceId : coordinates.originalId;
+        if (key == null)
+            return 0;
+        return Math.floorMod(key.hashCode(), NUM_PARTITIONS);
+    }
+
+    static Lock getPartitionLock(int partition) {
+        return PARTITION_LOCKS[partition];
+    }
+
+    /**
+     * Acquires the locks of all partitions that the given concepts - including their parents, relationship targets
+     * and aggregate elements - belong to.
+     *
+     * @param concepts The concepts to lock the partitions for.
+     * @return The acquired locks in acquisition order, to be passed to {@link #unlock(List)}.
+     */
+    static List<Lock> lockPartitions(Collection<ImportConcept> concepts) {
+        boolean[] partitions = new boolean[NUM_PARTITIONS];
+        for (ImportConcept concept : concepts) {
+            markPartition(partitions, concept.coordinates);
+            if (concept.parentCoordinates != null)
+                concept.parentCoordinates.forEach(c -> markPartition(partitions, c));
+            if (concept.elementCoordinates != null)
+                concept.elementCoordinates.forEach(c -> markPartition(partitions, c));
+            if (concept.relationships != null) {
+                for (ImportConceptRelationship relationship : concept.relationships)
+                    markPartition(partitions, relationship.targetCoordinates);
+            }
+        }
+        List<Lock> locks = new ArrayList<>();
+        for (int i = 0; i < NUM_PARTITIONS; i++) {
+            if (partitions[i]) {
+                PARTITION_LOCKS[i].lock();
+                locks.add(PARTITION_LOCKS[i]);
+            }
+        }
+        return locks;
+    }
+
+    static void unlock(List<Lock> locks) {
+        for (int i = locks.size() - 1; i >= 0; --i)
+            locks.get(i).unlock();
+    }
+
+    private static void markPartition(boolean[] partitions, ConceptCoordinates coordinates) {
+        if (coordinates != null)
+            partitions[getPartition(coordinates)] = true;
+    }
+}
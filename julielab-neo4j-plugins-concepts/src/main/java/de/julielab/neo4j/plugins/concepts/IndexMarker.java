@@ -0,0 +1,108 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * <p>
+ * Reads and writes the single marker node that stores the state of a materialized index like {@link SourceIdIndex}
+ * or {@link AncestorIndex}. The state is kept in the database only so that it always belongs to the database it
+ * describes.
+ * </p>
+ * <p>
+ * An index is complete if it has been built or if the database did not contain any concepts when it was first
+ * written to. Updates of the index that are committed in multiple transactions are registered as pending on the
+ * marker; the index is not complete while there are pending updates.
+ * </p>
+ */
+final class IndexMarker {
+    static final String PROP_COMPLETE = "complete";
+    static final String PROP_PENDING_UPDATES = "pendingUpdates";
+
+    private IndexMarker() {
+    }
+
+    /**
+     * Only reads the database.
+     *
+     * @param tx          The current transaction.
+     * @param markerLabel The label of the marker node of the index.
+     * @return Whether the index is complete.
+     */
+    static boolean isComplete(Transaction tx, Label markerLabel) {
+        Node marker = getMarker(tx, markerLabel);
+        return marker != null && (boolean) marker.getProperty(PROP_COMPLETE, false) && (long) marker.getProperty(PROP_PENDING_UPDATES, 0L) == 0;
+    }
+
+    /**
+     * Marks the index as complete if the database does not contain any concepts yet. Must be called in a writing
+     * transaction before the first concepts are created.
+     *
+     * @param tx          The current transaction.
+     * @param markerLabel The label of the marker node of the index.
+     */
+    static void markCompleteIfEmpty(Transaction tx, Label markerLabel) {
+        if (getMarker(tx, markerLabel) != null)
+            return;
+        try (ResourceIterator<Node> concepts = tx.findNodes(ConceptLabel.CONCEPT)) {
+            if (!concepts.hasNext())
+                markComplete(tx, markerLabel);
+        }
+    }
+
+    /**
+     * Marks the index as complete after it has been built. Updates that were pending are covered by the build.
+     *
+     * @param tx          The current transaction.
+     * @param markerLabel The label of the marker node of the index.
+     */
+    static void markComplete(Transaction tx, Label markerLabel) {
+        Node marker = getMarker(tx, markerLabel);
+        if (marker == null)
+            marker = tx.createNode(markerLabel);
+        marker.setProperty(PROP_COMPLETE, true);
+        marker.removeProperty(PROP_PENDING_UPDATES);
+    }
+
+    /**
+     * Registers an update that is committed in later transactions. Must be called in the transaction that makes the
+     * update necessary so that the index is not considered complete if the update never finishes.
+     *
+     * @param tx          The current transaction.
+     * @param markerLabel The label of the marker node of the index.
+     */
+    static void beginPendingUpdate(Transaction tx, Label markerLabel) {
+        Node marker = getMarker(tx, markerLabel);
+        if (marker == null)
+            return;
+        tx.acquireWriteLock(marker);
+        marker.setProperty(PROP_PENDING_UPDATES, (long) marker.getProperty(PROP_PENDING_UPDATES, 0L) + 1);
+    }
+
+    /**
+     * Unregisters an update registered by {@link #beginPendingUpdate(Transaction, Label)} after it has been
+     * committed.
+     *
+     * @param tx          The current transaction.
+     * @param markerLabel The label of the marker node of the index.
+     */
+    static void endPendingUpdate(Transaction tx, Label markerLabel) {
+        Node marker = getMarker(tx, markerLabel);
+        if (marker == null)
+            return;
+        tx.acquireWriteLock(marker);
+        long pendingUpdates = (long) marker.getProperty(PROP_PENDING_UPDATES, 0L);
+        if (pendingUpdates > 1)
+            marker.setProperty(PROP_PENDING_UPDATES, pendingUpdates - 1);
+        else
+            marker.removeProperty(PROP_PENDING_UPDATES);
+    }
+
+    private static Node getMarker(Transaction tx, Label markerLabel) {
+        try (ResourceIterator<Node> markers = tx.findNodes(markerLabel)) {
+            return markers.hasNext() ? markers.next() : null;
+        }
+    }
+}
@@ -2,13 +2,19 @@ package de.julielab.neo4j.plugins.concepts;
 
 import de.julielab.neo4j.plugins.auxiliaries.semedico.CoordinatesSet;
 import de.julielab.neo4j.plugins.datarepresentation.ConceptCoordinates;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
 
 public class InsertionReport {
+    /**
+     * The minimum degree of a node for a type and direction from which its relationships are loaded into
+     * {@link #hubRelationships}.
+     */
+    public static final int HUB_DEGREE = 1000;
     /**
      * A temporary storage to keep track over relationships created during a single
      * concept insertion batch. It is used for deconceptination whether existing
@@ -16,16 +22,25 @@ public class InsertionReport {
      * for the case that a concept is inserted multiple times in a single insertion
      * batch. Then, the "concept already existing" method does not work anymore.
      */
-    public final Set<String> createdRelationshipsCache = new HashSet<>();
+    public final EdgeSet createdRelationships = new EdgeSet();
+    /**
+     * The relationships of hub nodes, i.e. nodes with at least {@link #HUB_DEGREE} relationships of a type and
+     * direction, as (hub, other node, type and direction) with the relationship ID as value. They are loaded once per
+     * hub, type and direction by {@link #getHubRelationshipIds(Node, Node, RelationshipType, Direction)} so that a
+     * relationship between two hubs is not searched by a scan of all relationships of one of them. They are kept
+     * across batches by {@link #clear()}; when the degree of a hub differs from the loaded relationships, e.g. after a
+     * rolled back batch or a write by another transaction, the hub relationships are loaded anew.
+     */
+    public final EdgeSet hubRelationships = new EdgeSet();
     /**
      * The concept nodes that already existed before they should have been inserted
      * again (duplicate detection). This is used to determine whether a check
      * about already existing relationships between two nodes is necessary. If at
      * least one of two concepts between which a relationships should be created did
      * not exist before, no check is necessary: A concept that did not exist could
-     * not have had any relationships.
+     * not have had any relationships. Stored by node ID.
      */
-    public final Set<Node> existingConcepts = new HashSet<>();
+    public final LongHashSet existingConcepts = new LongHashSet();
     /**
      * The source IDs of concepts that have been omitted from the data for -
      * hopefully - good reasons. The first (and perhaps only) use case were
@@ -41,31 +56,177 @@ public class InsertionReport {
      * the imported data or not.
      */
     public final CoordinatesSet importedCoordinates = new CoordinatesSet();
+    /**
+     * The changes of the numbers of concepts in the facet hierarchies, by facet ID. They are written to the facet
+     * nodes in the transaction of each batch, see {@link FacetStatistics}.
+     */
+    public final Map<String, Long> facetSizeChanges = new HashMap<>();
+    /**
+     * Whether aggregates have been created or got elements. The {@link OrthologyAggregateCache} must then be
+     * invalidated after the import has been committed.
+     */
+    public boolean aggregatesChanged = false;
+    /**
+     * The IDs of the nodes whose {@link AncestorIndex} entry has changed in the current batch and whose descendants
+     * must be updated after the batch has been committed, by facet ID.
+     */
+    public final Map<String, Set<Long>> ancestorUpdates = new HashMap<>();
+    /**
+     * The number of loaded {@link #hubRelationships} by type and direction code, by hub node ID.
+     */
+    private final Map<Long, Map<Integer, Integer>> loadedHubRelationships = new HashMap<>();
+    /**
+     * The IDs of further relationships between the same nodes with the same type and direction as a relationship in
+     * {@link #hubRelationships}, by the ID of the latter. Such parallel relationships exist where the properties of a
+     * new relationship could not be merged into the existing one.
+     */
+    private final Map<Long, long[]> parallelHubRelationships = new HashMap<>();
     public int numRelationships = 0;
     public int numConcepts = 0;
 
-    public void addCreatedRelationship(Node source, Node target, RelationshipType type) {
-        createdRelationshipsCache.add(getRelationshipIdentifier(source, target, type));
+    public void addCreatedRelationship(Relationship relationship) {
+        long sourceId = relationship.getStartNodeId();
+        long targetId = relationship.getEndNodeId();
+        RelationshipType type = relationship.getType();
+        createdRelationships.add(sourceId, targetId, createdRelationships.getTypeId(type));
+        // Keep the already loaded hub relationships up to date.
+        for (Direction direction : Direction.values()) {
+            if (direction != Direction.INCOMING)
+                addCreatedHubRelationship(sourceId, targetId, getHubCode(type, direction), relationship.getId());
+            if (direction != Direction.OUTGOING)
+                addCreatedHubRelationship(targetId, sourceId, getHubCode(type, direction), relationship.getId());
+        }
+    }
+
+    /**
+     * Returns the IDs of the relationships of <tt>type</tt> in <tt>direction</tt> between <tt>hub</tt> and
+     * <tt>other</tt>. The relationships of <tt>hub</tt> are loaded into {@link #hubRelationships} on the first call
+     * for a type and direction and whenever the degree of <tt>hub</tt> does not match the loaded relationships.
+     *
+     * @param hub       A node with at least {@link #HUB_DEGREE} relationships of <tt>type</tt> in <tt>direction</tt>.
+     * @param other     The other node.
+     * @param type      The relationship type.
+     * @param direction The direction from <tt>hub</tt>.
+     * @return The relationship IDs, empty if there is no such relationship.
+     */
+    public long[] getHubRelationshipIds(Node hub, Node other, RelationshipType type, Direction direction) {
+        int code = getHubCode(type, direction);
+        int degree = hub.getDegree(type, direction);
+        Map<Integer, Integer> loaded = loadedHubRelationships.computeIfAbsent(hub.getId(), k -> new HashMap<>());
+        Integer numLoaded = loaded.get(code);
+        if (numLoaded == null || numLoaded != degree) {
+            // The relationships cannot be removed from the set individually. Since this only happens after a
+            // change of the hub by another transaction or a rollback, all hub relationships are loaded anew.
+            if (numLoaded != null)
+                clearHubRelationships();
+            for (Relationship rel : hub.getRelationships(direction, type))
+                addHubRelationship(hub.getId(), rel.getOtherNodeId(hub.getId()), code, rel.getId());
+            loadedHubRelationships.computeIfAbsent(hub.getId(), k -> new HashMap<>()).put(code, degree);
+        }
+        long relationshipId = hubRelationships.get(hub.getId(), other.getId(), code);
+        if (relationshipId < 0)
+            return new long[0];
+        long[] parallelIds = parallelHubRelationships.get(relationshipId);
+        if (parallelIds == null)
+            return new long[]{relationshipId};
+        long[] relationshipIds = new long[parallelIds.length + 1];
+        relationshipIds[0] = relationshipId;
+        System.arraycopy(parallelIds, 0, relationshipIds, 1, parallelIds.length);
+        return relationshipIds;
+    }
+
+    /**
+     * Checks whether <tt>hub</tt> has a relationship of <tt>type</tt> in <tt>direction</tt> with <tt>other</tt>,
+     * see {@link #getHubRelationshipIds(Node, Node, RelationshipType, Direction)}.
+     */
+    public boolean hubHasRelationship(Node hub, Node other, RelationshipType type, Direction direction) {
+        return getHubRelationshipIds(hub, other, type, direction).length > 0;
+    }
+
+    private void addHubRelationship(long hubId, long otherId, int code, long relationshipId) {
+        if (hubRelationships.add(hubId, otherId, code, relationshipId))
+            return;
+        long firstId = hubRelationships.get(hubId, otherId, code);
+        if (firstId == relationshipId)
+            return;
+        long[] parallelIds = parallelHubRelationships.get(firstId);
+        if (parallelIds == null) {
+            parallelIds = new long[]{relationshipId};
+        } else {
+            parallelIds = Arrays.copyOf(parallelIds, parallelIds.length + 1);
+            parallelIds[parallelIds.length - 1] = relationshipId;
+        }
+        parallelHubRelationships.put(firstId, parallelIds);
+    }
+
+    /**
+     * Keeps the relationships of a hub whose relationships are already loaded up to date.
+     */
+    private void addCreatedHubRelationship(long hubId, long otherId, int code, long relationshipId) {
+        Map<Integer, Integer> loaded = loadedHubRelationships.get(hubId);
+        if (loaded == null || !loaded.containsKey(code))
+            return;
+        addHubRelationship(hubId, otherId, code, relationshipId);
+        loaded.merge(code, 1, Integer::sum);
+    }
+
+    /**
+     * Discards all loaded {@link #hubRelationships}.
+     */
+    public void clearHubRelationships() {
+        hubRelationships.clear();
+        loadedHubRelationships.clear();
+        parallelHubRelationships.clear();
+    }
+
+    private int getHubCode(RelationshipType type, Direction direction) {
+        return hubRelationships.getTypeId(type) * 3 + direction.ordinal();
     }
 
     public void addExistingConcept(Node concept) {
-        existingConcepts.add(concept);
+        existingConcepts.add(concept.getId());
     }
 
-    private String getRelationshipIdentifier(Node source, Node target, RelationshipType type) {
-        return source.getId() + type.name() + target.getId();
+    public boolean isExistingConcept(Node concept) {
+        return existingConcepts.contains(concept.getId());
     }
 
     public boolean relationshipAlreadyWasCreated(Node source, Node target, RelationshipType type) {
-        return createdRelationshipsCache.contains(getRelationshipIdentifier(source, target, type));
+        return createdRelationships.contains(source.getId(), target.getId(), createdRelationships.getTypeId(type));
     }
 
     public void addImportedCoordinates(ConceptCoordinates coordinates) {
         importedCoordinates.add(coordinates);
     }
 
+    public void addAncestorUpdate(String facetId, long nodeId) {
+        ancestorUpdates.computeIfAbsent(facetId, k -> new HashSet<>()).add(nodeId);
+    }
+
+    public void addFacetSizeChange(String facetId, long change) {
+        facetSizeChanges.merge(facetId, change, Long::sum);
+    }
+
+    /**
+     * Resets this report for the next import batch. The tracking structures keep their capacity so that a single
+     * report can be reused for all batches of an import. The {@link #hubRelationships} are kept because hubs are
+     * typically involved in many batches.
+     */
+    public void clear() {
+        createdRelationships.clear();
+        existingConcepts.clear();
+        omittedConcepts.clear();
+        importedCoordinates.clear();
+        facetSizeChanges.clear();
+        ancestorUpdates.clear();
+        aggregatesChanged = false;
+        numRelationships = 0;
+        numConcepts = 0;
+    }
+
     public void merge(InsertionReport other) {
         this.numConcepts += other.numConcepts;
         this.numRelationships += other.numRelationships;
+        this.aggregatesChanged |= other.aggregatesChanged;
     }
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A set of <tt>long</tt> values, typically node IDs, with open addressing and linear probing. In contrast to a
+ * <tt>Set&lt;Long&gt;</tt>, adding and checking values creates no objects and {@link #clear()} keeps the allocated
+ * table so that the set can be reused, e.g. by the {@link InsertionReport} of consecutive import batches.
+ * </p>
+ */
+public class LongHashSet {
+    private static final int INITIAL_CAPACITY = 64;
+    /**
+     * Marks an empty slot. The value itself is tracked by {@link #containsEmptyValue}.
+     */
+    private static final long EMPTY = -1;
+    private long[] table;
+    private boolean containsEmptyValue;
+    private int size;
+
+    public LongHashSet() {
+        table = new long[INITIAL_CAPACITY];
+        Arrays.fill(table, EMPTY);
+    }
+
+    private static int hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @param value The value to add.
+     * @return Whether the value has been added, i.e. was not already contained.
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsEmptyValue)
+                return false;
+            containsEmptyValue = true;
+            ++size;
+            return true;
+        }
+        int slot = findSlot(table, value);
+        if (table[slot] == value)
+            return false;
+        table[slot] = value;
+        ++size;
+        // Keep the load factor at most 0.5.
+        if (size * 2 > table.length)
+            rehash();
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY)
+            return containsEmptyValue;
+        return table[findSlot(table, value)] == value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all values but keeps the capacity.
+     */
+    public void clear() {
+        if (size == 0)
+            return;
+        Arrays.fill(table, EMPTY);
+        containsEmptyValue = false;
+        size = 0;
+    }
+
+    /**
+     * @return The slot of <tt>value</tt> or the empty slot where it would be added.
+     */
+    private static int findSlot(long[] table, long value) {
+        int mask = table.length - 1;
+        int slot = hash(value) & mask;
+        while (table[slot] != EMPTY && table[slot] != value)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void rehash() {
+        long[] newTable = new long[table.length * 2];
+        Arrays.fill(newTable, EMPTY);
+        for (long value : table) {
+            if (value != EMPTY)
+                newTable[findSlot(newTable, value)] = value;
+        }
+        table = newTable;
+    }
+}
@@ -0,0 +1,181 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A union-find structure over <tt>long</tt> values, typically node IDs. Each added value gets a dense index by an
+ * open addressing hash table; the parent pointers and component sizes are kept in primitive arrays indexed by it.
+ * {@link #union(long, long)} links by size and {@link #find(int)} halves the paths, so both run in nearly constant
+ * time and neither creates objects.
+ * </p>
+ * <p>
+ * Used by the {@link MappingAggregateBuilder} to compute the connected components of the mapping graph.
+ * </p>
+ */
+public class LongUnionFind {
+    private static final int INITIAL_CAPACITY = 64;
+    private long[] values = new long[INITIAL_CAPACITY];
+    private int[] parents = new int[INITIAL_CAPACITY];
+    private int[] sizes = new int[INITIAL_CAPACITY];
+    /**
+     * The index of each value plus one; 0 marks an empty slot. The length is a power of two.
+     */
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+    private int size;
+
+    private static int hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Adds <tt>value</tt> as a singleton set, if not already contained.
+     *
+     * @param value The value to add.
+     * @return The index of the value.
+     */
+    public int add(long value) {
+        int slot = findSlot(value);
+        if (table[slot] != 0)
+            return table[slot] - 1;
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+            parents = Arrays.copyOf(parents, size * 2);
+            sizes = Arrays.copyOf(sizes, size * 2);
+        }
+        values[size] = value;
+        parents[size] = size;
+        sizes[size] = 1;
+        table[slot] = ++size;
+        // Keep the load factor at most 0.5.
+        if (size * 2 > table.length)
+            rehash();
+        return size - 1;
+    }
+
+    /**
+     * @return The index of <tt>value</tt> or -1 if it has not been added.
+     */
+    public int indexOf(long value) {
+        return table[findSlot(value)] - 1;
+    }
+
+    public boolean contains(long value) {
+        return indexOf(value) >= 0;
+    }
+
+    /**
+     * Merges the sets of the two values, adding them first if necessary.
+     */
+    public void union(long value1, long value2) {
+        int root1 = find(add(value1));
+        int root2 = find(add(value2));
+        if (root1 == root2)
+            return;
+        if (sizes[root1] < sizes[root2]) {
+            int tmp = root1;
+            root1 = root2;
+            root2 = tmp;
+        }
+        parents[root2] = root1;
+        sizes[root1] += sizes[root2];
+    }
+
+    /**
+     * @param index The index of a value.
+     * @return The index of the representative of the set of the value.
+     */
+    public int find(int index) {
+        while (parents[index] != index) {
+            parents[index] = parents[parents[index]];
+            index = parents[index];
+        }
+        return index;
+    }
+
+    /**
+     * @return The number of added values.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Groups the values by their sets. The components are ordered by the first added value of each component.
+     *
+     * @return The components.
+     */
+    public Components getComponents() {
+        int[] componentOfRoot = new int[size];
+        Arrays.fill(componentOfRoot, -1);
+        int[] componentOfValue = new int[size];
+        int numComponents = 0;
+        for (int i = 0; i < size; i++) {
+            int root = find(i);
+            if (componentOfRoot[root] < 0)
+                componentOfRoot[root] = numComponents++;
+            componentOfValue[i] = componentOfRoot[root];
+        }
+        int[] offsets = new int[numComponents + 1];
+        for (int i = 0; i < size; i++)
+            ++offsets[componentOfValue[i] + 1];
+        for (int i = 0; i < numComponents; i++)
+            offsets[i + 1] += offsets[i];
+        int[] nextPosition = Arrays.copyOf(offsets, numComponents);
+        long[] members = new long[size];
+        for (int i = 0; i < size; i++)
+            members[nextPosition[componentOfValue[i]]++] = values[i];
+        return new Components(offsets, members);
+    }
+
+    /**
+     * @return The slot of the value or the empty slot where it would be added.
+     */
+    private int findSlot(long value) {
+        int mask = table.length - 1;
+        int slot = hash(value) & mask;
+        while (table[slot] != 0 && values[table[slot] - 1] != value)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = hash(values[i]) & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = i + 1;
+        }
+    }
+
+    /**
+     * The members of all components in one array, delimited by offsets.
+     */
+    public static class Components {
+        private final int[] offsets;
+        private final long[] members;
+
+        private Components(int[] offsets, long[] members) {
+            this.offsets = offsets;
+            this.members = members;
+        }
+
+        /**
+         * @return The number of components.
+         */
+        public int size() {
+            return offsets.length - 1;
+        }
+
+        public int getComponentSize(int component) {
+            return offsets[component + 1] - offsets[component];
+        }
+
+        public long getMember(int component, int i) {
+            return members[offsets[component] + i];
+        }
+    }
+}
@@ -0,0 +1,608 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import de.julielab.neo4j.plugins.auxiliaries.semedico.SequenceManager;
+import de.julielab.neo4j.plugins.constants.semedico.SequenceConstants;
+import de.julielab.neo4j.plugins.datarepresentation.constants.ConceptRelationConstants;
+import de.julielab.neo4j.plugins.datarepresentation.constants.NodeIDPrefixConstants;
+import org.neo4j.graphdb.*;
+import org.neo4j.logging.Log;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static de.julielab.neo4j.plugins.concepts.ConceptLabel.CONCEPT;
+import static de.julielab.neo4j.plugins.concepts.ConceptLabel.MAPPING_CHANGED;
+import static de.julielab.neo4j.plugins.concepts.ConceptLabel.PREF_NAME_CHANGED;
+import static de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants.*;
+
+/**
+ * <p>
+ * Builds the mapping aggregates for {@link ConceptAggregateManager#BUILD_AGGREGATES_BY_MAPPINGS}. An aggregate is
+ * created for each connected component of the graph that is formed by the <tt>IS_MAPPED_TO</tt> relationships of
+ * the allowed mapping types. Its elements are the nodes of the component with the allowed label. Nodes with the
+ * allowed label that do not become an element of an aggregate are their own aggregate and get the aggregated label.
+ * </p>
+ * <p>
+ * The mapping relationships are scanned once and their nodes are merged in a {@link LongUnionFind}. The components
+ * are then materialized. {@link #build(GraphDatabaseService)} does this in batches of about the given batch size of nodes
+ * that are committed by a pool of workers in transactions of their own. Since the components are disjoint, the
+ * workers never touch the same nodes. {@link #build(Transaction)} does everything in the given transaction.
+ * </p>
+ * <p>
+ * {@link #update(GraphDatabaseService, boolean)} maintains existing aggregates incrementally in committed batches,
+ * {@link #update(Transaction, boolean)} within the given transaction. They only rebuild the components of the concepts
+ * in the change log, i.e. concepts with the {@link ConceptLabel#MAPPING_CHANGED} or
+ * {@link ConceptLabel#PREF_NAME_CHANGED} label. A full build clears the change log.
+ * </p>
+ */
+public class MappingAggregateBuilder {
+    public static final String SYSPROP_NUM_WORKERS = "de.julielab.neo4j.plugins.concepts.mappingaggregates.numworkers";
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    private static final String[] COPY_PROPERTIES = new String[]{PROP_PREF_NAME, PROP_SYNONYMS,
+            PROP_WRITING_VARIANTS, PROP_DESCRIPTIONS, PROP_FACETS};
+    private final Set<String> allowedMappingTypes;
+    private final String[] mappingTypes;
+    private final Label allowedTermLabel;
+    private final Label termLabel;
+    private final Label aggregatedTermsLabel;
+    private final int batchSize;
+    private final int numWorkers;
+    private final Log log;
+    private final AtomicLong numProcessedNodes = new AtomicLong();
+    private final AtomicInteger numAggregates = new AtomicInteger();
+    private long numNodes;
+    private long startTime;
+
+    /**
+     * @param allowedMappingTypes  The mapping types of the relationships that connect the elements of an aggregate.
+     * @param allowedTermLabel     Label to restrict the elements of the aggregates to. If <tt>null</tt>, all mapped
+     *                             nodes are elements and aggregates are built for components with {@link ConceptLabel#CONCEPT} nodes.
+     * @param aggregatedTermsLabel Label for the aggregates and for the nodes that are not an element of an aggregate.
+     * @param batchSize            The approximate number of nodes committed together. Non-positive values select
+     *                             {@link #DEFAULT_BATCH_SIZE}.
+     * @param log                  The log.
+     */
+    public MappingAggregateBuilder(Set<String> allowedMappingTypes, Label allowedTermLabel, Label aggregatedTermsLabel, int batchSize, Log log) {
+        this.allowedMappingTypes = allowedMappingTypes;
+        this.mappingTypes = allowedMappingTypes.toArray(new String[0]);
+        this.allowedTermLabel = allowedTermLabel;
+        this.termLabel = null == allowedTermLabel ? CONCEPT : allowedTermLabel;
+        this.aggregatedTermsLabel = aggregatedTermsLabel;
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        this.numWorkers = Math.max(1, Integer.getInteger(SYSPROP_NUM_WORKERS, Runtime.getRuntime().availableProcessors()));
+        this.log = log;
+    }
+
+    /**
+     * Deletes the existing aggregates with the aggregated label and builds them anew in committed batches. The change
+     * log of {@link #update(GraphDatabaseService, boolean)} is cleared since the rebuild covers it.
+     *
+     * @param graphDb The database.
+     * @return The number of created aggregates.
+     */
+    public int build(GraphDatabaseService graphDb) {
+        startTime = System.currentTimeMillis();
+        // The rebuild covers all changes that have been logged so far.
+        long[] changeLogNodeIds;
+        try (Transaction tx = graphDb.beginTx()) {
+            changeLogNodeIds = readChangeLogNodeIds(tx);
+        }
+        ConceptAggregateManager.deleteAggregatesBatchWise(graphDb, List.of(aggregatedTermsLabel), log);
+        LongUnionFind unionFind;
+        try (Transaction tx = graphDb.beginTx()) {
+            // Create the sequence up front so that the workers do not race for its creation.
+            SequenceManager.getCurrentSequenceValue(tx, SequenceConstants.SEQ_AGGREGATE_TERM);
+            unionFind = findComponents(tx);
+            tx.commit();
+        }
+        LongUnionFind.Components components = unionFind.getComponents();
+        numNodes = unionFind.size();
+        log.info("Found %s mapping components over %s nodes. Building aggregates with %s workers.", components.size(), numNodes, numWorkers);
+
+        try (WorkerPool<Void> workers = new WorkerPool<>("mapping-aggregates-", numWorkers)) {
+            int firstComponent = 0;
+            int batchNodes = 0;
+            for (int component = 0; component < components.size(); component++) {
+                batchNodes += components.getComponentSize(component);
+                if (batchNodes >= batchSize || component == components.size() - 1) {
+                    int from = firstComponent;
+                    int to = component + 1;
+                    int firstAggregateId = reserveAggregateIds(graphDb, to - from);
+                    workers.submit(() -> materializeBatch(graphDb, components, from, to, firstAggregateId));
+                    firstComponent = to;
+                    batchNodes = 0;
+                }
+            }
+            // The concepts that are not mapped at all are their own aggregate.
+            try (Transaction tx = graphDb.beginTx(); ResourceIterator<Node> terms = tx.findNodes(termLabel)) {
+                long[] batch = new long[batchSize];
+                int size = 0;
+                while (terms.hasNext()) {
+                    long nodeId = terms.next().getId();
+                    if (!unionFind.contains(nodeId))
+                        batch[size++] = nodeId;
+                    if (size == batchSize || (!terms.hasNext() && size > 0)) {
+                        long[] nodeIds = Arrays.copyOf(batch, size);
+                        workers.submit(() -> labelUnmappedTerms(graphDb, nodeIds));
+                        size = 0;
+                    }
+                }
+            }
+            workers.awaitAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The creation of mapping aggregates was interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException("The creation of mapping aggregates failed.", e.getCause());
+        }
+        clearChangeLogBatchWise(graphDb, changeLogNodeIds);
+        OrthologyAggregateCache.getInstance().invalidate();
+        log.info("Created %s mapping aggregates over %s mapped nodes in %s ms.", numAggregates.get(), numNodes, System.currentTimeMillis() - startTime);
+        return numAggregates.get();
+    }
+
+    /**
+     * Deletes the existing aggregates with the aggregated label and builds them anew within <tt>tx</tt>. The change
+     * log of {@link #update(Transaction, boolean)} is cleared since the rebuild covers it. The caller must invalidate
+     * the {@link OrthologyAggregateCache} after committing <tt>tx</tt>.
+     *
+     * @param tx The transaction to work in.
+     * @return The number of created aggregates.
+     */
+    public int build(Transaction tx) {
+        startTime = System.currentTimeMillis();
+        ConceptAggregateManager.deleteAggregates(tx, aggregatedTermsLabel, log);
+        LongUnionFind unionFind = findComponents(tx);
+        LongUnionFind.Components components = unionFind.getComponents();
+        numNodes = unionFind.size();
+        Supplier<String> aggregateIds = () -> NodeIDPrefixConstants.AGGREGATE_TERM + SequenceManager.getNextSequenceValue(tx, SequenceConstants.SEQ_AGGREGATE_TERM);
+        int created = 0;
+        for (int component = 0; component < components.size(); component++) {
+            if (materialize(tx, components, component, aggregateIds))
+                ++created;
+        }
+        ResourceIterable<Node> terms = () -> tx.findNodes(termLabel);
+        for (Node term : terms) {
+            if (!unionFind.contains(term.getId()))
+                term.addLabel(aggregatedTermsLabel);
+        }
+        clearChangeLog(tx, readChangeLogNodeIds(tx));
+        log.info("Created %s mapping aggregates over %s mapped nodes in %s ms.", created, numNodes, System.currentTimeMillis() - startTime);
+        return created;
+    }
+
+    /**
+     * <p>
+     * Updates the aggregates with the aggregated label from the change log instead of rebuilding all of them. For each
+     * concept whose mappings have changed, the component of the mapping graph is determined by a traversal of the
+     * allowed mappings. The existing aggregates of the component's nodes are deleted; their other elements are
+     * processed as well since the aggregates might have been split. Then the component is materialized as by
+     * {@link #build(Transaction)}. New concepts are handled the same way. The properties of the created aggregates and
+     * of the aggregates of concepts with a changed preferred name are copied anew with
+     * {@link ConceptAggregateManager#copyAggregateProperties(Node, boolean, String[], ConceptAggregateManager.CopyAggregatePropertiesStatistics)}.
+     * </p>
+     * <p>
+     * The change log is shared by all aggregate sets. When several sets are maintained, the log should only be
+     * cleared by the last update.
+     * </p>
+     *
+     * <p>
+     * The caller must invalidate the {@link OrthologyAggregateCache} after committing <tt>tx</tt>.
+     * </p>
+     *
+     * @param tx             The transaction to work in.
+     * @param clearChangeLog Whether to remove the change log labels afterwards.
+     * @return Statistics about the update.
+     */
+    public UpdateStatistics update(Transaction tx, boolean clearChangeLog) {
+        startTime = System.currentTimeMillis();
+        UpdateStatistics stats = new UpdateStatistics();
+        ChangeLog changeLog = readChangeLog(tx);
+        log.info("Updating mapping aggregates with label %s for %s changed concepts.", aggregatedTermsLabel, changeLog.changedNodeIds.length);
+        Supplier<String> aggregateIds = () -> NodeIDPrefixConstants.AGGREGATE_TERM + SequenceManager.getNextSequenceValue(tx, SequenceConstants.SEQ_AGGREGATE_TERM);
+        ConceptAggregateManager.CopyAggregatePropertiesStatistics copyStats = new ConceptAggregateManager.CopyAggregatePropertiesStatistics();
+        LongHashSet visited = new LongHashSet();
+        for (long nodeId : changeLog.changedNodeIds)
+            updateComponents(tx, nodeId, visited, changeLog.refreshedAggregateIds, aggregateIds, copyStats, stats);
+        refreshAggregates(tx, changeLog.refreshedAggregateIds, copyStats, stats);
+        if (clearChangeLog)
+            clearChangeLog(tx, changeLog.changeLogNodeIds);
+        log.info("Updated mapping aggregates with label %s in %s ms: %s", aggregatedTermsLabel, System.currentTimeMillis() - startTime, stats);
+        return stats;
+    }
+
+    /**
+     * Like {@link #update(Transaction, boolean)} but commits the changes in transactions of about the given batch size
+     * of processed concepts. The change log is only cleared after all batches have been committed. If the update
+     * fails, it can be repeated: the components of the already committed batches are just rebuilt again.
+     *
+     * @param graphDb        The database.
+     * @param clearChangeLog Whether to remove the change log labels afterwards.
+     * @return Statistics about the update.
+     */
+    public UpdateStatistics update(GraphDatabaseService graphDb, boolean clearChangeLog) {
+        startTime = System.currentTimeMillis();
+        UpdateStatistics stats = new UpdateStatistics();
+        ChangeLog changeLog;
+        try (Transaction tx = graphDb.beginTx()) {
+            changeLog = readChangeLog(tx);
+        }
+        log.info("Updating mapping aggregates with label %s for %s changed concepts.", aggregatedTermsLabel, changeLog.changedNodeIds.length);
+        ConceptAggregateManager.CopyAggregatePropertiesStatistics copyStats = new ConceptAggregateManager.CopyAggregatePropertiesStatistics();
+        LongHashSet visited = new LongHashSet();
+        int position = 0;
+        while (position < changeLog.changedNodeIds.length) {
+            try (Transaction tx = graphDb.beginTx()) {
+                Supplier<String> aggregateIds = () -> NodeIDPrefixConstants.AGGREGATE_TERM + SequenceManager.getNextSequenceValue(tx, SequenceConstants.SEQ_AGGREGATE_TERM);
+                int batchNodes = 0;
+                while (position < changeLog.changedNodeIds.length && batchNodes < batchSize)
+                    batchNodes += updateComponents(tx, changeLog.changedNodeIds[position++], visited, changeLog.refreshedAggregateIds, aggregateIds, copyStats, stats);
+                tx.commit();
+            }
+            log.info("Processed %s of %s changed concepts.", position, changeLog.changedNodeIds.length);
+        }
+        List<Long> refreshedAggregateIds = new ArrayList<>(changeLog.refreshedAggregateIds);
+        for (int from = 0; from < refreshedAggregateIds.size(); from += batchSize) {
+            try (Transaction tx = graphDb.beginTx()) {
+                refreshAggregates(tx, refreshedAggregateIds.subList(from, Math.min(refreshedAggregateIds.size(), from + batchSize)), copyStats, stats);
+                tx.commit();
+            }
+        }
+        if (clearChangeLog)
+            clearChangeLogBatchWise(graphDb, changeLog.changeLogNodeIds);
+        if (stats.numCreatedAggregates > 0 || stats.numDeletedAggregates > 0)
+            OrthologyAggregateCache.getInstance().invalidate();
+        log.info("Updated mapping aggregates with label %s in %s ms: %s", aggregatedTermsLabel, System.currentTimeMillis() - startTime, stats);
+        return stats;
+    }
+
+    /**
+     * Reads the concepts of the change log. Concepts with a changed preferred name that have not been aggregated at
+     * all are new and are processed like concepts with changed mappings. Otherwise, only their aggregates are
+     * refreshed.
+     */
+    private ChangeLog readChangeLog(Transaction tx) {
+        LongHashSet changeLogNodes = new LongHashSet();
+        List<Long> changeLogNodeIds = new ArrayList<>();
+        List<Long> changedNodeIds = new ArrayList<>();
+        Set<Long> refreshedAggregateIds = new LinkedHashSet<>();
+        try (ResourceIterator<Node> concepts = tx.findNodes(MAPPING_CHANGED)) {
+            while (concepts.hasNext()) {
+                long nodeId = concepts.next().getId();
+                changeLogNodes.add(nodeId);
+                changeLogNodeIds.add(nodeId);
+                changedNodeIds.add(nodeId);
+            }
+        }
+        try (ResourceIterator<Node> concepts = tx.findNodes(PREF_NAME_CHANGED)) {
+            while (concepts.hasNext()) {
+                Node concept = concepts.next();
+                if (changeLogNodes.add(concept.getId()))
+                    changeLogNodeIds.add(concept.getId());
+                List<Node> aggregates = getAggregates(concept);
+                for (Node aggregate : aggregates)
+                    refreshedAggregateIds.add(aggregate.getId());
+                if (aggregates.isEmpty() && !concept.hasLabel(aggregatedTermsLabel))
+                    changedNodeIds.add(concept.getId());
+            }
+        }
+        return new ChangeLog(toArray(changeLogNodeIds), toArray(changedNodeIds), refreshedAggregateIds);
+    }
+
+    /**
+     * Rebuilds the component of the given changed node and the components of all elements of the aggregates that are
+     * deleted on the way. The properties of the created aggregates are copied right away.
+     *
+     * @param refreshedAggregateIds The aggregates still to be refreshed. Deleted aggregates are removed.
+     * @return The number of processed nodes.
+     */
+    private int updateComponents(Transaction tx, long changedNodeId, LongHashSet visited, Set<Long> refreshedAggregateIds,
+                                 Supplier<String> aggregateIds, ConceptAggregateManager.CopyAggregatePropertiesStatistics copyStats,
+                                 UpdateStatistics stats) {
+        if (visited.contains(changedNodeId))
+            return 0;
+        Deque<Node> changedNodes = new ArrayDeque<>();
+        try {
+            changedNodes.add(tx.getNodeById(changedNodeId));
+        } catch (NotFoundException e) {
+            // The node has been deleted since the change log was read.
+            return 0;
+        }
+        int numProcessedNodes = 0;
+        while (!changedNodes.isEmpty()) {
+            Node changedNode = changedNodes.poll();
+            if (visited.contains(changedNode.getId()))
+                continue;
+            List<Node> component = findComponent(changedNode, visited);
+            Set<Node> obsoleteAggregates = new HashSet<>();
+            for (Node node : component) {
+                obsoleteAggregates.addAll(getAggregates(node));
+                node.removeLabel(aggregatedTermsLabel);
+            }
+            for (Node aggregate : obsoleteAggregates) {
+                for (Relationship elementRel : aggregate.getRelationships(Direction.OUTGOING, ConceptEdgeTypes.HAS_ELEMENT)) {
+                    Node element = elementRel.getEndNode();
+                    if (!visited.contains(element.getId()))
+                        changedNodes.add(element);
+                }
+                refreshedAggregateIds.remove(aggregate.getId());
+                ConceptAggregateManager.deleteAggregate(tx, aggregate);
+                ++stats.numDeletedAggregates;
+            }
+            Node aggregate = materialize(tx, component, aggregateIds);
+            if (aggregate != null) {
+                ConceptAggregateManager.copyAggregateProperties(aggregate, false, COPY_PROPERTIES, copyStats);
+                ++stats.numCreatedAggregates;
+                ++stats.numRefreshedAggregates;
+            }
+            numProcessedNodes += component.size();
+        }
+        stats.numProcessedConcepts += numProcessedNodes;
+        return numProcessedNodes;
+    }
+
+    private void refreshAggregates(Transaction tx, Collection<Long> aggregateIds, ConceptAggregateManager.CopyAggregatePropertiesStatistics copyStats,
+                                   UpdateStatistics stats) {
+        for (long aggregateId : aggregateIds) {
+            Node aggregate;
+            try {
+                aggregate = tx.getNodeById(aggregateId);
+            } catch (NotFoundException e) {
+                // The aggregate has been deleted since the change log was read.
+                continue;
+            }
+            ConceptAggregateManager.copyAggregateProperties(aggregate, false, (String[]) aggregate.getProperty(PROP_COPY_PROPERTIES, COPY_PROPERTIES), copyStats);
+            ++stats.numRefreshedAggregates;
+        }
+    }
+
+    /**
+     * Removes the change log labels from the given nodes. Concepts that were added to the change log in the meantime
+     * keep their labels.
+     */
+    private void clearChangeLog(Transaction tx, long[] nodeIds) {
+        for (long nodeId : nodeIds) {
+            try {
+                Node node = tx.getNodeById(nodeId);
+                node.removeLabel(MAPPING_CHANGED);
+                node.removeLabel(PREF_NAME_CHANGED);
+            } catch (NotFoundException e) {
+                // The node has been deleted since the change log was read.
+            }
+        }
+    }
+
+    private void clearChangeLogBatchWise(GraphDatabaseService graphDb, long[] nodeIds) {
+        for (int from = 0; from < nodeIds.length; from += batchSize) {
+            try (Transaction tx = graphDb.beginTx()) {
+                clearChangeLog(tx, Arrays.copyOfRange(nodeIds, from, Math.min(nodeIds.length, from + batchSize)));
+                tx.commit();
+            }
+        }
+    }
+
+    private long[] readChangeLogNodeIds(Transaction tx) {
+        LongHashSet changeLogNodes = new LongHashSet();
+        List<Long> changeLogNodeIds = new ArrayList<>();
+        for (Label changeLabel : List.of(MAPPING_CHANGED, PREF_NAME_CHANGED)) {
+            try (ResourceIterator<Node> concepts = tx.findNodes(changeLabel)) {
+                while (concepts.hasNext()) {
+                    long nodeId = concepts.next().getId();
+                    if (changeLogNodes.add(nodeId))
+                        changeLogNodeIds.add(nodeId);
+                }
+            }
+        }
+        return toArray(changeLogNodeIds);
+    }
+
+    private static long[] toArray(List<Long> ids) {
+        return ids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Merges the nodes of all mapping relationships with an allowed mapping type.
+     */
+    private LongUnionFind findComponents(Transaction tx) {
+        log.info("Computing the components of the mapping graph for mapping types %s.", allowedMappingTypes);
+        LongUnionFind unionFind = new LongUnionFind();
+        long numRelationships = 0;
+        try (ResourceIterator<Relationship> mappings = tx.findRelationships(ConceptEdgeTypes.IS_MAPPED_TO)) {
+            while (mappings.hasNext()) {
+                Relationship mapping = mappings.next();
+                if (isAllowed(mapping))
+                    unionFind.union(mapping.getStartNodeId(), mapping.getEndNodeId());
+                if (++numRelationships % 1000000 == 0)
+                    log.info("Scanned %s mapping relationships (%s relationships/s).", numRelationships, perSecond(numRelationships));
+            }
+        }
+        log.info("Scanned %s mapping relationships connecting %s nodes.", numRelationships, unionFind.size());
+        return unionFind;
+    }
+
+    /**
+     * Collects the nodes that are connected to <tt>start</tt> by mappings of an allowed type.
+     *
+     * @param visited The IDs of the nodes that already belong to a component. The nodes of the new component are added.
+     */
+    private List<Node> findComponent(Node start, LongHashSet visited) {
+        List<Node> component = new ArrayList<>();
+        visited.add(start.getId());
+        component.add(start);
+        for (int i = 0; i < component.size(); i++) {
+            Node node = component.get(i);
+            for (Relationship mapping : node.getRelationships(ConceptEdgeTypes.IS_MAPPED_TO)) {
+                Node otherNode = mapping.getOtherNode(node);
+                if (isAllowed(mapping) && visited.add(otherNode.getId()))
+                    component.add(otherNode);
+            }
+        }
+        return component;
+    }
+
+    /**
+     * @return The aggregates with the aggregated label that <tt>node</tt> is an element of.
+     */
+    private List<Node> getAggregates(Node node) {
+        List<Node> aggregates = new ArrayList<>();
+        for (Relationship elementRel : node.getRelationships(Direction.INCOMING, ConceptEdgeTypes.HAS_ELEMENT)) {
+            Node aggregate = elementRel.getStartNode();
+            if (aggregate.hasLabel(aggregatedTermsLabel))
+                aggregates.add(aggregate);
+        }
+        return aggregates;
+    }
+
+    private boolean isAllowed(Relationship mapping) {
+        if (!mapping.hasProperty(ConceptRelationConstants.PROP_MAPPING_TYPE))
+            throw new IllegalStateException("The mapping relationship " + mapping + " does not specify its type.");
+        String[] types = (String[]) mapping.getProperty(ConceptRelationConstants.PROP_MAPPING_TYPE);
+        for (String type : types) {
+            if (allowedMappingTypes.contains(type))
+                return true;
+        }
+        return false;
+    }
+
+    private int reserveAggregateIds(GraphDatabaseService graphDb, int numAggregates) {
+        // Reserving the IDs beforehand keeps the workers from serializing on the lock of the sequence node for the
+        // whole duration of their transactions. IDs of components that do not become an aggregate remain unused.
+        try (Transaction tx = graphDb.beginTx()) {
+            int firstAggregateId = SequenceManager.getNextSequenceValues(tx, SequenceConstants.SEQ_AGGREGATE_TERM, numAggregates);
+            tx.commit();
+            return firstAggregateId;
+        }
+    }
+
+    private Void materializeBatch(GraphDatabaseService graphDb, LongUnionFind.Components components, int from, int to, int firstAggregateId) throws InterruptedException {
+        int created = DeadlockRetry.inTransaction(graphDb, log, "creating mapping aggregates", tx -> {
+            int[] nextAggregateId = {firstAggregateId};
+            Supplier<String> aggregateIds = () -> NodeIDPrefixConstants.AGGREGATE_TERM + nextAggregateId[0]++;
+            int numCreated = 0;
+            for (int component = from; component < to; component++) {
+                if (materialize(tx, components, component, aggregateIds))
+                    ++numCreated;
+                else
+                    // Keep the IDs in the order of the components.
+                    aggregateIds.get();
+            }
+            return numCreated;
+        });
+        long nodes = 0;
+        for (int component = from; component < to; component++)
+            nodes += components.getComponentSize(component);
+        numAggregates.addAndGet(created);
+        reportProgress(nodes);
+        return null;
+    }
+
+    /**
+     * Materializes a component of the union-find structure, see {@link #materialize(Transaction, List, Supplier)}.
+     *
+     * @return Whether an aggregate has been created.
+     */
+    private boolean materialize(Transaction tx, LongUnionFind.Components components, int component, Supplier<String> aggregateIds) {
+        int componentSize = components.getComponentSize(component);
+        List<Node> nodes = new ArrayList<>(componentSize);
+        for (int i = 0; i < componentSize; i++) {
+            try {
+                nodes.add(tx.getNodeById(components.getMember(component, i)));
+            } catch (NotFoundException e) {
+                // The node has been deleted since the mappings were scanned.
+            }
+        }
+        return materialize(tx, nodes, aggregateIds) != null;
+    }
+
+    /**
+     * Creates the aggregate of a component or, if the component has fewer than two elements, labels its terms as
+     * their own aggregates. Components without terms of the term label are skipped.
+     *
+     * @return The created aggregate or <tt>null</tt> if no aggregate has been created.
+     */
+    private Node materialize(Transaction tx, List<Node> component, Supplier<String> aggregateIds) {
+        Set<Node> elements = new HashSet<>(component.size());
+        List<Node> terms = new ArrayList<>(component.size());
+        for (Node node : component) {
+            if (null == allowedTermLabel || node.hasLabel(allowedTermLabel))
+                elements.add(node);
+            if (node.hasLabel(termLabel))
+                terms.add(node);
+        }
+        if (terms.isEmpty())
+            return null;
+        if (elements.size() > 1)
+            return ConceptAggregateManager.createAggregate(tx, COPY_PROPERTIES, elements, mappingTypes, aggregateIds.get(), aggregatedTermsLabel);
+        // The terms are not mapped to other terms, at least not with one of the allowed mapping types. So they are
+        // "their own" aggregate.
+        for (Node term : terms)
+            term.addLabel(aggregatedTermsLabel);
+        return null;
+    }
+
+    private Void labelUnmappedTerms(GraphDatabaseService graphDb, long[] nodeIds) {
+        try (Transaction tx = graphDb.beginTx()) {
+            for (long nodeId : nodeIds) {
+                try {
+                    tx.getNodeById(nodeId).addLabel(aggregatedTermsLabel);
+                } catch (NotFoundException e) {
+                    // The node has been deleted since it was read.
+                }
+            }
+            tx.commit();
+        }
+        return null;
+    }
+
+    private void reportProgress(long nodes) {
+        long previous = numProcessedNodes.getAndAdd(nodes);
+        long processed = previous + nodes;
+        if (processed / 100000 > previous / 100000)
+            log.info("Processed %s of %s mapped nodes, %s aggregates created (%s nodes/s).", processed, numNodes, numAggregates.get(), perSecond(processed));
+    }
+
+    private long perSecond(long count) {
+        long time = System.currentTimeMillis() - startTime;
+        return time > 0 ? count * 1000 / time : count;
+    }
+
+    private static class ChangeLog {
+        /**
+         * All nodes with a change log label.
+         */
+        private final long[] changeLogNodeIds;
+        /**
+         * The nodes whose components must be rebuilt.
+         */
+        private final long[] changedNodeIds;
+        /**
+         * The aggregates whose properties must be copied anew.
+         */
+        private final Set<Long> refreshedAggregateIds;
+
+        private ChangeLog(long[] changeLogNodeIds, long[] changedNodeIds, Set<Long> refreshedAggregateIds) {
+            this.changeLogNodeIds = changeLogNodeIds;
+            this.changedNodeIds = changedNodeIds;
+            this.refreshedAggregateIds = refreshedAggregateIds;
+        }
+    }
+
+    public static class UpdateStatistics {
+        public int numProcessedConcepts = 0;
+        public int numCreatedAggregates = 0;
+        public int numDeletedAggregates = 0;
+        public int numRefreshedAggregates = 0;
+
+        @Override
+        public String toString() {
+            return "UpdateStatistics [numProcessedConcepts=" + numProcessedConcepts + ", numCreatedAggregates="
+                    + numCreatedAggregates + ", numDeletedAggregates=" + numDeletedAggregates
+                    + ", numRefreshedAggregates=" + numRefreshedAggregates + "]";
+        }
+    }
+}
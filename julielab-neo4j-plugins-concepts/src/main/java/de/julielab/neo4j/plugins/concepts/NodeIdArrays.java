@@ -0,0 +1,55 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Operations on sorted, duplicate-free arrays of node IDs as they are stored by the {@link AncestorIndex} and used
+ * for hypernym closures.
+ */
+public final class NodeIdArrays {
+    private NodeIdArrays() {
+    }
+
+    /**
+     * @param idArrays Sorted node ID arrays.
+     * @param nodeId   An additional node ID to add or a negative number.
+     * @return The sorted, duplicate-free union of the input.
+     */
+    public static long[] union(List<long[]> idArrays, long nodeId) {
+        int length = nodeId >= 0 ? 1 : 0;
+        for (long[] ids : idArrays)
+            length += ids.length;
+        long[] union = new long[length];
+        int pos = 0;
+        if (nodeId >= 0)
+            union[pos++] = nodeId;
+        for (long[] ids : idArrays) {
+            System.arraycopy(ids, 0, union, pos, ids.length);
+            pos += ids.length;
+        }
+        Arrays.sort(union);
+        int numUnique = 0;
+        for (int i = 0; i < union.length; i++) {
+            if (i == 0 || union[i] != union[numUnique - 1])
+                union[numUnique++] = union[i];
+        }
+        return numUnique == union.length ? union : Arrays.copyOf(union, numUnique);
+    }
+
+    /**
+     * @param sortedIds    A sorted node ID array.
+     * @param sortedSubset Another sorted node ID array.
+     * @return Whether <tt>sortedIds</tt> contains all IDs of <tt>sortedSubset</tt>.
+     */
+    public static boolean containsAll(long[] sortedIds, long[] sortedSubset) {
+        int i = 0;
+        for (long id : sortedSubset) {
+            while (i < sortedIds.length && sortedIds[i] < id)
+                ++i;
+            if (i == sortedIds.length || sortedIds[i] != id)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,321 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <p>
+ * An external merge sort of (name, node ID) records. The records are collected in memory as UTF-8 encoded names and
+ * primitive node IDs. When the given maximum number of records or {@link #MAX_BYTES_IN_MEMORY} name bytes have been
+ * added, they are sorted and written to a temporary spill file. {@link #sort()} merges the spill files; if there are
+ * more than {@link #MAX_MERGE_FAN_IN}, they are merged in several passes to keep the number of open files bounded.
+ * </p>
+ * <p>
+ * The records are ordered by their name bytes and then by node ID. The byte order of UTF-8 is the code point order of
+ * the names, so equal names are adjacent and equal records, e.g. of nodes that were added twice, are adjacent as well.
+ * </p>
+ * <p>
+ * Used by {@link EqualNameAggregateBuilder} to group nodes with equal names without holding all of them in the heap.
+ * </p>
+ */
+class NodeNameSorter implements Closeable {
+    static final int DEFAULT_MAX_RECORDS_IN_MEMORY = 1000000;
+    static final int MAX_MERGE_FAN_IN = 64;
+    private static final long MAX_BYTES_IN_MEMORY = 64L * 1024 * 1024;
+    private final int maxRecordsInMemory;
+    private final List<File> spillFiles = new ArrayList<>();
+    private byte[][] names;
+    private long[] nodeIds;
+    private int size;
+    private long bytesInMemory;
+    private long numRecords;
+    private File spillDirectory;
+
+    NodeNameSorter(int maxRecordsInMemory) {
+        if (maxRecordsInMemory < 1)
+            throw new IllegalArgumentException("At least one record must fit into memory but the maximum was " + maxRecordsInMemory + ".");
+        this.maxRecordsInMemory = maxRecordsInMemory;
+        int initialCapacity = Math.min(maxRecordsInMemory, 1024);
+        names = new byte[initialCapacity][];
+        nodeIds = new long[initialCapacity];
+    }
+
+    private static int compare(byte[] name1, long nodeId1, byte[] name2, long nodeId2) {
+        int cmp = Arrays.compareUnsigned(name1, name2);
+        return cmp != 0 ? cmp : Long.compare(nodeId1, nodeId2);
+    }
+
+    private static void writeRecord(DataOutputStream os, byte[] name, long nodeId) throws IOException {
+        os.writeInt(name.length);
+        os.write(name);
+        os.writeLong(nodeId);
+    }
+
+    void add(String name, long nodeId) throws IOException {
+        if (size == maxRecordsInMemory || bytesInMemory >= MAX_BYTES_IN_MEMORY)
+            spill();
+        if (size == names.length) {
+            int newCapacity = (int) Math.min((long) size * 2, maxRecordsInMemory);
+            names = Arrays.copyOf(names, newCapacity);
+            nodeIds = Arrays.copyOf(nodeIds, newCapacity);
+        }
+        byte[] nameBytes = name.getBytes(UTF_8);
+        names[size] = nameBytes;
+        nodeIds[size] = nodeId;
+        ++size;
+        bytesInMemory += nameBytes.length;
+        ++numRecords;
+    }
+
+    long getNumRecords() {
+        return numRecords;
+    }
+
+    int getNumSpillFiles() {
+        return spillFiles.size();
+    }
+
+    /**
+     * Sorts the added records. No records may be added afterwards.
+     *
+     * @return A cursor over the sorted records. It must be closed, which is also done by {@link #close()}.
+     */
+    Cursor sort() throws IOException {
+        if (spillFiles.isEmpty()) {
+            sortInMemory(0, size - 1);
+            return new MemoryCursor();
+        }
+        spill();
+        while (spillFiles.size() > MAX_MERGE_FAN_IN) {
+            List<File> files = new ArrayList<>(spillFiles);
+            spillFiles.clear();
+            for (int i = 0; i < files.size(); i += MAX_MERGE_FAN_IN) {
+                List<File> mergedFiles = files.subList(i, Math.min(files.size(), i + MAX_MERGE_FAN_IN));
+                File spillFile = createSpillFile();
+                try (MergeCursor cursor = new MergeCursor(mergedFiles); DataOutputStream os = openSpillFile(spillFile)) {
+                    while (cursor.next())
+                        writeRecord(os, cursor.name(), cursor.nodeId());
+                }
+                for (File file : mergedFiles)
+                    Files.delete(file.toPath());
+            }
+        }
+        return new MergeCursor(spillFiles);
+    }
+
+    /**
+     * Deletes the spill files.
+     */
+    @Override
+    public void close() throws IOException {
+        if (spillDirectory == null)
+            return;
+        File[] files = spillDirectory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                Files.deleteIfExists(file.toPath());
+        }
+        Files.deleteIfExists(spillDirectory.toPath());
+        spillDirectory = null;
+    }
+
+    private void spill() throws IOException {
+        if (size == 0)
+            return;
+        sortInMemory(0, size - 1);
+        File spillFile = createSpillFile();
+        try (DataOutputStream os = openSpillFile(spillFile)) {
+            for (int i = 0; i < size; i++)
+                writeRecord(os, names[i], nodeIds[i]);
+        }
+        spillFiles.add(spillFile);
+        Arrays.fill(names, 0, size, null);
+        size = 0;
+        bytesInMemory = 0;
+    }
+
+    private File createSpillFile() throws IOException {
+        if (spillDirectory == null)
+            spillDirectory = Files.createTempDirectory("nodenamesort").toFile();
+        return File.createTempFile("spill", ".bin", spillDirectory);
+    }
+
+    private DataOutputStream openSpillFile(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    /**
+     * Quicksort of the parallel name and node ID arrays. Recursion only happens on the smaller part to bound the
+     * stack depth.
+     */
+    private void sortInMemory(int from, int to) {
+        while (to - from > 16) {
+            int mid = (from + to) >>> 1;
+            // Median of three as pivot, moved to the end of the range.
+            if (compare(mid, from) < 0)
+                swap(mid, from);
+            if (compare(to, from) < 0)
+                swap(to, from);
+            if (compare(to, mid) < 0)
+                swap(to, mid);
+            swap(mid, to);
+            int store = from;
+            for (int i = from; i < to; i++) {
+                if (compare(i, to) < 0)
+                    swap(i, store++);
+            }
+            swap(store, to);
+            if (store - from < to - store) {
+                sortInMemory(from, store - 1);
+                from = store + 1;
+            } else {
+                sortInMemory(store + 1, to);
+                to = store - 1;
+            }
+        }
+        for (int i = from + 1; i <= to; i++) {
+            for (int j = i; j > from && compare(j, j - 1) < 0; j--)
+                swap(j, j - 1);
+        }
+    }
+
+    private int compare(int i, int j) {
+        return compare(names[i], nodeIds[i], names[j], nodeIds[j]);
+    }
+
+    private void swap(int i, int j) {
+        byte[] name = names[i];
+        names[i] = names[j];
+        names[j] = name;
+        long nodeId = nodeIds[i];
+        nodeIds[i] = nodeIds[j];
+        nodeIds[j] = nodeId;
+    }
+
+    /**
+     * Iterates over sorted records.
+     */
+    interface Cursor extends Closeable {
+        /**
+         * Moves to the next record.
+         *
+         * @return Whether there is a next record.
+         */
+        boolean next() throws IOException;
+
+        /**
+         * @return The UTF-8 encoded name of the current record. Must not be changed.
+         */
+        byte[] name();
+
+        long nodeId();
+    }
+
+    private class MemoryCursor implements Cursor {
+        private int position = -1;
+
+        @Override
+        public boolean next() {
+            return ++position < size;
+        }
+
+        @Override
+        public byte[] name() {
+            return names[position];
+        }
+
+        @Override
+        public long nodeId() {
+            return nodeIds[position];
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+    }
+
+    private static class SpillReader implements Closeable {
+        private final DataInputStream is;
+        private byte[] name;
+        private long nodeId;
+
+        private SpillReader(File file) throws IOException {
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        }
+
+        private boolean next() throws IOException {
+            int length;
+            try {
+                length = is.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            name = new byte[length];
+            is.readFully(name);
+            nodeId = is.readLong();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            is.close();
+        }
+    }
+
+    private static class MergeCursor implements Cursor {
+        private final PriorityQueue<SpillReader> queue = new PriorityQueue<>((r1, r2) -> compare(r1.name, r1.nodeId, r2.name, r2.nodeId));
+        private final List<SpillReader> readers = new ArrayList<>();
+        private SpillReader current;
+        private byte[] name;
+        private long nodeId;
+
+        private MergeCursor(List<File> files) throws IOException {
+            try {
+                for (File file : files) {
+                    SpillReader reader = new SpillReader(file);
+                    readers.add(reader);
+                    if (reader.next())
+                        queue.add(reader);
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (current != null && current.next())
+                queue.add(current);
+            current = queue.poll();
+            if (current == null)
+                return false;
+            name = current.name;
+            nodeId = current.nodeId;
+            return true;
+        }
+
+        @Override
+        public byte[] name() {
+            return name;
+        }
+
+        @Override
+        public long nodeId() {
+            return nodeId;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (SpillReader reader : readers)
+                reader.close();
+        }
+    }
+}
@@ -0,0 +1,681 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import de.julielab.neo4j.plugins.FacetManager;
+import de.julielab.neo4j.plugins.auxiliaries.PropertyUtilities;
+import de.julielab.neo4j.plugins.auxiliaries.semedico.CoordinatesIndex;
+import de.julielab.neo4j.plugins.auxiliaries.semedico.NodeUtilities;
+import de.julielab.neo4j.plugins.auxiliaries.semedico.SequenceManager;
+import de.julielab.neo4j.plugins.constants.semedico.SequenceConstants;
+import de.julielab.neo4j.plugins.datarepresentation.*;
+import de.julielab.neo4j.plugins.datarepresentation.constants.FacetConstants;
+import de.julielab.neo4j.plugins.datarepresentation.constants.NodeIDPrefixConstants;
+import org.apache.commons.lang3.StringUtils;
+import org.neo4j.graphdb.Entity;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.logging.Level;
+import org.neo4j.logging.Log;
+import org.neo4j.logging.log4j.Log4jLogProvider;
+import org.neo4j.logging.log4j.LogConfig;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.nio.file.Files;
+import java.util.*;
+
+import static de.julielab.neo4j.plugins.auxiliaries.PropertyUtilities.*;
+import static de.julielab.neo4j.plugins.concepts.ConceptEdgeTypes.HAS_ROOT_CONCEPT;
+import static de.julielab.neo4j.plugins.concepts.ConceptLabel.CONCEPT;
+import static de.julielab.neo4j.plugins.concepts.ConceptLabel.HOLLOW;
+import static de.julielab.neo4j.plugins.concepts.ConceptLabel.PREF_NAME_CHANGED;
+import static de.julielab.neo4j.plugins.concepts.ConceptLookup.NAME_SOURCE_IDS_SEQUENCE;
+import static de.julielab.neo4j.plugins.concepts.ConceptManager.*;
+import static de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants.*;
+import static de.julielab.neo4j.plugins.datarepresentation.constants.NodeConstants.PROP_VALUE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.neo4j.logging.FormattedLogFormat.PLAIN;
+
+/**
+ * <p>
+ * Converts concept import data into node and relationship CSV files for <tt>neo4j-admin import</tt>. This is meant
+ * for the initial import of large terminologies where the transactional import of {@link ConceptInsertion} spends
+ * most of its time with index lookups and relationship existence checks.
+ * </p>
+ * <p>
+ * The input is the same {@link ImportConcepts} JSON format that is sent to the <tt>insert_concepts</tt> endpoint.
+ * The coordinates of the concepts, their parents and their relationship targets are resolved in memory and the
+ * resulting graph has the shape that {@link ConceptInsertion} creates when the data is imported into an empty
+ * database in a single batch: the facet group, facet and sequence nodes, CONCEPT nodes with their
+ * <tt>sourceIds&lt;i&gt;</tt> properties, HOLLOW nodes for parents and relationship targets not included in the data
+ * and the IS_BROADER_THAN, IS_BROADER_THAN_&lt;facetId&gt; and HAS_ROOT_CONCEPT relationships. The facet size and
+ * the {@link de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants#PROP_CHILDREN_IN_FACETS}
+ * properties are set as by {@link FacetStatistics}.
+ * </p>
+ * <p>
+ * Since the target database must be empty, the facet must be given by its data, not by the ID of an existing facet.
+ * Aggregates, the <tt>merge</tt> option and the <tt>noFacetCmd</tt> option are not supported. CSV cannot express
+ * empty arrays; such properties are omitted. Neither the schema indexes nor the {@link SourceIdIndex} and the
+ * {@link AncestorIndex} are part of the output. After the import, they must be created with
+ * {@link de.julielab.neo4j.plugins.Indexes} and the <tt>build_source_id_index</tt> and <tt>build_ancestor_index</tt>
+ * endpoints of the {@link ConceptManager}. Until then, lookups fall back to the concept properties.
+ * </p>
+ * <p>
+ * The files are written with the unit separator U+001F as the delimiter of labels and array
+ * elements. {@link #getImportArguments(File)} returns the matching arguments for <tt>neo4j-admin import</tt>.
+ * </p>
+ */
+public class OfflineConceptImporter {
+    public static final String NODES_FILE = "nodes.csv";
+    public static final String RELATIONSHIPS_FILE = "relationships.csv";
+    /**
+     * The delimiter of labels and array elements in the CSV files. Must not occur in any array element.
+     */
+    public static final char ARRAY_DELIMITER = '\u001F';
+    private static final String ARRAY_DELIMITER_ARGUMENT = "U+001F";
+    private final Log log;
+    private final List<ImportNode> nodes = new ArrayList<>();
+    private final List<ImportRelationship> relationships = new ArrayList<>();
+    private final EdgeSet createdRelationships = new EdgeSet();
+    private final CoordinatesIndex<ImportNode> nodesByCoordinates = new CoordinatesIndex<>();
+    private int numTermIds;
+    private int maxNumSourceIds;
+
+    public OfflineConceptImporter(Log log) {
+        this.log = log;
+    }
+
+    /**
+     * Writes the CSV files for the concepts in the given file into the given directory.
+     *
+     * @param args The path of an {@link ImportConcepts} JSON file and the output directory.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: " + OfflineConceptImporter.class.getSimpleName() + " <ImportConcepts JSON file> <output directory>");
+            System.exit(1);
+        }
+        Log log = new Log4jLogProvider(LogConfig.createBuilder(System.out, Level.INFO)
+                .withFormat(PLAIN)
+                .withCategory(false)
+                .build()).getLog(OfflineConceptImporter.class);
+        File outputDirectory = new File(args[1]);
+        try (InputStream is = new BufferedInputStream(new FileInputStream(args[0]))) {
+            new OfflineConceptImporter(log).writeImportFiles(is, outputDirectory);
+        }
+        log.info("Import the files with: neo4j-admin import %s", String.join(" ", getImportArguments(outputDirectory)));
+    }
+
+    /**
+     * @param directory The directory the CSV files have been written to.
+     * @return The arguments for <tt>neo4j-admin import</tt> to import the CSV files in <tt>directory</tt>.
+     */
+    public static List<String> getImportArguments(File directory) {
+        return List.of("--nodes=" + new File(directory, NODES_FILE).getPath(),
+                "--relationships=" + new File(directory, RELATIONSHIPS_FILE).getPath(),
+                "--array-delimiter=" + ARRAY_DELIMITER_ARGUMENT,
+                "--multiline-fields=true");
+    }
+
+    /**
+     * Reads the concepts in <tt>importConceptsStream</tt> and writes the files {@link #NODES_FILE} and
+     * {@link #RELATIONSHIPS_FILE} into <tt>outputDirectory</tt>. An importer instance can only be used once.
+     *
+     * @param importConceptsStream The {@link ImportConcepts} in JSON format.
+     * @param outputDirectory      The directory to write the CSV files to. Is created if it does not exist.
+     * @return The number of created concepts and relationships, the facet ID and the time.
+     * @throws IOException              If reading the input or writing the files fails.
+     * @throws IllegalArgumentException If the input uses features that are not supported by this importer.
+     */
+    public Map<String, Object> writeImportFiles(InputStream importConceptsStream, File outputDirectory) throws IOException {
+        if (!nodes.isEmpty())
+            throw new IllegalStateException("This importer has already been used.");
+        long time = System.currentTimeMillis();
+        ObjectMapper mapper = new ObjectMapper().registerModule(new Jdk8Module());
+        JsonParser parser = new JsonFactory(mapper).createParser(importConceptsStream);
+        ImportFacet importFacet = null;
+        ImportOptions importOptions = new ImportOptions();
+        List<ImportConcept> concepts = new ArrayList<>();
+        String lastName = null;
+        while (parser.nextToken() != null) {
+            JsonToken currentToken = parser.currentToken();
+            if (currentToken == JsonToken.FIELD_NAME) {
+                lastName = parser.getCurrentName();
+            } else if (currentToken == JsonToken.START_OBJECT) {
+                if (ImportConcepts.NAME_FACET.equals(lastName))
+                    importFacet = parser.readValueAs(ImportFacet.class);
+                else if (ImportConcepts.NAME_IMPORT_OPTIONS.equals(lastName))
+                    importOptions = parser.readValueAs(ImportOptions.class);
+            } else if (ImportConcepts.NAME_CONCEPTS.equals(lastName) && currentToken == JsonToken.START_ARRAY) {
+                parser.readValuesAs(ImportConcept.class).forEachRemaining(concepts::add);
+                lastName = null;
+            }
+        }
+        log.info("Got %s concepts to convert for facet %s with options %s.", concepts.size(), importFacet, importOptions);
+        checkSupported(importFacet, importOptions, concepts);
+
+        ImportNode facet = createFacet(importFacet);
+        String facetId = (String) facet.getProperty(PROP_ID);
+        createConceptNodes(concepts);
+        for (ImportConcept jsonConcept : concepts)
+            insertConcept(facetId, jsonConcept, importOptions);
+        createRelationships(facet, facetId, concepts, importOptions);
+        setFacetStatistics(facet, facetId);
+        createSequences();
+
+        if (!outputDirectory.exists() && !outputDirectory.mkdirs())
+            throw new IOException("Could not create the output directory " + outputDirectory);
+        writeNodes(new File(outputDirectory, NODES_FILE));
+        writeRelationships(new File(outputDirectory, RELATIONSHIPS_FILE));
+        log.info("Wrote %s nodes and %s relationships to %s.", nodes.size(), relationships.size(), outputDirectory);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put(RET_KEY_NUM_CREATED_CONCEPTS, nodes.stream().filter(node -> node.hasLabel(CONCEPT)).count());
+        response.put(RET_KEY_NUM_CREATED_RELS, relationships.size());
+        response.put(KEY_FACET_ID, facetId);
+        response.put(KEY_TIME, System.currentTimeMillis() - time);
+        return response;
+    }
+
+    private void checkSupported(ImportFacet importFacet, ImportOptions importOptions, List<ImportConcept> concepts) {
+        if (importFacet == null)
+            throw new IllegalArgumentException("The offline import requires a facet to import the concepts into.");
+        if (importFacet.getId() != null)
+            throw new IllegalArgumentException("The offline import creates a new database and cannot add concepts to the existing facet with ID " + importFacet.getId() + ". The facet must be given by its data.");
+        if (importFacet.getFacetGroup() == null)
+            throw new IllegalArgumentException("The import facet " + importFacet.getName() + " does not specify a facet group.");
+        if (importOptions.merge)
+            throw new IllegalArgumentException("The offline import creates a new database and does not support merging.");
+        if (importOptions.noFacetCmd != null)
+            throw new IllegalArgumentException("The offline import does not support the noFacetCmd import option.");
+        for (ImportConcept jsonConcept : concepts) {
+            if (jsonConcept.aggregate)
+                throw new IllegalArgumentException("The offline import does not support aggregates but got " + jsonConcept);
+        }
+    }
+
+    /**
+     * Creates the nodes that {@link FacetManager#createFacet(org.neo4j.graphdb.Transaction, ImportFacet)} creates in
+     * an empty database.
+     */
+    private ImportNode createFacet(ImportFacet importFacet) {
+        ImportNode facetGroupsNode;
+        if (importFacet.isNoFacet()) {
+            facetGroupsNode = createNode(FacetManager.FacetLabel.NO_FACET_GROUPS);
+            facetGroupsNode.setProperty(FacetConstants.PROP_NAME, FacetConstants.NAME_NO_FACET_GROUPS);
+        } else {
+            facetGroupsNode = createNode(FacetManager.FacetLabel.FACET_GROUPS);
+            facetGroupsNode.setProperty(FacetConstants.PROP_NAME, FacetConstants.NAME_FACET_GROUPS);
+        }
+
+        ImportFacetGroup jsonFacetGroup = importFacet.getFacetGroup();
+        ImportNode facetGroup = createNode();
+        PropertyUtilities.copyObjectToEntity(jsonFacetGroup, facetGroup, FacetConstants.PROP_LABELS);
+        facetGroup.setProperty(PROP_ID, NodeIDPrefixConstants.FACET_GROUP + 0);
+        createRelationship(facetGroupsNode, facetGroup, FacetManager.EdgeTypes.HAS_FACET_GROUP);
+        if (null != jsonFacetGroup.labels) {
+            for (String labelString : jsonFacetGroup.labels)
+                facetGroup.addLabel(Label.label(labelString));
+        }
+
+        ImportNode facet = createNode(FacetManager.FacetLabel.FACET);
+        setNonNullNodeProperty(facet, FacetConstants.PROP_NAME, importFacet.getName());
+        setNonNullNodeProperty(facet, FacetConstants.PROP_SHORT_NAME, importFacet.getShortName());
+        setNonNullNodeProperty(facet, FacetConstants.PROP_CUSTOM_ID, importFacet.getCustomId());
+        setNonNullNodeProperty(facet, FacetConstants.PROP_LABELS, () -> importFacet.getLabels().toArray(new String[0]));
+        setNonNullNodeProperty(facet, FacetConstants.PROP_SOURCE_TYPE, importFacet.getSourceType());
+        facet.setProperty(FacetConstants.PROP_NUM_CONCEPTS, 0L);
+        facet.setProperty(PROP_ID, NodeIDPrefixConstants.FACET + 0);
+        createRelationship(facetGroup, facet, FacetManager.EdgeTypes.HAS_FACET);
+        if (null != importFacet.getLabels()) {
+            for (String labelString : importFacet.getLabels())
+                facet.addLabel(Label.label(labelString));
+        }
+        return facet;
+    }
+
+    /**
+     * Creates a HOLLOW node for the coordinates of each concept and each parent, as it is done for a single batch
+     * by {@link ConceptInsertion}. Compatible coordinates are merged before the node properties are set.
+     */
+    private void createConceptNodes(List<ImportConcept> concepts) {
+        List<ImportNode> hollowNodes = new ArrayList<>();
+        for (ImportConcept jsonConcept : concepts) {
+            if (jsonConcept.parentCoordinates != null) {
+                for (ConceptCoordinates parentCoordinates : jsonConcept.parentCoordinates)
+                    addCoordinates(parentCoordinates).ifPresent(hollowNodes::add);
+            }
+        }
+        for (ImportConcept jsonConcept : concepts) {
+            if (jsonConcept.coordinates == null)
+                throw new IllegalArgumentException("Concept " + jsonConcept + " does not define concept coordinates.");
+            addCoordinates(jsonConcept.coordinates).ifPresent(hollowNodes::add);
+        }
+        for (ImportNode node : hollowNodes)
+            setHollowProperties(node);
+    }
+
+    /**
+     * Creates a HOLLOW node for <tt>coordinates</tt> if there are no compatible coordinates yet. Otherwise, the
+     * stored coordinates are completed by the IDs of <tt>coordinates</tt>.
+     *
+     * @return The new node, if one was created.
+     */
+    private Optional<ImportNode> addCoordinates(ConceptCoordinates coordinates) {
+        if (nodesByCoordinates.get(coordinates) != null) {
+            nodesByCoordinates.add(coordinates, null);
+            return Optional.empty();
+        }
+        ImportNode node = createNode(HOLLOW, CONCEPT);
+        nodesByCoordinates.add(coordinates, node);
+        node.coordinates = nodesByCoordinates.get(coordinates).coordinates;
+        return Optional.of(node);
+    }
+
+    /**
+     * Sets the properties {@link ConceptInsertion#registerNewHollowConceptNode} sets.
+     */
+    private void setHollowProperties(ImportNode node) {
+        ConceptCoordinates coordinates = node.coordinates;
+        if (!StringUtils.isBlank(coordinates.originalId)) {
+            node.setProperty(PROP_ORG_ID, coordinates.originalId);
+            node.setProperty(PROP_ORG_SRC, coordinates.originalSource);
+        }
+        mergeSourceId(node, coordinates.sourceId, coordinates.source, coordinates.uniqueSourceId);
+    }
+
+    private ImportNode getNode(ConceptCoordinates coordinates) {
+        CoordinatesIndex.Entry<ImportNode> entry = nodesByCoordinates.get(coordinates);
+        return entry != null ? entry.value : null;
+    }
+
+    /**
+     * Sets the concept properties like {@link ConceptInsertion#insertConcept} does for a concept that is not merged
+     * with a concept from a previous import.
+     */
+    private void insertConcept(String facetId, ImportConcept jsonConcept, ImportOptions importOptions) {
+        String prefName = jsonConcept.prefName;
+        ConceptCoordinates coordinates = jsonConcept.coordinates;
+        if (coordinates.sourceId == null)
+            throw new IllegalArgumentException("The concept " + jsonConcept + " does not specify a source ID. Coordinates are: " + coordinates);
+        String srcId = coordinates.sourceId;
+        String orgId = coordinates.originalId;
+        String source = coordinates.source;
+        String orgSource = coordinates.originalSource;
+        if (StringUtils.isBlank(srcId) && !StringUtils.isBlank(orgId)
+                && ((StringUtils.isBlank(source) && !StringUtils.isBlank(orgSource)) || source.equals(orgSource))) {
+            srcId = orgId;
+            source = orgSource;
+        }
+        if (StringUtils.isBlank(source))
+            source = UNKNOWN_CONCEPT_SOURCE;
+        if (StringUtils.isBlank(orgId) ^ StringUtils.isBlank(orgSource))
+            throw new IllegalArgumentException(
+                    "Concept to be inserted defines only its original ID or its original source but not both. This is not allowed. The concept data was: "
+                            + jsonConcept);
+
+        ImportNode concept = getNode(coordinates);
+        if (concept.hasLabel(HOLLOW)) {
+            concept.removeLabel(HOLLOW);
+            concept.setProperty(PROP_ID, NodeIDPrefixConstants.TERM + numTermIds++);
+        }
+        if (!StringUtils.isBlank(coordinates.originalId) && !concept.hasProperty(PROP_ORG_ID)) {
+            concept.setProperty(PROP_ORG_ID, coordinates.originalId);
+            concept.setProperty(PROP_ORG_SRC, coordinates.originalSource);
+        }
+        Object previousPrefName = concept.getProperty(PROP_PREF_NAME, null);
+        if (!importOptions.overridePreferredName)
+            setNonNullNodeProperty(concept, PROP_PREF_NAME, jsonConcept.prefName);
+        else if (!jsonConcept.prefName.isBlank())
+            concept.setProperty(PROP_PREF_NAME, jsonConcept.prefName);
+        if (!Objects.equals(previousPrefName, concept.getProperty(PROP_PREF_NAME, null)))
+            concept.addLabel(PREF_NAME_CHANGED);
+        mergeArrayProperty(concept, PROP_DESCRIPTIONS, () -> jsonConcept.descriptions.toArray(new String[0]));
+        mergeArrayProperty(concept, PROP_WRITING_VARIANTS, () -> jsonConcept.writingVariants.toArray(new String[0]));
+        mergeArrayProperty(concept, PROP_COPY_PROPERTIES, () -> jsonConcept.copyProperties.toArray(new String[0]));
+        mergeArrayProperty(concept, PROP_SYNONYMS, jsonConcept.synonyms.stream().filter(s -> !s.equals(prefName)).toArray());
+        addToArrayProperty(concept, PROP_FACETS, facetId);
+        if (jsonConcept.additionalProperties != null) {
+            for (String property : jsonConcept.additionalProperties.keySet())
+                setNonNullNodeProperty(concept, property, jsonConcept.additionalProperties.get(property));
+        }
+        mergeSourceId(concept, srcId, source, coordinates.uniqueSourceId);
+        if (jsonConcept.additionalCoordinates != null) {
+            for (ConceptCoordinates additionalCoordinates : jsonConcept.additionalCoordinates) {
+                if (additionalCoordinates.source != null && additionalCoordinates.sourceId != null)
+                    mergeSourceId(concept, additionalCoordinates.sourceId, additionalCoordinates.source, additionalCoordinates.uniqueSourceId);
+            }
+        }
+        if (jsonConcept.generalLabels != null) {
+            for (String generalLabel : jsonConcept.generalLabels)
+                concept.addLabel(Label.label(generalLabel));
+        }
+    }
+
+    /**
+     * Creates the relationships like {@link ConceptInsertion#createRelationships} does.
+     */
+    private void createRelationships(ImportNode facet, String facetId, List<ImportConcept> concepts, ImportOptions importOptions) {
+        RelationshipType relBroaderThanInFacet = FacetRelationshipTypes.broaderThanInFacet(facetId);
+        for (ImportConcept jsonConcept : concepts) {
+            ImportNode concept = getNode(jsonConcept.coordinates);
+            if (jsonConcept.parentCoordinates != null && !jsonConcept.parentCoordinates.isEmpty()) {
+                for (ConceptCoordinates parentCoordinates : jsonConcept.parentCoordinates) {
+                    if (importOptions.cutParents.contains(parentCoordinates.sourceId)) {
+                        createRelationship(facet, concept, HAS_ROOT_CONCEPT);
+                        continue;
+                    }
+                    ImportNode parent = getNode(parentCoordinates);
+                    // All imported concepts have lost the HOLLOW label by now.
+                    if (!parent.hasLabel(HOLLOW)) {
+                        createRelationship(parent, concept, ConceptEdgeTypes.IS_BROADER_THAN);
+                        createRelationship(parent, concept, relBroaderThanInFacet);
+                    } else if (!importOptions.doNotCreateHollowParents) {
+                        createRelationship(parent, concept, ConceptEdgeTypes.IS_BROADER_THAN);
+                        createRelationship(parent, concept, relBroaderThanInFacet);
+                        createRelationship(facet, parent, HAS_ROOT_CONCEPT);
+                    } else {
+                        createRelationship(facet, concept, HAS_ROOT_CONCEPT);
+                    }
+                }
+            } else if (jsonConcept.eligibleForFacetRoot) {
+                createRelationship(facet, concept, HAS_ROOT_CONCEPT);
+            }
+            if (jsonConcept.relationships != null) {
+                for (ImportConceptRelationship jsonRelationship : jsonConcept.relationships) {
+                    ConceptCoordinates targetCoordinates = jsonRelationship.targetCoordinates;
+                    ImportNode target = getNode(targetCoordinates);
+                    if (null == target) {
+                        target = addCoordinates(targetCoordinates).orElseThrow();
+                        setHollowProperties(target);
+                    }
+                    ImportRelationship relationship = createRelationship(concept, target, RelationshipType.withName(jsonRelationship.type));
+                    if (relationship != null && jsonRelationship.properties != null)
+                        relationship.properties.putAll(jsonRelationship.properties);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the facet size and the {@link de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants#PROP_CHILDREN_IN_FACETS}
+     * properties that {@link FacetStatistics} maintains during the import.
+     */
+    private void setFacetStatistics(ImportNode facet, String facetId) {
+        String relBroaderThanInFacet = FacetRelationshipTypes.broaderThanInFacet(facetId).name();
+        LongHashSet facetConcepts = new LongHashSet();
+        for (ImportRelationship relationship : relationships) {
+            if (relationship.type.name().equals(relBroaderThanInFacet)) {
+                addToArrayProperty(relationship.start, PROP_CHILDREN_IN_FACETS, facetId);
+                facetConcepts.add(relationship.end.getId());
+            } else if (relationship.type.name().equals(HAS_ROOT_CONCEPT.name()) && relationship.start == facet) {
+                facetConcepts.add(relationship.end.getId());
+            }
+        }
+        facet.setProperty(FacetConstants.PROP_NUM_CONCEPTS, (long) facetConcepts.size());
+    }
+
+    /**
+     * Creates the sequence nodes of {@link SequenceManager} with the values they have after the import.
+     */
+    private void createSequences() {
+        ImportNode sequenceRoot = createNode(SequenceManager.SequenceLabel.SEQUENCE_ROOT);
+        sequenceRoot.setProperty(PROP_NAME, SequenceManager.NAME_SEQUENCE_ROOT);
+        createSequence(sequenceRoot, SequenceConstants.SEQ_FACET_GROUP, 1);
+        createSequence(sequenceRoot, SequenceConstants.SEQ_FACET, 1);
+        createSequence(sequenceRoot, SequenceConstants.SEQ_TERM, numTermIds);
+        createSequence(sequenceRoot, NAME_SOURCE_IDS_SEQUENCE, maxNumSourceIds);
+    }
+
+    private void createSequence(ImportNode sequenceRoot, String sequenceName, int value) {
+        ImportNode sequence = createNode(SequenceManager.SequenceLabel.SEQUENCE);
+        sequence.setProperty(PROP_NAME, sequenceName);
+        sequence.setProperty(PROP_VALUE, value);
+        createRelationship(sequenceRoot, sequence, SequenceManager.EdgeTypes.HAS_SEQUENCE);
+    }
+
+    private void mergeSourceId(ImportNode concept, String srcId, String source, boolean uniqueSourceId) {
+        if (srcId == null)
+            return;
+        int sourcePropNum = NodeUtilities.mergeSourceIdProperties(concept, srcId, source, uniqueSourceId);
+        maxNumSourceIds = Math.max(maxNumSourceIds, sourcePropNum + 1);
+    }
+
+    private ImportNode createNode(Label... labels) {
+        ImportNode node = new ImportNode(nodes.size());
+        for (Label label : labels)
+            node.addLabel(label);
+        nodes.add(node);
+        return node;
+    }
+
+    /**
+     * @return The new relationship or <tt>null</tt> if a relationship of this type already exists between the nodes.
+     */
+    private ImportRelationship createRelationship(ImportNode start, ImportNode end, RelationshipType type) {
+        if (!createdRelationships.add(start.getId(), end.getId(), createdRelationships.getTypeId(type)))
+            return null;
+        ImportRelationship relationship = new ImportRelationship(start, end, type);
+        relationships.add(relationship);
+        return relationship;
+    }
+
+    private void writeNodes(File file) throws IOException {
+        Map<String, String> columnTypes = getColumnTypes(nodes);
+        try (Writer w = Files.newBufferedWriter(file.toPath(), UTF_8)) {
+            w.write(":ID,:LABEL");
+            writeHeader(w, columnTypes);
+            for (ImportNode node : nodes) {
+                w.write(String.valueOf(node.getId()));
+                w.write(',');
+                w.write(quote(String.join(String.valueOf(ARRAY_DELIMITER), node.labels)));
+                writeProperties(w, columnTypes, node.properties);
+            }
+        }
+    }
+
+    private void writeRelationships(File file) throws IOException {
+        Map<String, String> columnTypes = getColumnTypes(relationships);
+        try (Writer w = Files.newBufferedWriter(file.toPath(), UTF_8)) {
+            w.write(":START_ID,:END_ID,:TYPE");
+            writeHeader(w, columnTypes);
+            for (ImportRelationship relationship : relationships) {
+                w.write(String.valueOf(relationship.start.getId()));
+                w.write(',');
+                w.write(String.valueOf(relationship.end.getId()));
+                w.write(',');
+                w.write(quote(relationship.type.name()));
+                writeProperties(w, columnTypes, relationship.properties);
+            }
+        }
+    }
+
+    /**
+     * @return The CSV type of each property key, sorted by key.
+     */
+    private Map<String, String> getColumnTypes(List<? extends ImportEntity> entities) {
+        Map<String, String> columnTypes = new TreeMap<>();
+        for (ImportEntity entity : entities) {
+            for (String key : entity.properties.keySet()) {
+                String type = getCsvType(key, entity.properties.get(key));
+                String previousType = columnTypes.put(key, type);
+                if (previousType != null && !previousType.equals(type))
+                    throw new IllegalArgumentException("The property " + key + " has values of the types " + previousType + " and " + type + " which cannot be written into the same CSV column.");
+            }
+        }
+        return columnTypes;
+    }
+
+    private static String getCsvType(String key, Object value) {
+        Class<?> valueClass = value.getClass();
+        boolean isArray = valueClass.isArray();
+        Class<?> type = isArray ? valueClass.getComponentType() : valueClass;
+        String csvType;
+        if (type == String.class)
+            csvType = "string";
+        else if (type == Integer.class || type == int.class)
+            csvType = "int";
+        else if (type == Long.class || type == long.class)
+            csvType = "long";
+        else if (type == Boolean.class || type == boolean.class)
+            csvType = "boolean";
+        else if (type == Double.class || type == double.class)
+            csvType = "double";
+        else if (type == Float.class || type == float.class)
+            csvType = "float";
+        else if (type == Short.class || type == short.class)
+            csvType = "short";
+        else if (type == Byte.class || type == byte.class)
+            csvType = "byte";
+        else
+            throw new IllegalArgumentException("The property " + key + " has a value of type " + valueClass.getName() + " which cannot be written to CSV.");
+        return isArray ? csvType + "[]" : csvType;
+    }
+
+    private static void writeHeader(Writer w, Map<String, String> columnTypes) throws IOException {
+        for (String key : columnTypes.keySet()) {
+            w.write(',');
+            w.write(quote(key + ":" + columnTypes.get(key)));
+        }
+        w.write('\n');
+    }
+
+    /**
+     * Writes the properties in the column order and ends the line. Missing properties and empty arrays are written as
+     * empty fields which are not imported.
+     */
+    private static void writeProperties(Writer w, Map<String, String> columnTypes, Map<String, Object> properties) throws IOException {
+        for (String key : columnTypes.keySet()) {
+            w.write(',');
+            Object value = properties.get(key);
+            if (value == null)
+                continue;
+            if (value.getClass().isArray()) {
+                int length = Array.getLength(value);
+                if (length == 0)
+                    continue;
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < length; i++) {
+                    String element = String.valueOf(Array.get(value, i));
+                    if (element.indexOf(ARRAY_DELIMITER) >= 0)
+                        throw new IllegalArgumentException("The value of the property " + key + " contains the array delimiter: " + element);
+                    if (i > 0)
+                        sb.append(ARRAY_DELIMITER);
+                    sb.append(element);
+                }
+                w.write(quote(sb.toString()));
+            } else if (value instanceof String) {
+                w.write(quote((String) value));
+            } else {
+                w.write(String.valueOf(value));
+            }
+        }
+        w.write('\n');
+    }
+
+    private static String quote(String value) {
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static class ImportEntity {
+        protected final Map<String, Object> properties = new HashMap<>();
+    }
+
+    /**
+     * An in-memory node. Implements {@link Entity} so that the property methods of {@link PropertyUtilities} and
+     * {@link NodeUtilities#mergeSourceIdProperties(Entity, String, String, boolean)} can be applied to it.
+     */
+    private static class ImportNode extends ImportEntity implements Entity {
+        private final long id;
+        private final Set<String> labels = new LinkedHashSet<>();
+        private ConceptCoordinates coordinates;
+
+        private ImportNode(long id) {
+            this.id = id;
+        }
+
+        void addLabel(Label label) {
+            labels.add(label.name());
+        }
+
+        void removeLabel(Label label) {
+            labels.remove(label.name());
+        }
+
+        boolean hasLabel(Label label) {
+            return labels.contains(label.name());
+        }
+
+        @Override
+        public long getId() {
+            return id;
+        }
+
+        @Override
+        public boolean hasProperty(String key) {
+            return properties.containsKey(key);
+        }
+
+        @Override
+        public Object getProperty(String key) {
+            Object value = properties.get(key);
+            if (value == null)
+                throw new NotFoundException("The node " + id + " has no property " + key);
+            return value;
+        }
+
+        @Override
+        public Object getProperty(String key, Object defaultValue) {
+            return properties.getOrDefault(key, defaultValue);
+        }
+
+        @Override
+        public void setProperty(String key, Object value) {
+            if (value == null)
+                throw new IllegalArgumentException("The value of the property " + key + " is null.");
+            properties.put(key, value);
+        }
+
+        @Override
+        public Object removeProperty(String key) {
+            return properties.remove(key);
+        }
+
+        @Override
+        public Iterable<String> getPropertyKeys() {
+            return properties.keySet();
+        }
+
+        @Override
+        public Map<String, Object> getProperties(String... keys) {
+            Map<String, Object> ret = new HashMap<>();
+            for (String key : keys) {
+                if (properties.containsKey(key))
+                    ret.put(key, properties.get(key));
+            }
+            return ret;
+        }
+
+        @Override
+        public Map<String, Object> getAllProperties() {
+            return new HashMap<>(properties);
+        }
+    }
+
+    private static class ImportRelationship extends ImportEntity {
+        private final ImportNode start;
+        private final ImportNode end;
+        private final RelationshipType type;
+
+        private ImportRelationship(ImportNode start, ImportNode end, RelationshipType type) {
+            this.start = start;
+            this.end = end;
+            this.type = type;
+        }
+    }
+}
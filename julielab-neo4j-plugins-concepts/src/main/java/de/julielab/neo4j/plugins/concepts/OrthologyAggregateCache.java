@@ -0,0 +1,241 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.logging.Log;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>
+ * Caches the highest orthology aggregate of concept nodes and the non-aggregate elements of these aggregates for
+ * {@link IERelationRetrieval}. An orthology aggregate is an aggregate with the label {@link #LABEL_GENEGROUP} or
+ * {@link #LABEL_TOP_ORTHOLOGY}. Both mappings are stored as node IDs. Nodes that are not an element of an orthology
+ * aggregate are not cached because they are recognized by their missing <tt>HAS_ELEMENT</tt> relationships.
+ * </p>
+ * <p>
+ * The cache is invalidated as a whole once after aggregates have been created or deleted and committed. Values that
+ * were computed before the invalidation are not cached afterwards. Additionally, cached aggregates are checked to
+ * still exist and to have an orthology label. The maximum number of cached nodes is given by
+ * {@link #SYSPROP_MAX_SIZE}; further nodes are computed without caching. The cache can be filled in advance by
+ * {@link #warmUp(GraphDatabaseService, Log)}, e.g. after server startup.
+ * </p>
+ */
+public class OrthologyAggregateCache {
+    public static final String SYSPROP_MAX_SIZE = "de.julielab.neo4j.plugins.concepts.orthologycache.maxsize";
+    public static final Label LABEL_GENEGROUP = Label.label("AGGREGATE_GENEGROUP");
+    public static final Label LABEL_TOP_ORTHOLOGY = Label.label("AGGREGATE_TOP_ORTHOLOGY");
+    public static final String KEY_NUM_NODES = "numNodes";
+    public static final String KEY_NUM_AGGREGATES = "numAggregates";
+    public static final String KEY_MAX_SIZE = "maxSize";
+    public static final String KEY_HITS = "hits";
+    public static final String KEY_MISSES = "misses";
+    public static final String KEY_INVALIDATIONS = "invalidations";
+    private static final int DEFAULT_MAX_SIZE = 5_000_000;
+    private static final OrthologyAggregateCache INSTANCE = new OrthologyAggregateCache(Integer.getInteger(SYSPROP_MAX_SIZE, DEFAULT_MAX_SIZE));
+    private final int maxSize;
+    private final Map<Long, Long> topAggregatesByNode = new ConcurrentHashMap<>();
+    private final Map<Long, long[]> elementsByAggregate = new ConcurrentHashMap<>();
+    /**
+     * Incremented by each invalidation. Values computed before an invalidation are not cached.
+     */
+    private long generation;
+    /**
+     * Makes the generation check and the insertion of {@link #put(Map, long, Object, long)} atomic with respect to
+     * {@link #invalidate()}.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    OrthologyAggregateCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public static OrthologyAggregateCache getInstance() {
+        return INSTANCE;
+    }
+
+    private static boolean isOrthologyAggregate(Node node) {
+        for (Label label : node.getLabels()) {
+            if (label.equals(LABEL_GENEGROUP) || label.equals(LABEL_TOP_ORTHOLOGY))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The orthology aggregate that has <tt>node</tt> as an element or <tt>null</tt> if there is none.
+     */
+    private static Node getOrthologyAggregate(Node node) {
+        for (Relationship hasElement : node.getRelationships(Direction.INCOMING, ConceptEdgeTypes.HAS_ELEMENT)) {
+            Node aggregate = hasElement.getStartNode();
+            if (isOrthologyAggregate(aggregate))
+                return aggregate;
+        }
+        return null;
+    }
+
+    /**
+     * Follows the HAS_ELEMENT relationships to aggregate nodes that have one of the labels {@link #LABEL_GENEGROUP}
+     * or {@link #LABEL_TOP_ORTHOLOGY} as long as there is such an aggregate and returns the highest node found.
+     *
+     * @param tx   The current transaction.
+     * @param node The start node for which we want the highest aggregation node.
+     * @return The highest aggregation node for <tt>node</tt> or <tt>node</tt> itself.
+     */
+    public Node getTopAggregate(Transaction tx, Node node) {
+        Node top = getCachedNode(tx, topAggregatesByNode, node.getId());
+        if (top != null)
+            return top;
+        if (node.getDegree(ConceptEdgeTypes.HAS_ELEMENT, Direction.INCOMING) == 0)
+            return node;
+        misses.increment();
+        long currentGeneration = getGeneration();
+        List<Long> path = new ArrayList<>();
+        Set<Long> visited = new HashSet<>();
+        Node current = node;
+        while (top == null) {
+            path.add(current.getId());
+            visited.add(current.getId());
+            Node aggregate = getOrthologyAggregate(current);
+            // A cycle would mean an infinite recursion for the plain traversal; we stop at the current node instead.
+            if (aggregate == null || visited.contains(aggregate.getId()))
+                top = current;
+            else if ((top = getCachedNode(tx, topAggregatesByNode, aggregate.getId())) == null)
+                current = aggregate;
+        }
+        // Nodes that are not an element of an orthology aggregate are not cached.
+        if (path.size() > 1 || top.getId() != node.getId()) {
+            for (Long pathNodeId : path) {
+                if (pathNodeId != top.getId())
+                    put(topAggregatesByNode, pathNodeId, top.getId(), currentGeneration);
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Returns the elements of <tt>aggregate</tt> like {@link ConceptAggregateManager#getNonAggregateElements(Node)}.
+     *
+     * @param tx        The current transaction.
+     * @param aggregate An aggregate returned by {@link #getTopAggregate(Transaction, Node)}.
+     * @return The non-aggregate elements of <tt>aggregate</tt> or <tt>aggregate</tt> itself if it is no aggregate.
+     */
+    public List<Node> getElements(Transaction tx, Node aggregate) {
+        if (!aggregate.hasLabel(ConceptLabel.AGGREGATE))
+            return List.of(aggregate);
+        long[] elementIds = elementsByAggregate.get(aggregate.getId());
+        if (elementIds != null) {
+            List<Node> elements = new ArrayList<>(elementIds.length);
+            try {
+                for (long elementId : elementIds)
+                    elements.add(tx.getNodeById(elementId));
+                hits.increment();
+                return elements;
+            } catch (NotFoundException e) {
+                elementsByAggregate.remove(aggregate.getId());
+            }
+        }
+        misses.increment();
+        long currentGeneration = getGeneration();
+        List<Node> elements = ConceptAggregateManager.getNonAggregateElements(aggregate);
+        put(elementsByAggregate, aggregate.getId(), elements.stream().mapToLong(Node::getId).toArray(), currentGeneration);
+        return elements;
+    }
+
+    /**
+     * Removes all entries. Must be called once after the commit of the transactions that create or delete aggregates
+     * or change their elements.
+     */
+    public void invalidate() {
+        lock.writeLock().lock();
+        try {
+            ++generation;
+            topAggregatesByNode.clear();
+            elementsByAggregate.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Fills the cache with all orthology aggregates and their elements.
+     *
+     * @param graphDb The database.
+     * @param log     The log.
+     * @return The status of the cache after the warm-up.
+     */
+    public Map<String, Object> warmUp(GraphDatabaseService graphDb, Log log) {
+        long time = System.currentTimeMillis();
+        try (Transaction tx = graphDb.beginTx()) {
+            for (Label label : List.of(LABEL_GENEGROUP, LABEL_TOP_ORTHOLOGY)) {
+                try (ResourceIterator<Node> aggregates = tx.findNodes(label)) {
+                    while (aggregates.hasNext() && topAggregatesByNode.size() < maxSize) {
+                        Node aggregate = aggregates.next();
+                        if (!getTopAggregate(tx, aggregate).equals(aggregate))
+                            continue;
+                        for (Node element : getElements(tx, aggregate))
+                            getTopAggregate(tx, element);
+                    }
+                }
+            }
+        }
+        time = System.currentTimeMillis() - time;
+        log.info("Warmed up the orthology aggregate cache with %s nodes and %s aggregates in %s ms.", topAggregatesByNode.size(), elementsByAggregate.size(), time);
+        return getStatus();
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put(KEY_NUM_NODES, topAggregatesByNode.size());
+        status.put(KEY_NUM_AGGREGATES, elementsByAggregate.size());
+        status.put(KEY_MAX_SIZE, maxSize);
+        status.put(KEY_HITS, hits.sum());
+        status.put(KEY_MISSES, misses.sum());
+        status.put(KEY_INVALIDATIONS, getGeneration());
+        return status;
+    }
+
+    /**
+     * @return The cached aggregate for <tt>nodeId</tt> if it still is an orthology aggregate, <tt>null</tt> otherwise.
+     */
+    private Node getCachedNode(Transaction tx, Map<Long, Long> cache, long nodeId) {
+        Long cachedId = cache.get(nodeId);
+        if (cachedId == null)
+            return null;
+        try {
+            Node cached = tx.getNodeById(cachedId);
+            if (isOrthologyAggregate(cached)) {
+                hits.increment();
+                return cached;
+            }
+        } catch (NotFoundException e) {
+            // The aggregate has been deleted.
+        }
+        cache.remove(nodeId);
+        return null;
+    }
+
+    private long getGeneration() {
+        lock.readLock().lock();
+        try {
+            return generation;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private <T> void put(Map<Long, T> cache, long key, T value, long expectedGeneration) {
+        lock.readLock().lock();
+        try {
+            if (cache.size() < maxSize && generation == expectedGeneration)
+                cache.put(key, value);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import de.julielab.neo4j.plugins.datarepresentation.RelationRetrievalRequest.SortOrder;
+
+import java.util.*;
+
+/**
+ * <p>
+ * Sums the counts of IE relations by the node IDs of their two arguments for {@link IERelationRetrieval}. The pairs
+ * are kept in parallel primitive arrays in the order of their first occurrence and are found by an open addressing
+ * hash table of array positions. Thus, adding a count neither creates objects nor reads node properties.
+ * </p>
+ * <p>
+ * {@link #select(int, int, SortOrder)} returns the positions of the pairs to output. When a limit and a sort order
+ * are given, only the top pairs are kept in a heap that is bounded by the limit.
+ * </p>
+ */
+class RelationCounts {
+    private static final int INITIAL_CAPACITY = 64;
+    private long[] arg1s = new long[INITIAL_CAPACITY];
+    private long[] arg2s = new long[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    /**
+     * The position of each pair plus one; 0 marks an empty slot. The length is a power of two.
+     */
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+    private int size;
+
+    private static int hash(long arg1, long arg2) {
+        long h = arg1 * 0x9E3779B97F4A7C15L + arg2;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * Adds <tt>count</tt> to the count of the pair (<tt>arg1</tt>, <tt>arg2</tt>).
+     *
+     * @param arg1  The node ID of the first argument.
+     * @param arg2  The node ID of the second argument.
+     * @param count The count to add.
+     */
+    void add(long arg1, long arg2, int count) {
+        int mask = table.length - 1;
+        int slot = hash(arg1, arg2) & mask;
+        while (table[slot] != 0) {
+            int pos = table[slot] - 1;
+            if (arg1s[pos] == arg1 && arg2s[pos] == arg2) {
+                counts[pos] += count;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == arg1s.length) {
+            arg1s = Arrays.copyOf(arg1s, size * 2);
+            arg2s = Arrays.copyOf(arg2s, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+        arg1s[size] = arg1;
+        arg2s[size] = arg2;
+        counts[size] = count;
+        table[slot] = ++size;
+        // Keep the load factor at most 0.5.
+        if (size * 2 > table.length)
+            rehash();
+    }
+
+    /**
+     * Adds the counts of <tt>other</tt> to these counts, e.g. to merge the counts of parallel workers.
+     *
+     * @param other Further counts.
+     */
+    void addAll(RelationCounts other) {
+        for (int pos = 0; pos < other.size; pos++)
+            add(other.arg1s[pos], other.arg2s[pos], other.counts[pos]);
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int pos = 0; pos < size; pos++) {
+            int slot = hash(arg1s[pos], arg2s[pos]) & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = pos + 1;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getArg1(int pos) {
+        return arg1s[pos];
+    }
+
+    long getArg2(int pos) {
+        return arg2s[pos];
+    }
+
+    int getCount(int pos) {
+        return counts[pos];
+    }
+
+    /**
+     * Returns the positions of the pairs with a count of at least <tt>minCount</tt>.
+     *
+     * @param minCount  The minimum count of a returned pair.
+     * @param limit     The maximum number of returned pairs. Non-positive values mean no limit.
+     * @param sortOrder The order of the returned pairs. For {@link SortOrder#NONE}, the pairs are returned in the
+     *                  order they have been added and the limit just cuts off the rest.
+     * @return The positions of the selected pairs in the given order.
+     */
+    int[] select(int minCount, int limit, SortOrder sortOrder) {
+        if (sortOrder == null || sortOrder == SortOrder.NONE) {
+            int[] selected = new int[limit > 0 ? Math.min(limit, size) : size];
+            int n = 0;
+            for (int pos = 0; pos < size && n < selected.length; pos++) {
+                if (counts[pos] >= minCount)
+                    selected[n++] = pos;
+            }
+            return Arrays.copyOf(selected, n);
+        }
+        // Ties are broken by the insertion order to get a deterministic result.
+        Comparator<Integer> order = sortOrder == SortOrder.COUNT_DESC
+                ? Comparator.<Integer>comparingInt(pos -> counts[pos]).reversed().thenComparingInt(pos -> pos)
+                : Comparator.<Integer>comparingInt(pos -> counts[pos]).thenComparingInt(pos -> pos);
+        List<Integer> selected;
+        if (limit > 0) {
+            // The head of the heap is the worst of the current top pairs.
+            PriorityQueue<Integer> heap = new PriorityQueue<>(Math.min(limit, size) + 1, order.reversed());
+            for (int pos = 0; pos < size; pos++) {
+                if (counts[pos] < minCount)
+                    continue;
+                if (heap.size() < limit) {
+                    heap.add(pos);
+                } else if (order.compare(pos, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(pos);
+                }
+            }
+            selected = new ArrayList<>(heap);
+        } else {
+            selected = new ArrayList<>();
+            for (int pos = 0; pos < size; pos++) {
+                if (counts[pos] >= minCount)
+                    selected.add(pos);
+            }
+        }
+        selected.sort(order);
+        return selected.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
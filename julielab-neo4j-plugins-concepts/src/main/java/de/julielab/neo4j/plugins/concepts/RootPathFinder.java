@@ -0,0 +1,301 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import de.julielab.neo4j.plugins.auxiliaries.semedico.NodeUtilities;
+import org.apache.commons.lang3.StringUtils;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+import static de.julielab.neo4j.plugins.concepts.ConceptManager.*;
+import static de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants.PROP_FACETS;
+import static de.julielab.neo4j.plugins.datarepresentation.constants.NodeConstants.PROP_ID;
+
+/**
+ * <p>
+ * Finds the paths from facet roots to a set of concepts for {@link ConceptRetrieval#getPathsFromFacetRoots}.
+ * </p>
+ * <p>
+ * The ancestors of all requested concepts are explored once by an iterative depth-first search that memoizes for
+ * each node whether it is a root, its parents that lead to a root, and its minimum distance to a root. Ancestors
+ * shared by several requested concepts or by several paths are thus only visited once. Relationships back to a node
+ * whose search is still in progress close a cycle and are ignored, so the memoized parents form a DAG. The state of a
+ * node that ignored such a relationship, directly or through its parents, is only valid below the node that closes
+ * the cycle. It is therefore removed from the memo when that node is finished and explored again when it is reached
+ * on another way. The paths are
+ * then enumerated over this DAG without entering branches that cannot reach a root within the maximum depth. The DAG
+ * can also be returned as is which is much smaller than the list of paths in polyhierarchies.
+ * </p>
+ */
+class RootPathFinder {
+    private final static Logger log = LoggerFactory.getLogger(RootPathFinder.class);
+    private final RelationshipType relType;
+    private final String facetId;
+    private final String idProperty;
+    private final String returnIdProperty;
+    private final Map<Long, PathNode> pathNodes = new HashMap<>();
+    /**
+     * The IDs of the nodes whose state depends on a node whose search is still in progress, by that node.
+     */
+    private final Map<PathNode, List<Long>> openCycleDependents = new HashMap<>();
+    private int numExploredNodes;
+
+    RootPathFinder(String facetId, String idProperty, String returnIdProperty) {
+        this.relType = StringUtils.isBlank(facetId) ? ConceptEdgeTypes.IS_BROADER_THAN
+                : FacetRelationshipTypes.broaderThanInFacet(facetId);
+        this.facetId = facetId;
+        this.idProperty = idProperty;
+        this.returnIdProperty = returnIdProperty != null ? returnIdProperty : PROP_ID;
+    }
+
+    /**
+     * Explores the ancestors of <tt>start</tt> that have not yet been explored for another concept.
+     *
+     * @param start A requested concept node.
+     * @return The memoized state of <tt>start</tt>.
+     */
+    PathNode explore(Node start) {
+        PathNode startPathNode = pathNodes.get(start.getId());
+        if (startPathNode != null)
+            return startPathNode;
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(start, createPathNode(start)));
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (frame.nextParent < frame.parents.size()) {
+                Node parent = frame.parents.get(frame.nextParent++);
+                if (!pathNodes.containsKey(parent.getId()))
+                    stack.push(new Frame(parent, createPathNode(parent)));
+            } else {
+                stack.pop();
+                finish(frame);
+            }
+        }
+        return pathNodes.get(start.getId());
+    }
+
+    private PathNode createPathNode(Node node) {
+        PathNode pathNode = new PathNode();
+        pathNode.index = numExploredNodes++;
+        // The latter for sourceIds
+        pathNode.valid = node.hasProperty(idProperty) || node.hasProperty(idProperty + 0);
+        if (pathNode.valid) {
+            pathNode.id = (String) node.getProperty(returnIdProperty);
+            pathNode.root = isRoot(node);
+        } else {
+            log.warn("Came across the concept " + node + " (" + NodeUtilities.getNodePropertiesAsString(node)
+                    + ") when computing root paths. But this concept does not have an ID.");
+        }
+        pathNodes.put(node.getId(), pathNode);
+        return pathNode;
+    }
+
+    private boolean isRoot(Node node) {
+        if (!node.getRelationships(ConceptEdgeTypes.HAS_ROOT_CONCEPT).iterator().hasNext())
+            return false;
+        if (StringUtils.isBlank(facetId))
+            return true;
+        for (String facetIdOfRootNode : (String[]) node.getProperty(PROP_FACETS, new String[0])) {
+            if (facetIdOfRootNode.equals(facetId))
+                return true;
+        }
+        return false;
+    }
+
+    private void finish(Frame frame) {
+        PathNode pathNode = frame.pathNode;
+        pathNode.done = true;
+        // Paths through nodes without ID are not returned.
+        if (pathNode.valid) {
+            if (pathNode.root)
+                pathNode.minRootDistance = 0;
+            for (Node parent : frame.parents) {
+                PathNode parentPathNode = pathNodes.get(parent.getId());
+                // A parent that is not done is on the search stack: the relationship closes a cycle.
+                PathNode openAncestor = parentPathNode.done ? parentPathNode.openAncestor : parentPathNode;
+                if (openAncestor != null && openAncestor != pathNode && (pathNode.openAncestor == null || openAncestor.index < pathNode.openAncestor.index))
+                    pathNode.openAncestor = openAncestor;
+                if (parentPathNode.done && parentPathNode.reachesRoot() && !pathNode.parents.contains(parentPathNode)) {
+                    pathNode.parents.add(parentPathNode);
+                    pathNode.minRootDistance = Math.min(pathNode.minRootDistance, parentPathNode.minRootDistance + 1);
+                }
+            }
+            if (pathNode.openAncestor != null)
+                openCycleDependents.computeIfAbsent(pathNode.openAncestor, k -> new ArrayList<>()).add(frame.nodeId);
+        }
+        // The nodes that depended on this node until now depend on its own open ancestor or, if there is none, are
+        // not valid beyond this node.
+        List<Long> dependents = openCycleDependents.remove(pathNode);
+        if (dependents != null) {
+            if (pathNode.openAncestor != null) {
+                for (long dependent : dependents)
+                    pathNodes.get(dependent).openAncestor = pathNode.openAncestor;
+                openCycleDependents.computeIfAbsent(pathNode.openAncestor, k -> new ArrayList<>()).addAll(dependents);
+            } else {
+                for (long dependent : dependents)
+                    pathNodes.remove(dependent);
+            }
+        }
+    }
+
+    /**
+     * Adds the paths from the roots to <tt>start</tt> to <tt>paths</tt>. Each path is an array of the returned IDs
+     * of its nodes, beginning with the root.
+     *
+     * @param start    An explored concept.
+     * @param maxPaths The maximum size of <tt>paths</tt>.
+     * @param maxDepth The maximum number of relationships of a path.
+     * @param paths    The list to add the paths to.
+     * @return Whether paths have been omitted because of <tt>maxPaths</tt>.
+     */
+    boolean addPaths(PathNode start, int maxPaths, int maxDepth, List<String[]> paths) {
+        if (!start.reachesRoot() || start.minRootDistance > maxDepth)
+            return false;
+        Deque<PathLink> stack = new ArrayDeque<>();
+        stack.push(new PathLink(start, 0, null));
+        while (!stack.isEmpty()) {
+            PathLink link = stack.pop();
+            if (link.pathNode.root) {
+                if (paths.size() >= maxPaths)
+                    return true;
+                String[] path = new String[link.depth + 1];
+                PathLink pathLink = link;
+                for (int i = 0; i < path.length; i++) {
+                    path[i] = pathLink.pathNode.id;
+                    pathLink = pathLink.next;
+                }
+                paths.add(path);
+            }
+            List<PathNode> parents = link.pathNode.parents;
+            for (int i = parents.size() - 1; i >= 0; i--) {
+                PathNode parent = parents.get(i);
+                if (link.depth + 1 + parent.minRootDistance <= maxDepth)
+                    stack.push(new PathLink(parent, link.depth + 1, link));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Encodes the union of all paths from the roots to the given concepts within <tt>maxDepth</tt> as a DAG. Each node
+     * is contained once and refers to its parents by their indexes.
+     *
+     * @param starts   Explored concepts.
+     * @param maxDepth The maximum number of relationships of a path.
+     * @return A map with the node IDs, their parent indexes, the indexes of the roots and the index of each start
+     * node or -1 if it has no path to a root.
+     */
+    Map<String, Object> getDag(List<PathNode> starts, int maxDepth) {
+        List<PathNode> dagNodes = new ArrayList<>();
+        // The minimum distance from any of the start nodes.
+        Map<PathNode, Integer> depths = new HashMap<>();
+        Map<PathNode, Integer> indexes = new HashMap<>();
+        int[] startIndexes = new int[starts.size()];
+        Deque<PathNode> queue = new ArrayDeque<>();
+        for (int i = 0; i < starts.size(); i++) {
+            PathNode start = starts.get(i);
+            startIndexes[i] = -1;
+            if (!start.reachesRoot() || start.minRootDistance > maxDepth)
+                continue;
+            if (!indexes.containsKey(start)) {
+                indexes.put(start, dagNodes.size());
+                dagNodes.add(start);
+                depths.put(start, 0);
+                queue.add(start);
+            }
+            startIndexes[i] = indexes.get(start);
+        }
+        List<int[]> parentIndexes = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            PathNode pathNode = queue.poll();
+            int depth = depths.get(pathNode);
+            List<Integer> nodeParentIndexes = new ArrayList<>();
+            for (PathNode parent : pathNode.parents) {
+                if (depth + 1 + parent.minRootDistance > maxDepth)
+                    continue;
+                if (!indexes.containsKey(parent)) {
+                    indexes.put(parent, dagNodes.size());
+                    dagNodes.add(parent);
+                    depths.put(parent, depth + 1);
+                    queue.add(parent);
+                }
+                nodeParentIndexes.add(indexes.get(parent));
+            }
+            parentIndexes.add(nodeParentIndexes.stream().mapToInt(Integer::intValue).toArray());
+        }
+        String[] ids = new String[dagNodes.size()];
+        List<Integer> roots = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = dagNodes.get(i).id;
+            if (dagNodes.get(i).root)
+                roots.add(i);
+        }
+        Map<String, Object> dag = new HashMap<>();
+        dag.put(RET_KEY_NODES, ids);
+        dag.put(RET_KEY_PARENTS, parentIndexes);
+        dag.put(RET_KEY_ROOTS, roots);
+        dag.put(RET_KEY_START_NODES, startIndexes);
+        return dag;
+    }
+
+    int getNumExploredNodes() {
+        return numExploredNodes;
+    }
+
+    static class PathNode {
+        private final List<PathNode> parents = new ArrayList<>(2);
+        private String id;
+        private boolean valid;
+        private boolean root;
+        private boolean done;
+        private int minRootDistance = Integer.MAX_VALUE;
+        /**
+         * The order in which the node has been reached by the search.
+         */
+        private int index;
+        /**
+         * The earliest node in the search whose search was still in progress when this node was finished and on
+         * which the state of this node depends, or <tt>null</tt>.
+         */
+        private PathNode openAncestor;
+
+        private boolean reachesRoot() {
+            return minRootDistance < Integer.MAX_VALUE;
+        }
+    }
+
+    private class Frame {
+        private final long nodeId;
+        private final PathNode pathNode;
+        private final List<Node> parents = new ArrayList<>();
+        private int nextParent;
+
+        private Frame(Node node, PathNode pathNode) {
+            this.nodeId = node.getId();
+            this.pathNode = pathNode;
+            if (pathNode.valid) {
+                for (Relationship rel : node.getRelationships(Direction.INCOMING, relType))
+                    parents.add(rel.getStartNode());
+            }
+        }
+    }
+
+    /**
+     * A path from a node down to the start node. Paths branching upwards share their lower part.
+     */
+    private static class PathLink {
+        private final PathNode pathNode;
+        private final int depth;
+        private final PathLink next;
+
+        private PathLink(PathNode pathNode, int depth, PathLink next) {
+            this.pathNode = pathNode;
+            this.depth = depth;
+            this.next = next;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import de.julielab.neo4j.plugins.Indexes;
+import de.julielab.neo4j.plugins.auxiliaries.semedico.NodeUtilities;
+import org.neo4j.graphdb.*;
+import org.neo4j.logging.Log;
+
+import java.util.*;
+
+import static de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants.PROP_SRC_IDS;
+
+/**
+ * <p>
+ * An inverted index from source IDs to the nodes carrying them. Since array properties cannot be indexed, concept
+ * nodes store their source IDs in the properties <tt>sourceIds0</tt>, <tt>sourceIds1</tt>, ... . Looking up a
+ * source ID then requires one index seek per such property. This index maintains one {@link SourceIdLabel#SOURCE_ID}
+ * node per source ID which is found with a single seek on a unique index and stores the IDs of the nodes having
+ * this source ID. The source of the source ID is not part of the index key; it is checked on the found nodes as
+ * before.
+ * </p>
+ * <p>
+ * The index is maintained by {@link NodeUtilities#mergeSourceId(Transaction, Node, String, String, boolean)}.
+ * Databases that have been created before the index existed must be migrated with {@link #build(GraphDatabaseService, Log)}.
+ * Until then, the lookup falls back to the <tt>sourceIdsX</tt> properties.
+ * </p>
+ */
+public class SourceIdIndex {
+    public static final String PROP_SOURCE_ID = "sourceId";
+    /**
+     * The prefix of the properties <tt>nodeIds0</tt>, <tt>nodeIds1</tt>, ... holding the IDs of the nodes with the
+     * source ID in chunks of at most {@link #NODE_ID_CHUNK_SIZE}.
+     */
+    public static final String PROP_NODE_IDS = "nodeIds";
+    public static final String PROP_NUM_NODE_IDS = "numNodeIds";
+    public static final String PROP_COMPLETE = IndexMarker.PROP_COMPLETE;
+    /**
+     * Bounds the size of the array that is rewritten when a node ID is added or removed.
+     */
+    public static final int NODE_ID_CHUNK_SIZE = 100;
+    private static final int BATCH_SIZE = 10000;
+    private static final long[] EMPTY = new long[0];
+
+    private SourceIdIndex() {
+    }
+
+    public static void createIndexes(Transaction tx) {
+        Indexes.createSinglePropertyIndexIfAbsent(tx, "SourceIdIndex", SourceIdLabel.SOURCE_ID, true, Indexes.PROVIDER_NATIVE_1_0, PROP_SOURCE_ID);
+    }
+
+    /**
+     * Determines whether the index covers all nodes in the database. This is the case if the migration has been
+     * performed or if the database did not contain any concepts when it was first written to, see
+     * {@link #markCompleteIfEmpty(Transaction)}. Only reads the database.
+     *
+     * @param tx The current transaction.
+     * @return Whether lookups may rely on the index.
+     */
+    public static boolean isComplete(Transaction tx) {
+        return IndexMarker.isComplete(tx, SourceIdLabel.SOURCE_ID_INDEX);
+    }
+
+    /**
+     * Marks the index as complete if the database does not contain any concepts yet. Must be called in a writing
+     * transaction before the first concepts are created so that a new database does not need to be migrated.
+     *
+     * @param tx The current transaction.
+     */
+    public static void markCompleteIfEmpty(Transaction tx) {
+        IndexMarker.markCompleteIfEmpty(tx, SourceIdLabel.SOURCE_ID_INDEX);
+    }
+
+    /**
+     * Returns the CONCEPT nodes having <tt>srcId</tt> as one of their source IDs, with a single index seek.
+     *
+     * @param tx    The current transaction.
+     * @param srcId The source ID.
+     * @return The concept nodes with the given source ID, from any source.
+     */
+    public static List<Node> getConcepts(Transaction tx, String srcId) {
+        Node sourceIdNode = tx.findNode(SourceIdLabel.SOURCE_ID, PROP_SOURCE_ID, srcId);
+        if (sourceIdNode == null)
+            return Collections.emptyList();
+        List<Node> concepts = new ArrayList<>();
+        for (int chunk = 0; sourceIdNode.hasProperty(PROP_NODE_IDS + chunk); chunk++) {
+            for (long nodeId : (long[]) sourceIdNode.getProperty(PROP_NODE_IDS + chunk)) {
+                try {
+                    Node node = tx.getNodeById(nodeId);
+                    // The node ID could have been reused by another node after a deletion that did not maintain the index
+                    if (node.hasLabel(ConceptLabel.CONCEPT) && NodeUtilities.getSourceIdIndex(node, srcId) >= 0)
+                        concepts.add(node);
+                } catch (NotFoundException e) {
+                    // The node has been deleted without maintaining the index.
+                }
+            }
+        }
+        return concepts;
+    }
+
+    /**
+     * Registers <tt>node</tt> as having the source ID <tt>srcId</tt>. Must only be called when the node has just
+     * received the source ID; the node is not checked for already being registered.
+     *
+     * @param tx    The current transaction.
+     * @param srcId The source ID.
+     * @param node  A node that has just received the source ID.
+     */
+    public static void add(Transaction tx, String srcId, Node node) {
+        Node sourceIdNode = getOrCreateSourceIdNode(tx, srcId);
+        // Serializes concurrent additions to the same source ID which would otherwise overwrite each other's chunks.
+        tx.acquireWriteLock(sourceIdNode);
+        int numNodeIds = getNumNodeIds(sourceIdNode);
+        if (ConceptNodeIdCache.isEnabled())
+            ConceptNodeIdCache.getInstance().sourceIdAdded(srcId, numNodeIds > 0);
+        String chunkProperty = PROP_NODE_IDS + numNodeIds / NODE_ID_CHUNK_SIZE;
+        long[] chunk = (long[]) sourceIdNode.getProperty(chunkProperty, EMPTY);
+        long[] newChunk = Arrays.copyOf(chunk, chunk.length + 1);
+        newChunk[chunk.length] = node.getId();
+        sourceIdNode.setProperty(chunkProperty, newChunk);
+        sourceIdNode.setProperty(PROP_NUM_NODE_IDS, numNodeIds + 1);
+    }
+
+    /**
+     * Removes <tt>node</tt> from the index. Must be called before the node is deleted because its source IDs are read.
+     *
+     * @param tx   The current transaction.
+     * @param node A node that is about to be deleted.
+     */
+    public static void remove(Transaction tx, Node node) {
+        for (String srcId : NodeUtilities.getSourceIds(node)) {
+            Node sourceIdNode = tx.findNode(SourceIdLabel.SOURCE_ID, PROP_SOURCE_ID, srcId);
+            if (sourceIdNode == null)
+                continue;
+            tx.acquireWriteLock(sourceIdNode);
+            if (ConceptNodeIdCache.isEnabled())
+                ConceptNodeIdCache.getInstance().sourceIdRemoved(srcId);
+            int numNodeIds = getNumNodeIds(sourceIdNode);
+            if (numNodeIds == 1) {
+                if (((long[]) sourceIdNode.getProperty(PROP_NODE_IDS + 0))[0] == node.getId())
+                    sourceIdNode.delete();
+                continue;
+            }
+            String lastChunkProperty = PROP_NODE_IDS + (numNodeIds - 1) / NODE_ID_CHUNK_SIZE;
+            long[] lastChunk = (long[]) sourceIdNode.getProperty(lastChunkProperty);
+            for (int chunk = 0; chunk * NODE_ID_CHUNK_SIZE < numNodeIds; chunk++) {
+                long[] nodeIds = (long[]) sourceIdNode.getProperty(PROP_NODE_IDS + chunk);
+                int index = indexOf(nodeIds, node.getId());
+                if (index < 0)
+                    continue;
+                // Move the last node ID into the gap so that only the last chunk shrinks.
+                if (chunk == (numNodeIds - 1) / NODE_ID_CHUNK_SIZE) {
+                    lastChunk[index] = lastChunk[lastChunk.length - 1];
+                } else {
+                    nodeIds[index] = lastChunk[lastChunk.length - 1];
+                    sourceIdNode.setProperty(PROP_NODE_IDS + chunk, nodeIds);
+                }
+                if (lastChunk.length == 1)
+                    sourceIdNode.removeProperty(lastChunkProperty);
+                else
+                    sourceIdNode.setProperty(lastChunkProperty, Arrays.copyOf(lastChunk, lastChunk.length - 1));
+                sourceIdNode.setProperty(PROP_NUM_NODE_IDS, numNodeIds - 1);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Migrates an existing database: Deletes the existing index nodes, adds the source IDs of all CONCEPT and
+     * AGGREGATE nodes to the index in batches and marks the index as complete afterwards.
+     *
+     * @param graphDb The graph database.
+     * @param log     The log.
+     * @return The number of nodes and source IDs that have been indexed.
+     */
+    public static Map<String, Object> build(GraphDatabaseService graphDb, Log log) {
+        long numNodes = 0;
+        long numSourceIds = 0;
+        List<Long> nodeIds = new ArrayList<>();
+        List<Long> sourceIdNodeIds = new ArrayList<>();
+        try (Transaction tx = graphDb.beginTx()) {
+            for (Label label : List.of(ConceptLabel.CONCEPT, ConceptLabel.AGGREGATE)) {
+                try (ResourceIterator<Node> nodes = tx.findNodes(label)) {
+                    while (nodes.hasNext()) {
+                        Node node = nodes.next();
+                        // Aggregates that are also concepts would otherwise be visited twice.
+                        if (label == ConceptLabel.AGGREGATE && node.hasLabel(ConceptLabel.CONCEPT))
+                            continue;
+                        if (node.hasProperty(PROP_SRC_IDS + 0))
+                            nodeIds.add(node.getId());
+                    }
+                }
+            }
+            try (ResourceIterator<Node> sourceIdNodes = tx.findNodes(SourceIdLabel.SOURCE_ID)) {
+                while (sourceIdNodes.hasNext())
+                    sourceIdNodeIds.add(sourceIdNodes.next().getId());
+            }
+        }
+        // A partially existing index would otherwise receive duplicate node IDs since add() does not check for them.
+        log.info("Deleting %s existing source ID index nodes.", sourceIdNodeIds.size());
+        for (int batchStart = 0; batchStart < sourceIdNodeIds.size(); batchStart += BATCH_SIZE) {
+            try (Transaction tx = graphDb.beginTx()) {
+                for (long nodeId : sourceIdNodeIds.subList(batchStart, Math.min(batchStart + BATCH_SIZE, sourceIdNodeIds.size())))
+                    tx.getNodeById(nodeId).delete();
+                tx.commit();
+            }
+        }
+        log.info("Adding the source IDs of %s nodes to the source ID index.", nodeIds.size());
+        for (int batchStart = 0; batchStart < nodeIds.size(); batchStart += BATCH_SIZE) {
+            try (Transaction tx = graphDb.beginTx()) {
+                for (long nodeId : nodeIds.subList(batchStart, Math.min(batchStart + BATCH_SIZE, nodeIds.size()))) {
+                    Node node = tx.getNodeById(nodeId);
+                    for (String srcId : NodeUtilities.getSourceIds(node)) {
+                        add(tx, srcId, node);
+                        ++numSourceIds;
+                    }
+                    ++numNodes;
+                }
+                tx.commit();
+            }
+            log.info("Indexed the source IDs of %s nodes.", numNodes);
+        }
+        try (Transaction tx = graphDb.beginTx()) {
+            IndexMarker.markComplete(tx, SourceIdLabel.SOURCE_ID_INDEX);
+            tx.commit();
+        }
+        return Map.of("numNodes", numNodes, "numSourceIds", numSourceIds);
+    }
+
+    /**
+     * Finds or creates the index node of <tt>srcId</tt>. The creation is done with a <tt>MERGE</tt> which, backed by
+     * the unique constraint of {@link #createIndexes(Transaction)}, lets concurrent transactions creating the same
+     * source ID wait for each other instead of violating the constraint.
+     */
+    private static Node getOrCreateSourceIdNode(Transaction tx, String srcId) {
+        Node sourceIdNode = tx.findNode(SourceIdLabel.SOURCE_ID, PROP_SOURCE_ID, srcId);
+        if (sourceIdNode != null)
+            return sourceIdNode;
+        try (Result result = tx.execute("MERGE (n:" + SourceIdLabel.SOURCE_ID.name() + " {" + PROP_SOURCE_ID + ": $srcId}) RETURN n", Map.of("srcId", srcId))) {
+            return (Node) result.next().get("n");
+        }
+    }
+
+    private static int getNumNodeIds(Node sourceIdNode) {
+        return (int) sourceIdNode.getProperty(PROP_NUM_NODE_IDS, 0);
+    }
+
+    private static int indexOf(long[] nodeIds, long nodeId) {
+        for (int i = 0; i < nodeIds.length; i++) {
+            if (nodeIds[i] == nodeId)
+                return i;
+        }
+        return -1;
+    }
+
+    public enum SourceIdLabel implements Label {
+        /**
+         * The label of the nodes representing a single source ID.
+         */
+        SOURCE_ID,
+        /**
+         * The label of the single node storing the state of the index.
+         */
+        SOURCE_ID_INDEX
+    }
+}
@@ -0,0 +1,80 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * A fixed pool of daemon worker threads for the batch jobs. The producer submits tasks while it reads its input. The
+ * number of pending tasks is bounded to twice the number of workers so that the input is not read far ahead of the
+ * workers. The results are awaited in submission order.
+ * </p>
+ * <p>
+ * Closing the pool stops the workers; tasks that have not been awaited are cancelled.
+ * </p>
+ *
+ * @param <T> The result type of the tasks.
+ */
+public final class WorkerPool<T> implements AutoCloseable {
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final Deque<Future<T>> pending = new ArrayDeque<>();
+
+    /**
+     * @param threadNamePrefix The prefix of the worker thread names, followed by the thread number.
+     * @param numWorkers       The number of worker threads.
+     */
+    public WorkerPool(String threadNamePrefix, int numWorkers) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(numWorkers, r -> {
+            Thread t = new Thread(r, threadNamePrefix + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.maxPending = 2 * numWorkers;
+    }
+
+    /**
+     * Submits <tt>task</tt>. If the maximum number of tasks is pending then, the oldest pending task is awaited.
+     *
+     * @param task The task to run.
+     * @return The result of the awaited task or <tt>null</tt> if no task has been awaited.
+     * @throws ExecutionException If the awaited task failed.
+     */
+    public T submit(Callable<T> task) throws InterruptedException, ExecutionException {
+        pending.add(executor.submit(task));
+        return pending.size() >= maxPending ? awaitOldest() : null;
+    }
+
+    /**
+     * @return Whether there are tasks that have not been awaited.
+     */
+    public boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * @return The result of the oldest pending task.
+     * @throws ExecutionException If the task failed.
+     */
+    public T awaitOldest() throws InterruptedException, ExecutionException {
+        return pending.poll().get();
+    }
+
+    /**
+     * Awaits all pending tasks, discarding their results.
+     *
+     * @throws ExecutionException If a task failed.
+     */
+    public void awaitAll() throws InterruptedException, ExecutionException {
+        while (!pending.isEmpty())
+            awaitOldest();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -20,6 +20,12 @@ public class SemanticRelationConstants {
      * by the ith element of {@link #PROP_DOC_IDS}.
      */
     public static final String PROP_COUNTS = "counts";
+    /**
+     * The prefix of the <tt>byte[]</tt> properties that store the document IDs and counts in the compact format of
+     * {@link de.julielab.neo4j.plugins.concepts.IERelationDocumentCounts} instead of {@link #PROP_DOC_IDS} and
+     * {@link #PROP_COUNTS}.
+     */
+    public static final String PROP_DOC_COUNTS_PREFIX = "doc_counts_";
     /**
      * The names of databases listing this relation.
      */
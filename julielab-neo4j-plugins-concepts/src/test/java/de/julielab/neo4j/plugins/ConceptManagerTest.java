@@ -5,10 +5,13 @@ import com.google.common.collect.Sets;
 import de.julielab.neo4j.plugins.FacetManager.FacetLabel;
 import de.julielab.neo4j.plugins.auxiliaries.PropertyUtilities;
 import de.julielab.neo4j.plugins.auxiliaries.semedico.NodeUtilities;
+import de.julielab.neo4j.plugins.auxiliaries.semedico.SequenceManager;
 import de.julielab.neo4j.plugins.concepts.*;
+import de.julielab.neo4j.plugins.constants.semedico.SequenceConstants;
 import de.julielab.neo4j.plugins.datarepresentation.*;
 import de.julielab.neo4j.plugins.datarepresentation.constants.*;
 import de.julielab.neo4j.plugins.datarepresentation.util.ConceptsJsonSerializer;
+import de.julielab.neo4j.plugins.datarepresentation.util.ConceptsSmileSerializer;
 import de.julielab.neo4j.plugins.test.TestUtilities;
 import org.apache.commons.lang3.StringUtils;
 import org.glassfish.jersey.message.internal.OutboundJaxrsResponse;
@@ -28,6 +31,9 @@ import org.neo4j.logging.log4j.LogConfig;
 
 import java.io.ByteArrayInputStream;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Stream;
 
 import static de.julielab.neo4j.plugins.auxiliaries.semedico.NodeUtilities.getSourceArray;
@@ -259,6 +265,46 @@ public class ConceptManagerTest {
         testTermImportWithOrWithoutFacetDefinition(false);
     }
 
+    @Test
+    public void testImportConceptsSmile() {
+        ImportConcepts importConcepts = getTestConcepts(5);
+        importConcepts.getConceptsAsList().get(1).parentCoordinates = List.of(importConcepts.getConceptsAsList().get(0).coordinates);
+        ConceptManager cm = new ConceptManager(graphDBMS, log);
+        OutboundJaxrsResponse report = (OutboundJaxrsResponse) cm.insertConcepts(
+                new ByteArrayInputStream(ConceptsSmileSerializer.toSmile(importConcepts)), ConceptsSmileSerializer.MEDIA_TYPE_SMILE, log);
+        Map<String, ?> reportMap = (Map<String, ?>) report.getEntity();
+        assertEquals(5, reportMap.get(ConceptManager.RET_KEY_NUM_CREATED_CONCEPTS));
+
+        try (Transaction tx = graphDb.beginTx()) {
+            assertEquals(5, tx.findNodes(CONCEPT).stream().count());
+            Node concept1 = tx.findNode(CONCEPT, PROP_ID, "tid1");
+            assertEquals("prefname1", concept1.getProperty(PROP_PREF_NAME));
+            assertEquals("tid0", concept1.getSingleRelationship(ConceptEdgeTypes.IS_BROADER_THAN, Direction.INCOMING).getStartNode().getProperty(PROP_ID));
+        }
+    }
+
+    @Test
+    public void testImportConceptsInProcess() {
+        ImportConcepts importConcepts = getTestConcepts(5);
+        ConceptManager cm = new ConceptManager(graphDBMS, log);
+        cm.insertConcepts(importConcepts);
+
+        try (Transaction tx = graphDb.beginTx()) {
+            assertEquals(5, tx.findNodes(CONCEPT).stream().count());
+            assertEquals("prefname4", tx.findNode(CONCEPT, PROP_ID, "tid4").getProperty(PROP_PREF_NAME));
+            assertNotNull(FacetManager.getFacetNode(tx, "fid0"));
+        }
+
+        // Without a facet, the import only merges. This must not change the options of the caller.
+        ImportOptions importOptions = new ImportOptions();
+        importConcepts = new ImportConcepts(getTestConcepts(1, 5).getConceptsAsList(), null, importOptions);
+        cm.insertConcepts(importConcepts);
+        assertFalse(importOptions.merge);
+        try (Transaction tx = graphDb.beginTx()) {
+            assertEquals(5, tx.findNodes(CONCEPT).stream().count());
+        }
+    }
+
     private void testTermImportWithOrWithoutFacetDefinition(boolean withFacetDefinition) {
         // ----------- THE FACET --------------
         ImportFacet importFacet;
@@ -873,6 +919,57 @@ public class ConceptManagerTest {
         }
     }
 
+    @Test
+    public void testAdditionalRelationshipsBetweenHubs() {
+        ImportConcepts importConcepts = getTestConcepts(2);
+        List<ImportConcept> concepts = importConcepts.getConceptsAsList();
+        String termSource = concepts.get(0).coordinates.originalSource;
+        ConceptManager tm = new ConceptManager(graphDBMS, log);
+        tm.insertConcepts(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(importConcepts).getBytes(UTF_8)));
+
+        // Make both concepts hubs of the relationship type so that the existing relationships are looked up in the
+        // hub relationships of the insertion report.
+        RelationshipType type = RelationshipType.withName("HUB_REL");
+        try (Transaction tx = graphDb.beginTx()) {
+            Node term0 = tx.findNode(CONCEPT, PROP_ID, NodeIDPrefixConstants.TERM + 0);
+            Node term1 = tx.findNode(CONCEPT, PROP_ID, NodeIDPrefixConstants.TERM + 1);
+            for (int i = 0; i < InsertionReport.HUB_DEGREE; i++) {
+                Node node = tx.createNode();
+                term0.createRelationshipTo(node, type);
+                node.createRelationshipTo(term1, type);
+            }
+            term0.createRelationshipTo(term1, type).setProperty("prop1", "value1");
+            tx.commit();
+        }
+
+        ImportConceptRelationship rel1 = new ImportConceptRelationship(new ConceptCoordinates("CONCEPT" + 1, termSource, true), type.name());
+        rel1.addProperty("prop1", "value1");
+        rel1.addProperty("prop2", "value2");
+        // Contradicts the existing relationship and is thus created in parallel to it.
+        ImportConceptRelationship rel2 = new ImportConceptRelationship(new ConceptCoordinates("CONCEPT" + 1, termSource, true), type.name());
+        rel2.addProperty("prop1", "value3");
+        concepts.get(0).addRelationship(rel1);
+        concepts.get(0).addRelationship(rel2);
+        importConcepts = new ImportConcepts(concepts, importConcepts.getFacet());
+        tm.insertConcepts(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(importConcepts).getBytes(UTF_8)));
+        // Both relationships exist now and must be found again.
+        tm.insertConcepts(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(importConcepts).getBytes(UTF_8)));
+
+        try (Transaction tx = graphDb.beginTx()) {
+            Node term0 = tx.findNode(CONCEPT, PROP_ID, NodeIDPrefixConstants.TERM + 0);
+            Node term1 = tx.findNode(CONCEPT, PROP_ID, NodeIDPrefixConstants.TERM + 1);
+            assertEquals(InsertionReport.HUB_DEGREE + 2, term0.getDegree(type, Direction.OUTGOING));
+            Map<Object, Relationship> relationshipsByProp1 = new HashMap<>();
+            for (Relationship relationship : term0.getRelationships(Direction.OUTGOING, type)) {
+                if (relationship.getEndNode().equals(term1))
+                    relationshipsByProp1.put(relationship.getProperty("prop1"), relationship);
+            }
+            assertThat(relationshipsByProp1).containsOnlyKeys("value1", "value3");
+            assertEquals("value2", relationshipsByProp1.get("value1").getProperty("prop2"));
+            assertFalse(relationshipsByProp1.get("value3").hasProperty("prop2"));
+        }
+    }
+
     @Test
     public void testInsertAggregateTerm() {
         // Here we test the case where an aggregate term is explicitly imported
@@ -1414,6 +1511,83 @@ public class ConceptManagerTest {
 
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testGetPathsFromFacetrootsLimitsAndDag() {
+        // The same polyhierarchy as in testGetPathsFromFacetroots: source3 has the two roots source1 and source2 as
+        // parents, source4 and source5 are children of source3 and source6 is a child of source5.
+        List<ImportConcept> terms = new ArrayList<>();
+        ConceptCoordinates coord1 = new ConceptCoordinates("source1", "TEST_SOURCE", SRC);
+        ConceptCoordinates coord2 = new ConceptCoordinates("source2", "TEST_SOURCE", SRC);
+        ConceptCoordinates coord3 = new ConceptCoordinates("source3", "TEST_SOURCE", SRC);
+        ConceptCoordinates coord4 = new ConceptCoordinates("source4", "TEST_SOURCE", SRC);
+        ConceptCoordinates coord5 = new ConceptCoordinates("source5", "TEST_SOURCE", SRC);
+        ConceptCoordinates coord6 = new ConceptCoordinates("source6", "TEST_SOURCE", SRC);
+        terms.add(new ImportConcept("name1", coord1));
+        terms.add(new ImportConcept("name2", coord2));
+        terms.add(new ImportConcept("name3", coord3, Lists.newArrayList(coord1, coord2)));
+        terms.add(new ImportConcept("name4", coord4, coord3));
+        terms.add(new ImportConcept("name5", coord5, coord3));
+        terms.add(new ImportConcept("name6", coord6, coord5));
+        ImportConcepts importTermAndFacet = new ImportConcepts(terms, FacetManagerTest.getImportFacet());
+        ConceptManager cm = new ConceptManager(graphDBMS, log);
+        cm.insertConcepts(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(importTermAndFacet).getBytes(UTF_8)));
+
+        Map<String, Object> result = (Map<String, Object>) ((OutboundJaxrsResponse) cm.getPathsFromFacetRoots("source4,source6", PROP_SRC_IDS, null, false, null, 3, 0, false)).getEntity();
+        assertEquals(3, ((List<String[]>) result.get(ConceptManager.RET_KEY_PATHS)).size());
+        assertEquals(true, result.get(ConceptManager.RET_KEY_TRUNCATED));
+
+        // The paths of source6 have three relationships.
+        result = (Map<String, Object>) ((OutboundJaxrsResponse) cm.getPathsFromFacetRoots("source4,source6", PROP_SRC_IDS, null, true, null, 0, 2, false)).getEntity();
+        List<String[]> paths = (List<String[]>) result.get(ConceptManager.RET_KEY_PATHS);
+        assertEquals(2, paths.size());
+        for (String[] path : paths)
+            assertEquals(NodeIDPrefixConstants.TERM + 3, path[2]);
+        assertEquals(false, result.get(ConceptManager.RET_KEY_TRUNCATED));
+
+        result = (Map<String, Object>) ((OutboundJaxrsResponse) cm.getPathsFromFacetRoots("source4,source6", PROP_SRC_IDS, null, false, null, 0, 0, true)).getEntity();
+        String[] nodes = (String[]) result.get(ConceptManager.RET_KEY_NODES);
+        List<int[]> parents = (List<int[]>) result.get(ConceptManager.RET_KEY_PARENTS);
+        int[] startNodes = (int[]) result.get(ConceptManager.RET_KEY_START_NODES);
+        assertEquals(6, nodes.length);
+        assertEquals(2, ((List<Integer>) result.get(ConceptManager.RET_KEY_ROOTS)).size());
+        assertEquals(NodeIDPrefixConstants.TERM + 3, nodes[startNodes[0]]);
+        assertEquals(NodeIDPrefixConstants.TERM + 5, nodes[startNodes[1]]);
+        int source3Index = parents.get(startNodes[0])[0];
+        assertEquals(NodeIDPrefixConstants.TERM + 2, nodes[source3Index]);
+        assertThat(Arrays.stream(parents.get(source3Index)).mapToObj(i -> nodes[i])).containsExactlyInAnyOrder(NodeIDPrefixConstants.TERM + 0, NodeIDPrefixConstants.TERM + 1);
+
+        result = (Map<String, Object>) ((OutboundJaxrsResponse) cm.getPathsFromFacetRoots("source4,source6", PROP_SRC_IDS, null, false, null, 0, 2, true)).getEntity();
+        assertEquals(4, ((String[]) result.get(ConceptManager.RET_KEY_NODES)).length);
+        assertEquals(-1, ((int[]) result.get(ConceptManager.RET_KEY_START_NODES))[1]);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testGetPathsFromFacetrootsWithCycle() {
+        // source2 is a child of the root source1 and of source3, source3 is a child of source2 and source4 is another
+        // child of source2. When the paths of source4 are computed first, source3 is reached while the search of
+        // source2 is still in progress; its state must not be reused for the paths of source3 itself.
+        List<ImportConcept> terms = new ArrayList<>();
+        ConceptCoordinates coord1 = new ConceptCoordinates("source1", "TEST_SOURCE", SRC);
+        ConceptCoordinates coord2 = new ConceptCoordinates("source2", "TEST_SOURCE", SRC);
+        ConceptCoordinates coord3 = new ConceptCoordinates("source3", "TEST_SOURCE", SRC);
+        ConceptCoordinates coord4 = new ConceptCoordinates("source4", "TEST_SOURCE", SRC);
+        terms.add(new ImportConcept("name1", coord1));
+        terms.add(new ImportConcept("name2", coord2, Lists.newArrayList(coord1, coord3)));
+        terms.add(new ImportConcept("name3", coord3, coord2));
+        terms.add(new ImportConcept("name4", coord4, coord2));
+        ImportConcepts importTermAndFacet = new ImportConcepts(terms, FacetManagerTest.getImportFacet());
+        ConceptManager cm = new ConceptManager(graphDBMS, log);
+        cm.insertConcepts(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(importTermAndFacet).getBytes(UTF_8)));
+
+        Map<String, Object> result = (Map<String, Object>) ((OutboundJaxrsResponse) cm.getPathsFromFacetRoots("source4,source3", PROP_SRC_IDS, null, false, null)).getEntity();
+        List<String[]> paths = (List<String[]>) result.get(ConceptManager.RET_KEY_PATHS);
+        assertThat(paths).extracting(path -> String.join(",", path)).containsExactlyInAnyOrder(
+                NodeIDPrefixConstants.TERM + 0 + "," + NodeIDPrefixConstants.TERM + 1 + "," + NodeIDPrefixConstants.TERM + 3,
+                NodeIDPrefixConstants.TERM + 0 + "," + NodeIDPrefixConstants.TERM + 1 + "," + NodeIDPrefixConstants.TERM + 2);
+    }
+
     @Test
     public void testUpdateChildrenInformation() {
         // In this test we check whether the array property of in which facet a
@@ -1454,6 +1628,210 @@ public class ConceptManagerTest {
         }
     }
 
+    @Test
+    public void testFacetStatisticsMaintainedOnImport() {
+        ConceptManager cm = new ConceptManager(graphDBMS, log);
+        FacetManager fm = new FacetManager(graphDBMS);
+        // CONCEPT2 has a parent that is not imported and thus becomes a hollow root of the facet.
+        ImportConcepts testTerms = getTestConcepts(3);
+        testTerms.getConceptsAsList().get(1).parentCoordinates = List.of(new ConceptCoordinates("CONCEPT0", "TEST_DATA", SRC));
+        testTerms.getConceptsAsList().get(2).parentCoordinates = List.of(new ConceptCoordinates("CONCEPT9", "TEST_DATA", SRC));
+        cm.insertConcepts(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(testTerms).getBytes(UTF_8)));
+        // The hollow parent is imported and loses its hollow root relationship but stays a root.
+        cm.insertConcepts(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(getTestConcepts(1, 9)).getBytes(UTF_8)));
+        // A second facet with CONCEPT0 as root.
+        testTerms = getTestConcepts(2);
+        testTerms.getFacet().setName("secondfacet");
+        testTerms.getConceptsAsList().get(1).coordinates.sourceId = "CONCEPT3";
+        testTerms.getConceptsAsList().get(1).coordinates.originalId = "CONCEPT3";
+        testTerms.getConceptsAsList().get(1).parentCoordinates = List.of(new ConceptCoordinates("CONCEPT0", "TEST_DATA", SRC));
+        cm.insertConcepts(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(testTerms).getBytes(UTF_8)));
+
+        assertFacetStatistics(fm);
+
+        try (Transaction tx = graphDb.beginTx()) {
+            tx.findNodes(CONCEPT).stream().forEach(n -> n.removeProperty(PROP_CHILDREN_IN_FACETS));
+            tx.findNodes(FacetLabel.FACET).stream().forEach(n -> n.setProperty(FacetConstants.PROP_NUM_CONCEPTS, 0L));
+            tx.commit();
+        }
+        cm.updateChildrenInformation();
+        assertFacetStatistics(fm);
+    }
+
+    @Test
+    public void testFacetStatisticsOnRemoval() {
+        ConceptManager cm = new ConceptManager(graphDBMS, log);
+        FacetManager fm = new FacetManager(graphDBMS);
+        // CONCEPT0 -> CONCEPT1 -> {CONCEPT2, CONCEPT3} and the second root CONCEPT4 -> CONCEPT3
+        ImportConcepts testTerms = getTestConcepts(5);
+        testTerms.getConceptsAsList().get(1).parentCoordinates = List.of(new ConceptCoordinates("CONCEPT0", "TEST_DATA", SRC));
+        testTerms.getConceptsAsList().get(2).parentCoordinates = List.of(new ConceptCoordinates("CONCEPT1", "TEST_DATA", SRC));
+        testTerms.getConceptsAsList().get(3).parentCoordinates = List.of(new ConceptCoordinates("CONCEPT1", "TEST_DATA", SRC), new ConceptCoordinates("CONCEPT4", "TEST_DATA", SRC));
+        cm.insertConcepts(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(testTerms).getBytes(UTF_8)));
+        assertEquals(5, fm.getFacetSize(NodeIDPrefixConstants.FACET + 0));
+
+        try (Transaction tx = graphDb.beginTx()) {
+            Node concept0 = ConceptLookup.lookupSingleConceptBySourceId(tx, "CONCEPT0");
+            FacetStatistics.remove(tx, concept0);
+            concept0.getRelationships().forEach(Relationship::delete);
+            concept0.delete();
+            tx.commit();
+        }
+        // CONCEPT1 and CONCEPT2 are not reachable from the facet any more, CONCEPT3 is via CONCEPT4.
+        assertEquals(2, fm.getFacetSize(NodeIDPrefixConstants.FACET + 0));
+        try (Transaction tx = graphDb.beginTx()) {
+            assertEquals(2, FacetManager.countFacetConcepts(tx, NodeIDPrefixConstants.FACET + 0));
+        }
+    }
+
+    @Test
+    public void testInsertionReportHubRelationships() {
+        RelationshipType type = RelationshipType.withName("TEST_REL");
+        try (Transaction tx = graphDb.beginTx()) {
+            Node hub = tx.createNode();
+            Node other = tx.createNode();
+            Node unrelated = tx.createNode();
+            hub.createRelationshipTo(other, type);
+            InsertionReport insertionReport = new InsertionReport();
+            assertTrue(insertionReport.hubHasRelationship(hub, other, type, Direction.OUTGOING));
+            assertFalse(insertionReport.hubHasRelationship(hub, unrelated, type, Direction.OUTGOING));
+            assertTrue(insertionReport.hubHasRelationship(other, hub, type, Direction.INCOMING));
+            assertFalse(insertionReport.hubHasRelationship(other, hub, type, Direction.OUTGOING));
+            // Relationships created after the hub relationships have been loaded must be found as well.
+            insertionReport.addCreatedRelationship(hub.createRelationshipTo(unrelated, type));
+            assertTrue(insertionReport.hubHasRelationship(hub, unrelated, type, Direction.OUTGOING));
+            assertTrue(insertionReport.relationshipAlreadyWasCreated(hub, unrelated, type));
+            assertFalse(insertionReport.relationshipAlreadyWasCreated(unrelated, hub, type));
+            // The hub relationships are kept for the next batch, the created relationships are not.
+            insertionReport.clear();
+            assertFalse(insertionReport.relationshipAlreadyWasCreated(hub, unrelated, type));
+            assertEquals(3, insertionReport.hubRelationships.size());
+            // A relationship that is not reported changes the degree of the hub, which causes a reload.
+            Node third = tx.createNode();
+            hub.createRelationshipTo(third, type);
+            assertTrue(insertionReport.hubHasRelationship(hub, third, type, Direction.OUTGOING));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testInsertionReportReuse() {
+        // A chain across the batches of the sequential import, which reuses its insertion report for all batches.
+        ImportConcepts testTerms = getTestConcepts(2500);
+        List<ImportConcept> concepts = testTerms.getConceptsAsList();
+        for (int i = 1; i < concepts.size(); i++)
+            concepts.get(i).parentCoordinates = List.of(new ConceptCoordinates("CONCEPT" + (i - 1), "TEST_DATA", SRC));
+        ConceptManager cm = new ConceptManager(graphDBMS, log);
+        byte[] json = ConceptsJsonSerializer.toJson(testTerms).getBytes(UTF_8);
+        Map<String, ?> reportMap = (Map<String, ?>) ((OutboundJaxrsResponse) cm.insertConcepts(new ByteArrayInputStream(json))).getEntity();
+        assertEquals(2500, reportMap.get(ConceptManager.RET_KEY_NUM_CREATED_CONCEPTS));
+        // Importing the same data again must not create any relationships.
+        reportMap = (Map<String, ?>) ((OutboundJaxrsResponse) cm.insertConcepts(new ByteArrayInputStream(json))).getEntity();
+        assertEquals(0, reportMap.get(ConceptManager.RET_KEY_NUM_CREATED_RELS));
+        try (Transaction tx = graphDb.beginTx()) {
+            for (int i = 1; i < concepts.size(); i++) {
+                Node concept = ConceptLookup.lookupSingleConceptBySourceId(tx, "CONCEPT" + i);
+                assertEquals(1, concept.getDegree(ConceptEdgeTypes.IS_BROADER_THAN, Direction.INCOMING));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testUpdateChildrenInformationResumesAfterCheckpoint() {
+        ConceptManager cm = new ConceptManager(graphDBMS, log);
+        ImportConcepts testTerms = getTestConcepts(3);
+        testTerms.getConceptsAsList().get(1).parentCoordinates = List.of(new ConceptCoordinates("CONCEPT0", "TEST_DATA", SRC));
+        testTerms.getConceptsAsList().get(2).parentCoordinates = List.of(new ConceptCoordinates("CONCEPT0", "TEST_DATA", SRC));
+        cm.insertConcepts(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(testTerms).getBytes(UTF_8)));
+
+        // Simulate an interrupted job that has already committed all concepts.
+        long maxNodeId;
+        try (Transaction tx = graphDb.beginTx()) {
+            maxNodeId = tx.findNodes(CONCEPT).stream().mapToLong(Node::getId).max().orElseThrow();
+            tx.findNodes(CONCEPT).stream().forEach(n -> n.removeProperty(PROP_CHILDREN_IN_FACETS));
+            Node checkpoint = tx.createNode(ChildrenInformationJob.ChildrenInformationLabel.CHILDREN_INFORMATION_CHECKPOINT);
+            checkpoint.setProperty(ChildrenInformationJob.PROP_LAST_NODE_ID, maxNodeId);
+            checkpoint.setProperty(ChildrenInformationJob.PROP_FINISHED, false);
+            tx.commit();
+        }
+        Map<String, Object> status = (Map<String, Object>) ((OutboundJaxrsResponse) cm.updateChildrenInformation(1, 2, false)).getEntity();
+        assertEquals(ChildrenInformationJob.State.FINISHED.name(), status.get(ChildrenInformationJob.KEY_STATE));
+        assertEquals(0L, status.get(ChildrenInformationJob.KEY_NUM_NODES));
+        assertEquals(maxNodeId, status.get(ChildrenInformationJob.KEY_RESUMED_AFTER_NODE_ID));
+        try (Transaction tx = graphDb.beginTx()) {
+            assertFalse(ConceptLookup.lookupSingleConceptBySourceId(tx, "CONCEPT0").hasProperty(PROP_CHILDREN_IN_FACETS));
+        }
+
+        // The checkpoint is finished, the next run processes all concepts.
+        status = (Map<String, Object>) ((OutboundJaxrsResponse) cm.updateChildrenInformation(1, 2, false)).getEntity();
+        assertEquals(3L, status.get(ChildrenInformationJob.KEY_NUM_NODES));
+        assertEquals(1L, status.get(ChildrenInformationJob.KEY_NUM_UPDATED_NODES));
+        assertEquals(-1L, status.get(ChildrenInformationJob.KEY_RESUMED_AFTER_NODE_ID));
+        try (Transaction tx = graphDb.beginTx()) {
+            Node concept0 = ConceptLookup.lookupSingleConceptBySourceId(tx, "CONCEPT0");
+            assertThat((String[]) concept0.getProperty(PROP_CHILDREN_IN_FACETS)).containsExactly(NodeIDPrefixConstants.FACET + 0);
+        }
+        status = (Map<String, Object>) ((OutboundJaxrsResponse) cm.getChildrenInformationStatus()).getEntity();
+        assertEquals(ChildrenInformationJob.State.FINISHED.name(), status.get(ChildrenInformationJob.KEY_STATE));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testUpdateChildrenInformationResumesAfterFailedBatch() {
+        ConceptManager cm = new ConceptManager(graphDBMS, log);
+        cm.insertConcepts(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(getTestConcepts(100)).getBytes(UTF_8)));
+        long failingNodeId;
+        try (Transaction tx = graphDb.beginTx()) {
+            long[] conceptIds = tx.findNodes(CONCEPT).stream().mapToLong(Node::getId).sorted().toArray();
+            for (long conceptId : conceptIds)
+                tx.getNodeById(conceptId).setProperty(PROP_CHILDREN_IN_FACETS, new String[]{"outdated"});
+            // A property of the wrong type lets the third batch fail while the other workers commit later batches.
+            failingNodeId = conceptIds[25];
+            tx.getNodeById(failingNodeId).setProperty(PROP_CHILDREN_IN_FACETS, 42);
+            tx.commit();
+        }
+        cm.updateChildrenInformation(10, 4, false);
+        Map<String, Object> status = (Map<String, Object>) ((OutboundJaxrsResponse) cm.getChildrenInformationStatus()).getEntity();
+        assertEquals(ChildrenInformationJob.State.FAILED.name(), status.get(ChildrenInformationJob.KEY_STATE));
+
+        long checkpointNodeId;
+        try (Transaction tx = graphDb.beginTx()) {
+            Node checkpoint = tx.findNodes(ChildrenInformationJob.ChildrenInformationLabel.CHILDREN_INFORMATION_CHECKPOINT).next();
+            assertFalse((boolean) checkpoint.getProperty(ChildrenInformationJob.PROP_FINISHED));
+            // The checkpoint must not pass the failed batch and all batches up to it must have been committed.
+            checkpointNodeId = (long) checkpoint.getProperty(ChildrenInformationJob.PROP_LAST_NODE_ID);
+            assertThat(checkpointNodeId).isLessThan(failingNodeId);
+            for (Node concept : (Iterable<Node>) () -> tx.findNodes(CONCEPT)) {
+                if (concept.getId() <= checkpointNodeId)
+                    assertFalse(concept.hasProperty(PROP_CHILDREN_IN_FACETS));
+            }
+            tx.getNodeById(failingNodeId).setProperty(PROP_CHILDREN_IN_FACETS, new String[]{"outdated"});
+            tx.commit();
+        }
+
+        status = (Map<String, Object>) ((OutboundJaxrsResponse) cm.updateChildrenInformation(10, 4, false)).getEntity();
+        assertEquals(ChildrenInformationJob.State.FINISHED.name(), status.get(ChildrenInformationJob.KEY_STATE));
+        assertEquals(checkpointNodeId, status.get(ChildrenInformationJob.KEY_RESUMED_AFTER_NODE_ID));
+        try (Transaction tx = graphDb.beginTx()) {
+            assertTrue(tx.findNodes(CONCEPT).stream().noneMatch(n -> n.hasProperty(PROP_CHILDREN_IN_FACETS)));
+        }
+    }
+
+    private void assertFacetStatistics(FacetManager fm) {
+        assertEquals(4, fm.getFacetSize(NodeIDPrefixConstants.FACET + 0));
+        assertEquals(2, fm.getFacetSize(NodeIDPrefixConstants.FACET + 1));
+        try (Transaction tx = graphDb.beginTx()) {
+            assertEquals(4, FacetManager.countFacetConcepts(tx, NodeIDPrefixConstants.FACET + 0));
+            assertEquals(2, FacetManager.countFacetConcepts(tx, NodeIDPrefixConstants.FACET + 1));
+            Node concept0 = ConceptLookup.lookupSingleConceptBySourceId(tx, "CONCEPT0");
+            assertThat((String[]) concept0.getProperty(PROP_CHILDREN_IN_FACETS)).containsExactlyInAnyOrder(NodeIDPrefixConstants.FACET + 0, NodeIDPrefixConstants.FACET + 1);
+            Node concept9 = ConceptLookup.lookupSingleConceptBySourceId(tx, "CONCEPT9");
+            assertThat((String[]) concept9.getProperty(PROP_CHILDREN_IN_FACETS)).containsExactly(NodeIDPrefixConstants.FACET + 0);
+            assertFalse(ConceptLookup.lookupSingleConceptBySourceId(tx, "CONCEPT1").hasProperty(PROP_CHILDREN_IN_FACETS));
+        }
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testGetTermChildren() {
@@ -1981,4 +2359,347 @@ public class ConceptManagerTest {
         }
     }
 
+
+    @Test
+    public void testPipelinedInsertion() {
+        // A chain of concepts where each concept is the parent of the next. The parents thus lie in
+        // different coordinate partitions and in different batches than their children.
+        int numConcepts = 2500;
+        List<ImportConcept> concepts = new ArrayList<>(numConcepts);
+        concepts.add(new ImportConcept("prefname0", new ConceptCoordinates("srcid0", "TEST_SOURCE", SRC)));
+        for (int i = 1; i < numConcepts; i++) {
+            concepts.add(new ImportConcept("prefname" + i, Lists.newArrayList("syn" + i), "desc" + i,
+                    new ConceptCoordinates("srcid" + i, "TEST_SOURCE", SRC),
+                    new ConceptCoordinates("srcid" + (i - 1), "TEST_SOURCE", SRC)));
+        }
+        // Parent outside of the import data; should be created as a HOLLOW node.
+        concepts.add(new ImportConcept("prefnameX", Lists.newArrayList("synX"), "descX",
+                new ConceptCoordinates("srcidX", "TEST_SOURCE", SRC),
+                new ConceptCoordinates("hollowParent", "TEST_SOURCE", SRC)));
+        ImportConcepts importConcepts = new ImportConcepts(concepts, FacetManagerTest.getImportFacet());
+        importConcepts.setImportOptions(new ImportOptions());
+        importConcepts.getImportOptions().numInsertionWorkers = 4;
+
+        ConceptManager cm = new ConceptManager(graphDBMS, log);
+        OutboundJaxrsResponse report = (OutboundJaxrsResponse) cm.insertConcepts(
+                new ByteArrayInputStream(ConceptsJsonSerializer.toJson(importConcepts).getBytes(UTF_8)));
+        Map<String, ?> reportMap = (Map<String, ?>) report.getEntity();
+        assertEquals(numConcepts + 2, reportMap.get(ConceptManager.RET_KEY_NUM_CREATED_CONCEPTS));
+        // one root relationship for the chain root, two broader-than relationships for each other chain member,
+        // two broader-than relationships and a root relationship for the hollow parent
+        assertEquals(1 + 2 * (numConcepts - 1) + 3, reportMap.get(ConceptManager.RET_KEY_NUM_CREATED_RELS));
+        Map<String, ?> throughput = (Map<String, ?>) reportMap.get(ConceptManager.RET_KEY_THROUGHPUT);
+        assertThat(throughput).containsKeys(ConceptManager.RET_KEY_NODE_STAGE, ConceptManager.RET_KEY_RELATIONSHIP_STAGE);
+
+        try (Transaction tx = graphDb.beginTx()) {
+            assertEquals(numConcepts + 2, tx.findNodes(CONCEPT).stream().count());
+            assertEquals(1, tx.findNodes(HOLLOW).stream().count());
+            Set<String> conceptIds = new HashSet<>();
+            for (int i = 1; i < numConcepts; i++) {
+                Node concept = ConceptLookup.lookupSingleConceptBySourceId(tx, "srcid" + i);
+                assertTrue(conceptIds.add((String) concept.getProperty(PROP_ID)));
+                Node parent = concept.getSingleRelationship(ConceptEdgeTypes.IS_BROADER_THAN, Direction.INCOMING).getStartNode();
+                assertEquals("srcid" + (i - 1), NodeUtilities.getSourceIdArray(parent)[0]);
+            }
+            // Only the concepts got an ID, the HOLLOW parent did not.
+            assertEquals(numConcepts + 1, SequenceManager.getCurrentSequenceValue(tx, SequenceConstants.SEQ_TERM));
+        }
+
+        // The concepts exist now and must not reserve any more IDs.
+        cm.insertConcepts(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(importConcepts).getBytes(UTF_8)));
+        try (Transaction tx = graphDb.beginTx()) {
+            assertEquals(numConcepts + 1, SequenceManager.getCurrentSequenceValue(tx, SequenceConstants.SEQ_TERM));
+        }
+    }
+
+    @Test
+    public void testConcurrentInsertionIntoSameFacet() throws Exception {
+        // Several imports of the same concepts into the same facet run at once, half of them pipelined. The facet is
+        // only given by name, so it must be created once and the imports must be serialized on its ID.
+        int numImports = 4;
+        int numConcepts = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(numImports);
+        List<Future<InsertionReport>> futures = new ArrayList<>();
+        try {
+            for (int j = 0; j < numImports; j++) {
+                List<ImportConcept> concepts = new ArrayList<>(numConcepts);
+                concepts.add(new ImportConcept("prefname0", new ConceptCoordinates("srcid0", "TEST_SOURCE", SRC)));
+                for (int i = 1; i < numConcepts; i++) {
+                    concepts.add(new ImportConcept("prefname" + i, Lists.newArrayList("syn" + i), "desc" + i,
+                            new ConceptCoordinates("srcid" + i, "TEST_SOURCE", SRC),
+                            new ConceptCoordinates("srcid" + (i - 1), "TEST_SOURCE", SRC)));
+                }
+                ImportConcepts importConcepts = new ImportConcepts(concepts, FacetManagerTest.getImportFacet());
+                importConcepts.setImportOptions(new ImportOptions());
+                importConcepts.getImportOptions().numInsertionWorkers = j % 2 == 0 ? 1 : 3;
+                futures.add(executor.submit(() -> ConceptInsertion.insertConcepts(graphDb, log, importConcepts, new HashMap<>())));
+            }
+            int numCreatedConcepts = 0;
+            for (Future<InsertionReport> future : futures)
+                numCreatedConcepts += future.get().numConcepts;
+            assertEquals(numConcepts, numCreatedConcepts);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        try (Transaction tx = graphDb.beginTx()) {
+            assertEquals(1, tx.findNodes(FacetLabel.FACET).stream().count());
+            assertEquals(numConcepts, tx.findNodes(CONCEPT).stream().count());
+            Node root = ConceptLookup.lookupSingleConceptBySourceId(tx, "srcid0");
+            assertEquals(1, root.getDegree(ConceptEdgeTypes.HAS_ROOT_CONCEPT, Direction.INCOMING));
+            for (int i = 1; i < numConcepts; i++) {
+                Node concept = ConceptLookup.lookupSingleConceptBySourceId(tx, "srcid" + i);
+                assertEquals(1, concept.getDegree(ConceptEdgeTypes.IS_BROADER_THAN, Direction.INCOMING));
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentInsertionIntoDifferentFacets() throws Exception {
+        // Pipelined imports of the same concepts into different facets run at once. The concepts share HOLLOW parents
+        // that are not part of the import data. Whichever import creates a node, the general taxonomic relationships
+        // must only be created once.
+        int numImports = 2;
+        int numConcepts = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(numImports);
+        List<Future<InsertionReport>> futures = new ArrayList<>();
+        try {
+            for (int j = 0; j < numImports; j++) {
+                List<ImportConcept> concepts = new ArrayList<>(numConcepts);
+                for (int i = 0; i < numConcepts; i++) {
+                    concepts.add(new ImportConcept("prefname" + i, Lists.newArrayList("syn" + i), "desc" + i,
+                            new ConceptCoordinates("srcid" + i, "TEST_SOURCE", SRC),
+                            new ConceptCoordinates("parent" + i % 10, "TEST_SOURCE", SRC)));
+                }
+                ImportConcepts importConcepts = new ImportConcepts(concepts, FacetManagerTest.getTestFacetMap(j + 1));
+                importConcepts.setImportOptions(new ImportOptions());
+                importConcepts.getImportOptions().numInsertionWorkers = 3;
+                futures.add(executor.submit(() -> ConceptInsertion.insertConcepts(graphDb, log, importConcepts, new HashMap<>())));
+            }
+            for (Future<InsertionReport> future : futures)
+                future.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        try (Transaction tx = graphDb.beginTx()) {
+            assertEquals(numImports, tx.findNodes(FacetLabel.FACET).stream().count());
+            assertEquals(numConcepts + 10, tx.findNodes(CONCEPT).stream().count());
+            for (int i = 0; i < numConcepts; i++) {
+                Node concept = ConceptLookup.lookupSingleConceptBySourceId(tx, "srcid" + i);
+                assertEquals(1, concept.getDegree(ConceptEdgeTypes.IS_BROADER_THAN, Direction.INCOMING));
+                // the general relationship and one relationship per facet
+                assertEquals(1 + numImports, concept.getDegree(Direction.INCOMING));
+            }
+        }
+    }
+
+    @Test
+    public void testNodeIdCache() throws Exception {
+        System.setProperty(ConceptLookup.SYSPROP_ID_CACHE_ENABLED, "true");
+        try {
+            ConceptNodeIdCache nodeIdCache = ConceptNodeIdCache.getInstance();
+            nodeIdCache.clear();
+            ConceptInsertion.insertConcepts(graphDb, log, getTestConcepts(10), new HashMap<>());
+            long hitsAfterFirstImport = (long) nodeIdCache.getStatus().get(ConceptNodeIdCache.KEY_HITS);
+            // The second import finds all concepts in the cache.
+            ConceptInsertion.insertConcepts(graphDb, log, getTestConcepts(10), new HashMap<>());
+            Map<String, Object> status = (Map<String, Object>) ((OutboundJaxrsResponse) new ConceptManager(graphDBMS, log).getNodeIdCacheStatus()).getEntity();
+            assertThat((long) status.get(ConceptNodeIdCache.KEY_HITS)).isGreaterThanOrEqualTo(hitsAfterFirstImport + 10);
+            assertThat((int) status.get(ConceptNodeIdCache.KEY_SIZE)).isGreaterThanOrEqualTo(20);
+            try (Transaction tx = graphDb.beginTx()) {
+                assertEquals(10, tx.findNodes(CONCEPT).stream().count());
+                // Removed entries keep their slots but are not counted.
+                nodeIdCache.remove(tx.findNodes(CONCEPT).next());
+            }
+            assertThat((int) nodeIdCache.getStatus().get(ConceptNodeIdCache.KEY_SIZE)).isLessThan((int) status.get(ConceptNodeIdCache.KEY_SIZE));
+
+            // The cached node IDs are stale now; they must be detected and not lead to wrong lookups.
+            TestUtilities.deleteEverythingInDB(graphDb);
+            new Indexes(graphDBMS).createIndexes((String) null);
+            Map<String, Object> response = new HashMap<>();
+            ConceptInsertion.insertConcepts(graphDb, log, getTestConcepts(10), response);
+            assertEquals(10, response.get(ConceptManager.RET_KEY_NUM_CREATED_CONCEPTS));
+            try (Transaction tx = graphDb.beginTx()) {
+                assertEquals(10, tx.findNodes(CONCEPT).stream().count());
+            }
+        } finally {
+            System.setProperty(ConceptLookup.SYSPROP_ID_CACHE_ENABLED, "false");
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNodeIdCacheHitIsValidated() throws Exception {
+        System.setProperty(ConceptLookup.SYSPROP_ID_CACHE_ENABLED, "true");
+        try {
+            ConceptNodeIdCache.getInstance().clear();
+            ConceptInsertion.insertConcepts(graphDb, log, getTestConcepts(1), new HashMap<>());
+            try (Transaction tx = graphDb.beginTx()) {
+                // Puts the concept into the cache.
+                assertNotNull(ConceptLookup.lookupConceptBySourceId(tx, "CONCEPT0", "TEST_DATA", false));
+                // An inconsistent second concept with the same source ID and source must be detected although the
+                // first one is cached.
+                Node duplicate = tx.createNode(CONCEPT);
+                NodeUtilities.mergeSourceId(tx, duplicate, "CONCEPT0", "TEST_DATA", false);
+                ConceptLookup.lookupConceptBySourceId(tx, "CONCEPT0", "TEST_DATA", false);
+            }
+        } finally {
+            System.setProperty(ConceptLookup.SYSPROP_ID_CACHE_ENABLED, "false");
+        }
+    }
+
+    @Test
+    public void testNodeIdCacheSourceIdHitsWithoutIndex() throws Exception {
+        System.setProperty(ConceptLookup.SYSPROP_ID_CACHE_ENABLED, "true");
+        try {
+            ConceptNodeIdCache nodeIdCache = ConceptNodeIdCache.getInstance();
+            nodeIdCache.clear();
+            ConceptInsertion.insertConcepts(graphDb, log, getTestConcepts(10), new HashMap<>());
+            try (Transaction tx = graphDb.beginTx()) {
+                // Records the concepts as the only nodes with their source IDs.
+                for (int i = 0; i < 10; i++)
+                    assertNotNull(ConceptLookup.lookupConceptBySourceId(tx, "CONCEPT" + i, "TEST_DATA", false));
+            }
+            // Without the index entries, the concepts can only be found by cache hits.
+            try (Transaction tx = graphDb.beginTx()) {
+                tx.findNodes(SourceIdIndex.SourceIdLabel.SOURCE_ID).stream().forEach(Node::delete);
+                tx.commit();
+            }
+            long hits = (long) nodeIdCache.getStatus().get(ConceptNodeIdCache.KEY_HITS);
+            long misses = (long) nodeIdCache.getStatus().get(ConceptNodeIdCache.KEY_MISSES);
+            try (Transaction tx = graphDb.beginTx()) {
+                assertTrue(SourceIdIndex.isComplete(tx));
+                for (int i = 0; i < 10; i++) {
+                    Node concept = ConceptLookup.lookupConceptBySourceId(tx, "CONCEPT" + i, "TEST_DATA", false);
+                    assertNotNull(concept);
+                    assertEquals("CONCEPT" + i, concept.getProperty(PROP_ORG_ID));
+                }
+            }
+            assertEquals(hits + 10, (long) nodeIdCache.getStatus().get(ConceptNodeIdCache.KEY_HITS));
+            assertEquals(misses, (long) nodeIdCache.getStatus().get(ConceptNodeIdCache.KEY_MISSES));
+
+            // A second node with the same source ID makes the lookup check all nodes again.
+            try (Transaction tx = graphDb.beginTx()) {
+                Node duplicate = tx.createNode(CONCEPT);
+                NodeUtilities.mergeSourceId(tx, duplicate, "CONCEPT0", "OTHER_DATA", false);
+                assertNull(ConceptLookup.lookupConceptBySourceId(tx, "CONCEPT0", "TEST_DATA", false));
+            }
+            assertEquals(misses + 1, (long) nodeIdCache.getStatus().get(ConceptNodeIdCache.KEY_MISSES));
+        } finally {
+            System.setProperty(ConceptLookup.SYSPROP_ID_CACHE_ENABLED, "false");
+        }
+    }
+
+    @Test
+    public void testSourceIdIndex() throws Exception {
+        ConceptInsertion.insertConcepts(graphDb, log, getTestConcepts(10), new HashMap<>());
+        // Add a second source ID to the first concept via its original ID.
+        ImportConcepts secondSource = getTestConcepts(1);
+        secondSource.getConceptsAsList().get(0).coordinates.sourceId = "otherSrcId";
+        secondSource.getConceptsAsList().get(0).coordinates.source = "OTHER_DATA";
+        ConceptInsertion.insertConcepts(graphDb, log, secondSource, new HashMap<>());
+        try (Transaction tx = graphDb.beginTx()) {
+            assertTrue(SourceIdIndex.isComplete(tx));
+            assertEquals(11, tx.findNodes(SourceIdIndex.SourceIdLabel.SOURCE_ID).stream().count());
+            List<Node> concepts = SourceIdIndex.getConcepts(tx, "otherSrcId");
+            assertEquals(1, concepts.size());
+            assertEquals(concepts.get(0), ConceptLookup.lookupConceptBySourceId(tx, "CONCEPT0", "TEST_DATA", false));
+            assertEquals(concepts.get(0), ConceptLookup.lookupConceptBySourceId(tx, "otherSrcId", "OTHER_DATA", false));
+            assertNull(ConceptLookup.lookupConceptBySourceId(tx, "otherSrcId", "TEST_DATA", false));
+        }
+
+        // Simulate a database from before the index and migrate it.
+        try (Transaction tx = graphDb.beginTx()) {
+            tx.findNodes(SourceIdIndex.SourceIdLabel.SOURCE_ID).stream().forEach(Node::delete);
+            tx.commit();
+        }
+        Map<String, Object> report = (Map<String, Object>) ((OutboundJaxrsResponse) new ConceptManager(graphDBMS, log).buildSourceIdIndex(log)).getEntity();
+        assertEquals(10L, report.get("numNodes"));
+        assertEquals(11L, report.get("numSourceIds"));
+        try (Transaction tx = graphDb.beginTx()) {
+            for (int i = 0; i < 10; i++)
+                assertEquals(1, SourceIdIndex.getConcepts(tx, "CONCEPT" + i).size());
+            assertEquals(SourceIdIndex.getConcepts(tx, "CONCEPT0"), SourceIdIndex.getConcepts(tx, "otherSrcId"));
+        }
+    }
+
+    @Test
+    public void testSourceIdIndexChunks() {
+        int numNodes = 2 * SourceIdIndex.NODE_ID_CHUNK_SIZE + 50;
+        List<Long> nodeIds = new ArrayList<>();
+        try (Transaction tx = graphDb.beginTx()) {
+            for (int i = 0; i < numNodes; i++) {
+                Node node = tx.createNode(CONCEPT);
+                NodeUtilities.mergeSourceId(tx, node, "sharedSrcId", "SOURCE" + i, false);
+                nodeIds.add(node.getId());
+            }
+            tx.commit();
+        }
+        try (Transaction tx = graphDb.beginTx()) {
+            assertEquals(numNodes, SourceIdIndex.getConcepts(tx, "sharedSrcId").size());
+            // Remove nodes from the first, a middle and the last chunk.
+            for (int i : new int[]{0, SourceIdIndex.NODE_ID_CHUNK_SIZE + 1, numNodes - 1})
+                SourceIdIndex.remove(tx, tx.getNodeById(nodeIds.get(i)));
+            tx.commit();
+        }
+        try (Transaction tx = graphDb.beginTx()) {
+            List<Node> concepts = SourceIdIndex.getConcepts(tx, "sharedSrcId");
+            assertEquals(numNodes - 3, concepts.size());
+            assertFalse(concepts.contains(tx.getNodeById(nodeIds.get(0))));
+            assertFalse(concepts.contains(tx.getNodeById(nodeIds.get(SourceIdIndex.NODE_ID_CHUNK_SIZE + 1))));
+            assertTrue(concepts.contains(tx.getNodeById(nodeIds.get(1))));
+        }
+    }
+
+    @Test
+    public void testAncestorIndex() throws Exception {
+        ImportConcepts importConcepts = getTestConcepts(5);
+        List<ImportConcept> concepts = importConcepts.getConceptsAsList();
+        concepts.get(1).addParent(concepts.get(0).coordinates);
+        // The second parent is imported after its child.
+        concepts.get(2).addParent(concepts.get(1).coordinates);
+        concepts.get(2).addParent(concepts.get(3).coordinates);
+        concepts.get(4).addParent(concepts.get(2).coordinates);
+        ConceptInsertion.insertConcepts(graphDb, log, importConcepts, new HashMap<>());
+        // Give the root a new parent; the change must be propagated to all descendants.
+        ImportConcepts newRoot = getTestConcepts(1, 5);
+        ImportConcept oldRoot = getTestConcepts(1).getConceptsAsList().get(0);
+        oldRoot.addParent(newRoot.getConceptsAsList().get(0).coordinates);
+        newRoot.getConceptsAsList().add(oldRoot);
+        ConceptInsertion.insertConcepts(graphDb, log, newRoot, new HashMap<>());
+
+        String facetId;
+        try (Transaction tx = graphDb.beginTx()) {
+            assertTrue(AncestorIndex.isComplete(tx));
+            facetId = (String) tx.findNodes(FacetLabel.FACET).next().getProperty(FacetConstants.PROP_ID);
+            assertAncestors(tx, facetId);
+        }
+
+        // Simulate a database from before the index and migrate it.
+        try (Transaction tx = graphDb.beginTx()) {
+            tx.findNodes(CONCEPT).stream().forEach(n -> n.removeProperty(AncestorIndex.PROP_ANCESTORS_PREFIX + facetId));
+            tx.commit();
+        }
+        Map<String, Object> report = (Map<String, Object>) ((OutboundJaxrsResponse) new ConceptManager(graphDBMS, log).buildAncestorIndex(log)).getEntity();
+        assertEquals(1, report.get("numFacets"));
+        assertEquals(6L, report.get("numNodes"));
+        try (Transaction tx = graphDb.beginTx()) {
+            assertAncestors(tx, facetId);
+        }
+    }
+
+    private void assertAncestors(Transaction tx, String facetId) {
+        Node[] nodes = new Node[6];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = ConceptLookup.lookupConceptBySourceId(tx, "CONCEPT" + i, "TEST_DATA", false);
+        assertThat(AncestorIndex.getAncestors(tx, nodes[5], facetId)).isEmpty();
+        assertThat(AncestorIndex.getAncestors(tx, nodes[3], facetId)).isEmpty();
+        assertThat(AncestorIndex.getAncestors(tx, nodes[0], facetId)).containsExactlyInAnyOrder(nodes[5]);
+        assertThat(AncestorIndex.getAncestors(tx, nodes[1], facetId)).containsExactlyInAnyOrder(nodes[0], nodes[5]);
+        assertThat(AncestorIndex.getAncestors(tx, nodes[2], facetId)).containsExactlyInAnyOrder(nodes[0], nodes[1], nodes[3], nodes[5]);
+        assertThat(AncestorIndex.getAncestors(tx, nodes[4], facetId)).containsExactlyInAnyOrder(nodes[0], nodes[1], nodes[2], nodes[3], nodes[5]);
+        assertTrue(AncestorIndex.isAncestor(nodes[5], nodes[4], facetId));
+        assertFalse(AncestorIndex.isAncestor(nodes[4], nodes[5], facetId));
+        assertFalse(AncestorIndex.isAncestor(nodes[1], nodes[3], facetId));
+    }
 }
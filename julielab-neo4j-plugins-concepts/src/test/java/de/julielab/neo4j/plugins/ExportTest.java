@@ -3,11 +3,16 @@ package de.julielab.neo4j.plugins;
 import com.google.common.collect.Lists;
 import de.julielab.neo4j.plugins.auxiliaries.LogUtilities;
 import de.julielab.neo4j.plugins.auxiliaries.NodeUtilities;
+import de.julielab.neo4j.plugins.concepts.AncestorIndex;
+import de.julielab.neo4j.plugins.concepts.ConceptEdgeTypes;
+import de.julielab.neo4j.plugins.concepts.ConceptLabel;
+import de.julielab.neo4j.plugins.concepts.ConceptLookup;
 import de.julielab.neo4j.plugins.concepts.ConceptManager;
 import de.julielab.neo4j.plugins.datarepresentation.ConceptCoordinates;
 import de.julielab.neo4j.plugins.datarepresentation.ImportConcept;
 import de.julielab.neo4j.plugins.datarepresentation.ImportConcepts;
 import de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants;
+import de.julielab.neo4j.plugins.datarepresentation.constants.NodeIDPrefixConstants;
 import de.julielab.neo4j.plugins.datarepresentation.util.ConceptsJsonSerializer;
 import de.julielab.neo4j.plugins.test.TestUtilities;
 import org.apache.commons.io.IOUtils;
@@ -19,18 +24,26 @@ import org.junit.Test;
 import org.neo4j.dbms.api.DatabaseManagementService;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.server.rest.repr.Representation;
 
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.reflect.Method;
-import java.util.Base64;
+import java.util.*;
 import java.util.zip.GZIPInputStream;
 
 import static de.julielab.neo4j.plugins.concepts.ConceptLabel.CONCEPT;
+import static de.julielab.neo4j.plugins.datarepresentation.CoordinateType.SRC;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.neo4j.configuration.GraphDatabaseSettings.DEFAULT_DATABASE_NAME;
@@ -283,4 +296,149 @@ public class ExportTest {
 
     }
 
+    @Test
+    public void exportLingpipeDictionaryStreaming() throws Exception {
+        new Indexes(graphDBMS).createIndexes((String) null);
+        ImportConcepts importConcepts = ConceptManagerTest.getTestConcepts(10);
+        ConceptManager tm = new ConceptManager(graphDBMS, LogUtilities.getLogger(ConceptManager.class));
+        tm.insertConcepts(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(importConcepts).getBytes(UTF_8)));
+
+        Export export = new Export(graphDBMS);
+        Response response = export.exportLingpipeDictionary(CONCEPT.name(), null, ConceptConstants.PROP_SRC_IDS + 0, false, true, false, LogUtilities.getLogger(Export.class));
+        assertEquals("gzip", response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(baos);
+        String dictionary;
+        try (final GZIPInputStream is = new GZIPInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            dictionary = IOUtils.toString(is, UTF_8);
+        }
+        for (int i = 0; i < 10; i++)
+            assertTrue(dictionary.contains("prefname" + i + "\tCONCEPT" + i));
+    }
+
+    @Test
+    public void exportTermFacetMapping() throws Exception {
+        ImportConcepts importConcepts = ConceptManagerTest.getTestConcepts(10);
+        ConceptManager tm = new ConceptManager(graphDBMS, LogUtilities.getLogger(ConceptManager.class));
+        tm.insertConcepts(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(importConcepts).getBytes(UTF_8)));
+
+        Export export = new Export(graphDBMS);
+        assertTrue(export.exportTermFacetMapping(null, true) instanceof Representation);
+        Response response = (Response) export.exportTermFacetMapping(null, false);
+        assertEquals("gzip", response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(baos);
+        String mapping;
+        try (final GZIPInputStream is = new GZIPInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            mapping = IOUtils.toString(is, UTF_8);
+        }
+        assertEquals(10, mapping.split("\n").length);
+        for (String line : mapping.split("\n"))
+            assertTrue(line.matches(NodeIDPrefixConstants.TERM + "[0-9]+\t" + NodeIDPrefixConstants.FACET + "[0-9]+"), line);
+    }
+
+    @Test
+    public void exportLingpipeDictionaryParallel() throws Exception {
+        // Compares the parallel export with a single worker export on more nodes than fit into one chunk.
+        new Indexes(graphDBMS).createIndexes((String) null);
+        int numConcepts = LingpipeDictionaryWriter.CHUNK_SIZE + LingpipeDictionaryWriter.CHUNK_SIZE / 2;
+        List<ImportConcept> concepts = new ArrayList<>(numConcepts);
+        for (int i = 0; i < numConcepts; i++) {
+            ConceptCoordinates coordinates = new ConceptCoordinates("CONCEPT" + i, "TEST_DATA", SRC);
+            // The shared synonyms occur in all chunks; with unique keys, only their first occurrence is written.
+            concepts.add(new ImportConcept("prefname" + i, List.of("synonym" + i, "shared synonym" + (i % 100)), coordinates));
+        }
+        ConceptManager tm = new ConceptManager(graphDBMS, LogUtilities.getLogger(ConceptManager.class));
+        tm.insertConcepts(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(new ImportConcepts(concepts, FacetManagerTest.getImportFacet())).getBytes(UTF_8)));
+
+        Export export = new Export(graphDBMS);
+        String sequentialDictionary = TestUtilities.callWithSystemProperty(LingpipeDictionaryWriter.SYSPROP_NUM_WORKERS, "1", () ->
+                decodeDictionary(export.exportLingpipeDictionary(CONCEPT.name(), null, ConceptConstants.PROP_SRC_IDS + 0, false, true, LogUtilities.getLogger(Export.class))));
+        String parallelDictionary = TestUtilities.callWithSystemProperty(LingpipeDictionaryWriter.SYSPROP_NUM_WORKERS, "4", () ->
+                decodeDictionary(export.exportLingpipeDictionary(CONCEPT.name(), null, ConceptConstants.PROP_SRC_IDS + 0, false, true, LogUtilities.getLogger(Export.class))));
+        assertEquals(sequentialDictionary, parallelDictionary);
+        String[] lines = parallelDictionary.split("\n");
+        // preferred name and synonym for each concept plus the 100 shared synonyms
+        assertEquals(2 * numConcepts + 100, lines.length);
+        for (int i = 0; i < 100; i++)
+            assertEquals(1, StringUtils.countMatches(parallelDictionary, "shared synonym" + i + "\t"));
+    }
+
+    private String decodeDictionary(String gzippedBase64EncodedDictionary) throws IOException {
+        try (final GZIPInputStream is = new GZIPInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(gzippedBase64EncodedDictionary)))) {
+            return IOUtils.toString(is, UTF_8);
+        }
+    }
+
+    @Test
+    public void exportHypernyms() throws Exception {
+        // A diamond A <- B, C <- D and a long chain below D that is deep enough to overflow a recursive traversal.
+        new Indexes(graphDBMS).createIndexes((String) null);
+        int chainLength = 3000;
+        List<ImportConcept> concepts = new ArrayList<>();
+        concepts.add(new ImportConcept("A", new ConceptCoordinates("A", "TEST_DATA", SRC)));
+        concepts.add(new ImportConcept("B", new ConceptCoordinates("B", "TEST_DATA", SRC), new ConceptCoordinates("A", "TEST_DATA", SRC)));
+        concepts.add(new ImportConcept("C", new ConceptCoordinates("C", "TEST_DATA", SRC), new ConceptCoordinates("A", "TEST_DATA", SRC)));
+        concepts.add(new ImportConcept("D", new ConceptCoordinates("D", "TEST_DATA", SRC), List.of(new ConceptCoordinates("B", "TEST_DATA", SRC), new ConceptCoordinates("C", "TEST_DATA", SRC))));
+        String parent = "D";
+        for (int i = 0; i < chainLength; i++) {
+            concepts.add(new ImportConcept("E" + i, new ConceptCoordinates("E" + i, "TEST_DATA", SRC), new ConceptCoordinates(parent, "TEST_DATA", SRC)));
+            parent = "E" + i;
+        }
+        ConceptManager tm = new ConceptManager(graphDBMS, LogUtilities.getLogger(ConceptManager.class));
+        tm.insertConcepts(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(new ImportConcepts(concepts, FacetManagerTest.getImportFacet())).getBytes(UTF_8)));
+
+        Export export = new Export(graphDBMS);
+        StreamingOutput hypernymsOutput = (StreamingOutput) export.exportHypernyms("[\"" + FacetManagerTest.getImportFacet().getName() + "\"]", null, LogUtilities.getLogger(Export.class));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        hypernymsOutput.write(baos);
+        Map<String, Set<String>> hypernymsById = new HashMap<>();
+        for (String line : baos.toString(UTF_8).split("\n")) {
+            String[] split = line.split("\t");
+            hypernymsById.put(split[0], Set.of(split[1].split("\\|")));
+        }
+        Map<String, String> ids = new HashMap<>();
+        try (Transaction tx = graphDb.beginTx()) {
+            for (ImportConcept concept : concepts)
+                ids.put(concept.prefName, (String) ConceptLookup.lookupSingleConceptBySourceId(tx, concept.coordinates.sourceId).getProperty(ConceptConstants.PROP_ID));
+        }
+        // The root has no hypernyms and thus no line.
+        assertEquals(chainLength + 3, hypernymsById.size());
+        assertEquals(Set.of(ids.get("A")), hypernymsById.get(ids.get("B")));
+        assertEquals(Set.of(ids.get("A"), ids.get("B"), ids.get("C")), hypernymsById.get(ids.get("D")));
+        Set<String> lastHypernyms = hypernymsById.get(ids.get("E" + (chainLength - 1)));
+        assertEquals(chainLength + 3, lastHypernyms.size());
+        assertTrue(lastHypernyms.contains(ids.get("A")));
+        assertTrue(lastHypernyms.contains(ids.get("E" + (chainLength - 2))));
+    }
+
+    @Test
+    public void hypernymsAboveHollowNodes() {
+        // A <- H <- C with a hollow H: the indexed and the traversed hypernyms of C must both be A only.
+        String facetId = "fid0";
+        RelationshipType relType = RelationshipType.withName(ConceptEdgeTypes.IS_BROADER_THAN.name() + "_" + facetId);
+        long aId;
+        long cId;
+        try (Transaction tx = graphDb.beginTx()) {
+            AncestorIndex.markCompleteIfEmpty(tx);
+            Node a = tx.createNode(CONCEPT);
+            Node h = tx.createNode(CONCEPT, ConceptLabel.HOLLOW);
+            Node c = tx.createNode(CONCEPT);
+            a.createRelationshipTo(h, relType);
+            h.createRelationshipTo(c, relType);
+            AncestorIndex.addParent(a, h, facetId);
+            AncestorIndex.addParent(h, c, facetId);
+            aId = a.getId();
+            cId = c.getId();
+            tx.commit();
+        }
+        try (Transaction tx = graphDb.beginTx()) {
+            Node c = tx.getNodeById(cId);
+            long[] indexed = new HypernymClosure(new RelationshipType[]{relType}, 10, tx, new String[]{facetId}).getHypernyms(c);
+            long[] traversed = new HypernymClosure(new RelationshipType[]{relType}, 10, null, null).getHypernyms(c);
+            assertArrayEquals(new long[]{aId}, indexed);
+            assertArrayEquals(new long[]{aId}, traversed);
+        }
+    }
+
 }
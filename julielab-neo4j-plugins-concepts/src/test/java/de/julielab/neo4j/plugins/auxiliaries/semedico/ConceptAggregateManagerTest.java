@@ -10,6 +10,7 @@ import de.julielab.neo4j.plugins.concepts.*;
 import de.julielab.neo4j.plugins.concepts.ConceptAggregateManager.CopyAggregatePropertiesStatistics;
 import de.julielab.neo4j.plugins.datarepresentation.*;
 import de.julielab.neo4j.plugins.datarepresentation.constants.AggregateConstants;
+import de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants;
 import de.julielab.neo4j.plugins.datarepresentation.constants.NodeIDPrefixConstants;
 import de.julielab.neo4j.plugins.datarepresentation.util.ConceptsJsonSerializer;
 import de.julielab.neo4j.plugins.test.TestUtilities;
@@ -29,6 +30,8 @@ import java.io.ByteArrayInputStream;
 import java.util.*;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
@@ -147,6 +150,110 @@ public class ConceptAggregateManagerTest {
         }
     }
 
+    @Test
+    public void testCopyAggregatePropertiesBatched() {
+        Label aggLabel = Label.label("TEST_AGG");
+        String[] copyProperties = new String[]{"name", "numbers", "synonyms"};
+        int numAggregates = 7;
+        try (Transaction tx = graphDb.beginTx()) {
+            for (int i = 0; i < numAggregates; i++) {
+                Node aggregate = tx.createNode(ConceptLabel.AGGREGATE, aggLabel);
+                aggregate.setProperty(ConceptConstants.PROP_COPY_PROPERTIES, copyProperties);
+                for (String name : List.of("name" + i, "name" + i, "other")) {
+                    Node element = tx.createNode();
+                    element.setProperty("name", name);
+                    element.setProperty("numbers", new long[]{i, 42});
+                    aggregate.createRelationshipTo(element, ConceptEdgeTypes.HAS_ELEMENT);
+                }
+            }
+            // An element aggregate is processed once and before its parents.
+            Node elementAggregate = tx.findNodes(aggLabel).next();
+            for (int i = 0; i < 2; i++) {
+                Node parent = tx.createNode(ConceptLabel.AGGREGATE, aggLabel);
+                parent.setProperty(ConceptConstants.PROP_COPY_PROPERTIES, copyProperties);
+                parent.createRelationshipTo(elementAggregate, ConceptEdgeTypes.HAS_ELEMENT);
+            }
+            tx.commit();
+        }
+        TestUtilities.withSystemProperty(AggregatePropertyCopier.SYSPROP_NUM_WORKERS, "2", () -> {
+            AggregatePropertyCopier copier = new AggregatePropertyCopier(graphDb, List.of(aggLabel), false, 2, log);
+            assertEquals(numAggregates + 2, copier.copy());
+            // 3 elements with 2 properties for each aggregate and the copied name and numbers of the element aggregate
+            // for each parent
+            assertEquals(numAggregates * 3 + 2, copier.getStatistics().numElements);
+            assertEquals(numAggregates * 3 * 2 + 4, copier.getStatistics().numProperties);
+        });
+        try (Transaction tx = graphDb.beginTx()) {
+            for (Node aggregate : tx.findNodes(aggLabel).stream().collect(Collectors.toList())) {
+                String name = (String) aggregate.getProperty("name");
+                assertTrue(name, name.startsWith("name"));
+                if (aggregate.getDegree(ConceptEdgeTypes.HAS_ELEMENT, Direction.OUTGOING) == 3)
+                    assertArrayEquals(new String[]{"other"}, (String[]) aggregate.getProperty("name" + AggregateConstants.SUFFIX_DIVERGENT_ELEMENT_ROPERTY));
+                long[] numbers = (long[]) aggregate.getProperty("numbers");
+                assertEquals(2, numbers.length);
+                assertEquals(42, numbers[1]);
+            }
+        }
+    }
+
+    @Test
+    public void testCopyAggregatePropertiesMixedTypes() {
+        try (Transaction tx = graphDb.beginTx()) {
+            Node aggregate = tx.createNode(ConceptLabel.AGGREGATE);
+            Object[][] elementValues = {{new int[]{1, 2}, new String[]{"a"}, 2L}, {new long[]{2, 3}, new long[]{4}, 1},
+                    {new double[]{0.5}, new String[]{"b"}, 2L}, {new int[]{1}, new String[]{"a"}, (short) 3}};
+            for (Object[] values : elementValues) {
+                Node element = tx.createNode();
+                element.setProperty("numbers", values[0]);
+                element.setProperty("mixed", values[1]);
+                element.setProperty("count", values[2]);
+                aggregate.createRelationshipTo(element, ConceptEdgeTypes.HAS_ELEMENT);
+            }
+            ConceptAggregateManager.copyAggregateProperties(aggregate, false, new String[]{"numbers", "mixed", "count"}, null);
+            // int[] and long[] become long values, together with double[] they become doubles
+            assertArrayEquals(new double[]{1, 2, 3, 0.5}, (double[]) aggregate.getProperty("numbers"), 0);
+            assertArrayEquals(new String[]{"a", "4", "b"}, (String[]) aggregate.getProperty("mixed"));
+            assertEquals(2L, aggregate.getProperty("count"));
+            // The minority values 1 and 3 are an int and a short
+            assertArrayEquals(new long[]{1, 3}, (long[]) aggregate.getProperty("count" + AggregateConstants.SUFFIX_DIVERGENT_ELEMENT_ROPERTY));
+        }
+    }
+
+    @Test
+    public void testDeleteAggregatesBatchWise() {
+        Label aggLabel = Label.label("TEST_AGG");
+        Label otherAggLabel = Label.label("OTHER_TEST_AGG");
+        int numAggregates = 50;
+        int numElements = 10;
+        try (Transaction tx = graphDb.beginTx()) {
+            List<Node> elements = new ArrayList<>();
+            for (int i = 0; i < numElements; i++)
+                elements.add(tx.createNode(ConceptLabel.CONCEPT));
+            // Elements are shared between aggregates of different chunks which the workers must lock without
+            // deadlocks.
+            for (int i = 0; i < numAggregates; i++) {
+                Node aggregate = i % 5 == 0 ? tx.createNode(ConceptLabel.AGGREGATE, aggLabel, otherAggLabel) : tx.createNode(ConceptLabel.AGGREGATE, aggLabel);
+                aggregate.createRelationshipTo(elements.get(i % numElements), ConceptEdgeTypes.HAS_ELEMENT);
+                aggregate.createRelationshipTo(elements.get((i * 7 + 3) % numElements), ConceptEdgeTypes.HAS_ELEMENT);
+            }
+            // A concept that is not an aggregate only loses the label.
+            elements.get(0).addLabel(aggLabel);
+            tx.commit();
+        }
+        TestUtilities.withSystemProperty(AggregateDeleter.SYSPROP_NUM_WORKERS, "4", () -> {
+            Map<String, Long> deletionCounts = new AggregateDeleter(graphDb, List.of(aggLabel, otherAggLabel), 3, log).delete();
+            assertEquals(Long.valueOf(numAggregates), deletionCounts.get("numNodes"));
+            assertEquals(Long.valueOf(numAggregates * 2), deletionCounts.get("numRelationships"));
+        });
+        try (Transaction tx = graphDb.beginTx()) {
+            assertEquals(0, tx.findNodes(ConceptLabel.AGGREGATE).stream().count());
+            assertEquals(0, tx.findNodes(aggLabel).stream().count());
+            assertEquals(0, tx.findNodes(otherAggLabel).stream().count());
+            assertEquals(numElements, tx.findNodes(ConceptLabel.CONCEPT).stream().count());
+            assertEquals(0, tx.getAllRelationships().stream().count());
+        }
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testBuildAggregatesForMappingsSimpleCase() throws Exception {
@@ -424,6 +531,174 @@ public class ConceptAggregateManagerTest {
         }
     }
 
+    @Test
+    public void testBuildAggregatesForEqualNames() {
+        Label gene = Label.label("GENE");
+        Label protein = Label.label("PROTEIN");
+        Set<Long> appleIds = new HashSet<>();
+        Set<Long> pearIds = new HashSet<>();
+        try (Transaction tx = graphDb.beginTx()) {
+            for (Label[] labels : List.of(new Label[]{gene}, new Label[]{gene}, new Label[]{gene, protein})) {
+                Node apple = tx.createNode(labels);
+                apple.setProperty("name", "apple");
+                appleIds.add(apple.getId());
+            }
+            for (Label label : List.of(gene, protein)) {
+                Node pear = tx.createNode(label);
+                pear.setProperty("name", "pear");
+                pearIds.add(pear.getId());
+            }
+            tx.createNode(gene).setProperty("name", "plum");
+            // Existing aggregates are not aggregated again.
+            tx.createNode(gene, ConceptLabel.AGGREGATE).setProperty("name", "plum");
+            tx.commit();
+        }
+        // Force the sort to spill to disk and the aggregates to be created by more than one worker.
+        TestUtilities.withSystemProperties(Map.of(EqualNameAggregateBuilder.SYSPROP_SORT_BUFFER_SIZE, "2",
+                EqualNameAggregateBuilder.SYSPROP_NUM_WORKERS, "2"), () -> {
+            int numAggregates = ConceptAggregateManager.buildAggregatesForEqualNames(graphDb, List.of(gene, protein), "name",
+                    List.of(ConceptLabel.AGGREGATE_EQUAL_NAMES), new String[]{"name"}, log);
+            assertEquals(2, numAggregates);
+        });
+        try (Transaction tx = graphDb.beginTx()) {
+            Node appleAggregate = tx.findNode(ConceptLabel.AGGREGATE_EQUAL_NAMES, "id", NodeIDPrefixConstants.AGGREGATE_TERM + 0);
+            Node pearAggregate = tx.findNode(ConceptLabel.AGGREGATE_EQUAL_NAMES, "id", NodeIDPrefixConstants.AGGREGATE_TERM + 1);
+            assertTrue(appleAggregate.hasLabel(ConceptLabel.AGGREGATE));
+            assertArrayEquals(new String[]{ConceptLabel.AGGREGATE_EQUAL_NAMES.name()}, (String[]) appleAggregate.getProperty(ConceptConstants.PROP_MAPPING_TYPE));
+            Function<Node, Set<Long>> elementIds = aggregate -> StreamSupport.stream(aggregate.getRelationships(Direction.OUTGOING, ConceptEdgeTypes.HAS_ELEMENT).spliterator(), false)
+                    .map(r -> r.getEndNode().getId()).collect(Collectors.toSet());
+            assertEquals(appleIds, elementIds.apply(appleAggregate));
+            assertEquals(pearIds, elementIds.apply(pearAggregate));
+            assertEquals(2, tx.findNodes(ConceptLabel.AGGREGATE_EQUAL_NAMES).stream().count());
+        }
+    }
+
+    /**
+     * Builds the mapping aggregates of a synthetic graph of mapping chains in batches. The number of mapping
+     * relationships can be set with the system property <tt>mappingaggregates.benchmark.numedges</tt>, e.g. to
+     * 10000000 to measure the throughput on a large graph.
+     */
+    @Test
+    public void testBuildAggregatesForMappingsBatched() {
+        int numEdges = Integer.getInteger("mappingaggregates.benchmark.numedges", 20000);
+        int chainLength = 5;
+        int numChains = numEdges / (chainLength - 1);
+        int numUnmapped = numChains / 10;
+        Label aggregatedTermsLabel = Label.label("EQUAL_AGG");
+        RelationshipType isMappedTo = ConceptEdgeTypes.IS_MAPPED_TO;
+        for (int chain = 0; chain < numChains; ) {
+            try (Transaction tx = graphDb.beginTx()) {
+                for (int i = 0; i < 10000 && chain < numChains; i++, chain++) {
+                    Node previous = tx.createNode(ConceptLabel.CONCEPT);
+                    for (int j = 1; j < chainLength; j++) {
+                        Node next = tx.createNode(ConceptLabel.CONCEPT);
+                        previous.createRelationshipTo(next, isMappedTo).setProperty(ConceptConstants.PROP_MAPPING_TYPE, new String[]{"EQUAL"});
+                        previous = next;
+                    }
+                    // Mappings of other types do not connect the chains.
+                    if (chain > 0 && chain % 100 == 0)
+                        previous.createRelationshipTo(tx.createNode(ConceptLabel.CONCEPT), isMappedTo).setProperty(ConceptConstants.PROP_MAPPING_TYPE, new String[]{"OTHER"});
+                }
+                tx.commit();
+            }
+        }
+        try (Transaction tx = graphDb.beginTx()) {
+            for (int i = 0; i < numUnmapped; i++)
+                tx.createNode(ConceptLabel.CONCEPT);
+            tx.commit();
+        }
+        TestUtilities.withSystemProperty(MappingAggregateBuilder.SYSPROP_NUM_WORKERS, "4", () -> {
+            long time = System.currentTimeMillis();
+            int numAggregates = ConceptAggregateManager.buildAggregatesForMappings(graphDb, Set.of("EQUAL"), null, aggregatedTermsLabel, log);
+            time = System.currentTimeMillis() - time;
+            log.info("Built %s mapping aggregates over %s mapping relationships in %s ms.", numAggregates, numEdges, time);
+            assertEquals(numChains, numAggregates);
+        });
+        try (Transaction tx = graphDb.beginTx()) {
+            try (ResourceIterator<Node> aggregates = tx.findNodes(ConceptLabel.AGGREGATE)) {
+                while (aggregates.hasNext()) {
+                    Node aggregate = aggregates.next();
+                    assertTrue(aggregate.hasLabel(aggregatedTermsLabel));
+                    assertEquals(chainLength, aggregate.getDegree(ConceptEdgeTypes.HAS_ELEMENT, Direction.OUTGOING));
+                }
+            }
+            // The aggregate elements do not get the aggregated label, all other concepts do.
+            long numOtherTypeTargets = (numChains - 1) / 100;
+            assertEquals(numChains + numOtherTypeTargets + numUnmapped, tx.findNodes(aggregatedTermsLabel).stream().count());
+            assertTrue(tx.findNode(aggregatedTermsLabel, ConceptConstants.PROP_ID, NodeIDPrefixConstants.AGGREGATE_TERM + (numChains - 1)).hasLabel(ConceptLabel.AGGREGATE));
+        }
+    }
+
+    @Test
+    public void testUpdateAggregatesForMappings() throws Exception {
+        ConceptManager cm = new ConceptManager(graphDBMS, log);
+        cm.insertConcepts(new ImportConcepts(Lists.newArrayList(cs.apply("a", "a"), cs.apply("b", "b"), cs.apply("c", "c"),
+                cs.apply("d", "d"), cs.apply("e", "e")), FacetManagerTest.getImportFacet()));
+        List<ImportMapping> mappings = List.of(new ImportMapping("a", "b", "EQUAL"), new ImportMapping("c", "d", "EQUAL"));
+        cm.insertMappings(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(mappings).getBytes(UTF_8)));
+        Label aggLabel = Label.label("EQUAL_AGG");
+        Set<String> allowedMappingTypes = Set.of("EQUAL");
+
+        // Without existing aggregates, the update builds all of them from the change log.
+        try (Transaction tx = graphDb.beginTx()) {
+            MappingAggregateBuilder.UpdateStatistics stats = ConceptAggregateManager.updateAggregatesForMappings(tx, allowedMappingTypes, null, aggLabel, true, log);
+            assertEquals(2, stats.numCreatedAggregates);
+            assertEquals(0, stats.numDeletedAggregates);
+            tx.commit();
+        }
+        try (Transaction tx = graphDb.beginTx()) {
+            assertEquals(2, tx.findNodes(ConceptLabel.AGGREGATE).stream().count());
+            assertTrue(conceptBySrcId(tx, "e").hasLabel(aggLabel));
+            assertFalse(tx.findNodes(ConceptLabel.MAPPING_CHANGED).hasNext());
+            assertFalse(tx.findNodes(ConceptLabel.PREF_NAME_CHANGED).hasNext());
+        }
+
+        // Merge {a, b} with c, split d off and add a new concept f.
+        cm.insertMappings(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(List.of(new ImportMapping("b", "c", "EQUAL"))).getBytes(UTF_8)));
+        assertEquals(1, cm.deleteMappings(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(List.of(new ImportMapping("d", "c", "EQUAL"))).getBytes(UTF_8))));
+        ImportConcepts changedConcepts = new ImportConcepts(Lists.newArrayList(cs.apply("a2", "a"), cs.apply("f", "f")), FacetManagerTest.getImportFacet());
+        changedConcepts.setImportOptions(new ImportOptions());
+        changedConcepts.getImportOptions().overridePreferredName = true;
+        cm.insertConcepts(changedConcepts);
+        try (Transaction tx = graphDb.beginTx()) {
+            assertTrue(conceptBySrcId(tx, "a").hasLabel(ConceptLabel.PREF_NAME_CHANGED));
+            assertTrue(conceptBySrcId(tx, "d").hasLabel(ConceptLabel.MAPPING_CHANGED));
+            assertFalse(conceptBySrcId(tx, "e").hasLabel(ConceptLabel.MAPPING_CHANGED));
+        }
+
+        // This time in committed batches.
+        MappingAggregateBuilder.UpdateStatistics stats = ConceptAggregateManager.updateAggregatesForMappings(graphDb, allowedMappingTypes, null, aggLabel, true, log);
+        assertEquals(1, stats.numCreatedAggregates);
+        assertEquals(2, stats.numDeletedAggregates);
+        assertEquals(1, stats.numRefreshedAggregates);
+        try (Transaction tx = graphDb.beginTx()) {
+            List<Node> aggregates = tx.findNodes(ConceptLabel.AGGREGATE).stream().collect(Collectors.toList());
+            assertEquals(1, aggregates.size());
+            Node aggregate = aggregates.get(0);
+            assertTrue(aggregate.hasLabel(aggLabel));
+            Set<String> elementIds = StreamSupport.stream(aggregate.getRelationships(Direction.OUTGOING, ConceptEdgeTypes.HAS_ELEMENT).spliterator(), false)
+                    .map(r -> NodeUtilities.getSourceIdArray(r.getEndNode())[0]).collect(Collectors.toSet());
+            assertEquals(Set.of("a", "b", "c"), elementIds);
+            // The properties of the new aggregate have been copied from its elements.
+            assertTrue(aggregate.hasProperty(ConceptConstants.PROP_PREF_NAME));
+            for (String srcId : List.of("d", "e", "f"))
+                assertTrue(srcId, conceptBySrcId(tx, srcId).hasLabel(aggLabel));
+            assertFalse(tx.findNodes(ConceptLabel.MAPPING_CHANGED).hasNext());
+        }
+
+        // A full build covers the change log.
+        cm.insertMappings(new ByteArrayInputStream(ConceptsJsonSerializer.toJson(List.of(new ImportMapping("e", "f", "EQUAL"))).getBytes(UTF_8)));
+        assertEquals(2, ConceptAggregateManager.buildAggregatesForMappings(graphDb, allowedMappingTypes, null, aggLabel, log));
+        try (Transaction tx = graphDb.beginTx()) {
+            assertFalse(tx.findNodes(ConceptLabel.MAPPING_CHANGED).hasNext());
+            assertFalse(tx.findNodes(ConceptLabel.PREF_NAME_CHANGED).hasNext());
+        }
+    }
+
+    private static Node conceptBySrcId(Transaction tx, String srcId) {
+        return ConceptLookup.lookupSingleConceptBySourceId(tx, srcId);
+    }
+
     @Test
     public void someTest() {
         final ConceptManager cm = new ConceptManager(graphDBMS, log);
@@ -0,0 +1,120 @@
+package de.julielab.neo4j.plugins.auxiliaries.semedico;
+
+import de.julielab.neo4j.plugins.datarepresentation.ConceptCoordinates;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link CoordinatesSet} and {@link CoordinatesMap} against the former string key implementation
+ * {@link StringKeyCoordinatesSet} with random operation sequences. The IDs and sources are drawn from small sets so
+ * that compatible coordinates occur frequently.
+ */
+public class CoordinatesIndexTest {
+    private static final int NUM_RUNS = 200;
+    private static final int NUM_OPERATIONS = 300;
+
+    private static String randomOrNull(Random random, String prefix, int n) {
+        int i = random.nextInt(n + 1);
+        return i == n ? null : prefix + i;
+    }
+
+    private static ConceptCoordinates randomCoordinates(Random random) {
+        ConceptCoordinates coordinates = new ConceptCoordinates();
+        coordinates.originalId = randomOrNull(random, "org", 6);
+        if (coordinates.originalId != null)
+            coordinates.originalSource = "ORG_SOURCE" + random.nextInt(2);
+        // Concepts always have some ID.
+        coordinates.sourceId = coordinates.originalId != null ? randomOrNull(random, "src", 6) : "src" + random.nextInt(6);
+        if (coordinates.sourceId != null)
+            coordinates.source = "SOURCE" + random.nextInt(3);
+        coordinates.uniqueSourceId = random.nextBoolean();
+        return coordinates;
+    }
+
+    private static void assertSameCoordinates(ConceptCoordinates expected, ConceptCoordinates actual) {
+        assertEquals(expected, actual);
+        if (expected != null)
+            assertEquals(expected.uniqueSourceId, actual.uniqueSourceId);
+    }
+
+    private static Node node(long id) {
+        return (Node) Proxy.newProxyInstance(Node.class.getClassLoader(), new Class[]{Node.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getId":
+                    return id;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return Long.hashCode(id);
+                default:
+                    return "node" + id;
+            }
+        });
+    }
+
+    @Test
+    public void testCoordinatesSetAgainstStringKeys() {
+        for (int run = 0; run < NUM_RUNS; run++) {
+            Random random = new Random(run);
+            StringKeyCoordinatesSet expected = new StringKeyCoordinatesSet();
+            CoordinatesSet actual = new CoordinatesSet();
+            for (int i = 0; i < NUM_OPERATIONS; i++) {
+                ConceptCoordinates coordinates = randomCoordinates(random);
+                String message = "run " + run + ", operation " + i + ": " + coordinates;
+                switch (random.nextInt(4)) {
+                    case 0:
+                        assertEquals(message, expected.add(coordinates), actual.add(coordinates));
+                        break;
+                    case 1:
+                        assertEquals(message, expected.contains(coordinates), actual.contains(coordinates));
+                        break;
+                    case 2:
+                        assertEquals(message, expected.contains(coordinates, true), actual.contains(coordinates, true));
+                        break;
+                    default:
+                        assertSameCoordinates(expected.get(coordinates), actual.get(coordinates));
+                }
+            }
+            Set<ConceptCoordinates> expectedElements = new HashSet<>();
+            expected.forEach(expectedElements::add);
+            Set<ConceptCoordinates> actualElements = new HashSet<>();
+            actual.forEach(actualElements::add);
+            assertEquals(expectedElements, actualElements);
+            assertEquals(expected.isEmpty(), actual.isEmpty());
+        }
+    }
+
+    @Test
+    public void testCoordinatesMapAgainstStringKeys() {
+        for (int run = 0; run < NUM_RUNS; run++) {
+            Random random = new Random(run);
+            // The former CoordinatesMap: a StringKeyCoordinatesSet to find the compatible key plus a hash map.
+            StringKeyCoordinatesSet expectedKeys = new StringKeyCoordinatesSet();
+            Map<ConceptCoordinates, Node> expectedNodes = new HashMap<>();
+            CoordinatesMap actual = new CoordinatesMap();
+            for (int i = 0; i < NUM_OPERATIONS; i++) {
+                ConceptCoordinates coordinates = randomCoordinates(random);
+                String message = "run " + run + ", operation " + i + ": " + coordinates;
+                if (random.nextBoolean()) {
+                    Node node = node(i);
+                    if (!expectedKeys.contains(coordinates)) {
+                        expectedKeys.add(coordinates);
+                        expectedNodes.put(coordinates, node);
+                    }
+                    actual.put(coordinates, node);
+                } else {
+                    ConceptCoordinates expectedKey = expectedKeys.get(coordinates);
+                    assertSame(message, expectedKey != null ? expectedNodes.get(expectedKey) : null, actual.get(coordinates));
+                    assertEquals(message, expectedKeys.contains(coordinates), actual.containsKey(coordinates));
+                }
+            }
+            assertEquals(expectedNodes.size(), actual.size());
+            assertEquals(expectedKeys.isEmpty(), actual.isEmpty());
+        }
+    }
+}
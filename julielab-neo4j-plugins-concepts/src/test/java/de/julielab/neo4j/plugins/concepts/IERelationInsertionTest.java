@@ -30,6 +30,7 @@ import static de.julielab.neo4j.plugins.datarepresentation.constants.ConceptCons
 import static de.julielab.neo4j.plugins.datarepresentation.constants.NodeConstants.PROP_ID;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 import static org.neo4j.configuration.GraphDatabaseSettings.DEFAULT_DATABASE_NAME;
 import static org.neo4j.logging.FormattedLogFormat.PLAIN;
 
@@ -360,6 +361,104 @@ public class IERelationInsertionTest {
         }
     }
 
+    @Test
+    public void testInsertAggregatedIERelations() {
+        ImportConcepts importConcepts = getTestConcepts(2);
+
+        ImportIERelations relations = new ImportIERelations(PROP_ID);
+        RelationshipType regulationType = RelationshipType.withName("regulation");
+        // The same pair is mentioned twice in docId1, once with the arguments swapped. The unknown concept is skipped.
+        relations.addRelationDocument(ImportIERelationDocument.of(
+                "docId1", false, ImportIETypedRelations.of(
+                        regulationType.name(), List.of(
+                                ImportIERelation.of(2, ImportIERelationArgument.of("tid0"), ImportIERelationArgument.of("tid1")),
+                                ImportIERelation.of(5, ImportIERelationArgument.of("tid1"), ImportIERelationArgument.of("tid0"), ImportIERelationArgument.of("tid42"))))));
+        relations.addRelationDocument(ImportIERelationDocument.of(
+                "docId0", false, ImportIETypedRelations.of(
+                        regulationType.name(), ImportIERelation.of(
+                                1, ImportIERelationArgument.of("tid0"), ImportIERelationArgument.of("tid1")))));
+
+        ConceptManager cm = new ConceptManager(graphDBMS, log);
+        cm.insertConcepts(importConcepts);
+        cm.insertIERelations(relations);
+
+        try (Transaction tx = graphDb.beginTx()) {
+            Node n = tx.findNode(CONCEPT, PROP_ID, "tid0");
+            Relationship rs = n.getSingleRelationship(regulationType, Direction.OUTGOING);
+            assertThat(rs).isNotNull();
+            assertThat(rs.getProperty(PROP_TOTAL_COUNT)).isEqualTo(8);
+            assertThat((String[]) rs.getProperty(PROP_DOC_IDS)).containsExactly("docId0", "docId1");
+            assertThat((int[]) rs.getProperty(PROP_COUNTS)).containsExactly(1, 7);
+        }
+
+        // A repeated import of a document replaces its counts.
+        relations = new ImportIERelations(PROP_ID);
+        relations.addRelationDocument(ImportIERelationDocument.of(
+                "docId1", false, ImportIETypedRelations.of(
+                        regulationType.name(), ImportIERelation.of(
+                                3, ImportIERelationArgument.of("tid1"), ImportIERelationArgument.of("tid0")))));
+        cm.insertIERelations(relations);
+
+        try (Transaction tx = graphDb.beginTx()) {
+            Node n = tx.findNode(CONCEPT, PROP_ID, "tid0");
+            assertThat(n.getDegree(regulationType)).isEqualTo(1);
+            Relationship rs = n.getSingleRelationship(regulationType, Direction.OUTGOING);
+            assertThat(rs.getProperty(PROP_TOTAL_COUNT)).isEqualTo(4);
+            assertThat((String[]) rs.getProperty(PROP_DOC_IDS)).containsExactly("docId0", "docId1");
+            assertThat((int[]) rs.getProperty(PROP_COUNTS)).containsExactly(1, 3);
+        }
+    }
+
+    @Test
+    public void testInsertCompactDocumentCounts() {
+        ConceptManager cm = new ConceptManager(graphDBMS, log);
+        cm.insertConcepts(getTestConcepts(2));
+        RelationshipType regulationType = RelationshipType.withName("regulation");
+        ImportIERelations relations = new ImportIERelations(PROP_ID);
+        // Two documents in the same container and one in another container.
+        for (String docId : List.of("31234567", "12", "31234570")) {
+            relations.addRelationDocument(ImportIERelationDocument.of(
+                    docId, false, ImportIETypedRelations.of(
+                            regulationType.name(), ImportIERelation.of(
+                                    docId.length(), ImportIERelationArgument.of("tid0"), ImportIERelationArgument.of("tid1")))));
+        }
+        TestUtilities.withSystemProperty(IERelationDocumentCounts.SYSPROP_COMPACT_DOC_COUNTS, "true", () -> {
+            cm.insertIERelations(relations);
+            // Replace the count of one document.
+            ImportIERelations replacement = new ImportIERelations(PROP_ID);
+            replacement.addRelationDocument(ImportIERelationDocument.of(
+                    "12", false, ImportIETypedRelations.of(
+                            regulationType.name(), ImportIERelation.of(
+                                    5, ImportIERelationArgument.of("tid1"), ImportIERelationArgument.of("tid0")))));
+            cm.insertIERelations(replacement);
+        });
+
+        try (Transaction tx = graphDb.beginTx()) {
+            Relationship rs = tx.findNode(CONCEPT, PROP_ID, "tid0").getSingleRelationship(regulationType, Direction.OUTGOING);
+            assertThat(IERelationDocumentCounts.isCompact(rs)).isTrue();
+            assertThat(rs.hasProperty(PROP_DOC_IDS)).isFalse();
+            assertThat(rs.getPropertyKeys()).filteredOn(k -> k.startsWith(PROP_DOC_COUNTS_PREFIX)).hasSize(2);
+            assertThat(rs.getProperty(PROP_TOTAL_COUNT)).isEqualTo(21);
+            assertThat(IERelationDocumentCounts.getDocumentCounts(rs)).containsExactly(entry("12", 5), entry("31234567", 8), entry("31234570", 8));
+        }
+
+        // A non-numeric document ID converts the relationship to the array format.
+        relations = new ImportIERelations(PROP_ID);
+        relations.addRelationDocument(ImportIERelationDocument.of(
+                "PMC42", false, ImportIETypedRelations.of(
+                        regulationType.name(), ImportIERelation.of(
+                                1, ImportIERelationArgument.of("tid0"), ImportIERelationArgument.of("tid1")))));
+        cm.insertIERelations(relations);
+
+        try (Transaction tx = graphDb.beginTx()) {
+            Relationship rs = tx.findNode(CONCEPT, PROP_ID, "tid0").getSingleRelationship(regulationType, Direction.OUTGOING);
+            assertThat(IERelationDocumentCounts.isCompact(rs)).isFalse();
+            assertThat(rs.getProperty(PROP_TOTAL_COUNT)).isEqualTo(22);
+            assertThat((String[]) rs.getProperty(PROP_DOC_IDS)).containsExactly("12", "31234567", "31234570", "PMC42");
+            assertThat((int[]) rs.getProperty(PROP_COUNTS)).containsExactly(5, 8, 8, 1);
+        }
+    }
+
     @Test
     public void testConcurrentIERelationInsertion() throws InterruptedException {
         ConceptManager cm = new ConceptManager(graphDBMS, log);
@@ -135,6 +135,29 @@ public class IERelationRetrievalTest {
         assertThat(result).contains(expectedResults);
     }
 
+    @Test
+    public void retrieveRelationsAfterOrthologyCacheWarmUp() throws JsonProcessingException {
+        String uriWarmUp = neo4j.httpURI().resolve("concepts/concept_manager/" + ConceptManager.WARM_UP_ORTHOLOGY_CACHE).toString();
+        HTTP.Response response = HTTP.POST(uriWarmUp);
+        assertThat(response.status()).isEqualTo(200);
+        Map<String, Object> status = response.content();
+        // MTOR, SCYL3 and LRRC51 belong to orthology aggregates.
+        assertThat((int) status.get(OrthologyAggregateCache.KEY_NUM_AGGREGATES)).isGreaterThanOrEqualTo(3);
+        assertThat((int) status.get(OrthologyAggregateCache.KEY_NUM_NODES)).isGreaterThan(0);
+
+        ObjectMapper om = new ObjectMapper();
+        String uriRelationRetrieval = neo4j.httpURI().resolve("concepts/concept_manager/" + ConceptManager.RETRIEVE_IE_RELATIONS).toString();
+        response = HTTP.POST(uriRelationRetrieval, om.readValue("{\"a_list\":{\"id_property\":\"sourceIds\",\"ids\":[\"2475\"]},\"relationTypes\":[\"regulation\",\"phosphorylation\",\"binding\"]}", RelationRetrievalRequest.class));
+        assertThat(response.status()).isEqualTo(200);
+        List<Map<String, Object>> result = response.content();
+        assertThat(result).hasSize(3);
+        assertThat(result).contains(Map.of("arg1Name", "MTOR", "arg2Name", "LRRC51", "arg1Id", "genegroup2475", "arg2Id", "toporthology1", "count", 4));
+
+        String uriStatus = neo4j.httpURI().resolve("concepts/concept_manager/" + ConceptManager.GET_ORTHOLOGY_CACHE_STATUS).toString();
+        status = HTTP.GET(uriStatus).content();
+        assertThat(((Number) status.get(OrthologyAggregateCache.KEY_HITS)).longValue()).isGreaterThan(0);
+    }
+
     @Test
     public void retrieveRelationsBetweenTwoNodes() throws JsonProcessingException {
         // Two-sided retrieval scenario.
@@ -208,4 +231,45 @@ public class IERelationRetrievalTest {
                 Map.of("arg1Name", "LOC117183042", "arg2Name","SCYL3", "arg1Id","117183042", "arg2Id","genegroup57147", "count",1)};
         assertThat(result).contains(expectedResults);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void retrieveTopRelations() throws IOException {
+        // MTOR -> SCYL3: 3, MTOR <- LOC117183042: 1, MTOR <- LRRC51: 4
+        ObjectMapper om = new ObjectMapper();
+        String uriRelationRetrieval = neo4j.httpURI().resolve("concepts/concept_manager/" + ConceptManager.RETRIEVE_IE_RELATIONS).toString();
+        HTTP.Response response = HTTP.POST(uriRelationRetrieval, om.readValue("{\"a_list\":{\"id_property\":\"sourceIds\",\"ids\":[\"2475\"]},\"relationTypes\":[\"regulation\",\"phosphorylation\",\"binding\"],\"limit\":2,\"sort\":\"COUNT_DESC\"}", RelationRetrievalRequest.class));
+        assertThat(response.status()).isEqualTo(200);
+        List<Map<String, Object>> result = response.content();
+        assertThat(result).extracting(m -> m.get("arg2Name")).containsExactly("LRRC51", "SCYL3");
+
+        response = HTTP.POST(uriRelationRetrieval, om.readValue("{\"a_list\":{\"id_property\":\"sourceIds\",\"ids\":[\"2475\"]},\"relationTypes\":[\"regulation\",\"phosphorylation\",\"binding\"],\"min_count\":2,\"sort\":\"COUNT_ASC\"}", RelationRetrievalRequest.class));
+        assertThat(response.status()).isEqualTo(200);
+        result = response.content();
+        assertThat(result).extracting(m -> m.get("count")).containsExactly(3, 4);
+
+        // The same as JSON lines
+        response = HTTP.withHeaders("Accept", IERelationRetrieval.MEDIA_TYPE_JSON_LINES).POST(uriRelationRetrieval, om.readValue("{\"a_list\":{\"id_property\":\"sourceIds\",\"ids\":[\"2475\"]},\"relationTypes\":[\"regulation\",\"phosphorylation\",\"binding\"],\"min_count\":2,\"sort\":\"COUNT_ASC\"}", RelationRetrievalRequest.class));
+        assertThat(response.status()).isEqualTo(200);
+        String[] lines = response.rawContent().split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(om.readValue(lines[0], Map.class)).containsAllEntriesOf(Map.of("arg1Name", "MTOR", "arg2Name", "SCYL3", "arg1Id", "genegroup2475", "arg2Id", "genegroup57147", "count", 3));
+        assertThat(om.readValue(lines[1], Map.class)).containsAllEntriesOf(Map.of("arg1Name", "MTOR", "arg2Name", "LRRC51", "arg1Id", "genegroup2475", "arg2Id", "toporthology1", "count", 4));
+    }
+
+    @Test
+    public void absearchParallel() throws JsonProcessingException {
+        // The same as absearch2 but with the smaller list fanned out to multiple workers.
+        ObjectMapper om = new ObjectMapper();
+        String uriRelationRetrieval = neo4j.httpURI().resolve("concepts/concept_manager/" + ConceptManager.RETRIEVE_IE_RELATIONS).toString();
+        HTTP.Response response = HTTP.POST(uriRelationRetrieval, om.readValue("{\"a_list\":{\"id_property\":\"sourceIds\",\"ids\":[\"117183042\",\"genegroup2475\"]},\"b_list\":{\"id_property\":\"sourceIds\",\"ids\":[\"toporthology1\",\"105927877\"]},\"relationTypes\":[\"phosphorylation\",\"regulation\"],\"num_workers\":4,\"time_budget\":60000}", RelationRetrievalRequest.class));
+        assertThat(response.status()).isEqualTo(200);
+        assertThat(response.header(IERelationRetrieval.HEADER_PARTIAL_RESULT)).isEqualTo("false");
+        List<Map<String, Object>> result = response.content();
+        assertThat(result).hasSize(3);
+        Map[] expectedResults = {
+                Map.of("arg1Name", "MTOR", "arg2Name", "SCYL3", "arg1Id", "genegroup2475", "arg2Id", "genegroup57147", "count", 2),
+                Map.of("arg1Name", "MTOR", "arg2Name", "LRRC51", "arg1Id", "genegroup2475", "arg2Id", "toporthology1", "count", 4),
+                Map.of("arg1Name", "LOC117183042", "arg2Name","SCYL3", "arg1Id","117183042", "arg2Id","genegroup57147", "count",1)};
+        assertThat(result).contains(expectedResults);
+    }
+}
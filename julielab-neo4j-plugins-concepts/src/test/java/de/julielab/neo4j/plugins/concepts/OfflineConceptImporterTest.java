@@ -0,0 +1,181 @@
+package de.julielab.neo4j.plugins.concepts;
+
+import de.julielab.neo4j.plugins.ConceptManagerTest;
+import de.julielab.neo4j.plugins.FacetManagerTest;
+import de.julielab.neo4j.plugins.Indexes;
+import de.julielab.neo4j.plugins.datarepresentation.*;
+import de.julielab.neo4j.plugins.datarepresentation.constants.ConceptConstants;
+import de.julielab.neo4j.plugins.datarepresentation.util.ConceptsJsonSerializer;
+import de.julielab.neo4j.plugins.test.TestUtilities;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.cli.ExecutionContext;
+import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.dbms.api.DatabaseManagementServiceBuilder;
+import org.neo4j.graphdb.*;
+import org.neo4j.importer.ImportCommand;
+import org.neo4j.io.fs.DefaultFileSystemAbstraction;
+import org.neo4j.logging.Level;
+import org.neo4j.logging.Log;
+import org.neo4j.logging.log4j.Log4jLogProvider;
+import org.neo4j.logging.log4j.LogConfig;
+import picocli.CommandLine;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.neo4j.configuration.GraphDatabaseSettings.DEFAULT_DATABASE_NAME;
+import static org.neo4j.logging.FormattedLogFormat.PLAIN;
+
+public class OfflineConceptImporterTest {
+    private static GraphDatabaseService graphDb;
+    private static DatabaseManagementService graphDBMS;
+    private static Log log;
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void initialize() {
+        graphDBMS = TestUtilities.getGraphDBMS();
+        graphDb = graphDBMS.database(DEFAULT_DATABASE_NAME);
+        System.setProperty(ConceptLookup.SYSPROP_ID_CACHE_ENABLED, "false");
+        Log4jLogProvider log4jLogProvider = new Log4jLogProvider(LogConfig.createBuilder(System.out, Level.INFO)
+                .withFormat(PLAIN)
+                .withCategory(false)
+                .build());
+        log = log4jLogProvider.getLog(ConceptManagerTest.class);
+    }
+
+    @AfterClass
+    public static void shutdown() {
+        graphDBMS.shutdown();
+    }
+
+    @Before
+    public void cleanForTest() {
+        TestUtilities.deleteEverythingInDB(graphDb);
+        new Indexes(graphDBMS).createIndexes((String) null);
+    }
+
+    private static ImportConcepts getTestData() {
+        List<ImportConcept> concepts = new ArrayList<>();
+        ImportConcept c0 = new ImportConcept("prefname0", List.of("syn", "prefname0"), "a \"quoted\"\ndescription",
+                new ConceptCoordinates("CONCEPT0", "TEST_DATA", true), new ConceptCoordinates("CONCEPT1", "TEST_DATA", true));
+        ImportConceptRelationship related = new ImportConceptRelationship(new ConceptCoordinates("CONCEPT2", "TEST_DATA", true), "related");
+        related.addProperty("weight", "high");
+        c0.relationships = List.of(related);
+        concepts.add(c0);
+        // The parent of CONCEPT1 is not part of the data and becomes a hollow root.
+        concepts.add(new ImportConcept("prefname1", new ConceptCoordinates("CONCEPT1", "TEST_DATA", true),
+                new ConceptCoordinates("HOLLOW_PARENT", "TEST_DATA", true)));
+        ImportConcept c2 = new ImportConcept("prefname2", new ConceptCoordinates("CONCEPT2", "TEST_DATA", "org2", "orgsrc", true));
+        c2.generalLabels = List.of("TESTLABEL");
+        c2.additionalProperties = Map.of("custom", 42);
+        c2.additionalCoordinates = List.of(new ConceptCoordinates("alt2", "OTHER", false));
+        concepts.add(c2);
+        ImportConcept c3 = new ImportConcept("prefname3", new ConceptCoordinates("CONCEPT3", "TEST_DATA", true));
+        c3.relationships = List.of(new ImportConceptRelationship(new ConceptCoordinates("TARGET", "TEST_DATA", true), "related"));
+        concepts.add(c3);
+        // The same concept again; its data is merged into the existing node.
+        concepts.add(new ImportConcept("prefname0", List.of("syn2"), Collections.emptyList(),
+                new ConceptCoordinates("CONCEPT0", "TEST_DATA", true), new ConceptCoordinates("CONCEPT2", "TEST_DATA", true)));
+        ImportConcept c5 = new ImportConcept("prefname5", new ConceptCoordinates("CONCEPT5", "TEST_DATA", true));
+        c5.eligibleForFacetRoot = false;
+        concepts.add(c5);
+        return new ImportConcepts(concepts, FacetManagerTest.getImportFacet());
+    }
+
+    @Test
+    public void testSameGraphAsTransactionalImport() throws Exception {
+        String json = ConceptsJsonSerializer.toJson(getTestData());
+        new ConceptManager(graphDBMS, log).insertConcepts(new ByteArrayInputStream(json.getBytes(UTF_8)));
+        List<String> expectedGraph = describeGraph(graphDb);
+        Set<String> expectedRelationshipTypes = getRelationshipTypeNames(graphDb);
+
+        File directory = folder.newFolder();
+        Map<String, Object> response = new OfflineConceptImporter(log).writeImportFiles(new ByteArrayInputStream(json.getBytes(UTF_8)), directory);
+        assertThat(response).containsEntry(ConceptManager.KEY_FACET_ID, "fid0");
+        File home = folder.newFolder();
+        List<String> args = new ArrayList<>(OfflineConceptImporter.getImportArguments(directory));
+        args.add("--database=" + DEFAULT_DATABASE_NAME);
+        ExecutionContext ctx = new ExecutionContext(home.toPath(), home.toPath().resolve("conf"), System.out, System.err, new DefaultFileSystemAbstraction());
+        assertThat(new CommandLine(new ImportCommand(ctx)).execute(args.toArray(new String[0]))).isEqualTo(0);
+        DatabaseManagementService importedDbms = new DatabaseManagementServiceBuilder(home.toPath()).build();
+        List<String> offlineGraph;
+        Set<String> offlineRelationshipTypes;
+        try {
+            offlineGraph = describeGraph(importedDbms.database(DEFAULT_DATABASE_NAME));
+            offlineRelationshipTypes = getRelationshipTypeNames(importedDbms.database(DEFAULT_DATABASE_NAME));
+        } finally {
+            importedDbms.shutdown();
+        }
+
+        assertThat(offlineRelationshipTypes).isEqualTo(expectedRelationshipTypes)
+                .contains(FacetRelationshipTypes.broaderThanInFacet("fid0").name(), ConceptEdgeTypes.IS_BROADER_THAN.name(),
+                        ConceptEdgeTypes.HAS_ROOT_CONCEPT.name());
+        assertThat(offlineGraph).containsExactlyInAnyOrderElementsOf(expectedGraph);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAggregatesNotSupported() throws Exception {
+        ImportConcepts importConcepts = getTestData();
+        importConcepts.getConceptsAsList().add(new ImportConcept(List.of(new ConceptCoordinates("CONCEPT0", "TEST_DATA", true)), List.of(ConceptConstants.PROP_PREF_NAME)));
+        String json = ConceptsJsonSerializer.toJson(importConcepts);
+        new OfflineConceptImporter(log).writeImportFiles(new ByteArrayInputStream(json.getBytes(UTF_8)), folder.newFolder());
+    }
+
+    /**
+     * Describes each node and relationship by its labels, properties and, for relationships, the descriptions of
+     * its nodes. The derived index structures are left out since they are built after an offline import.
+     */
+    private List<String> describeGraph(GraphDatabaseService db) {
+        List<String> descriptions = new ArrayList<>();
+        try (Transaction tx = db.beginTx()) {
+            for (Node node : tx.getAllNodes()) {
+                if (isIndexNode(node))
+                    continue;
+                descriptions.add(describeNode(node));
+                for (Relationship rel : node.getRelationships(Direction.OUTGOING))
+                    descriptions.add(describeNode(node) + "-[" + rel.getType().name() + " " + describeProperties(rel) + "]->" + describeNode(rel.getEndNode()));
+            }
+        }
+        return descriptions;
+    }
+
+    private Set<String> getRelationshipTypeNames(GraphDatabaseService db) {
+        Set<String> typeNames = new TreeSet<>();
+        try (Transaction tx = db.beginTx()) {
+            for (Relationship rel : tx.getAllRelationships()) {
+                if (!isIndexNode(rel.getStartNode()) && !isIndexNode(rel.getEndNode()))
+                    typeNames.add(rel.getType().name());
+            }
+        }
+        return typeNames;
+    }
+
+    private boolean isIndexNode(Node node) {
+        return node.hasLabel(SourceIdIndex.SourceIdLabel.SOURCE_ID) || node.hasLabel(SourceIdIndex.SourceIdLabel.SOURCE_ID_INDEX)
+                || node.hasLabel(AncestorIndex.AncestorIndexLabel.ANCESTOR_INDEX);
+    }
+
+    private String describeNode(Node node) {
+        String labels = StreamSupport.stream(node.getLabels().spliterator(), false).map(Label::name).sorted().collect(Collectors.joining(","));
+        return "(" + labels + " " + describeProperties(node) + ")";
+    }
+
+    private String describeProperties(Entity entity) {
+        Map<String, String> properties = new TreeMap<>();
+        for (String key : entity.getPropertyKeys()) {
+            if (key.startsWith(AncestorIndex.PROP_ANCESTORS_PREFIX))
+                continue;
+            Object value = entity.getProperty(key);
+            properties.put(key, value.getClass().getSimpleName() + ":" + Arrays.deepToString(new Object[]{value}));
+        }
+        return properties.toString();
+    }
+}
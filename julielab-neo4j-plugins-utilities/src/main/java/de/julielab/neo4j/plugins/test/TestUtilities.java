@@ -15,6 +15,7 @@ import java.io.File;
 import java.lang.reflect.Field;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import static org.junit.Assert.assertFalse;
@@ -81,4 +82,51 @@ public class TestUtilities {
 		return managementService;
 	}
 
+	/**
+	 * Runs <tt>code</tt> with the system property <tt>key</tt> set to <tt>value</tt> and clears the property afterwards.
+	 */
+	public static <E extends Exception> void withSystemProperty(String key, String value, ThrowingRunnable<E> code) throws E {
+		withSystemProperties(Map.of(key, value), code);
+	}
+
+	/**
+	 * Runs <tt>code</tt> with the given system properties set and clears them afterwards.
+	 */
+	public static <E extends Exception> void withSystemProperties(Map<String, String> properties, ThrowingRunnable<E> code) throws E {
+		TestUtilities.<Void, E>callWithSystemProperties(properties, () -> {
+			code.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Returns the result of <tt>code</tt> run with the system property <tt>key</tt> set to <tt>value</tt> and clears the
+	 * property afterwards.
+	 */
+	public static <T, E extends Exception> T callWithSystemProperty(String key, String value, ThrowingSupplier<T, E> code) throws E {
+		return callWithSystemProperties(Map.of(key, value), code);
+	}
+
+	/**
+	 * Returns the result of <tt>code</tt> run with the given system properties set and clears them afterwards.
+	 */
+	public static <T, E extends Exception> T callWithSystemProperties(Map<String, String> properties, ThrowingSupplier<T, E> code) throws E {
+		properties.forEach(System::setProperty);
+		try {
+			return code.get();
+		} finally {
+			properties.keySet().forEach(System::clearProperty);
+		}
+	}
+
+	@FunctionalInterface
+	public interface ThrowingRunnable<E extends Exception> {
+		void run() throws E;
+	}
+
+	@FunctionalInterface
+	public interface ThrowingSupplier<T, E extends Exception> {
+		T get() throws E;
+	}
+
 }